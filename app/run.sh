@@ -0,0 +1,47 @@
+#!/bin/sh
+# Runs the editor from an application class-data sharing (AppCDS) archive,
+# so the JDK, JavaFX and editor classes loaded at startup are mapped from
+# the archive rather than read, parsed and verified on every launch.
+#
+# The first run after a build is a training run: it starts the editor,
+# reopens the last database and exits once its names are shown, recording
+# the classes loaded in target/editor.jsa. The training run, and any run
+# with -Dassignment3.metricsDumpSeconds=<seconds>, prints the startup timer,
+# measured from the start of the JVM:
+#   Startup: window shown after <ms> ms
+#   Startup: first names shown after <ms> ms
+#
+# Build first with: mvn -B package
+# The archive needs JDK 13 or later; older JDKs run the editor without one.
+# Usage: app/run.sh [JVM options, e.g. -Dassignment3.reopenLast=false]
+set -e
+cd "$(dirname "$0")"
+jar=target/superheroes-database-1.0-SNAPSHOT.jar
+archive=target/editor.jsa
+
+# from Java 11 on, JavaFX is the library Maven downloaded for the build
+version=$(sed -n 's:.*<javafx.version>\(.*\)</javafx.version>.*:\1:p' ../pom.xml)
+fx=
+for module in base graphics controls fxml; do
+	for f in "$HOME/.m2/repository/org/openjfx/javafx-$module/$version/javafx-$module-$version"-*.jar; do
+		if [ -f "$f" ]; then
+			fx="$fx${fx:+:}$f"
+		fi
+	done
+done
+modules=
+if [ -n "$fx" ]; then
+	modules="--module-path $fx --add-modules javafx.controls,javafx.fxml"
+fi
+
+cds=
+feature=$(java -version 2>&1 | sed -n 's/.*version "\([0-9]*\).*/\1/p' | head -n 1)
+if [ "${feature:-0}" -ge 13 ]; then
+	if [ ! -f "$archive" ] || [ "$jar" -nt "$archive" ]; then
+		echo "Training the class-data sharing archive $archive"
+		java -XX:ArchiveClassesAtExit="$archive" -Dassignment3.exitAfterStartup=true \
+			$modules -cp "$jar" "$@" assignment3.CharacterEditor || { rm -f "$archive"; exit 1; }
+	fi
+	cds="-XX:SharedArchiveFile=$archive"
+fi
+exec java $cds $modules -cp "$jar" "$@" assignment3.CharacterEditor
@@ -0,0 +1,111 @@
+package assignment3;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Background saves started by the autosave timer and by the bound on
+ * unsaved changes.
+ *
+ * @author Ali Nawaz Maan
+ */
+class AutosaveTest {
+	/** Longest wait for a background save */
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	@TempDir
+	File dir;
+
+	private String fileName;
+	private CharacterDatabase database;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		fileName = new File(dir, "characters.dat").getPath();
+		database = TestData.database(fileName, TestData.characters(10), 1, CompressionCodec.NONE);
+		database.save();
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		database.close();
+	}
+
+	@Test
+	void timerSavesABurstOfChangesTogether() throws Exception {
+		database.setAutosave(300, TimeUnit.MILLISECONDS, 1000);
+		assertTrue(database.isAutosaving());
+		long saves = saves();
+		for (int i = 0; i < 5; i++)
+			database.add(new Character("Burst " + i, "one of a burst"));
+		assertEquals(5, database.unsavedChanges());
+
+		await(() -> saves() > saves);
+		assertEquals(0, database.unsavedChanges());
+		Thread.sleep(500);
+		assertEquals(saves + 1, saves(), "the burst was saved more than once");
+		assertReopensWith("Burst 4");
+	}
+
+	@Test
+	void boundOnUnsavedChangesSavesAtOnce() throws Exception {
+		database.setAutosave(1, TimeUnit.HOURS, 3);
+		long saves = saves();
+		for (int i = 0; i < 3; i++)
+			database.add(new Character("Bulk " + i, "one of a bulk edit"));
+		await(() -> saves() > saves);
+		assertEquals(0, database.unsavedChanges());
+		assertReopensWith("Bulk 2");
+	}
+
+	@Test
+	void changesMadeBeforeAutosaveIsTurnedOnAreSaved() throws Exception {
+		database.remove("Character 3");
+		long saves = saves();
+		database.setAutosave(100, TimeUnit.MILLISECONDS, 1000);
+		await(() -> saves() > saves);
+		assertEquals(0, database.unsavedChanges());
+	}
+
+	@Test
+	void nothingIsSavedOnceTurnedOff() throws Exception {
+		database.setAutosave(100, TimeUnit.MILLISECONDS, 1);
+		database.setAutosave(0, TimeUnit.MILLISECONDS, 1);
+		assertFalse(database.isAutosaving());
+		long saves = saves();
+		database.add(new Character("Unsaved", "kept in memory"));
+		Thread.sleep(500);
+		assertEquals(1, database.unsavedChanges());
+		assertEquals(saves, saves());
+	}
+
+	private long saves() {
+		return database.metrics().get(DatabaseMetrics.Operation.SAVE).getCount();
+	}
+
+	private void assertReopensWith(String name) throws Exception {
+		CharacterDatabase reopened = new CharacterDatabase(fileName);
+		reopened.load();
+		try {
+			assertTrue(reopened.contains(name), name + " was not saved");
+		} finally {
+			reopened.close();
+		}
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < deadline, "timed out waiting for the autosave");
+			Thread.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package assignment3;
+
+import static assignment3.BatchResult.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The result of each item of a batch add, update and removal.
+ *
+ * @author Ali Nawaz Maan
+ */
+class BatchTest {
+	@TempDir
+	File dir;
+
+	private CharacterDatabase database;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		database = TestData.database(new File(dir, "characters.dat").getPath(), TestData.characters(3), 1,
+				CompressionCodec.NONE);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		database.close();
+	}
+
+	@Test
+	void addAllSkipsTakenNamesAndInvalidCharacters() throws Exception {
+		Character fresh = new Character("Fresh", "new");
+		Character twin = new Character("Fresh", "second of the same name");
+		List<BatchResult> results = database.addAll(Arrays.asList(fresh, new Character("Character 1", "taken"),
+				new Character("", "no name"), null, twin, new Character("No description", null)));
+		assertEquals(Arrays.asList(ADDED, EXISTS, INVALID, INVALID, EXISTS, INVALID), results);
+		assertEquals(4, database.getCharacterNames().size());
+		TestData.assertSameCharacter(fresh, database.search("Fresh"));
+		assertEquals("Test character number 1, described at some length so the record has a body",
+				database.search("Character 1").getDescription());
+	}
+
+	@Test
+	void updateAllReplacesAndKeepsTheLastOfTheSameName() throws Exception {
+		Character first = new Character("Fresh", "first");
+		Character last = new Character("Fresh", "last");
+		Character replacement = new Character("Character 0", "replaced");
+		Character nullTrait = new Character("Character 2", "null trait");
+		nullTrait.addTrait(null);
+		List<BatchResult> results = database.updateAll(Arrays.asList(first, replacement, last, nullTrait));
+		assertEquals(Arrays.asList(ADDED, UPDATED, UPDATED, INVALID), results);
+		TestData.assertSameCharacter(last, database.search("Fresh"));
+		TestData.assertSameCharacter(replacement, database.search("Character 0"));
+		assertNotEquals("null trait", database.search("Character 2").getDescription());
+		assertEquals(4, database.getCharacterNames().size());
+	}
+
+	@Test
+	void removeAllReportsEachName() {
+		List<BatchResult> results = database.removeAll(Arrays.asList("Character 0", "Missing", "", null,
+				"Character 0", "Character 2"));
+		assertEquals(Arrays.asList(REMOVED, NOT_FOUND, INVALID, INVALID, NOT_FOUND, REMOVED), results);
+		assertEquals(Collections.singletonList("Character 1"), database.getCharacterNames());
+	}
+
+	@Test
+	void batchesAreCountedAsChangesAndInTheMetrics() throws Exception {
+		long batches = database.metrics().get(DatabaseMetrics.Operation.BATCH).getCount();
+		database.addAll(Arrays.asList(new Character("A", "a"), new Character("B", "b")));
+		database.removeAll(Arrays.asList("Character 0"));
+		database.updateAll(Collections.<Character>emptyList());
+		assertEquals(batches + 3, database.metrics().get(DatabaseMetrics.Operation.BATCH).getCount());
+		assertEquals(Arrays.asList("A", "B", "Character 1", "Character 2"), database.findNames("", 0, 10));
+	}
+
+	@Test
+	void onlyChangesAreApplied() {
+		for (BatchResult result : values())
+			assertEquals(result == ADDED || result == UPDATED || result == REMOVED, result.isApplied(), result.name());
+	}
+}
@@ -0,0 +1,168 @@
+package assignment3;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Exporting a database to CSV and JSON lines and importing it back, with
+ * fields that need quoting and escaping; and importing hand-written files
+ * with CRLF line breaks, multi-line fields and records that are rejected.
+ *
+ * @author Ali Nawaz Maan
+ */
+class CharacterBulkToolTest {
+	@TempDir
+	File dir;
+
+	/**
+	 * @return Characters with commas, quotes, line breaks, list separators
+	 * and backslashes in their fields
+	 */
+	private static Character[] awkward() throws IllegalPowerRankingException {
+		Character plain = new Character("Plain, \"quoted\" name", "first line\nsecond line\r\nthird line");
+		plain.addTrait("fast; strong");
+		plain.addTrait("back\\slash");
+		plain.addTrait("ends with \\");
+		plain.addTrait("C:\\dir;x\\;y");
+
+		SuperCharacter ranked = new SuperCharacter("Ranked", "with \"quotes\", and commas", "images/a,b.png", 7);
+		ranked.addTrait("\"quoted\"");
+		ranked.addPower("x-ray; vision");
+		ranked.addPower("\\\\");
+
+		SuperCharacter unrankable = new SuperCharacter("Unrankable", "", SuperCharacter.UNRANKABLE);
+		unrankable.addPower("everything");
+
+		Character bare = new Character("Bare", "no traits");
+		return new Character[] { plain, ranked, unrankable, bare };
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "export.csv", "export.jsonl" })
+	void importsWhatWasExported(String exportName) throws Exception {
+		Character[] characters = awkward();
+		String source = new File(dir, "source.db").getPath();
+		CharacterDatabase database = new CharacterDatabase(source);
+		for (Character c : characters)
+			database.add(c);
+		database.save();
+		database.close();
+
+		String exported = new File(dir, exportName).getPath();
+		CharacterBulkTool.exportFile(source, exported);
+		String target = new File(dir, "target.db").getPath();
+		assertEquals(characters.length, CharacterBulkTool.importFile(target, exported, 2));
+
+		CharacterDatabase imported = new CharacterDatabase(target);
+		imported.load();
+		try {
+			TestData.assertHolds(characters, imported);
+		} finally {
+			imported.close();
+		}
+	}
+
+	@Test
+	void formatsAndParsesEachRecord() throws Exception {
+		for (CharacterTextFormat format : CharacterTextFormat.values()) {
+			for (Character c : awkward()) {
+				String record = format.format(c);
+				if (format == CharacterTextFormat.JSONL)
+					assertFalse(record.contains("\n") || record.contains("\r"), record);
+				TestData.assertSameCharacter(c, format.parse(record));
+			}
+		}
+		Character escaped = new Character("n", "d");
+		escaped.addTrait("C:\\dir;x\\;y");
+		assertEquals("n,d,images/default.png,,C:\\\\dir\\;x\\\\\\;y,", CharacterTextFormat.CSV.format(escaped));
+	}
+
+	@Test
+	void importsCsvWithCrlfAndMultiLineFields() throws Exception {
+		String csv = "name,description,image,ranking,traits,powers\r\n"
+				+ "One,\"spans\r\ntwo lines\",,,a\\;b;c\\d,\r\n"
+				+ "\r\n"
+				+ "Two,\"says \"\"hi\"\"\",images/two.png,3,,fly;swim\r\n"
+				+ "Too few,fields\r\n"
+				+ "Bad rank,d,,high,,\r\n"
+				+ "No rank,d,,,,fly\r\n"
+				+ "Three,last,,UNRANKABLE,t,p";
+		String input = write("input.csv", csv);
+		String database = new File(dir, "imported.db").getPath();
+
+		String output = captureOutput(() -> assertEquals(3, CharacterBulkTool.importFile(database, input, 1)));
+		assertTrue(output.contains("Rejected line 6: expected 6 fields, found 2"), output);
+		assertTrue(output.contains("Rejected line 7: Power ranking is not a number: high"), output);
+		assertTrue(output.contains("Rejected line 8: powers given for a character without a ranking"), output);
+		assertTrue(output.contains("Imported 3 of 6 records"), output);
+
+		CharacterDatabase db = new CharacterDatabase(database);
+		db.load();
+		try {
+			assertEquals(3, db.getCharacterNames().size());
+			Character one = db.search("One");
+			assertEquals("spans\r\ntwo lines", one.getDescription());
+			assertTrue(one.traits.contains("a;b"));
+			assertTrue(one.traits.contains("c\\d"));
+			SuperCharacter two = (SuperCharacter) db.search("Two");
+			assertEquals("says \"hi\"", two.getDescription());
+			assertEquals("images/two.png", two.getImagePath());
+			assertEquals(3, two.getPowerRanking());
+			assertEquals(2, two.powers.size());
+			assertEquals(SuperCharacter.UNRANKABLE, ((SuperCharacter) db.search("Three")).getPowerRanking());
+		} finally {
+			db.close();
+		}
+	}
+
+	@Test
+	void rejectsMalformedJsonLines() throws Exception {
+		String jsonl = "{\"name\":\"One\",\"description\":\"d\",\"traits\":[\"t\"]}\n"
+				+ "{\"name\":\"Two\",\"description\":\"d\",\"ranking\":5,\"powers\":[\"p\"]}\r\n"
+				+ "{\"name\":\"Truncated\",\"desc\n"
+				+ "{\"name\":\"Traits\",\"description\":\"d\",\"traits\":\"not an array\"}\n"
+				+ "{\"name\":\"\",\"description\":\"d\"}\n";
+		String input = write("input.jsonl", jsonl);
+		String database = new File(dir, "imported.db").getPath();
+
+		String output = captureOutput(() -> assertEquals(2, CharacterBulkTool.importFile(database, input, 2)));
+		assertTrue(output.contains("Rejected line 3: "), output);
+		assertTrue(output.contains("Rejected line 4: traits must be an array"), output);
+		assertTrue(output.contains("Rejected line 5: invalid character"), output);
+		assertTrue(output.contains("Imported 2 of 5 records"), output);
+		assertFalse(output.contains("null"), output);
+	}
+
+	private String write(String name, String text) throws IOException {
+		File file = new File(dir, name);
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+		return file.getPath();
+	}
+
+	private interface Action {
+		void run() throws Exception;
+	}
+
+	/**
+	 * @return What the action printed to standard output
+	 */
+	private static String captureOutput(Action action) throws Exception {
+		PrintStream out = System.out;
+		ByteArrayOutputStream captured = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(captured, true, "UTF-8"));
+		try {
+			action.run();
+		} finally {
+			System.setOut(out);
+		}
+		return new String(captured.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
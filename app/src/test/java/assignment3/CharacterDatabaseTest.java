@@ -0,0 +1,145 @@
+package assignment3;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Saving a database and reading it back, loaded and opened, with each codec
+ * and as a single file and a sharded one; and replacing its files through
+ * temporary files.
+ *
+ * @author Ali Nawaz Maan
+ */
+class CharacterDatabaseTest {
+	private static final int SIZE = 2000;
+
+	@TempDir
+	File dir;
+
+	static List<Arguments> layouts() {
+		List<Arguments> layouts = new ArrayList<Arguments>();
+		for (CompressionCodec codec : CompressionCodec.values())
+			for (int shards : new int[] { 1, 4 })
+				layouts.add(Arguments.of(codec, shards));
+		return layouts;
+	}
+
+	@ParameterizedTest
+	@MethodSource("layouts")
+	void loadsWhatWasSaved(CompressionCodec codec, int shards) throws Exception {
+		Character[] characters = TestData.characters(SIZE);
+		String fileName = save(characters, codec, shards);
+
+		CharacterDatabase loaded = new CharacterDatabase(fileName);
+		loaded.load();
+		try {
+			assertEquals(shards, loaded.shards());
+			TestData.assertHolds(characters, loaded);
+		} finally {
+			loaded.close();
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("layouts")
+	void opensWhatWasSaved(CompressionCodec codec, int shards) throws Exception {
+		Character[] characters = TestData.characters(SIZE);
+		String fileName = save(characters, codec, shards);
+
+		CharacterDatabase opened = new CharacterDatabase(fileName);
+		opened.open();
+		try {
+			assertEquals(shards, opened.shards());
+			TestData.assertHolds(characters, opened);
+		} finally {
+			opened.close();
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("layouts")
+	void opensJournaledChanges(CompressionCodec codec, int shards) throws Exception {
+		Character[] characters = TestData.characters(SIZE);
+		String fileName = save(characters, codec, shards);
+
+		CharacterDatabase database = new CharacterDatabase(fileName);
+		database.open();
+		Character changed = new Character("Character 0", "Changed after the snapshot");
+		changed.addTrait("journaled");
+		database.update(changed);
+		database.remove("Character 1");
+		database.save();
+		database.close();
+
+		characters[0] = changed;
+		Character[] expected = new Character[SIZE - 1];
+		expected[0] = characters[0];
+		System.arraycopy(characters, 2, expected, 1, SIZE - 2);
+		CharacterDatabase reopened = new CharacterDatabase(fileName);
+		reopened.open();
+		try {
+			TestData.assertHolds(expected, reopened);
+		} finally {
+			reopened.close();
+		}
+	}
+
+	@Test
+	void replacesFilesThroughUniqueTemporaryFiles() throws Exception {
+		Character[] characters = TestData.characters(3 * DatabaseProgress.BATCH_SIZE);
+		File file = new File(dir, "replaced.dat");
+		CharacterFile.replace(file.getPath(), Arrays.asList(characters), CompressionCodec.NONE, DatabaseProgress.NONE);
+		boolean posix = file.toPath().getFileSystem().supportedFileAttributeViews().contains("posix");
+		Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r-----");
+		if (posix)
+			Files.setPosixFilePermissions(file.toPath(), permissions);
+
+		Character[] fewer = Arrays.copyOf(characters, 10);
+		assertThrows(CancellationException.class, () -> CharacterFile.replace(file.getPath(), Arrays.asList(characters),
+				CompressionCodec.NONE, (done, total, names) -> false));
+		CharacterFile.replace(file.getPath(), Arrays.asList(fewer), CompressionCodec.NONE, DatabaseProgress.NONE);
+		if (posix)
+			assertEquals(permissions, Files.getPosixFilePermissions(file.toPath()));
+
+		String sharded = new File(dir, "sharded.dat").getPath();
+		DatabaseMetrics metrics = DatabaseMetrics.of(sharded);
+		// the manifest is replaced whatever the segments hold
+		List<List<Character>> shards = Arrays.asList(Arrays.asList(fewer).subList(0, 5),
+				Arrays.asList(fewer).subList(5, 10));
+		ShardedCharacterFile.write(sharded, shards, CompressionCodec.NONE, DatabaseProgress.NONE, metrics);
+		ShardedCharacterFile.write(sharded, shards, CompressionCodec.NONE, DatabaseProgress.NONE, metrics);
+		metrics.release();
+
+		assertArrayEquals(new String[0], dir.list((d, name) -> name.endsWith(".tmp")));
+		CharacterDatabase database = new CharacterDatabase(file.getPath());
+		database.open();
+		try {
+			TestData.assertHolds(fewer, database);
+		} finally {
+			database.close();
+		}
+	}
+
+	/**
+	 * @return The path of a new database of the characters, saved and closed
+	 */
+	private String save(Character[] characters, CompressionCodec codec, int shards) throws Exception {
+		String fileName = new File(dir, "characters.dat").getPath();
+		CharacterDatabase database = TestData.database(fileName, characters, shards, codec);
+		database.save();
+		database.close();
+		return fileName;
+	}
+}
@@ -0,0 +1,106 @@
+package assignment3;
+
+import static assignment3.BatchResult.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javafx.collections.ListChangeListener;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The name list of a database and the change events it fires, replayed on
+ * a copy of the list to check they describe each change exactly.
+ *
+ * @author Ali Nawaz Maan
+ */
+class CharacterNameListTest {
+	@TempDir
+	File dir;
+
+	private CharacterDatabase database;
+	private CharacterNameList list;
+	/** The list as the change events describe it */
+	private List<String> replayed;
+	private int events;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		database = TestData.database(new File(dir, "characters.dat").getPath(), TestData.characters(20), 1,
+				CompressionCodec.NONE);
+		list = new CharacterNameList(database);
+		replayed = new ArrayList<String>(list);
+		list.addListener((ListChangeListener<String>) change -> {
+			events++;
+			while (change.next()) {
+				assertFalse(change.wasPermutated() || change.wasUpdated());
+				if (change.wasRemoved()) {
+					assertEquals(change.getRemoved(),
+							replayed.subList(change.getFrom(), change.getFrom() + change.getRemovedSize()));
+					replayed.subList(change.getFrom(), change.getFrom() + change.getRemovedSize()).clear();
+				}
+				if (change.wasAdded())
+					replayed.addAll(change.getFrom(), change.getAddedSubList());
+			}
+		});
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		database.close();
+	}
+
+	@Test
+	void readsTheSortedNamesOfTheDatabase() {
+		assertEquals(20, list.size());
+		assertEquals("Character 0", list.get(0));
+		assertEquals("Character 1", list.get(1));
+		assertEquals("Character 10", list.get(2));
+		assertEquals(2, list.indexOf("Character 10"));
+		assertEquals(2, list.lastIndexOf("Character 10"));
+		assertEquals(-1, list.indexOf("Missing"));
+		assertEquals(-1, list.indexOf(42));
+		assertTrue(list.contains("Character 19"));
+		assertFalse(list.contains("Missing"));
+		assertFalse(list.contains(null));
+	}
+
+	@Test
+	void firesAnAddAtTheNewPosition() {
+		database.add(new Character("Character 15a", "between 15 and 16"));
+		list.added("Character 15a");
+		assertEquals(1, events);
+		assertEquals(list, replayed);
+		assertEquals(list.indexOf("Character 15a"), list.indexOf("Character 15") + 1);
+
+		list.added("Never added");
+		assertEquals(1, events);
+	}
+
+	@Test
+	void firesARemoveForEachRemovedName() {
+		List<String> names = Arrays.asList("Character 3", "Missing", "Character 0", "Character 19", "Character 3");
+		List<BatchResult> results = list.removeNames(names, database::removeAll);
+		assertEquals(Arrays.asList(REMOVED, NOT_FOUND, REMOVED, REMOVED, NOT_FOUND), results);
+		assertEquals(1, events);
+		assertEquals(17, list.size());
+		assertEquals(list, replayed);
+		assertFalse(replayed.contains("Character 3"));
+	}
+
+	@Test
+	void followsTheDatabaseWhenItIsReopened() throws Exception {
+		database.save();
+		database.remove("Character 5");
+		database.open();
+		assertEquals(20, list.size());
+		assertTrue(list.contains("Character 5"));
+	}
+}
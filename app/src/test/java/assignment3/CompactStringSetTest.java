@@ -0,0 +1,187 @@
+package assignment3;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The compact string set against a HashSet, through the switch from the
+ * inline array to the hash table, removal markers and removal through the
+ * iterator; and the null strings it allows being kept out of a database.
+ *
+ * @author Ali Nawaz Maan
+ */
+class CompactStringSetTest {
+	@TempDir
+	File dir;
+
+	@Test
+	void keepsInsertionOrderWhileInline() {
+		CompactStringSet set = new CompactStringSet();
+		for (int i = CompactStringSet.INLINE_MAX; i > 0; i--)
+			assertTrue(set.add("s" + i));
+		assertFalse(set.add("s3"));
+		assertTrue(set.remove("s5"));
+		assertFalse(set.remove("s5"));
+		List<String> expected = new ArrayList<String>();
+		for (int i = CompactStringSet.INLINE_MAX; i > 0; i--)
+			if (i != 5)
+				expected.add("s" + i);
+		assertEquals(expected, new ArrayList<String>(set));
+	}
+
+	@Test
+	void switchesToHashingPastTheInlineLimit() {
+		CompactStringSet set = new CompactStringSet();
+		Set<String> expected = new HashSet<String>();
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(expected.add("s" + i), set.add("s" + i));
+			if (i == CompactStringSet.INLINE_MAX - 1 || i == CompactStringSet.INLINE_MAX || i % 97 == 0)
+				assertSame(expected, set);
+		}
+		assertSame(expected, set);
+		assertFalse(set.add("s500"));
+	}
+
+	@Test
+	void allowsNull() {
+		CompactStringSet set = new CompactStringSet();
+		assertFalse(set.contains(null));
+		assertTrue(set.add(null));
+		assertFalse(set.add(null));
+		assertTrue(set.contains(null));
+		for (int i = 0; i < 20; i++)
+			set.add("s" + i);
+		assertTrue(set.contains(null));
+		assertTrue(new ArrayList<String>(set).contains(null));
+		assertTrue(set.remove(null));
+		assertFalse(set.contains(null));
+		assertEquals(20, set.size());
+	}
+
+	@Test
+	void reusesAndClearsRemovalMarkers() {
+		// many rounds of add and remove in a small hashed set must neither lose
+		// strings nor fill the table with markers
+		Random random = new Random(5);
+		CompactStringSet set = new CompactStringSet();
+		Set<String> expected = new HashSet<String>();
+		for (int i = 0; i < 20000; i++) {
+			String s = "s" + random.nextInt(40);
+			if (random.nextBoolean())
+				assertEquals(expected.add(s), set.add(s), s);
+			else
+				assertEquals(expected.remove(s), set.remove(s), s);
+			assertEquals(expected.size(), set.size());
+			if (i % 1000 == 0)
+				assertSame(expected, set);
+		}
+		assertSame(expected, set);
+	}
+
+	@Test
+	void removesThroughTheIterator() {
+		for (int size : new int[] { 3, CompactStringSet.INLINE_MAX, 50 }) {
+			CompactStringSet set = new CompactStringSet();
+			for (int i = 0; i < size; i++)
+				set.add("s" + i);
+			Set<String> seen = new HashSet<String>();
+			for (Iterator<String> it = set.iterator(); it.hasNext();) {
+				String s = it.next();
+				assertTrue(seen.add(s), s + " seen twice");
+				if (Integer.parseInt(s.substring(1)) % 2 == 0)
+					it.remove();
+			}
+			assertEquals(size, seen.size());
+			Set<String> expected = new HashSet<String>();
+			for (int i = 1; i < size; i += 2)
+				expected.add("s" + i);
+			assertSame(expected, set);
+			for (int i = 0; i < size; i += 2)
+				assertTrue(set.add("s" + i), "s" + i);
+			assertEquals(size, set.size());
+		}
+	}
+
+	@Test
+	void iteratorRejectsMisuse() {
+		CompactStringSet set = new CompactStringSet();
+		set.add("only");
+		Iterator<String> it = set.iterator();
+		assertThrows(IllegalStateException.class, it::remove);
+		it.next();
+		it.remove();
+		assertThrows(IllegalStateException.class, it::remove);
+		assertThrows(NoSuchElementException.class, it::next);
+		assertTrue(set.isEmpty());
+	}
+
+	@Test
+	void clearGoesBackToInline() {
+		CompactStringSet set = new CompactStringSet();
+		for (int i = 0; i < 100; i++)
+			set.add("s" + i);
+		set.clear();
+		assertTrue(set.isEmpty());
+		set.add("b");
+		set.add("a");
+		assertEquals(Arrays.asList("b", "a"), new ArrayList<String>(set));
+	}
+
+	@Test
+	void isSerializedAsAHashSet() throws Exception {
+		CompactStringSet set = new CompactStringSet();
+		set.add("fast");
+		set.add(null);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(set);
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			Object read = in.readObject();
+			assertEquals(HashSet.class, read.getClass());
+			assertEquals(set, read);
+		}
+	}
+
+	@Test
+	void databaseRejectsNullTraitsAndPowers() throws Exception {
+		CharacterDatabase database = new CharacterDatabase(new File(dir, "characters.dat").getPath());
+		try {
+			Character nullTrait = new Character("Null trait", "");
+			nullTrait.addTrait(null);
+			SuperCharacter nullPower = new SuperCharacter("Null power", "", 5);
+			nullPower.addPower(null);
+			for (Character c : new Character[] { nullTrait, nullPower }) {
+				IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> database.add(c));
+				assertTrue(e.getMessage().contains(c.getName()), e.getMessage());
+				assertThrows(IllegalArgumentException.class, () -> database.update(c));
+				assertThrows(IllegalArgumentException.class, () -> database.computeIfAbsent(c.getName(), n -> c));
+				assertThrows(IllegalArgumentException.class, () -> database.compute(c.getName(), (n, old) -> c));
+				assertFalse(database.contains(c.getName()));
+			}
+			assertEquals(4, database.metrics().get(DatabaseMetrics.Operation.ADD).getFailures()
+					+ database.metrics().get(DatabaseMetrics.Operation.UPDATE).getFailures());
+		} finally {
+			database.close();
+		}
+	}
+
+	/**
+	 * Checks the set has the same strings as expected, whichever side is asked.
+	 */
+	private static void assertSame(Set<String> expected, CompactStringSet set) {
+		assertEquals(expected.size(), set.size());
+		assertEquals(expected, set);
+		assertEquals(expected, new HashSet<String>(set));
+		assertEquals(expected.hashCode(), set.hashCode());
+		int count = 0;
+		for (Iterator<String> it = set.iterator(); it.hasNext(); it.next())
+			count++;
+		assertEquals(expected.size(), count);
+	}
+}
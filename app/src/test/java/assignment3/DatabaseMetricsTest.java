@@ -0,0 +1,89 @@
+package assignment3;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The operations counted in a database's metrics besides reads and
+ * writes: ranking counts, closing, and cleaning up old files; and dropping
+ * the metrics of a file once every database on it is closed.
+ *
+ * @author Ali Nawaz Maan
+ */
+class DatabaseMetricsTest {
+	@TempDir
+	File dir;
+
+	private static long count(CharacterDatabase database, DatabaseMetrics.Operation op) {
+		return database.metrics().get(op).getCount();
+	}
+
+	@Test
+	void countsRankingCountsAsQueries() throws Exception {
+		CharacterDatabase database = TestData.database(new File(dir, "ranked.db").getPath(),
+				TestData.characters(100), 1, CompressionCodec.NONE);
+		long queries = count(database, DatabaseMetrics.Operation.QUERY);
+		assertEquals(50, database.countRanked(SuperCharacter.MIN_POWER, SuperCharacter.MAX_POWER));
+		assertEquals(queries + 1, count(database, DatabaseMetrics.Operation.QUERY));
+		assertEquals(50, database.metrics().get(DatabaseMetrics.Operation.QUERY).getRecords());
+		database.close();
+	}
+
+	@Test
+	void countsClosesAndDeletedGenerations() throws Exception {
+		String fileName = new File(dir, "sharded.db").getPath();
+		File stale = new File(fileName + ".shard0.g99");
+		assertTrue(stale.createNewFile());
+		CharacterDatabase database = TestData.database(fileName, TestData.characters(100), 4, CompressionCodec.NONE);
+		database.save();
+		assertFalse(stale.exists());
+		assertEquals(1, count(database, DatabaseMetrics.Operation.CLEANUP));
+		assertEquals(1, database.metrics().get(DatabaseMetrics.Operation.CLEANUP).getRecords());
+		assertEquals(0, database.metrics().get(DatabaseMetrics.Operation.CLEANUP).getFailures());
+
+		database.close();
+		assertEquals(1, count(database, DatabaseMetrics.Operation.CLOSE));
+	}
+
+	@Test
+	void dropsTheMetricsWhenTheLastDatabaseIsClosed() throws Exception {
+		String fileName = new File(dir, "shared.db").getPath();
+		String file = new File(fileName).getAbsolutePath();
+		CharacterDatabase first = new CharacterDatabase(fileName);
+		CharacterDatabase second = new CharacterDatabase(fileName);
+		assertSame(first.metrics(), second.metrics());
+		ObjectName name = first.metrics().objectName(DatabaseMetrics.Operation.LOAD);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		await(server, name, true);
+
+		first.close();
+		first.close(); // released once
+		assertTrue(DatabaseMetrics.dump().contains(file));
+		second.close();
+		assertFalse(DatabaseMetrics.dump().contains(file));
+		await(server, name, false);
+
+		CharacterDatabase third = new CharacterDatabase(fileName);
+		assertNotSame(first.metrics(), third.metrics());
+		assertEquals(0, third.metrics().get(DatabaseMetrics.Operation.CLOSE).getCount());
+		third.close();
+	}
+
+	/**
+	 * Waits for the metrics to be registered or unregistered in the background.
+	 */
+	private static void await(MBeanServer server, ObjectName name, boolean registered) throws InterruptedException {
+		long deadline = System.nanoTime() + 10_000_000_000L;
+		while (server.isRegistered(name) != registered && System.nanoTime() < deadline)
+			Thread.sleep(10);
+		assertEquals(registered, server.isRegistered(name), name.toString());
+	}
+}
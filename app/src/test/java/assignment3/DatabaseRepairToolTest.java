@@ -0,0 +1,95 @@
+package assignment3;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * Finding a damaged block of a database file by its checksum, and
+ * salvaging the characters of the other blocks.
+ *
+ * @author Ali Nawaz Maan
+ */
+class DatabaseRepairToolTest {
+	private static final int SIZE = 2000;
+	/** Block to damage */
+	private static final int BLOCK = 1;
+
+	@TempDir
+	File dir;
+
+	@Test
+	void intactFileVerifies() throws Exception {
+		String fileName = save(TestData.characters(SIZE), CompressionCodec.NONE);
+		assertEquals(0, DatabaseRepairTool.verify(fileName));
+	}
+
+	@ParameterizedTest
+	@EnumSource(CompressionCodec.class)
+	void flippedByteIsFoundAndTheRestSalvaged(CompressionCodec codec) throws Exception {
+		Character[] characters = TestData.characters(SIZE);
+		String fileName = save(characters, codec);
+		CharacterFile.Checksums checksums = checksums(fileName);
+		assertTrue(checksums.blockCount() > BLOCK + 1, "too few blocks to damage one in the middle");
+		flip(fileName, checksums.blockOffsets[BLOCK] + checksums.blockLengths[BLOCK] / 2);
+
+		assertEquals(1, DatabaseRepairTool.verify(fileName));
+		CharacterDatabase damaged = new CharacterDatabase(fileName);
+		assertThrows(CorruptDatabaseException.class, damaged::load);
+
+		String repaired = new File(dir, "repaired.dat").getPath();
+		DatabaseRepairTool.repair(fileName, repaired);
+		assertEquals(0, DatabaseRepairTool.verify(repaired));
+		// the file is in name order, so the damaged block held these records of it
+		List<Character> inFileOrder = new ArrayList<Character>(Arrays.asList(characters));
+		NameIndex.sort(inFileOrder, Character::getName);
+		List<Character> intact = new ArrayList<Character>(inFileOrder.subList(0, checksums.blockFirsts[BLOCK]));
+		intact.addAll(inFileOrder.subList(checksums.blockFirsts[BLOCK + 1], SIZE));
+		CharacterDatabase salvaged = new CharacterDatabase(repaired);
+		salvaged.load();
+		try {
+			TestData.assertHolds(intact.toArray(new Character[intact.size()]), salvaged);
+		} finally {
+			salvaged.close();
+		}
+	}
+
+	private String save(Character[] characters, CompressionCodec codec) throws Exception {
+		String fileName = new File(dir, "characters.dat").getPath();
+		CharacterDatabase database = TestData.database(fileName, characters, 1, codec);
+		database.save();
+		database.close();
+		return fileName;
+	}
+
+	private static CharacterFile.Checksums checksums(String fileName) throws IOException {
+		try (FileChannel channel = new FileInputStream(fileName).getChannel()) {
+			CharacterFile.Header header = CharacterFile.readHeader(new CharacterFile.Input(channel));
+			return CharacterFile.readChecksums(channel, header);
+		}
+	}
+
+	/**
+	 * Inverts the bits of the byte at the given offset.
+	 */
+	static void flip(String fileName, long offset) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "rw")) {
+			file.seek(offset);
+			int b = file.read();
+			file.seek(offset);
+			file.write(~b);
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package assignment3;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Pinned versions staying as they were while the database changes, and
+ * indexes staying consistent while the database is reopened.
+ *
+ * @author Ali Nawaz Maan
+ */
+class DatabaseVersionTest {
+	private static final int SIZE = 200;
+
+	@TempDir
+	File dir;
+
+	private Character[] characters;
+	private CharacterDatabase database;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		characters = TestData.characters(SIZE);
+		database = TestData.database(new File(dir, "characters.dat").getPath(), characters, 1,
+				CompressionCodec.NONE);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		database.close();
+	}
+
+	@Test
+	void versionIgnoresChangesMadeAfterThePin() throws Exception {
+		DatabaseVersion version = database.pin();
+		Character changed = new Character("Character 0", "changed after the pin");
+		database.update(changed);
+		database.remove("Character 1");
+		database.add(new Character("Added", "after the pin"));
+
+		assertPinned(version);
+		TestData.assertSameCharacter(changed, database.search("Character 0"));
+		assertFalse(database.contains("Character 1"));
+		assertTrue(database.contains("Added"));
+
+		version.close();
+		assertTrue(version.isClosed());
+		assertThrows(IllegalStateException.class, () -> version.search("Character 0"));
+	}
+
+	@Test
+	void versionOfAnOpenedFileIgnoresChangesAndTheReopen() throws Exception {
+		database.save();
+		database.open();
+		DatabaseVersion version = database.pin();
+		database.update(new Character("Character 0", "changed after the pin"));
+		database.remove("Character 1");
+		database.add(new Character("Added", "after the pin"));
+		database.save();
+		database.open(); // replaces the mapped file the version reads
+		assertPinned(version);
+		version.close();
+	}
+
+	@Test
+	void versionStaysConsistentWhileWritesContinue() throws Exception {
+		AtomicBoolean stop = new AtomicBoolean();
+		ExecutorService writers = Executors.newFixedThreadPool(2);
+		try {
+			DatabaseVersion version = database.pin();
+			List<Future<?>> running = new ArrayList<Future<?>>();
+			for (int w = 0; w < 2; w++) {
+				final int writer = w;
+				running.add(writers.submit(() -> {
+					Random random = new Random(writer);
+					for (int i = 0; !stop.get(); i++) {
+						String name = "Character " + random.nextInt(SIZE);
+						if (i % 3 == 0)
+							database.remove(name);
+						else
+							database.update(new Character(name, "written by " + writer + " at " + i));
+						if (i % 50 == 0)
+							database.add(new Character("New " + writer + " " + i, ""));
+					}
+					return null;
+				}));
+			}
+			for (int round = 0; round < 20; round++)
+				assertPinned(version);
+			stop.set(true);
+			for (Future<?> f : running)
+				f.get();
+			assertPinned(version);
+			version.close();
+		} finally {
+			stop.set(true);
+			writers.shutdownNow();
+		}
+	}
+
+	@Test
+	void indexesMatchTheDatabaseAfterEachReopen() throws Exception {
+		database.save();
+		AtomicBoolean stop = new AtomicBoolean();
+		ExecutorService readers = Executors.newFixedThreadPool(2);
+		try {
+			List<Future<?>> running = new ArrayList<Future<?>>();
+			for (int r = 0; r < 2; r++) {
+				running.add(readers.submit(() -> {
+					while (!stop.get()) {
+						database.findNames("char", 0, 10);
+						database.findCharacters(TextQuery.parse("unsaved OR trait 3"));
+						database.findRanked(SuperCharacter.MIN_POWER, SuperCharacter.MAX_POWER);
+					}
+					return null;
+				}));
+			}
+			List<String> saved = new ArrayList<String>();
+			for (Character c : characters)
+				saved.add(c.getName());
+			Collections.sort(saved, NameIndex.ORDER);
+			for (int round = 0; round < 50; round++) {
+				for (int i = 0; i < 10; i++) {
+					SuperCharacter unsaved = new SuperCharacter("Unsaved " + i, "unsaved", 5);
+					database.add(unsaved);
+				}
+				if (round % 2 == 0)
+					database.open();
+				else
+					database.load();
+				// the unsaved characters are dropped, and no index may still list them
+				assertEquals(saved, database.findNames("", 0, Integer.MAX_VALUE), "round " + round);
+				assertEquals(Collections.emptyList(), database.findCharacters(TextQuery.parse("unsaved")));
+				assertEquals(SIZE / 2, database.countRanked(SuperCharacter.MIN_POWER, SuperCharacter.MAX_POWER));
+			}
+			stop.set(true);
+			for (Future<?> f : running)
+				f.get();
+		} finally {
+			stop.set(true);
+			readers.shutdownNow();
+		}
+	}
+
+	/**
+	 * Checks that a version holds the characters as they were at the pin.
+	 */
+	private void assertPinned(DatabaseVersion version) {
+		assertEquals(SIZE, version.size());
+		List<String> names = version.getCharacterNames();
+		Collection<Character> pinned = version.characters();
+		assertEquals(SIZE, pinned.size());
+		Iterator<Character> it = pinned.iterator();
+		for (String name : names) {
+			Character expected = characters[Integer.parseInt(name.substring("Character ".length()))];
+			assertTrue(version.contains(name));
+			TestData.assertSameCharacter(expected, version.search(name));
+			TestData.assertSameCharacter(expected, it.next());
+		}
+		assertFalse(version.contains("Added"));
+		assertNull(version.search("Added"));
+	}
+}
@@ -0,0 +1,136 @@
+package assignment3;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Opening a database whose journal was torn by a crash or damaged.
+ *
+ * @author Ali Nawaz Maan
+ */
+class JournalTest {
+	private static final int SIZE = 100;
+
+	@TempDir
+	File dir;
+
+	private Character[] characters;
+	private String fileName;
+	private File journal;
+	/** Journal length after the first save of changes */
+	private long synced;
+	private Character changed;
+
+	/**
+	 * Saves a snapshot, then two saves of changes: an update, and the removal
+	 * of "Character 1", which is the last record of the journal.
+	 */
+	@BeforeEach
+	void setUp() throws Exception {
+		characters = TestData.characters(SIZE);
+		fileName = new File(dir, "characters.dat").getPath();
+		journal = new File(fileName + ".journal");
+		CharacterDatabase database = TestData.database(fileName, characters, 1, CompressionCodec.NONE);
+		database.save();
+		changed = new Character("Character 0", "Changed after the snapshot");
+		changed.addTrait("journaled");
+		database.update(changed);
+		database.save();
+		synced = journal.length();
+		database.remove("Character 1");
+		database.save();
+		database.close();
+		assertTrue(journal.length() > synced, "the removal was not journaled");
+	}
+
+	@Test
+	void replaysIntactJournal() throws Exception {
+		CharacterDatabase database = open();
+		try {
+			TestData.assertSameCharacter(changed, database.search("Character 0"));
+			assertFalse(database.contains("Character 1"));
+			assertEquals(SIZE - 1, database.getCharacterNames().size());
+		} finally {
+			database.close();
+		}
+	}
+
+	@Test
+	void cutsOffTornLastRecord() throws Exception {
+		try (RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+			file.setLength(file.length() - 1);
+		}
+		assertTornRecordDropped();
+	}
+
+	@Test
+	void cutsOffLastRecordWithBadChecksum() throws Exception {
+		DatabaseRepairToolTest.flip(journal.getPath(), journal.length() - 1);
+		assertTornRecordDropped();
+	}
+
+	@Test
+	void cutsOffZeroFilledTail() throws Exception {
+		try (RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+			file.setLength(synced);
+			file.setLength(synced + 4096);
+		}
+		assertTornRecordDropped();
+	}
+
+	@Test
+	void failsOnDamagedRecordBeforeTheLast() throws Exception {
+		DatabaseRepairToolTest.flip(journal.getPath(), synced - 1);
+		long length = journal.length();
+		assertThrows(CorruptDatabaseException.class, new CharacterDatabase(fileName)::open);
+		assertEquals(length, journal.length(), "the records after the damage were cut off");
+	}
+
+	@Test
+	void failsOnInflatedLengthBeforeTheLast() throws Exception {
+		long length = journal.length();
+		try (RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+			file.seek(Journal.HEADER_SIZE);
+			file.writeInt((int) length);
+		}
+		assertThrows(CorruptDatabaseException.class, new CharacterDatabase(fileName)::open);
+		assertEquals(length, journal.length(), "the records after the damage were cut off");
+	}
+
+	@Test
+	void cutsOffLastRecordWithInflatedLength() throws Exception {
+		try (RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+			file.seek(synced);
+			file.writeInt((int) journal.length());
+		}
+		assertTornRecordDropped();
+	}
+
+	/**
+	 * Checks that the database opens without the removal, and that the
+	 * journal was cut back to the records before it.
+	 */
+	private void assertTornRecordDropped() throws Exception {
+		CharacterDatabase database = open();
+		try {
+			TestData.assertSameCharacter(changed, database.search("Character 0"));
+			TestData.assertSameCharacter(characters[1], database.search("Character 1"));
+			assertEquals(SIZE, database.getCharacterNames().size());
+		} finally {
+			database.close();
+		}
+		assertEquals(synced, journal.length());
+	}
+
+	private CharacterDatabase open() throws Exception {
+		CharacterDatabase database = new CharacterDatabase(fileName);
+		database.open();
+		return database;
+	}
+}
@@ -0,0 +1,72 @@
+package assignment3;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compressing and decompressing bytes with {@link LzCodec}.
+ *
+ * @author Ali Nawaz Maan
+ */
+class LzCodecTest {
+
+	@Test
+	void empty() throws Exception {
+		assertRoundTrip(new byte[0]);
+	}
+
+	@Test
+	void shorterThanAMatch() throws Exception {
+		assertRoundTrip(new byte[] { 1, 2, 3 });
+	}
+
+	@Test
+	void incompressible() throws Exception {
+		byte[] random = new byte[100000];
+		new Random(42).nextBytes(random);
+		int compressed = assertRoundTrip(random);
+		assertTrue(compressed <= LzCodec.maxCompressedLength(random.length));
+	}
+
+	@Test
+	void repetitive() throws Exception {
+		byte[] zeros = new byte[100000];
+		assertTrue(assertRoundTrip(zeros) < zeros.length / 100);
+
+		byte[] pattern = new byte[100003];
+		for (int i = 0; i < pattern.length; i++)
+			pattern[i] = (byte) "a superhero, ".charAt(i % 13);
+		assertTrue(assertRoundTrip(pattern) < pattern.length / 50);
+	}
+
+	@Test
+	void rejectsTruncatedInput() {
+		byte[] pattern = new byte[1000];
+		for (int i = 0; i < pattern.length; i++)
+			pattern[i] = (byte) (i % 7);
+		byte[] compressed = new byte[LzCodec.maxCompressedLength(pattern.length)];
+		int length = LzCodec.compress(pattern, pattern.length, compressed);
+		assertThrows(CorruptDatabaseException.class,
+				() -> LzCodec.decompress(compressed, 0, length - 1, new byte[pattern.length]));
+		assertThrows(CorruptDatabaseException.class,
+				() -> LzCodec.decompress(compressed, 0, length, new byte[pattern.length + 1]));
+	}
+
+	/**
+	 * Compresses the bytes, decompresses them from an offset and checks they come back unchanged.
+	 * @return The compressed length
+	 */
+	private static int assertRoundTrip(byte[] raw) throws CorruptDatabaseException {
+		byte[] compressed = new byte[3 + LzCodec.maxCompressedLength(raw.length)];
+		int length = LzCodec.compress(raw, raw.length, compressed);
+		System.arraycopy(compressed, 0, compressed, 3, length);
+		byte[] decompressed = new byte[raw.length];
+		LzCodec.decompress(compressed, 3, length, decompressed);
+		assertArrayEquals(raw, decompressed);
+		return length;
+	}
+}
@@ -0,0 +1,162 @@
+package assignment3;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Ranked, paged name search against a brute force scan of the same names,
+ * as names are added and removed one at a time and in bulk.
+ *
+ * @author Ali Nawaz Maan
+ */
+class NameIndexTest {
+	private static final String[] WORDS = { "Iron", "iron", "Man", "Bat", "batman", "Super", "Girl", "Wonder",
+			"Woman", "the", "X", "Spider-Man", "Captain", "Cap", "Ant", "man2" };
+	private static final String[] QUERIES = { "", "m", "ma", "man", "MAN", "iron m", "bat", "x", "x ", "der",
+			"an", "2", "spider-", "captain cap", "nothing" };
+
+	@Test
+	void ranksExactThenPrefixThenWordThenSubstring() {
+		NameIndex index = new NameIndex(Arrays.asList("Batman", "Man", "Iron Man", "Manhunter", "Superman",
+				"man"));
+		assertEquals(Arrays.asList("Man", "man", "Manhunter", "Iron Man", "Batman", "Superman"),
+				index.find("man", 0, 10));
+		assertEquals(Arrays.asList("Manhunter", "Iron Man"), index.find("MAN", 2, 2));
+		assertEquals(Arrays.asList("Superman"), index.find("man", 5, 10));
+		assertEquals(Collections.emptyList(), index.find("man", 6, 10));
+		assertEquals(Collections.emptyList(), index.find("woman", 0, 10));
+	}
+
+	@Test
+	void pagesMatchABruteForceScan() {
+		Random random = new Random(42);
+		List<String> names = randomNames(random, 300);
+		NameIndex index = new NameIndex(names);
+		Set<String> expected = new HashSet<String>(names);
+		assertFinds(expected, index);
+		index.buildPostings();
+		assertFinds(expected, index);
+	}
+
+	@Test
+	void staysConsistentThroughAddsRemovesAndMerges() {
+		Random random = new Random(7);
+		Set<String> expected = new HashSet<String>(randomNames(random, 200));
+		NameIndex index = new NameIndex(expected);
+		for (int round = 0; round < 30; round++) {
+			switch (round % 4) {
+			case 0: // bulk merge, some already indexed
+				List<String> added = randomNames(random, 40);
+				added.addAll(new ArrayList<String>(expected).subList(0, 5));
+				index.addAll(added);
+				expected.addAll(added);
+				break;
+			case 1: // bulk removal, some not indexed
+				List<String> gone = new ArrayList<String>(expected).subList(0, Math.min(30, expected.size()));
+				gone = new ArrayList<String>(gone);
+				gone.add("Not Indexed");
+				index.removeAll(gone);
+				expected.removeAll(gone);
+				break;
+			case 2: // one at a time
+				for (String name : randomNames(random, 5)) {
+					int at = index.add(name);
+					assertEquals(expected.add(name) ? index.indexOf(name) : -1, at);
+				}
+				break;
+			default:
+				for (String name : new ArrayList<String>(expected).subList(0, 5)) {
+					int at = index.indexOf(name);
+					assertEquals(at, index.remove(name));
+					expected.remove(name);
+				}
+				assertEquals(-1, index.remove("Not Indexed"));
+			}
+			assertFinds(expected, index);
+		}
+	}
+
+	@Test
+	void dropsRemovedIdsWhenReindexing() {
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < 3000; i++)
+			names.add("Character " + i);
+		NameIndex index = new NameIndex(names);
+		index.buildPostings();
+		index.removeAll(names.subList(0, 2900));
+		assertEquals(100, index.size());
+		assertEquals(Arrays.asList("Character 2900", "Character 2901"), index.find("acter 290", 0, 2));
+		assertEquals(Arrays.asList("Character 2990", "Character 2991"), index.find("299", 0, 2));
+		assertEquals(100, index.find("29", 0, 1000).size());
+		index.addAll(names.subList(0, 20));
+		assertEquals(120, index.size());
+		assertEquals("Character 0", index.get(0));
+		assertEquals(Arrays.asList("Character 1", "Character 10", "Character 11"), index.find("character 1", 0, 3));
+	}
+
+	/**
+	 * Checks each query, in pages of several sizes, against a brute force scan.
+	 */
+	private static void assertFinds(Set<String> names, NameIndex index) {
+		assertEquals(names.size(), index.size());
+		List<String> inOrder = new ArrayList<String>(names);
+		Collections.sort(inOrder, NameIndex.ORDER);
+		for (int i = 0; i < inOrder.size(); i++) {
+			assertEquals(inOrder.get(i), index.get(i));
+			assertEquals(i, index.indexOf(inOrder.get(i)));
+			assertTrue(index.contains(inOrder.get(i)));
+		}
+		for (String query : QUERIES) {
+			List<String> all = bruteForce(inOrder, query);
+			assertEquals(all, index.find(query, 0, Integer.MAX_VALUE), query);
+			for (int page : new int[] { 1, 7, 50 })
+				for (int offset = 0; offset <= all.size(); offset += page)
+					assertEquals(all.subList(offset, Math.min(all.size(), offset + page)),
+							index.find(query, offset, page), query + " from " + offset);
+		}
+	}
+
+	/**
+	 * Ranks every name against a query by the rules of the index.
+	 */
+	private static List<String> bruteForce(List<String> inOrder, String query) {
+		final String q = NameIndex.lower(query);
+		List<String> matches = new ArrayList<String>();
+		for (String name : inOrder)
+			if (NameIndex.lower(name).contains(q))
+				matches.add(name);
+		// stable, so names of equal rank stay in index order
+		Collections.sort(matches, (a, b) -> Integer.compare(rank(a, q), rank(b, q)));
+		return matches;
+	}
+
+	private static int rank(String name, String q) {
+		String lower = NameIndex.lower(name);
+		if (lower.equals(q))
+			return 0;
+		if (lower.startsWith(q))
+			return 1;
+		for (int at = lower.indexOf(q, 1); at > 0; at = lower.indexOf(q, at + 1))
+			if (!java.lang.Character.isLetterOrDigit(lower.charAt(at - 1)))
+				return 2;
+		return 3;
+	}
+
+	private static List<String> randomNames(Random random, int count) {
+		List<String> names = new ArrayList<String>(count);
+		Set<String> seen = new HashSet<String>();
+		while (names.size() < count) {
+			StringBuilder name = new StringBuilder(WORDS[random.nextInt(WORDS.length)]);
+			for (int words = random.nextInt(3); words > 0; words--)
+				name.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+			if (random.nextBoolean())
+				name.append(' ').append(random.nextInt(100));
+			if (seen.add(name.toString()))
+				names.add(name.toString());
+		}
+		return names;
+	}
+}
@@ -0,0 +1,84 @@
+package assignment3;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Power ranking range and count queries, as characters change ranking and
+ * stop being super characters.
+ *
+ * @author Ali Nawaz Maan
+ */
+class RankIndexTest {
+
+	@Test
+	void listsHighestRankingFirstThenInNameOrder() throws Exception {
+		RankIndex index = new RankIndex(Arrays.asList(hero("b", 5), hero("A", 5), hero("c", 9),
+				new Character("plain", "not ranked"), hero("d", SuperCharacter.UNRANKABLE), hero("e", 1)));
+		assertEquals(Arrays.asList("c", "A", "b", "e"), index.range(SuperCharacter.MIN_POWER, SuperCharacter.MAX_POWER));
+		assertEquals(Arrays.asList("A", "b"), index.range(5, 5));
+		assertEquals(Arrays.asList("d"), index.range(SuperCharacter.UNRANKABLE, SuperCharacter.UNRANKABLE));
+		assertEquals(Collections.emptyList(), index.range(6, 8));
+		assertEquals(Collections.emptyList(), index.range(9, 1));
+		assertEquals(5, index.count(Integer.MIN_VALUE, Integer.MAX_VALUE));
+		assertEquals(3, index.count(2, 10));
+		assertEquals(0, index.count(10, 2));
+	}
+
+	@Test
+	void followsRankingChangesAndRemovals() throws Exception {
+		RankIndex index = new RankIndex(Arrays.asList(hero("a", 3), hero("b", 3)));
+		index.put(hero("a", 7));
+		assertEquals(Arrays.asList("a", "b"), index.range(1, 10));
+		assertEquals(1, index.count(3, 3));
+		index.put(hero("a", 7)); // unchanged
+		assertEquals(1, index.count(7, 7));
+		index.put(new Character("b", "no longer super"));
+		assertEquals(Arrays.asList("a"), index.range(1, 10));
+		index.remove("a");
+		index.remove("never indexed");
+		assertEquals(0, index.count(Integer.MIN_VALUE, Integer.MAX_VALUE));
+		assertEquals(Collections.emptyList(), index.range(Integer.MIN_VALUE, Integer.MAX_VALUE));
+	}
+
+	@Test
+	void countsMatchABruteForceScan() throws Exception {
+		Random random = new Random(11);
+		Map<String, Integer> rankings = new HashMap<String, Integer>();
+		RankIndex index = new RankIndex(Collections.<Character>emptyList());
+		for (int i = 0; i < 2000; i++) {
+			String name = "Hero " + random.nextInt(300);
+			if (random.nextInt(5) == 0) {
+				index.remove(name);
+				rankings.remove(name);
+			} else {
+				int ranking = random.nextInt(12) == 0 ? SuperCharacter.UNRANKABLE : 1 + random.nextInt(10);
+				index.put(hero(name, ranking));
+				rankings.put(name, ranking);
+			}
+		}
+		for (int min = 0; min <= 11; min++) {
+			for (int max = min; max <= 11; max++) {
+				List<String> expected = new ArrayList<String>();
+				for (Map.Entry<String, Integer> e : rankings.entrySet())
+					if (e.getValue() >= min && e.getValue() <= max)
+						expected.add(e.getKey());
+				assertEquals(expected.size(), index.count(min, max), min + "-" + max);
+				List<String> found = index.range(min, max);
+				assertEquals(new HashSet<String>(expected), new HashSet<String>(found), min + "-" + max);
+				for (int i = 1; i < found.size(); i++) {
+					int higher = rankings.get(found.get(i - 1)), lower = rankings.get(found.get(i));
+					assertTrue(higher > lower || higher == lower
+							&& NameIndex.ORDER.compare(found.get(i - 1), found.get(i)) < 0);
+				}
+			}
+		}
+	}
+
+	private static SuperCharacter hero(String name, int ranking) throws IllegalPowerRankingException {
+		return new SuperCharacter(name, "ranked " + ranking, ranking);
+	}
+}
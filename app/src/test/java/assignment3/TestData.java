@@ -0,0 +1,80 @@
+package assignment3;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Characters for the tests, and checks that a database holds them.
+ *
+ * @author Ali Nawaz Maan
+ */
+final class TestData {
+	private TestData() { }
+
+	/**
+	 * Makes characters named "Character 0" to "Character count-1", every
+	 * other one a super-character, with descriptions that repeat so the
+	 * codecs have something to compress.
+	 * @param count Number of characters
+	 * @return The characters
+	 */
+	static Character[] characters(int count) throws IllegalPowerRankingException {
+		Character[] characters = new Character[count];
+		for (int i = 0; i < count; i++) {
+			String name = "Character " + i;
+			String description = "Test character number " + i + ", described at some length so the record has a body";
+			Character c;
+			if (i % 2 == 0) {
+				c = new Character(name, description);
+			} else {
+				SuperCharacter s = new SuperCharacter(name, description, "images/borker.png",
+						SuperCharacter.MIN_POWER + i % SuperCharacter.MAX_POWER);
+				s.addPower("power " + i % 17);
+				s.addPower("power " + i % 5);
+				c = s;
+			}
+			c.addTrait("trait " + i % 31);
+			c.addTrait("trait " + i % 7);
+			characters[i] = c;
+		}
+		return characters;
+	}
+
+	/**
+	 * @return A new database at the given path holding the given characters, not saved yet
+	 */
+	static CharacterDatabase database(String fileName, Character[] characters, int shards,
+			CompressionCodec codec) {
+		CharacterDatabase database = new CharacterDatabase(fileName, shards);
+		database.setCodec(codec);
+		for (Character c : characters)
+			database.add(c);
+		return database;
+	}
+
+	/**
+	 * Checks that a database holds exactly the given characters, field by field.
+	 */
+	static void assertHolds(Character[] expected, CharacterDatabase database) {
+		List<String> names = database.getCharacterNames();
+		assertEquals(expected.length, names.size());
+		for (Character c : expected)
+			assertSameCharacter(c, database.search(c.getName()));
+	}
+
+	static void assertSameCharacter(Character expected, Character actual) {
+		assertNotNull(actual, expected.getName());
+		assertEquals(expected.getClass(), actual.getClass(), expected.getName());
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getDescription(), actual.getDescription(), expected.getName());
+		assertEquals(expected.getImagePath(), actual.getImagePath(), expected.getName());
+		assertEquals(new HashSet<String>(expected.traits), new HashSet<String>(actual.traits), expected.getName());
+		if (expected instanceof SuperCharacter) {
+			SuperCharacter s = (SuperCharacter) expected, t = (SuperCharacter) actual;
+			assertEquals(s.getPowerRanking(), t.getPowerRanking(), expected.getName());
+			assertEquals(new HashSet<String>(s.powers), new HashSet<String>(t.powers), expected.getName());
+		}
+	}
+}
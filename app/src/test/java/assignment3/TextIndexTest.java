@@ -0,0 +1,101 @@
+package assignment3;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Full-text search against a brute force scan of the same characters, as
+ * characters are updated and removed and the index is compacted.
+ *
+ * @author Ali Nawaz Maan
+ */
+class TextIndexTest {
+	private static final String[] QUERIES = { "trait", "trait 3", "power 2 trait 3", "trait 3 OR power 4",
+			"number", "rank:5", "rank:1-3", "trait 1 rank:4-10", "changed", "changed OR trait 6 rank:2-2",
+			"missing", "trait missing OR power 1" };
+
+	@Test
+	void findsWhatABruteForceScanFinds() throws Exception {
+		Map<String, Character> characters = new HashMap<String, Character>();
+		for (Character c : TestData.characters(300))
+			characters.put(c.getName(), c);
+		TextIndex index = new TextIndex(characters.values());
+		assertFinds(characters, index);
+	}
+
+	@Test
+	void compactsDeadIdsAwayWithoutLosingMatches() throws Exception {
+		Map<String, Character> characters = new HashMap<String, Character>();
+		for (Character c : TestData.characters(600))
+			characters.put(c.getName(), c);
+		TextIndex index = new TextIndex(characters.values());
+		int tokens = index.tokenCount();
+
+		// each update gives up an id, so these pass the compaction threshold more than once
+		Random random = new Random(3);
+		for (int i = 0; i < 3000; i++) {
+			String name = "Character " + random.nextInt(600);
+			if (i % 10 == 0) {
+				index.remove(name);
+				characters.remove(name);
+			} else {
+				SuperCharacter changed = new SuperCharacter(name, "Changed " + i, 1 + i % 10);
+				changed.addTrait("trait " + i % 9);
+				changed.addPower("power " + i % 4);
+				index.put(changed);
+				characters.put(name, changed);
+			}
+			if (i % 500 == 0)
+				assertFinds(characters, index);
+		}
+		assertFinds(characters, index);
+		// the tokens of the removed descriptions go with their last ids
+		assertTrue(index.tokenCount() < tokens + 3000, "dead tokens were not dropped");
+	}
+
+	@Test
+	void removingAnUnknownNameChangesNothing() throws Exception {
+		TextIndex index = new TextIndex(Arrays.asList(TestData.characters(3)));
+		index.remove("Not Indexed");
+		assertEquals(3, index.size());
+		assertEquals(Arrays.asList("Character 1"), index.find(TextQuery.parse("power 1")));
+	}
+
+	private static void assertFinds(Map<String, Character> characters, TextIndex index) {
+		assertEquals(characters.size(), index.size());
+		for (String text : QUERIES) {
+			TextQuery query = TextQuery.parse(text);
+			List<String> expected = new ArrayList<String>();
+			for (Character c : characters.values())
+				if (matches(c, query))
+					expected.add(c.getName());
+			Collections.sort(expected, NameIndex.ORDER);
+			assertEquals(expected, index.find(query), text);
+		}
+	}
+
+	private static boolean matches(Character c, TextQuery query) {
+		if (query.isRankFiltered()) {
+			if (!(c instanceof SuperCharacter))
+				return false;
+			int ranking = ((SuperCharacter) c).getPowerRanking();
+			if (ranking < query.minRanking() || ranking > query.maxRanking())
+				return false;
+		}
+		if (query.clauses().isEmpty())
+			return query.isRankFiltered();
+		Set<String> tokens = new HashSet<String>(TextQuery.tokens(c.getDescription()));
+		for (String trait : c.traits)
+			tokens.addAll(TextQuery.tokens(trait));
+		if (c instanceof SuperCharacter)
+			for (String power : ((SuperCharacter) c).powers)
+				tokens.addAll(TextQuery.tokens(power));
+		for (List<String> clause : query.clauses())
+			if (tokens.containsAll(clause))
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,71 @@
+package assignment3;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Parsing full-text queries and splitting text into tokens.
+ *
+ * @author Ali Nawaz Maan
+ */
+class TextQueryTest {
+
+	@Test
+	void splitsLowerCaseTokensOfLettersAndDigits() {
+		assertEquals(Arrays.asList("x", "ray", "vision", "2nd", "sight"), TextQuery.tokens("X-ray  vision, 2nd sight!"));
+		assertEquals(Collections.emptyList(), TextQuery.tokens(" -- "));
+		assertEquals(Collections.emptyList(), TextQuery.tokens(null));
+	}
+
+	@Test
+	void andsWordsAndSplitsClausesOnOr() {
+		TextQuery query = TextQuery.parse("  Flying AND strong OR telepathy  OR  x-ray ");
+		assertEquals(Arrays.asList(Arrays.asList("flying", "strong"), Arrays.asList("telepathy"),
+				Arrays.asList("x", "ray")), query.clauses());
+		assertFalse(query.isRankFiltered());
+		assertEquals("flying strong OR telepathy OR x ray", query.toString());
+	}
+
+	@Test
+	void dropsEmptyClauses() {
+		assertEquals(Arrays.asList(Arrays.asList("fast")), TextQuery.parse("OR fast OR OR -- OR").clauses());
+		assertTrue(TextQuery.parse("").clauses().isEmpty());
+		// lower case "or" is a word, not an operator
+		assertEquals(Arrays.asList(Arrays.asList("this", "or", "that")), TextQuery.parse("this or that").clauses());
+	}
+
+	@Test
+	void parsesRankFilters() {
+		TextQuery single = TextQuery.parse("strong rank:7");
+		assertEquals(Arrays.asList(Arrays.asList("strong")), single.clauses());
+		assertTrue(single.isRankFiltered());
+		assertEquals(7, single.minRanking());
+		assertEquals(7, single.maxRanking());
+
+		TextQuery range = TextQuery.parse("RANK:3-10");
+		assertTrue(range.clauses().isEmpty());
+		assertEquals(3, range.minRanking());
+		assertEquals(10, range.maxRanking());
+
+		TextQuery negative = TextQuery.parse("rank:-2-4");
+		assertEquals(-2, negative.minRanking());
+		assertEquals(4, negative.maxRanking());
+	}
+
+	@Test
+	void rejectsBadRankFilters() {
+		for (String text : new String[] { "rank:", "rank:high", "rank:1-", "rank:1-x", "rank:1-2-3" })
+			assertThrows(IllegalArgumentException.class, () -> TextQuery.parse(text), text);
+	}
+
+	@Test
+	void buildsQueriesFromTerms() {
+		TextQuery query = new TextQuery().or("Super strength", "flying").or("--").or().ranked(1, 5);
+		assertEquals(Arrays.asList(Arrays.asList("super", "strength", "flying")), query.clauses());
+		assertEquals("super strength flying rank:1-5", query.toString());
+	}
+}
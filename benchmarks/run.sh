@@ -0,0 +1,16 @@
+#!/bin/sh
+# Runs the JMH benchmarks and writes the results as JSON, named after the
+# current commit, to benchmarks/results/<commit>.json.
+#
+# Build first with: mvn -B package
+# Usage: benchmarks/run.sh [JMH options] [benchmark regexp]
+#   e.g. benchmarks/run.sh -p size=1000000 DatabaseReadBench.search
+set -e
+cd "$(dirname "$0")"
+commit=$(git rev-parse --short HEAD)
+if ! git diff --quiet HEAD -- ../src; then
+	commit="$commit-dirty"
+fi
+mkdir -p results
+java -jar target/benchmarks.jar -rf json -rff "results/$commit.json" "$@"
+echo "Results written to benchmarks/results/$commit.json"
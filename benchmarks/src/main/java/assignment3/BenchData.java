@@ -0,0 +1,144 @@
+package assignment3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Data shared by the JMH benchmarks: generated characters and databases of
+ * a given size, trait and power vocabulary, and the files they are saved in.
+ * <p>
+ * Everything is generated from a fixed seed, so every run, and every commit,
+ * measures the same data.
+ *
+ * @see CharacterGenerator
+ *
+ * @author Ali Nawaz Maan
+ */
+final class BenchData {
+	private static final long SEED = 42;
+
+	private BenchData() {
+	}
+
+	/**
+	 * Generates characters named "Character from" to "Character from+count-1".
+	 * @param from Index of the first character
+	 * @param count Number of characters
+	 * @param traits Number of distinct traits to draw from
+	 * @param powers Number of distinct powers to draw from
+	 * @return The characters, roughly half of them super-characters
+	 */
+	static Character[] characters(int from, int count, int traits, int powers) {
+		CharacterGenerator generator = new CharacterGenerator(SEED + from, traits, powers);
+		Character[] characters = new Character[count];
+		for (int i = 0; i < count; i++)
+			characters[i] = generator.next(from + i);
+		return characters;
+	}
+
+	/**
+	 * Creates an in-memory database of generated characters. Nothing is
+	 * written until the database is saved.
+	 * @param file File of the database
+	 * @param size Number of characters
+	 * @param traits Number of distinct traits to draw from
+	 * @param powers Number of distinct powers to draw from
+	 * @return The database
+	 */
+	static CharacterDatabase database(File file, int size, int traits, int powers) {
+		return database(file, characters(0, size, traits, powers));
+	}
+
+	/**
+	 * Creates an in-memory database of the given characters.
+	 * @param file File of the database
+	 * @param characters Characters of the database
+	 * @return The database
+	 */
+	static CharacterDatabase database(File file, Character[] characters) {
+		return database(file, characters, 1);
+	}
+
+	/**
+	 * Creates an in-memory database of the given characters, saved as the
+	 * given number of segment files.
+	 * @param file File of the database
+	 * @param characters Characters of the database
+	 * @param shards Number of segment files, 1 for a single file
+	 * @return The database
+	 */
+	static CharacterDatabase database(File file, Character[] characters, int shards) {
+		return database(file, characters, shards, CompressionCodec.NONE);
+	}
+
+	/**
+	 * Creates an in-memory database of the given characters, saved as the
+	 * given number of segment files with blocks compressed by the given codec.
+	 * @param file File of the database
+	 * @param characters Characters of the database
+	 * @param shards Number of segment files, 1 for a single file
+	 * @param codec Codec compressing the blocks of records
+	 * @return The database
+	 */
+	static CharacterDatabase database(File file, Character[] characters, int shards, CompressionCodec codec) {
+		CharacterDatabase database = new CharacterDatabase(file.getPath(), shards);
+		database.setCodec(codec);
+		database.updateAll(Arrays.asList(characters));
+		return database;
+	}
+
+	/**
+	 * Picks names of characters in a database of the given size, in random
+	 * order, so lookups do not walk the hash table in order.
+	 * @param size Number of characters in the database
+	 * @param count Number of names
+	 * @param distinct True if no name may be picked twice
+	 * @return The names
+	 */
+	static String[] names(int size, int count, boolean distinct) {
+		Random random = new Random(SEED);
+		String[] names = new String[count];
+		if (distinct) {
+			List<Integer> all = new ArrayList<Integer>(size);
+			for (int i = 0; i < size; i++)
+				all.add(i);
+			Collections.shuffle(all, random);
+			for (int i = 0; i < count; i++)
+				names[i] = CharacterGenerator.name(all.get(i));
+		} else {
+			for (int i = 0; i < count; i++)
+				names[i] = CharacterGenerator.name(random.nextInt(size));
+		}
+		return names;
+	}
+
+	/**
+	 * @param prefix Start of the file name
+	 * @return A new empty file in the temporary directory
+	 * @throws IOException If the file cannot be created
+	 */
+	static File tempFile(String prefix) throws IOException {
+		File file = File.createTempFile(prefix, ".dat");
+		file.deleteOnExit();
+		return file;
+	}
+
+	/**
+	 * Closes a database and deletes its file, segments and journals.
+	 * @param database Database to close, or null
+	 * @param file File of the database
+	 * @throws IOException If the database cannot be closed
+	 */
+	static void delete(CharacterDatabase database, File file) throws IOException {
+		if (database != null)
+			database.close();
+		for (String suffix : new String[] { "", ".journal", ".journal.compacting" })
+			new File(file.getPath() + suffix).delete();
+		File[] segments = file.getAbsoluteFile().getParentFile()
+				.listFiles((dir, name) -> name.startsWith(file.getName() + ".shard"));
+		if (segments != null)
+			for (File segment : segments)
+				segment.delete();
+	}
+}
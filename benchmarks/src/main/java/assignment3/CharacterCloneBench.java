@@ -0,0 +1,56 @@
+package assignment3;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Copying characters, as the editor does for every character it edits.
+ *
+ * @author Ali Nawaz Maan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CharacterCloneBench {
+	private static final int POOL = 1 << 10;
+
+	/** Number of distinct traits */
+	@Param("2000")
+	int traits;
+	/** Number of distinct powers */
+	@Param("500")
+	int powers;
+
+	private Character[] characters = new Character[POOL];
+	private SuperCharacter[] superCharacters = new SuperCharacter[POOL];
+	private int next;
+
+	@Setup
+	public void setUp() {
+		int plain = 0, supers = 0, i = 0;
+		CharacterGenerator generator = new CharacterGenerator(42, traits, powers);
+		while (plain < POOL || supers < POOL) {
+			Character c = generator.next(i++);
+			if (c instanceof SuperCharacter) {
+				if (supers < POOL)
+					superCharacters[supers++] = (SuperCharacter) c;
+			} else if (plain < POOL) {
+				characters[plain++] = c;
+			}
+		}
+	}
+
+	@Benchmark
+	public Object cloneCharacter() {
+		return characters[next++ & (POOL - 1)].clone();
+	}
+
+	@Benchmark
+	public Object cloneSuperCharacter() {
+		return superCharacters[next++ & (POOL - 1)].clone();
+	}
+}
@@ -0,0 +1,83 @@
+package assignment3;
+
+import java.util.*;
+
+/**
+ * Generates synthetic characters for benchmarking the database.
+ * <p>
+ * Names are unique and deterministic for a given seed. Traits and powers
+ * are drawn from a fixed vocabulary so that the same phrases repeat across
+ * characters, as they do in real databases.
+ *
+ * @author Ali Nawaz Maan
+ */
+class CharacterGenerator {
+
+	/** Images shipped with the editor */
+	private static final String[] IMAGES = { "images/default.png", "images/borker.png",
+			"images/doggo.png", "images/goodboy.png", "images/pupper.png", "images/woofer.png" };
+
+	private final Random random;
+	private final int traitCardinality;
+	private final int powerCardinality;
+
+	/**
+	 * Creates a generator with the default trait and power vocabulary sizes.
+	 * @param seed Random seed
+	 */
+	CharacterGenerator(long seed) {
+		this(seed, 2000, 500);
+	}
+
+	/**
+	 * Creates a generator.
+	 * @param seed Random seed
+	 * @param traitCardinality Number of distinct traits to draw from
+	 * @param powerCardinality Number of distinct powers to draw from
+	 */
+	CharacterGenerator(long seed, int traitCardinality, int powerCardinality) {
+		this.random = new Random(seed);
+		this.traitCardinality = traitCardinality;
+		this.powerCardinality = powerCardinality;
+	}
+
+	/**
+	 * @param i Index of the character
+	 * @return The unique name of the i-th generated character
+	 */
+	static String name(int i) {
+		return "Character " + i;
+	}
+
+	/**
+	 * Generates the i-th character. Roughly half of the characters
+	 * are super-characters.
+	 * @param i Index of the character
+	 * @return A new character
+	 */
+	Character next(int i) {
+		String description = "Generated character number " + i + " who likes trait "
+				+ random.nextInt(traitCardinality);
+		String image = IMAGES[random.nextInt(IMAGES.length)];
+		Character c;
+		if (random.nextBoolean()) {
+			int ranking = random.nextInt(11) == 0 ? SuperCharacter.UNRANKABLE
+					: SuperCharacter.MIN_POWER + random.nextInt(SuperCharacter.MAX_POWER);
+			try {
+				SuperCharacter s = new SuperCharacter(name(i), description, image, ranking);
+				int powers = 1 + random.nextInt(4);
+				for (int p = 0; p < powers; p++)
+					s.addPower("Power " + random.nextInt(powerCardinality));
+				c = s;
+			} catch (IllegalPowerRankingException e) {
+				throw new IllegalStateException(e); // ranking is always valid
+			}
+		} else {
+			c = new Character(name(i), description, image);
+		}
+		int traits = 1 + random.nextInt(5);
+		for (int t = 0; t < traits; t++)
+			c.addTrait("Trait " + random.nextInt(traitCardinality));
+		return c;
+	}
+}
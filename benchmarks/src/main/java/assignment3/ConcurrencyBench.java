@@ -0,0 +1,89 @@
+package assignment3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Throughput of a read/write mix on several threads, comparing the striped
+ * database with a Collections.synchronizedSet of characters, which is how
+ * the database was kept before.
+ * <p>
+ * Each operation is a lookup or, {@code writePercent} percent of the time,
+ * an update. The baseline makes its update atomic by holding the set's lock
+ * across the remove and the add. Run with {@code -t} to change the number
+ * of threads.
+ *
+ * @author Ali Nawaz Maan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class ConcurrencyBench {
+
+	/** Number of characters in the database */
+	@Param("100000")
+	int size;
+	/** Number of distinct traits */
+	@Param("2000")
+	int traits;
+	/** Number of distinct powers */
+	@Param("500")
+	int powers;
+	/** Percentage of the operations that are updates */
+	@Param("10")
+	int writePercent;
+
+	private File file;
+	private CharacterDatabase database;
+	private Set<Character> set;
+	/** Snapshots of the characters, so an update does not copy them */
+	private Character[] characters;
+
+	@Setup
+	public void setUp() throws IOException {
+		file = BenchData.tempFile("concurrency");
+		characters = BenchData.characters(0, size, traits, powers);
+		for (int i = 0; i < size; i++)
+			characters[i] = characters[i].freeze();
+		database = BenchData.database(file, characters);
+		set = Collections.synchronizedSet(new HashSet<Character>(Arrays.asList(characters)));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		BenchData.delete(database, file);
+	}
+
+	@Benchmark
+	public Character striped() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Character c = characters[random.nextInt(characters.length)];
+		if (random.nextInt(100) < writePercent) {
+			database.update(c);
+			return c;
+		}
+		return database.search(c.getName());
+	}
+
+	@Benchmark
+	public boolean synchronizedSet() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Character c = characters[random.nextInt(characters.length)];
+		if (random.nextInt(100) < writePercent) {
+			synchronized (set) {
+				set.remove(c);
+				return set.add(c);
+			}
+		}
+		return set.contains(c);
+	}
+}
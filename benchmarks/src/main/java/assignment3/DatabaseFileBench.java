@@ -0,0 +1,240 @@
+package assignment3;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Saving a database to its file and loading it back, opening it paged or
+ * memory-mapped, and loading a file in the legacy serialized format.
+ * <p>
+ * A save either appends the changes since the last save to the journal or,
+ * for a database without one, writes a full snapshot; both are measured.
+ * Each is a single save after the changes have been made, so the scores are
+ * per save.
+ * <p>
+ * Run with {@code -p shards=1,8} to compare a single file with a sharded
+ * database, whose segments are loaded and saved in parallel, and with
+ * {@code -p codec=NONE,DEFLATE,LZ} to compare the compression codecs. The
+ * size of each saved file is printed when it is written.
+ *
+ * @author Ali Nawaz Maan
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+public class DatabaseFileBench {
+
+	/**
+	 * Database file settings shared by all the states.
+	 */
+	@State(Scope.Benchmark)
+	public static class Data {
+		/** Number of characters in the database */
+		@Param({ "10000", "100000" })
+		int size;
+		/** Number of distinct traits */
+		@Param("2000")
+		int traits;
+		/** Number of distinct powers */
+		@Param("500")
+		int powers;
+		/** Number of segment files, 1 for a single file */
+		@Param("1")
+		int shards;
+		/** Codec compressing the blocks of records */
+		@Param("NONE")
+		CompressionCodec codec;
+
+		Character[] characters;
+
+		@Setup
+		public void setUp() {
+			characters = BenchData.characters(0, size, traits, powers);
+		}
+	}
+
+	/**
+	 * A saved database file, loaded afresh by each call.
+	 */
+	@State(Scope.Benchmark)
+	public static class Saved {
+		File file;
+
+		@Setup
+		public void setUp(Data data) throws IOException {
+			file = BenchData.tempFile("load");
+			CharacterDatabase database = BenchData.database(file, data.characters, data.shards, data.codec);
+			database.save();
+			database.close();
+			System.out.printf("%n%s, %d shards: %d bytes%n", data.codec, data.shards, bytes(file));
+		}
+
+		/** Size of the file and its segments */
+		private static long bytes(File file) {
+			long bytes = file.length();
+			File[] segments = file.getAbsoluteFile().getParentFile()
+					.listFiles((dir, name) -> name.startsWith(file.getName() + ".shard"));
+			if (segments != null)
+				for (File segment : segments)
+					bytes += segment.length();
+			return bytes;
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			BenchData.delete(null, file);
+		}
+	}
+
+	/**
+	 * A database with a journal and some unsaved changes.
+	 */
+	@State(Scope.Benchmark)
+	public static class Journaled {
+		/** Number of characters changed before each save */
+		@Param({ "1", "1000" })
+		int changes;
+
+		File file;
+		CharacterDatabase database;
+		Character[] replacements;
+		int next;
+
+		@Setup
+		public void setUp(Data data) throws IOException {
+			file = BenchData.tempFile("journal");
+			database = BenchData.database(file, data.characters, data.shards, data.codec);
+			database.save(); // writes the snapshot and starts the journal
+			replacements = BenchData.characters(0, data.size, data.traits + 1, data.powers + 1);
+		}
+
+		@Setup(Level.Iteration)
+		public void change() {
+			for (int i = 0; i < changes; i++)
+				database.update(replacements[next++ % replacements.length]);
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			BenchData.delete(database, file);
+		}
+	}
+
+	/**
+	 * A database that has not been saved yet.
+	 */
+	@State(Scope.Benchmark)
+	public static class Unsaved {
+		File file;
+		CharacterDatabase database;
+
+		@Setup
+		public void setUp() throws IOException {
+			file = BenchData.tempFile("snapshot");
+		}
+
+		@Setup(Level.Iteration)
+		public void fill(Data data) throws IOException {
+			BenchData.delete(database, file);
+			database = BenchData.database(file, data.characters, data.shards, data.codec);
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			BenchData.delete(database, file);
+		}
+	}
+
+	/**
+	 * An uncompressed file of the characters out of name order, so it has no
+	 * page directory and the database opens it memory-mapped.
+	 */
+	@State(Scope.Benchmark)
+	public static class Unpaged {
+		File file;
+
+		@Setup
+		public void setUp(Data data) throws IOException {
+			file = BenchData.tempFile("mapped");
+			CharacterFile.write(file.getPath(), Arrays.asList(data.characters), DatabaseProgress.NONE);
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			BenchData.delete(null, file);
+		}
+	}
+
+	/**
+	 * The characters serialized as a HashSet, as the database saved them
+	 * before the binary format.
+	 */
+	@State(Scope.Benchmark)
+	public static class Legacy {
+		File file;
+
+		@Setup
+		public void setUp(Data data) throws IOException {
+			file = BenchData.tempFile("legacy");
+			Set<Character> characters = new HashSet<Character>();
+			for (Character c : data.characters)
+				characters.add(c);
+			try (ObjectOutputStream out = new ObjectOutputStream(
+					new BufferedOutputStream(new FileOutputStream(file)))) {
+				out.writeObject(characters);
+			}
+			System.out.printf("%nlegacy: %d bytes%n", file.length());
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			BenchData.delete(null, file);
+		}
+	}
+
+	@Benchmark
+	public CharacterDatabase load(Saved saved) throws Exception {
+		CharacterDatabase database = new CharacterDatabase(saved.file.getPath());
+		database.load();
+		database.close();
+		return database;
+	}
+
+	@Benchmark
+	public CharacterDatabase open(Saved saved) throws Exception {
+		CharacterDatabase database = new CharacterDatabase(saved.file.getPath());
+		database.open();
+		database.close();
+		return database;
+	}
+
+	@Benchmark
+	public CharacterDatabase openMapped(Unpaged unpaged) throws Exception {
+		CharacterDatabase database = new CharacterDatabase(unpaged.file.getPath());
+		database.open();
+		database.close();
+		return database;
+	}
+
+	@Benchmark
+	public Set<Character> loadLegacy(Legacy legacy) throws Exception {
+		return CharacterDatabase.readLegacy(legacy.file.getPath());
+	}
+
+	@Benchmark
+	public void saveJournal(Journaled journaled) throws IOException {
+		journaled.database.save();
+	}
+
+	@Benchmark
+	public void saveSnapshot(Unsaved unsaved) throws IOException {
+		unsaved.database.save();
+	}
+}
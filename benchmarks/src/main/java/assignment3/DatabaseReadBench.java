@@ -0,0 +1,80 @@
+package assignment3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Lookups and listings on an in-memory database.
+ * <p>
+ * Run with {@code -p size=...,traits=...,powers=...} to change the database.
+ *
+ * @author Ali Nawaz Maan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatabaseReadBench {
+	private static final int LOOKUPS = 1 << 16;
+
+	/** Number of characters in the database */
+	@Param({ "10000", "100000" })
+	int size;
+	/** Number of distinct traits */
+	@Param("2000")
+	int traits;
+	/** Number of distinct powers */
+	@Param("500")
+	int powers;
+
+	private File file;
+	private CharacterDatabase database;
+	private String[] names;
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException {
+		file = BenchData.tempFile("read");
+		database = BenchData.database(file, size, traits, powers);
+		names = BenchData.names(size, LOOKUPS, false);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		BenchData.delete(database, file);
+	}
+
+	private String nextName() {
+		return names[next++ & (LOOKUPS - 1)];
+	}
+
+	@Benchmark
+	public Character search() {
+		return database.search(nextName());
+	}
+
+	@Benchmark
+	public boolean contains() {
+		return database.contains(nextName());
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public List<String> getCharacterNames() {
+		return database.getCharacterNames();
+	}
+
+	/** Pinning a version for a save or an export, which should not depend on size */
+	@Benchmark
+	public boolean pin() {
+		DatabaseVersion version = database.pin();
+		version.close();
+		return version.isClosed();
+	}
+}
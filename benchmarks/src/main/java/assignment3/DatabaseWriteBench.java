@@ -0,0 +1,98 @@
+package assignment3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Adding, replacing and removing characters in an in-memory database.
+ * <p>
+ * Adds and removes change the size of the database, so they are measured
+ * as batches of {@value #BATCH} calls, and the database is put back as it
+ * was before each batch. Scores of add and remove are per batch.
+ *
+ * @author Ali Nawaz Maan
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class DatabaseWriteBench {
+	static final int BATCH = 1000;
+
+	/** Number of characters in the database */
+	@Param({ "10000", "100000" })
+	int size;
+	/** Number of distinct traits */
+	@Param("2000")
+	int traits;
+	/** Number of distinct powers */
+	@Param("500")
+	int powers;
+
+	private File file;
+	private CharacterDatabase database;
+	/** Characters not in the database, to add */
+	private Character[] added;
+	/** Characters in the database, to remove */
+	private Character[] removed;
+	/** Replacements of characters in the database */
+	private Character[] updated;
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException {
+		file = BenchData.tempFile("write");
+		database = BenchData.database(file, size, traits, powers);
+		added = BenchData.characters(size, BATCH, traits, powers);
+		String[] names = BenchData.names(size, BATCH, true);
+		removed = new Character[BATCH];
+		for (int i = 0; i < BATCH; i++)
+			removed[i] = database.search(names[i]);
+		updated = BenchData.characters(0, Math.min(size, 1 << 14), traits + 1, powers + 1);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		BenchData.delete(database, file);
+	}
+
+	/**
+	 * Puts the database back to its first state before each batch.
+	 */
+	@Setup(Level.Iteration)
+	public void reset() {
+		String[] names = new String[BATCH];
+		for (int i = 0; i < BATCH; i++)
+			names[i] = added[i].getName();
+		database.removeAll(Arrays.asList(names));
+		database.updateAll(Arrays.asList(removed));
+		next = 0;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 20, batchSize = BATCH)
+	@Measurement(iterations = 50, batchSize = BATCH)
+	public void add() {
+		database.add(added[next++]);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 20, batchSize = BATCH)
+	@Measurement(iterations = 50, batchSize = BATCH)
+	public void remove() {
+		database.remove(removed[next++].getName());
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@Warmup(iterations = 5, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	public void update() {
+		database.update(updated[next++ % updated.length]);
+	}
+}
@@ -0,0 +1,112 @@
+package assignment3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Memory and disk held per character: heap per editable character and per
+ * database character, snapshot file bytes per character and journal bytes
+ * per update.
+ * <p>
+ * These are sizes rather than times, so each shot builds the characters,
+ * fills a database with them, saves it and journals {@value #UPDATES}
+ * updates, and the sizes are reported as the secondary results
+ * {@code editableBytes}, {@code databaseBytes}, {@code fileBytes} and
+ * {@code journalBytes}. JMH adds these up over the measurement iterations,
+ * so there is only one. The default million characters need a heap of a few
+ * gigabytes, which the fork is given.
+ *
+ * @author Ali Nawaz Maan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MemoryBench {
+	static final int UPDATES = 10000;
+
+	/** Number of characters in the database */
+	@Param("1000000")
+	int size;
+	/** Number of distinct traits */
+	@Param("2000")
+	int traits;
+	/** Number of distinct powers */
+	@Param("500")
+	int powers;
+
+	/**
+	 * The sizes measured by a shot.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Footprint {
+		/** Heap held per editable character */
+		public double editableBytes;
+		/** Heap held per character of a database */
+		public double databaseBytes;
+		/** Snapshot file bytes per character */
+		public double fileBytes;
+		/** Journal bytes per update */
+		public double journalBytes;
+	}
+
+	private File file;
+	private CharacterDatabase database;
+
+	@Setup(Level.Iteration)
+	public void setUp() throws IOException {
+		file = BenchData.tempFile("memory");
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() throws IOException {
+		BenchData.delete(database, file);
+		database = null;
+	}
+
+	@Benchmark
+	public CharacterDatabase footprint(Footprint footprint) throws Exception {
+		long empty = usedHeap();
+		Character[] characters = BenchData.characters(0, size, traits, powers);
+		footprint.editableBytes = (double) (usedHeap() - empty) / size;
+
+		database = fill(characters);
+		characters = null;
+		footprint.databaseBytes = (double) (usedHeap() - empty) / size;
+
+		database.save();
+		footprint.fileBytes = (double) file.length() / size;
+
+		File journal = new File(file.getPath() + ".journal");
+		long before = journal.length();
+		CharacterGenerator updates = new CharacterGenerator(7, traits, powers);
+		for (int i = 0; i < UPDATES; i++)
+			database.update(updates.next(i * Math.max(1, size / UPDATES) % size));
+		database.save();
+		footprint.journalBytes = (double) (journal.length() - before) / UPDATES;
+		return database;
+	}
+
+	/**
+	 * Adds the characters to a new database. In a method of its own, so
+	 * nothing in the caller's frame keeps the characters alive afterwards.
+	 */
+	private CharacterDatabase fill(Character[] characters) {
+		return BenchData.database(file, characters);
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
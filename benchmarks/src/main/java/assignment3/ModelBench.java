@@ -0,0 +1,56 @@
+package assignment3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Adding characters through the model, as the editor's save button does.
+ * The characters replace ones already in the database, so its size does
+ * not change.
+ *
+ * @author Ali Nawaz Maan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBench {
+
+	/** Number of characters in the database */
+	@Param({ "10000", "100000" })
+	int size;
+	/** Number of distinct traits */
+	@Param("2000")
+	int traits;
+	/** Number of distinct powers */
+	@Param("500")
+	int powers;
+
+	private File file;
+	private Model model;
+	private Character[] replacements;
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException {
+		file = BenchData.tempFile("model");
+		model = new Model();
+		model.database = BenchData.database(file, size, traits, powers);
+		replacements = BenchData.characters(0, Math.min(size, 1 << 14), traits + 1, powers + 1);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		BenchData.delete(model.database, file);
+	}
+
+	@Benchmark
+	public void addCharacter() {
+		model.addCharacter(replacements[next++ % replacements.length]);
+	}
+}
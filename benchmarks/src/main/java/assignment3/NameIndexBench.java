@@ -0,0 +1,84 @@
+package assignment3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Type-ahead name search: the latency of each keystroke while typing a
+ * query, building the index, and keeping it up to date as names are added
+ * and removed.
+ * <p>
+ * Each {@code typed} value is the text typed so far, so the prefixes of one
+ * query show how the latency changes as it is typed.
+ *
+ * @author Ali Nawaz Maan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NameIndexBench {
+	/** Names per page of results, as the editor's list asks for */
+	private static final int PAGE = 1000;
+	private static final int ADDED = 1 << 10;
+
+	/** Number of names in the index */
+	@Param({ "100000", "1000000" })
+	int size;
+
+	/**
+	 * The text typed so far.
+	 */
+	@State(Scope.Benchmark)
+	public static class Typed {
+		@Param({ "c", "char", "character 4242", "r", "r 99", "1", "123", "12345" })
+		String typed;
+	}
+
+	private List<String> names;
+	private NameIndex index;
+	/** Names not in the index, to add and remove */
+	private String[] added = new String[ADDED];
+	private int next;
+
+	@Setup
+	public void setUp() {
+		names = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++)
+			names.add(CharacterGenerator.name(i));
+		index = new NameIndex(names);
+		index.buildPostings();
+		for (int i = 0; i < ADDED; i++)
+			added[i] = "Added " + i;
+	}
+
+	@Benchmark
+	public List<String> find(Typed typed) {
+		return index.find(typed.typed, 0, PAGE);
+	}
+
+	/** Building the index with its posting lists, as the first search does */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 10)
+	public NameIndex build() {
+		NameIndex built = new NameIndex(names);
+		built.buildPostings();
+		return built;
+	}
+
+	/** Adding a name and removing it again, so the index keeps its size */
+	@Benchmark
+	public int addRemove() {
+		String name = added[next++ & (ADDED - 1)];
+		index.add(name);
+		return index.remove(name);
+	}
+}
@@ -0,0 +1,84 @@
+package assignment3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Full-text search over descriptions, traits and powers: the latency of
+ * single term, AND, OR and ranking filtered queries, and building the index.
+ *
+ * @author Ali Nawaz Maan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextIndexBench {
+
+	/** Number of characters in the database */
+	@Param({ "10000", "100000" })
+	int size;
+	/** Number of distinct traits */
+	@Param("2000")
+	int traits;
+	/** Number of distinct powers */
+	@Param("500")
+	int powers;
+
+	/**
+	 * A query, in the syntax of {@link TextQuery#parse(String)}.
+	 */
+	@State(Scope.Benchmark)
+	public static class Query {
+		@Param({ "trait", "trait 42", "power 7 trait 42", "trait 42 OR power 7", "42 OR 43 OR 44",
+				"trait 42 rank:7-10", "rank:10", "generated character number 1234" })
+		String text;
+
+		TextQuery query;
+
+		@Setup
+		public void setUp() {
+			query = TextQuery.parse(text);
+		}
+	}
+
+	private File file;
+	private CharacterDatabase database;
+	private List<Character> characters;
+
+	@Setup
+	public void setUp() throws IOException {
+		file = BenchData.tempFile("text");
+		Character[] generated = BenchData.characters(0, size, traits, powers);
+		database = BenchData.database(file, generated);
+		database.findCharacters(new TextQuery()); // builds the index
+		characters = Arrays.asList(generated);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		BenchData.delete(database, file);
+	}
+
+	@Benchmark
+	public List<String> find(Query query) {
+		return database.findCharacters(query.query);
+	}
+
+	/** Building the index, as the first full-text search does */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 10)
+	public TextIndex build() {
+		return new TextIndex(characters);
+	}
+}
@@ -0,0 +1,88 @@
+package assignment3;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Saves a database in the background some time after it changes.
+ * <p>
+ * The first change after a save sets a timer, and changes made before it
+ * goes off are saved together, so a burst of edits costs one save. If the
+ * number of unsaved changes reaches a bound first, the save starts at once,
+ * which bounds the size, and so the time, of each save during bulk edits.
+ * A save only writes the characters changed since the last one, once each
+ * however often they changed (see {@link CharacterDatabase#save()}), and
+ * edits go on while it writes.
+ * <p>
+ * Saves run on one shared daemon thread. A failed save is reported and
+ * its changes are kept for the next one.
+ *
+ * @see CharacterDatabase#setAutosave(long, TimeUnit, int)
+ *
+ * @author Ali Nawaz Maan
+ */
+final class Autosave {
+	private static final ScheduledExecutorService SAVER = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "CharacterDatabase autosave");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final CharacterDatabase database;
+	private final long intervalNanos;
+	private final int maxUnsaved;
+
+	/** True while a timed save is waiting */
+	private final AtomicBoolean timerSet = new AtomicBoolean();
+	/** True while a save started by the bound is waiting */
+	private final AtomicBoolean saveQueued = new AtomicBoolean();
+	private volatile boolean stopped;
+
+	/**
+	 * @param database Database to save
+	 * @param intervalNanos Longest time a change waits to be saved
+	 * @param maxUnsaved Number of unsaved changes that starts a save at once
+	 */
+	Autosave(CharacterDatabase database, long intervalNanos, int maxUnsaved) {
+		this.database = database;
+		this.intervalNanos = intervalNanos;
+		this.maxUnsaved = maxUnsaved;
+	}
+
+	/**
+	 * Called after each change. Does not block.
+	 * @param unsaved Number of characters changed since the last save
+	 */
+	void changed(int unsaved) {
+		if (stopped)
+			return;
+		if (unsaved >= maxUnsaved && saveQueued.compareAndSet(false, true))
+			SAVER.execute(() -> run(saveQueued));
+		else if (timerSet.compareAndSet(false, true))
+			SAVER.schedule(() -> run(timerSet), intervalNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Saves the database, first clearing the flag of the trigger, so changes
+	 * made during the save set it again.
+	 */
+	private void run(AtomicBoolean trigger) {
+		trigger.set(false);
+		if (stopped || database.unsavedChanges() == 0)
+			return;
+		try {
+			database.save();
+		} catch (IOException | RuntimeException e) {
+			// the changes stay unsaved and are retried on the next change or explicit save
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Stops saving. A save already running finishes.
+	 */
+	void stop() {
+		stopped = true;
+	}
+}
@@ -0,0 +1,32 @@
+package assignment3;
+
+/**
+ * The outcome of one item of a batch change.
+ *
+ * @see CharacterDatabase#addAll(java.util.Collection)
+ * @see CharacterDatabase#updateAll(java.util.Collection)
+ * @see CharacterDatabase#removeAll(java.util.Collection)
+ *
+ * @author Ali Nawaz Maan
+ */
+public enum BatchResult {
+	/** The character was added */
+	ADDED,
+	/** The character replaced one with the same name */
+	UPDATED,
+	/** The character was removed */
+	REMOVED,
+	/** Not added, as a character with the same name is already in the database */
+	EXISTS,
+	/** Not removed, as no character has that name */
+	NOT_FOUND,
+	/** Not changed, as the character or name failed validation */
+	INVALID;
+
+	/**
+	 * @return True if the item changed the database
+	 */
+	public boolean isApplied() {
+		return this == ADDED || this == UPDATED || this == REMOVED;
+	}
+}
@@ -0,0 +1,180 @@
+package assignment3;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.ToLongFunction;
+
+/**
+ * A cache of values bounded by their total size in bytes, evicting the least
+ * recently used value first. The paged database files keep the pages they
+ * read in one, and {@link ImageCache} keeps decoded images in another.
+ * <p>
+ * Values are loaded by the caller outside the pool's lock, either through a
+ * {@link Loader} or by adding them when ready, so threads loading different
+ * values do not wait for each other. Two threads missing the same value may
+ * both load it; the first one added is kept.
+ *
+ * @param <K> Type of the keys
+ * @param <V> Type of the values
+ *
+ * @see PagedCharacterFile
+ * @see ImageCache
+ *
+ * @author Ali Nawaz Maan
+ */
+final class BufferPool<K, V> {
+	/** Default bound of a pool, 16MB */
+	static final long DEFAULT_MAX_BYTES = 16L << 20;
+
+	/** Bound of the pools of paged databases, from the assignment3.bufferPoolBytes system property */
+	static final long CONFIGURED_MAX_BYTES = Long.getLong("assignment3.bufferPoolBytes", DEFAULT_MAX_BYTES);
+
+	/**
+	 * Loads a value that is not in the pool.
+	 */
+	interface Loader<K, V> {
+		V load(K key) throws IOException;
+	}
+
+	private final long maxBytes;
+	private final ToLongFunction<V> sizeOf;
+	/** Pooled values in access order, least recently used first */
+	private final LinkedHashMap<K, V> entries = new LinkedHashMap<K, V>(16, 0.75f, true);
+	private long bytes;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Creates an empty pool.
+	 * @param maxBytes Bound on the total size of the pooled values
+	 * @param sizeOf Gives the size of a value in bytes
+	 */
+	BufferPool(long maxBytes, ToLongFunction<V> sizeOf) {
+		this.maxBytes = maxBytes;
+		this.sizeOf = sizeOf;
+	}
+
+	/**
+	 * Gets a value, loading it if it is not in the pool.
+	 * @param key Key of the value
+	 * @param loader Loads the value if it is not pooled
+	 * @return The value
+	 * @throws IOException If the loader fails
+	 */
+	V get(K key, Loader<K, V> loader) throws IOException {
+		V value = getIfPresent(key);
+		return value != null ? value : putIfAbsent(key, loader.load(key));
+	}
+
+	/**
+	 * Gets a value if it is in the pool, counting a hit or a miss.
+	 * @param key Key of the value
+	 * @return The value, or null if it is not pooled
+	 */
+	synchronized V getIfPresent(K key) {
+		V value = entries.get(key);
+		if (value != null)
+			hits++;
+		else
+			misses++;
+		return value;
+	}
+
+	/**
+	 * @param key Key of a value
+	 * @return True if the value is in the pool; neither a hit nor a miss, and
+	 * not a use of the value
+	 */
+	synchronized boolean contains(K key) {
+		return entries.containsKey(key);
+	}
+
+	/**
+	 * Adds a loaded value, unless another one was added under its key in the
+	 * meantime. A value larger than the whole pool is not kept.
+	 * @param key Key of the value
+	 * @param value The value
+	 * @return The pooled value, which is the given one unless another was added first
+	 */
+	V putIfAbsent(K key, V value) {
+		long size = sizeOf.applyAsLong(value);
+		synchronized (this) {
+			V raced = entries.get(key);
+			if (raced != null)
+				return raced;
+			if (size <= maxBytes) {
+				entries.put(key, value);
+				bytes += size;
+				evict();
+			}
+		}
+		return value;
+	}
+
+	private void evict() {
+		Iterator<V> it = entries.values().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			bytes -= sizeOf.applyAsLong(it.next());
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Drops every value.
+	 */
+	synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * @return The number of values in the pool
+	 */
+	synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return The bound on the total size of the pooled values
+	 */
+	long maxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return The number of values found in the pool
+	 */
+	synchronized long hits() {
+		return hits;
+	}
+
+	/**
+	 * @return The number of values that were not in the pool
+	 */
+	synchronized long misses() {
+		return misses;
+	}
+
+	/**
+	 * @return The number of values evicted to stay within the bound
+	 */
+	synchronized long evictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return The total size of the pooled values in bytes
+	 */
+	synchronized long bytes() {
+		return bytes;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("Buffer pool: %d entries, %d of %d bytes, %d hits, %d misses, %d evictions",
+				entries.size(), bytes, maxBytes, hits, misses, evictions);
+	}
+}
@@ -18,6 +18,9 @@ import java.io.*;
  */
 
 public class Character implements Serializable {
+	/** Pinned so that databases written before snapshots were added still load */
+	private static final long serialVersionUID = -1479898999382337890L;
+
 	/** Character's name */
     protected String name;
     /** Character's description */
@@ -30,6 +33,9 @@ public class Character implements Serializable {
     /** Default image location */
     private static String DEFAULT_IMAGE_LOCATION = "images/default.png";
 
+    /** True if this character is a read-only snapshot */
+    private transient boolean frozen;
+
     /*
      * Invariants:
      * 
@@ -46,7 +52,7 @@ public class Character implements Serializable {
 	public Character(String n, String d) {
 		name = n;
 		description = d;
-		traits = new HashSet<String>();
+		traits = new CompactStringSet();
 	}
 	
 	/** As for Character(n, d)
@@ -82,6 +88,7 @@ public class Character implements Serializable {
      * @param path	The Character's image path as a String.
      */
     public void setImagePath(String path) {
+    		checkMutable();
     		imagePath = path;
     }
 
@@ -90,20 +97,21 @@ public class Character implements Serializable {
      * 
      * @param n Character's name as a String.
      */
-    public void setName(String n) { name = n; }
+    public void setName(String n) { checkMutable(); name = n; }
 
     /**
      * Set the Character's description.
      * 
      * @param d Character's description as a String.
      */
-    public void setDescription(String d) { description = d; }
+    public void setDescription(String d) { checkMutable(); description = d; }
 
 	/** Add a trait to the Character's set of traits.
      * 
      * @param t The character's trait to add.
      */
     public void addTrait(String t) {
+        checkMutable();
         traits.add(t);
     }
 
@@ -111,9 +119,53 @@ public class Character implements Serializable {
      * Remove a trait from the Character's set of traits.
      */
     public void removeTrait(String t) {
+        checkMutable();
         traits.remove(t);
     }
 
+    /**
+     * @return True if this character is a read-only snapshot, which must be
+     * cloned before it is edited.
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Makes this character a read-only snapshot. A snapshot can be shared
+     * without copying; its clones are editable.
+     *
+     * @return This character.
+     */
+    Character freeze() {
+        frozen = true;
+        return this;
+    }
+
+    /**
+     * Makes this character a read-only snapshot whose image path and traits
+     * are kept in the given dictionary, shared with the other snapshots of a
+     * database. A character that is already a snapshot is left as it is.
+     *
+     * @param dictionary Dictionary of the database that will hold the snapshot.
+     * @return This character.
+     */
+    Character freeze(StringDictionary dictionary) {
+        if (frozen)
+            return this;
+        imagePath = dictionary.intern(imagePath);
+        traits = dictionary.encode(traits);
+        return freeze();
+    }
+
+    /**
+     * @throws UnsupportedOperationException If this character is a read-only snapshot.
+     */
+    protected void checkMutable() {
+        if (frozen)
+            throw new UnsupportedOperationException(name + " is a read-only snapshot, edit a clone of it");
+    }
+
     @Override
     public String toString() {
         String s = name + "\n" + description + "\n\n" + "Traits:\n" + traits;
@@ -170,13 +222,7 @@ public class Character implements Serializable {
      * @return True if validation passed, false otherwise.
      */
     protected boolean compareTraits(Set<String> expectedTraits) {
-        if (traits.size() != expectedTraits.size())
-            return false;
-        for (String trait : expectedTraits) {
-            if (!traits.contains(trait))
-                return false;
-        }
-        return true;
+        return traits.size() == expectedTraits.size() && traits.containsAll(expectedTraits);
     }
 
 	@Override
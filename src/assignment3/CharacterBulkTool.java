@@ -0,0 +1,299 @@
+package assignment3;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Imports characters into a database from CSV or JSON lines files, and
+ * exports a database to them.
+ * <p>
+ * Usage:
+ * <pre>
+ * CharacterBulkTool import &lt;database&gt; &lt;input.csv|input.jsonl&gt; [threads]
+ * CharacterBulkTool export &lt;database&gt; &lt;output.csv|output.jsonl&gt;
+ * </pre>
+ * An import reads the input in chunks of {@link #CHUNK_SIZE} records. The
+ * chunks are parsed and validated in parallel and merged into the database
+ * in input order, one chunk at a time, so a character that appears twice
+ * ends up as its last record. Rejected records are reported with their line
+ * numbers and do not stop the import.
+ * <p>
+ * An export of a binary database maps the file and decodes one character
+ * at a time, so the database is never held in memory as a whole. It writes
+ * a version pinned when it starts, in name order, so it is consistent even
+ * if the database changes meanwhile.
+ *
+ * @see CharacterTextFormat
+ *
+ * @author Ali Nawaz Maan
+ */
+public class CharacterBulkTool {
+	/** Records per chunk */
+	static final int CHUNK_SIZE = 2048;
+	/** Rejected records reported in full; the rest are only counted */
+	private static final int MAX_REPORTED_ERRORS = 20;
+
+	public static void main(String[] args) {
+		if (args.length < 3 || args.length > 4
+				|| !(args[0].equals("import") || args[0].equals("export") && args.length == 3)) {
+			System.out.println("Usage: CharacterBulkTool import <database> <input.csv|input.jsonl> [threads]");
+			System.out.println("       CharacterBulkTool export <database> <output.csv|output.jsonl>");
+			return;
+		}
+		try {
+			if (args[0].equals("import")) {
+				int threads = args.length == 4 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+				importFile(args[1], args[2], threads);
+			} else {
+				exportFile(args[1], args[2]);
+			}
+		} catch (Exception e) {
+			System.out.println("AN ERROR OCCURRED:");
+			System.out.println("    " + e.getMessage());
+		}
+	}
+
+	/**
+	 * A chunk of records and the line each one starts on.
+	 */
+	private static final class Chunk {
+		final List<String> records = new ArrayList<String>(CHUNK_SIZE);
+		final List<Integer> lines = new ArrayList<Integer>(CHUNK_SIZE);
+	}
+
+	/**
+	 * The characters parsed from a chunk, the line each one starts on, and
+	 * the records rejected.
+	 */
+	private static final class Parsed {
+		final List<Character> characters = new ArrayList<Character>(CHUNK_SIZE);
+		final List<Integer> lines = new ArrayList<Integer>(CHUNK_SIZE);
+		final List<String> errors = new ArrayList<String>();
+	}
+
+	/**
+	 * Imports a CSV or JSON lines file into a database, creating the database
+	 * if it does not exist, and saves it.
+	 * @param database File path of the database
+	 * @param input File path of the records to import
+	 * @param threads Number of parser threads
+	 * @return The number of records imported
+	 * @throws Exception If the database or the input cannot be read, or the database cannot be saved
+	 */
+	static int importFile(String database, String input, int threads) throws Exception {
+		CharacterTextFormat format = CharacterTextFormat.forFile(input);
+		CharacterDatabase db = openDatabase(database);
+		ExecutorService parsers = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		int rows = 0, imported = 0, rejected = 0;
+		try (Reader reader = new InputStreamReader(new FileInputStream(input), StandardCharsets.UTF_8)) {
+			LineReader in = new LineReader(reader);
+			// parse ahead of the merge, keeping a bounded number of chunks in flight
+			Deque<Future<Parsed>> pending = new ArrayDeque<Future<Parsed>>();
+			Chunk chunk;
+			int[] line = { 0 };
+			boolean first = true;
+			do {
+				chunk = readChunk(in, format, line, first);
+				first = false;
+				if (!chunk.records.isEmpty()) {
+					rows += chunk.records.size();
+					final Chunk toParse = chunk;
+					pending.add(parsers.submit(() -> parse(toParse, format)));
+				}
+				while (!pending.isEmpty() && (pending.size() > threads * 2 || chunk.records.isEmpty())) {
+					Parsed parsed = pending.remove().get();
+					imported += merge(db, parsed);
+					for (String error : parsed.errors) {
+						if (rejected++ < MAX_REPORTED_ERRORS)
+							System.out.println("Rejected " + error);
+					}
+				}
+			} while (!chunk.records.isEmpty());
+		} finally {
+			parsers.shutdownNow();
+		}
+		if (rejected > MAX_REPORTED_ERRORS)
+			System.out.printf("... and %d more rejected records%n", rejected - MAX_REPORTED_ERRORS);
+		db.save();
+		db.close();
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Imported %d of %d records from %s into %s in %.2f s (%.0f records/s imported, %d rejected)%n",
+				imported, rows, input, database, seconds, imported / seconds, rejected);
+		return imported;
+	}
+
+	/**
+	 * Reads up to CHUNK_SIZE records, joining the lines of multi-line records
+	 * with the line breaks they were written with.
+	 * @param line The number of the last line read, updated as lines are read
+	 * @return The chunk, empty at the end of the input
+	 */
+	private static Chunk readChunk(LineReader in, CharacterTextFormat format, int[] line, boolean first)
+			throws IOException {
+		Chunk chunk = new Chunk();
+		StringBuilder record = new StringBuilder();
+		while (chunk.records.size() < CHUNK_SIZE && in.readLine(record)) {
+			line[0]++;
+			if (!format.isComplete(record))
+				continue;
+			String whole = withoutLineBreak(record);
+			record.setLength(0);
+			if (whole.isEmpty())
+				continue;
+			if (first && chunk.records.isEmpty() && line[0] == 1 && format.isHeader(whole))
+				continue;
+			chunk.records.add(whole);
+			chunk.lines.add(line[0] - countLines(whole) + 1);
+		}
+		if (record.length() > 0) {
+			// an unterminated quote runs to the end of the input; let the parser reject it
+			String whole = withoutLineBreak(record);
+			chunk.records.add(whole);
+			chunk.lines.add(line[0] - countLines(whole) + 1);
+		}
+		return chunk;
+	}
+
+	/**
+	 * @return The record without the line break that ends it, if any
+	 */
+	private static String withoutLineBreak(CharSequence record) {
+		int end = record.length();
+		if (end > 0 && record.charAt(end - 1) == '\n')
+			end--;
+		if (end > 0 && record.charAt(end - 1) == '\r')
+			end--;
+		return record.subSequence(0, end).toString();
+	}
+
+	private static int countLines(CharSequence record) {
+		int lines = 1;
+		for (int i = 0; i < record.length(); i++)
+			if (record.charAt(i) == '\n')
+				lines++;
+		return lines;
+	}
+
+	private static Parsed parse(Chunk chunk, CharacterTextFormat format) {
+		Parsed parsed = new Parsed();
+		for (int i = 0; i < chunk.records.size(); i++) {
+			try {
+				parsed.characters.add(format.parse(chunk.records.get(i)));
+				parsed.lines.add(chunk.lines.get(i));
+			} catch (IllegalPowerRankingException | RuntimeException e) {
+				// a record the parser did not expect is rejected like any other
+				String message = e.getMessage() != null ? e.getMessage() : e.toString();
+				parsed.errors.add("line " + chunk.lines.get(i) + ": " + message);
+			}
+		}
+		return parsed;
+	}
+
+	/**
+	 * Reads lines with their line breaks, unlike BufferedReader, so a line
+	 * break in a quoted CSV field is imported as it was written.
+	 */
+	private static final class LineReader {
+		private final Reader in;
+		private final char[] buffer = new char[1 << 16];
+		private int at;
+		private int end;
+
+		LineReader(Reader in) {
+			this.in = in;
+		}
+
+		/**
+		 * Appends the next line and the line break ending it, if any.
+		 * @param out Receives the line
+		 * @return False if there are no more lines
+		 * @throws IOException If the input cannot be read
+		 */
+		boolean readLine(StringBuilder out) throws IOException {
+			boolean read = false;
+			while (true) {
+				if (at == end) {
+					end = Math.max(in.read(buffer), 0);
+					at = 0;
+					if (end == 0)
+						return read;
+				}
+				read = true;
+				int start = at;
+				while (at < end && buffer[at] != '\n')
+					at++;
+				boolean lineBreak = at < end;
+				if (lineBreak)
+					at++;
+				out.append(buffer, start, at - start);
+				if (lineBreak)
+					return true;
+			}
+		}
+	}
+
+	/**
+	 * Adds or replaces the parsed characters as one batch, adding the
+	 * characters the batch did not apply to the rejected records.
+	 * @return The number of characters imported
+	 */
+	private static int merge(CharacterDatabase db, Parsed parsed) {
+		List<BatchResult> results = db.updateAll(parsed.characters);
+		int imported = 0;
+		for (int i = 0; i < results.size(); i++) {
+			if (results.get(i).isApplied())
+				imported++;
+			else
+				parsed.errors.add("line " + parsed.lines.get(i) + ": not imported (" + results.get(i) + ")");
+		}
+		return imported;
+	}
+
+	/**
+	 * Writes every character of a database to a CSV or JSON lines file.
+	 * @param database File path of the database
+	 * @param output File path to write
+	 * @throws Exception If the database cannot be read or the output written
+	 */
+	static void exportFile(String database, String output) throws Exception {
+		CharacterTextFormat format = CharacterTextFormat.forFile(output);
+		CharacterDatabase db = new CharacterDatabase(database);
+		if (CharacterFile.isCharacterFile(database))
+			db.open();
+		else
+			db.load();
+		long start = System.nanoTime();
+		int rows = 0;
+		try (DatabaseVersion version = db.pin();
+				Writer out = new BufferedWriter(
+						new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8), 1 << 16)) {
+			if (format.header() != null)
+				out.write(format.header() + "\n");
+			for (Character c : version.characters()) {
+				out.write(format.format(c));
+				out.write('\n');
+				rows++;
+			}
+		} finally {
+			db.close();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Exported %d characters from %s to %s in %.2f s (%.0f rows/s)%n",
+				rows, database, output, seconds, rows / seconds);
+	}
+
+	private static CharacterDatabase openDatabase(String database) throws Exception {
+		CharacterDatabase db = new CharacterDatabase(database);
+		if (!new File(database).exists())
+			return db;
+		if (CharacterFile.isCharacterFile(database))
+			db.open();
+		else
+			db.load();
+		return db;
+	}
+}
@@ -1,16 +1,46 @@
 package assignment3;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.io.*;
+import java.nio.file.*;
 
 /**
  * A class representing a Character 'database'. 
  * <p>
  * Here, 'database' merely refers to a searchable collection,
  * that can be stored and loaded from file.
+ * <p>
+ * A database in the binary format is stored as a snapshot file plus a
+ * journal of the changes made since the snapshot was written. Saving only
+ * appends the characters changed since the last save to the journal, once
+ * each however often they changed; once the journal grows large enough it
+ * is folded into a new snapshot in the background. Saving can also be left
+ * to a background autosave (see {@link #setAutosave(long, TimeUnit, int)}).
+ * <p>
+ * The database is safe for use by several threads. Lookups take no locks.
+ * Each change locks one of {@link #STRIPES} locks, chosen by the hash of
+ * the character's name, so changes to different characters run in
+ * parallel and a change and the checks it depends on are atomic. Loading,
+ * saving, listing names and batch changes lock every stripe, so they see
+ * and leave the database in a consistent state. Saves, compactions and
+ * exports read a pinned version of the database (see {@link #pin()}), so
+ * they hold every stripe only for a moment however long they take.
+ * <p>
+ * A database can be sharded: its snapshot is then written as several
+ * segment files, characters being partitioned by the hash of their name,
+ * and the segments are loaded, opened and saved in parallel (see
+ * {@link #CharacterDatabase(String, int)}).
  * 
  * @see Character
  * @see SuperCharacter
+ * @see CharacterFile
+ * @see Journal
+ * @see ShardedCharacterFile
  *
  * @author Dr Phil
  * @author leggy (Lachlan Healey)
@@ -18,14 +48,110 @@ import java.io.*;
  */
 
 public class CharacterDatabase {
-	/** The database collection is represented as a Set */
-	private Set<Character> database;
+	/** Journals smaller than this are never compacted */
+	private static final long MIN_COMPACTION_SIZE = 1 << 20;
+	/** Compact once the journal is larger than this fraction of the snapshot */
+	private static final double COMPACTION_RATIO = 0.5;
+	/** Number of lock stripes, a power of two */
+	private static final int STRIPES = 64;
+
+	/** Writes new snapshots in the background */
+	private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "CharacterDatabase compactor");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/** The database collection is represented as a Map keyed by character name */
+	private volatile Map<String, Character> database;
+
+	/** The memory-mapped or paged file in read-mostly mode, null otherwise */
+	private volatile CharacterFileView mapped;
+
+	/** Names of characters in the mapped file that have been removed, replaced when the file is closed */
+	private volatile Set<String> removed;
+
+	/** Locks guarding changes to the characters, striped by name */
+	private final ReentrantLock[] stripes;
+
+	/**
+	 * Changes hold the read lock while they update the map and the indexes;
+	 * building an index holds the write lock, so it sees no change half made
+	 */
+	private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+	/** Journal of changes since the snapshot, null if the next save must write a full snapshot */
+	private Journal journal;
+
+	/** Names of the characters added, updated or removed since the last save */
+	private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+
+	/** Held for the whole of a save, and while the journal is replaced */
+	private final ReentrantLock saveLock = new ReentrantLock();
+
+	/** Saves changes in the background, null if autosave is off */
+	private volatile Autosave autosave;
+
+	/** Image paths, traits and powers of the snapshots, replaced with the map when loading */
+	private volatile StringDictionary dictionary = new StringDictionary();
+
+	/** Size of the snapshot file when it was last read or written */
+	private long snapshotSize;
+
+	/** Index for type-ahead name search, null until it is first needed */
+	private volatile NameIndex nameIndex;
+	/** Index for full-text search, null until it is first needed */
+	private volatile TextIndex textIndex;
+	/** Index of super characters by power ranking, null until it is first needed */
+	private volatile RankIndex rankIndex;
+
+	/** The last background compaction, null if none was started */
+	private volatile Future<Void> compaction;
 
 	/** File path to database */
 	private String dbFileName;
 
+	/** Number of segment files the snapshot is written as, 1 for a single file */
+	private volatile int shards;
+
+	/** Codec compressing the blocks of records of the snapshot */
+	private volatile CompressionCodec codec = CompressionCodec.NONE;
+
+	/** Latencies and counts of the operations on the database file */
+	private final DatabaseMetrics metrics;
+	/** True once close() has released the metrics; guarded by saveLock */
+	private boolean metricsReleased;
+
+	/** Guards pinning and unpinning versions */
+	private final Object pins = new Object();
+	/** The pinned versions, replaced as a whole when one is pinned or unpinned */
+	private volatile DatabaseVersion[] pinned = new DatabaseVersion[0];
+	/** Mapped files closed by the database but still read by pinned versions */
+	private final List<CharacterFileView> retired = new ArrayList<CharacterFileView>();
+
 	/**
-	 * Invariant: database != null && dbFilename != null 
+	 * Invariant: database != null && dbFilename != null && removed != null
+	 * 
+	 * In read-mostly mode a character is in the database if it is in the
+	 * database map, or if it is in the mapped file and not in removed.
+	 * The database map then only holds characters added or updated since
+	 * the file was opened.
+	 * 
+	 * The database map only holds read-only snapshots, so a character cannot
+	 * change without being journaled.
+	 * 
+	 * Every change to the map or removed first preserves the old state of
+	 * the character in each version pinned over the map, so a pinned version
+	 * reads as it was when pinned. Loading and opening replace the map and
+	 * removed rather than clearing them, so versions pinned before keep theirs.
+	 * 
+	 * Every change adds the character's name to dirty while holding its
+	 * stripe, and a save takes the names with every stripe held, so each
+	 * change is saved exactly once.
+	 * 
+	 * Lock order: saveLock, then stripes in index order, then indexLock, then pins.
+	 * journal and compaction are only replaced with saveLock and every
+	 * stripe held.
 	 */
 
     /**
@@ -35,65 +161,1101 @@ public class CharacterDatabase {
      * @param fn File path to database store.
      */
 	public CharacterDatabase(String fn) {
-		database = new HashSet<Character>();
+		this(fn, 1);
+	}
+
+	/**
+	 * Creates a new CharacterDatabase whose snapshot is written as the given
+	 * number of segment files, next to a small manifest at the given path.
+	 * Loading or opening an existing database keeps the layout of its file:
+	 * a sharded file stays sharded with its own shard count, and a single
+	 * binary file stays single.
+	 *
+	 * @param fn File path to the database manifest
+	 * @param shards Number of segment files, 1 for a single file
+	 * @throws IllegalArgumentException If shards is less than 1
+	 */
+	public CharacterDatabase(String fn, int shards) {
+		if (shards < 1)
+			throw new IllegalArgumentException("shards must be at least 1: " + shards);
+		this.shards = shards;
+		database = new ConcurrentHashMap<String, Character>();
+		removed = ConcurrentHashMap.newKeySet();
+		stripes = new ReentrantLock[STRIPES];
+		for (int i = 0; i < STRIPES; i++)
+			stripes[i] = new ReentrantLock();
 		dbFileName = fn;
+		metrics = DatabaseMetrics.of(fn);
+	}
+
+	/**
+	 * @return The number of segment files the snapshot is written as, 1 for a single file
+	 */
+	public int shards() {
+		return shards;
 	}
 
 	/**
-	 * Load a database Set object from file.
+	 * Sets the codec compressing the blocks of records of the snapshot, from
+	 * the next save or compaction on. Loading or opening an existing database
+	 * keeps the codec of its file.
+	 *
+	 * @param codec The codec, {@link CompressionCodec#NONE} for none
+	 */
+	public void setCodec(CompressionCodec codec) {
+		this.codec = Objects.requireNonNull(codec);
+	}
+
+	/**
+	 * @return The codec compressing the blocks of records of the snapshot
+	 */
+	public CompressionCodec codec() {
+		return codec;
+	}
+
+	/**
+	 * @return The metrics of the operations on this database's file, shared
+	 * with other databases opened on the same file
+	 */
+	public DatabaseMetrics metrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return The lock guarding changes to the character with the given name
+	 */
+	private Lock stripe(String name) {
+		int h = name.hashCode();
+		return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+	}
+
+	private void lockAll() {
+		for (ReentrantLock stripe : stripes)
+			stripe.lock();
+	}
+
+	private void unlockAll() {
+		for (int i = STRIPES - 1; i >= 0; i--)
+			stripes[i].unlock();
+	}
+
+	/**
+	 * Load the database from file. Files in the legacy serialized Set format
+	 * are still read, and are converted to the binary format on the next save.
+	 * Changes in the journal of a binary database are replayed on top of the snapshot.
 	 *
 	 * @throws FileNotFoundException
 	 */
 	public void load() throws FileNotFoundException, Exception {
-		ObjectInputStream in = new ObjectInputStream(new FileInputStream(dbFileName));
+		load(DatabaseProgress.NONE);
+	}
+
+	/**
+	 * As for load(), reporting the bytes read and the names of the characters
+	 * read to the given listener. If the listener cancels, the database is
+	 * left as it was.
+	 *
+	 * @param progress Receives progress reports
+	 * @throws FileNotFoundException
+	 * @throws java.util.concurrent.CancellationException If the listener cancels
+	 */
+	public void load(DatabaseProgress progress) throws FileNotFoundException, Exception {
+		long start = metrics.start(DatabaseMetrics.Operation.LOAD);
+		try {
+			int count = loadFile(progress);
+			metrics.record(DatabaseMetrics.Operation.LOAD, start, count, snapshotSize);
+		} catch (Exception e) {
+			metrics.failed(DatabaseMetrics.Operation.LOAD);
+			throw e;
+		}
+	}
 
+	/**
+	 * @return The number of characters read from the file
+	 */
+	private int loadFile(DatabaseProgress progress) throws Exception {
+		awaitCompaction();
+		boolean binary = CharacterFile.isCharacterFile(dbFileName);
+		int layout = binary && ShardedCharacterFile.isShardedFile(dbFileName)
+				? ShardedCharacterFile.readManifest(dbFileName).shards : 1;
+		CompressionCodec fileCodec = binary ? CharacterFile.codecOf(dbFileName) : codec;
+		final Map<String, Character> loaded;
+		final StringDictionary strings = new StringDictionary();
+		int count;
+		if (layout > 1) {
+			// the segments are decoded and added to the map in parallel
+			loaded = new ConcurrentHashMap<String, Character>();
+			count = ShardedCharacterFile.read(dbFileName, progress, segment -> {
+				for (Character c : segment)
+					loaded.put(c.getName(), c.freeze(strings));
+			});
+		} else {
+			Collection<Character> characters;
+			if (binary) {
+				characters = CharacterFile.read(dbFileName, progress);
+			} else {
+				Set<Character> legacy = readLegacy(dbFileName);
+				List<String> names = new ArrayList<String>(legacy.size());
+				for (Character c : legacy)
+					names.add(c.getName());
+				long size = new File(dbFileName).length();
+				CharacterFile.report(progress, size, size, names);
+				characters = legacy;
+			}
+			loaded = new ConcurrentHashMap<String, Character>(characters.size() * 4 / 3 + 1);
+			for (Character c : characters)
+				loaded.put(c.getName(), c.freeze(strings));
+			count = characters.size();
+		}
+
+		saveLock.lock();
+		lockAll();
+		try {
+			indexLock.writeLock().lock();
+			try {
+				// replaced in one step, so no index is built from a state half replaced
+				release();
+				database = loaded;
+				dictionary = strings;
+				if (binary) {
+					shards = layout;
+					codec = fileCodec;
+				}
+				snapshotSize = snapshotFileSize();
+			} finally {
+				indexLock.writeLock().unlock();
+			}
+			if (binary)
+				openJournal();
+		} finally {
+			unlockAll();
+			saveLock.unlock();
+		}
+		return count;
+	}
+
+	/**
+	 * @return The size of the snapshot on disk, over all segments if it is sharded
+	 */
+	private long snapshotFileSize() throws IOException {
+		if (shards > 1 && ShardedCharacterFile.isShardedFile(dbFileName))
+			return ShardedCharacterFile.size(dbFileName);
+		return new File(dbFileName).length();
+	}
+
+	/**
+	 * Open the database file in read-mostly mode. Characters are decoded when
+	 * they are searched for, and edits are kept in memory and in the journal.
+	 * <p>
+	 * A file with a page directory is opened paged: only the directory is
+	 * read, and pages of records are read into a buffer pool bounded by the
+	 * assignment3.bufferPoolBytes system property. Other files are
+	 * memory-mapped and their name index is read. Snapshots are written in
+	 * name order with a page directory, so a database is paged once saved.
+	 * <p>
+	 * Only files in the binary format can be opened this way.
+	 *
+	 * @see PagedCharacterFile
+	 * @see MappedCharacterFile
+	 * @throws FileNotFoundException
+	 * @throws CorruptDatabaseException If the file is not in the binary format
+	 */
+	public void open() throws FileNotFoundException, IOException {
+		open(DatabaseProgress.NONE);
+	}
+
+	/**
+	 * As for open(), reporting the bytes of the name index read and the names
+	 * read to the given listener. If the listener cancels, the database is
+	 * left as it was.
+	 *
+	 * @param progress Receives progress reports
+	 * @throws FileNotFoundException
+	 * @throws java.util.concurrent.CancellationException If the listener cancels
+	 */
+	public void open(DatabaseProgress progress) throws FileNotFoundException, IOException {
+		long start = metrics.start(DatabaseMetrics.Operation.OPEN);
+		try {
+			openFile(progress);
+			metrics.record(DatabaseMetrics.Operation.OPEN, start, mapped.size(), 0);
+		} catch (IOException | RuntimeException e) {
+			metrics.failed(DatabaseMetrics.Operation.OPEN);
+			throw e;
+		}
+	}
+
+	private void openFile(DatabaseProgress progress) throws IOException {
+		awaitCompaction();
+		CharacterFileView file;
+		int layout = 1;
+		if (ShardedCharacterFile.isShardedFile(dbFileName)) {
+			ShardedCharacterFile sharded = ShardedCharacterFile.open(dbFileName, BufferPool.CONFIGURED_MAX_BYTES,
+					progress);
+			layout = sharded.shards();
+			file = sharded;
+		} else if (CharacterFile.isPagedFile(dbFileName)) {
+			file = PagedCharacterFile.open(dbFileName, BufferPool.CONFIGURED_MAX_BYTES, progress);
+		} else {
+			file = MappedCharacterFile.open(dbFileName, progress);
+		}
+		CompressionCodec fileCodec;
+		try {
+			fileCodec = CharacterFile.codecOf(dbFileName);
+		} catch (IOException | RuntimeException e) {
+			file.close();
+			throw e;
+		}
+		saveLock.lock();
+		lockAll();
+		try {
+			indexLock.writeLock().lock();
+			try {
+				// replaced in one step, so no index is built from a state half replaced
+				release();
+				mapped = file;
+				database = new ConcurrentHashMap<String, Character>();
+				dictionary = new StringDictionary();
+				shards = layout;
+				codec = fileCodec;
+				snapshotSize = snapshotFileSize();
+			} finally {
+				indexLock.writeLock().unlock();
+			}
+			openJournal();
+		} finally {
+			unlockAll();
+			saveLock.unlock();
+		}
+	}
+
+	/**
+	 * @return True if the database is in read-mostly mode
+	 */
+	public boolean isMapped() {
+		return mapped != null;
+	}
+
+	/**
+	 * Release the files held open by the database. Changes that have not
+	 * been saved are discarded. The first close also releases the database's
+	 * metrics, which are dropped once no other database on the file uses them.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		long start = metrics.start(DatabaseMetrics.Operation.CLOSE);
+		saveLock.lock();
+		lockAll();
+		indexLock.writeLock().lock();
 		try {
-			database = (Set<Character>) in.readObject();
+			release();
+			metrics.record(DatabaseMetrics.Operation.CLOSE, start, 0, 0);
+		} catch (IOException | RuntimeException e) {
+			metrics.failed(DatabaseMetrics.Operation.CLOSE);
+			throw e;
+		} finally {
+			if (!metricsReleased) {
+				metricsReleased = true;
+				metrics.release();
+			}
+			indexLock.writeLock().unlock();
+			unlockAll();
+			saveLock.unlock();
+		}
+	}
+
+	/**
+	 * Releases the files and drops the indexes and unsaved changes. The
+	 * caller holds saveLock, every stripe and the index write lock.
+	 */
+	private void release() throws IOException {
+		dirty.clear();
+		if (mapped != null) {
+			retire(mapped);
+			mapped = null;
+		}
+		if (journal != null) {
+			journal.close();
+			journal = null;
+		}
+		removed = ConcurrentHashMap.newKeySet();
+		nameIndex = null;
+		textIndex = null;
+		rankIndex = null;
+	}
+
+	/**
+	 * Replay the journals next to the snapshot and open the journal for appending.
+	 */
+	private void openJournal() throws IOException {
+		Journal.Replay replay = new Journal.Replay() {
+			@Override
+			public void put(Character c) { applyPut(c); }
+
+			@Override
+			public void remove(String name) { applyRemove(name); }
+		};
+		// left behind by a compaction that did not finish
+		if (Files.exists(compactingJournalPath()))
+			Journal.replay(compactingJournalPath().toString(), replay);
+		journal = Journal.open(journalPath().toString(), replay);
+	}
+
+	/**
+	 * @return The path of the journal of changes since the snapshot
+	 */
+	private Path journalPath() {
+		return Paths.get(dbFileName + ".journal");
+	}
+
+	/**
+	 * @return The path of the journal being folded into a new snapshot
+	 */
+	private Path compactingJournalPath() {
+		return Paths.get(dbFileName + ".journal.compacting");
+	}
+
+	/**
+	 * Read a database Set object written with Java serialization.
+	 *
+	 * @param fileName File path of the legacy database
+	 * @return The set of characters stored in the file
+	 * @throws FileNotFoundException
+	 */
+	static Set<Character> readLegacy(String fileName) throws FileNotFoundException, Exception {
+		ObjectInputStream in = new ObjectInputStream(new FileInputStream(fileName));
+
+		try {
+			return (Set<Character>) in.readObject();
 		}
 		catch (ClassCastException cce) {
 			throw new Exception("Data file corrupt.");
 		}
-
-		in.close();
+		finally {
+			in.close();
+		}
 	}
 
 	/**
-     * Save a database Set object to file.
-     *
+     * Save the database to file in the binary format.
+     * <p>
+     * If the database has a journal, only the changes since the last save
+     * are appended to it, and the journal is compacted into a new snapshot
+     * in the background once it is large. Otherwise a full snapshot is written.
+     * 
+     * @see CharacterFile
+     * @see Journal
      * @throws IOException
      */
-
 	public void save() throws IOException {
-        ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(dbFileName));
-        out.writeObject(database);
-        out.close();
+		save(DatabaseProgress.NONE);
+	}
+
+	/**
+	 * As for save(), reporting the number of records written to the given
+	 * listener when a full snapshot is written. If the listener cancels, the
+	 * database file is left as it was. A full snapshot is written from a
+	 * version pinned when the save starts (see {@link #pin()}), so changes go
+	 * on while it is written and are saved by the next save. If the snapshot
+	 * or the journal cannot be written, the changes are kept for the next save.
+	 *
+	 * @param progress Receives progress reports
+	 * @throws IOException
+	 * @throws java.util.concurrent.CancellationException If the listener cancels
+	 */
+	public void save(DatabaseProgress progress) throws IOException {
+		long start = metrics.start(DatabaseMetrics.Operation.SAVE);
+		saveLock.lock();
+		try {
+			Journal journal = null;
+			DatabaseVersion version = null;
+			List<String> changed;
+			lockAll();
+			try {
+				if (this.journal == null) {
+					version = pin();
+					changed = new ArrayList<String>(dirty);
+					dirty.clear();
+				} else {
+					journal = this.journal;
+					changed = journalChanges();
+				}
+			} finally {
+				unlockAll();
+			}
+			if (version != null) {
+				int records = saveSnapshot(version, changed, progress);
+				metrics.record(DatabaseMetrics.Operation.SAVE, start, records, snapshotSize);
+				return;
+			}
+
+			// written and forced to disk without holding any stripe, so changes go on meanwhile
+			long before = journal.size();
+			int records;
+			try {
+				records = journal.sync();
+			} catch (IOException e) {
+				dirty.addAll(changed);
+				throw e;
+			}
+			long written = journal.size() - before;
+
+			lockAll();
+			try {
+				IOException failure = compactionFailure();
+				if (shouldCompact())
+					startCompaction();
+				if (failure != null)
+					throw failure;
+			} finally {
+				unlockAll();
+			}
+			metrics.record(DatabaseMetrics.Operation.SAVE, start, records, written);
+		} catch (IOException | RuntimeException e) {
+			metrics.failed(DatabaseMetrics.Operation.SAVE);
+			throw e;
+		} finally {
+			saveLock.unlock();
+		}
     }
 
+	/**
+	 * Writes a full snapshot of a pinned version and starts a new journal,
+	 * keeping the changes made since the pin for the next save. The caller
+	 * holds saveLock.
+	 * @param changed The changes up to the pin, kept for the next save if the snapshot fails
+	 * @return The number of characters written
+	 */
+	private int saveSnapshot(DatabaseVersion version, List<String> changed, DatabaseProgress progress)
+			throws IOException {
+		int records;
+		try {
+			awaitCompaction();
+			records = writeSnapshot(version, progress);
+		} catch (IOException | RuntimeException e) {
+			dirty.addAll(changed);
+			throw e;
+		} finally {
+			version.close();
+		}
+
+		lockAll();
+		try {
+			Files.deleteIfExists(compactingJournalPath());
+			Files.deleteIfExists(journalPath());
+			if (mapped != null)
+				reopen();
+			else
+				openJournal();
+		} finally {
+			unlockAll();
+		}
+		return records;
+	}
+
+	/**
+	 * Opens the snapshot just written in read-mostly mode, then applies the
+	 * changes made while it was written again, as they are not in it. The
+	 * caller holds saveLock and every stripe.
+	 */
+	private void reopen() throws IOException {
+		Map<String, Character> pending = new HashMap<String, Character>();
+		for (String name : dirty)
+			pending.put(name, find(name));
+		open();
+		for (Map.Entry<String, Character> e : pending.entrySet()) {
+			if (e.getValue() != null)
+				applyPut(e.getValue());
+			else if (contains(e.getKey()))
+				applyRemove(e.getKey());
+		}
+		dirty.addAll(pending.keySet());
+	}
+
+	/**
+	 * Journals the state of each character changed since the last save, and
+	 * clears the changes. The caller holds every stripe.
+	 * @return The names of the characters journaled
+	 */
+	private List<String> journalChanges() {
+		List<String> changed = new ArrayList<String>(dirty);
+		dirty.clear();
+		for (String name : changed) {
+			Character c = find(name);
+			if (c != null)
+				journal.put(c);
+			else
+				journal.remove(name);
+		}
+		return changed;
+	}
+
+	/**
+	 * @return The number of characters added, updated or removed since the
+	 * last save
+	 */
+	public int unsavedChanges() {
+		return dirty.size();
+	}
+
+	/**
+	 * Turns background saving on or off. Changes are saved at most the given
+	 * time after they are made, several changes being saved together, or as
+	 * soon as the given number of characters have unsaved changes. Saving
+	 * does not hold up changes. Failed saves are reported on
+	 * standard error and retried after the next change.
+	 *
+	 * @param interval Longest time a change waits to be saved, 0 to turn autosave off
+	 * @param unit Unit of the interval
+	 * @param maxUnsaved Number of changed characters that starts a save at once
+	 */
+	public void setAutosave(long interval, TimeUnit unit, int maxUnsaved) {
+		Autosave previous = autosave;
+		autosave = interval > 0 ? new Autosave(this, unit.toNanos(interval), Math.max(1, maxUnsaved)) : null;
+		if (previous != null)
+			previous.stop();
+		if (autosave != null && !dirty.isEmpty())
+			autosave.changed(dirty.size());
+	}
+
+	/**
+	 * @return True if changes are saved in the background
+	 */
+	public boolean isAutosaving() {
+		return autosave != null;
+	}
+
+	/**
+	 * Records that a character changed. The caller holds its stripe, or every stripe.
+	 */
+	private void changed(String name) {
+		dirty.add(name);
+		Autosave autosave = this.autosave;
+		if (autosave != null)
+			autosave.changed(dirty.size());
+	}
+
+	/**
+	 * As for changed(name), for the characters of a batch.
+	 */
+	private void changed(Collection<String> names) {
+		dirty.addAll(names);
+		Autosave autosave = this.autosave;
+		if (autosave != null && !names.isEmpty())
+			autosave.changed(dirty.size());
+	}
+
+	/**
+	 * Write a snapshot of a pinned version to a temporary file, force it to
+	 * disk and move it over the database file (see
+	 * {@link CharacterFile#replace}), so the database file is always either
+	 * the old or the new snapshot, even after a crash. A sharded snapshot is written as a new generation
+	 * of segments, one per shard in parallel, and switched to by replacing
+	 * its manifest. Blocks of records are compressed with the database's codec.
+	 * @return The number of characters written
+	 */
+	private int writeSnapshot(DatabaseVersion version, DatabaseProgress progress) throws IOException {
+		int shards = this.shards;
+		if (shards > 1) {
+			List<Collection<Character>> segments = new ArrayList<Collection<Character>>(shards);
+			for (List<String> names : ShardedCharacterFile.partition(version.getCharacterNames(), shards))
+				segments.add(version.characters(names));
+			snapshotSize = ShardedCharacterFile.write(dbFileName, segments, codec, progress, metrics);
+			return version.size();
+		}
+
+		Collection<Character> characters = version.characters();
+		snapshotSize = CharacterFile.replace(dbFileName, characters, codec, progress);
+		return characters.size();
+	}
+
+	/**
+	 * @return True if the journal has grown large enough to compact and no
+	 * compaction is running
+	 */
+	private boolean shouldCompact() throws IOException {
+		long size = journal.size();
+		return size > MIN_COMPACTION_SIZE && size > snapshotSize * COMPACTION_RATIO
+				&& (compaction == null || compaction.isDone());
+	}
+
+	/**
+	 * Move the journal aside and write a snapshot of the current state in the
+	 * background. Changes made meanwhile go to a fresh journal. If the database
+	 * stops before the snapshot is written, the moved journal is replayed on
+	 * the next load.
+	 */
+	private void startCompaction() throws IOException {
+		final Path compacting = compactingJournalPath();
+		journal.close();
+		journal = null;
+		if (Files.exists(compacting)) {
+			// an earlier compaction failed, keep its changes ahead of ours; the
+			// records are journaled again, as each journal has its own string table
+			try (final Journal failed = Journal.open(compacting.toString(), Journal.Replay.NONE)) {
+				Journal.replay(journalPath().toString(), new Journal.Replay() {
+					@Override
+					public void put(Character c) { failed.put(c); }
+
+					@Override
+					public void remove(String name) { failed.remove(name); }
+				});
+				failed.sync();
+			}
+			Files.delete(journalPath());
+		} else {
+			Files.move(journalPath(), compacting, StandardCopyOption.ATOMIC_MOVE);
+		}
+		journal = Journal.open(journalPath().toString(), null);
+
+		final DatabaseVersion version = pin();
+		compaction = COMPACTOR.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				long start = metrics.start(DatabaseMetrics.Operation.COMPACT);
+				int records;
+				try {
+					records = writeSnapshot(version, DatabaseProgress.NONE);
+					Files.delete(compacting);
+				} catch (IOException | RuntimeException e) {
+					metrics.failed(DatabaseMetrics.Operation.COMPACT);
+					throw e;
+				} finally {
+					version.close();
+				}
+				metrics.record(DatabaseMetrics.Operation.COMPACT, start, records, snapshotSize);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * @return The exception thrown by the last compaction, or null if it
+	 * succeeded or is still running. The failure is only reported once.
+	 */
+	private IOException compactionFailure() {
+		if (compaction == null || !compaction.isDone())
+			return null;
+		try {
+			compaction.get();
+			return null;
+		} catch (ExecutionException e) {
+			return new IOException("Compaction failed, changes are kept in the journal", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} finally {
+			compaction = null;
+		}
+	}
+
+	/**
+	 * Wait for a running compaction to finish, so it does not write over a
+	 * database that is being reloaded.
+	 */
+	private void awaitCompaction() {
+		if (compaction == null)
+			return;
+		try {
+			compaction.get();
+		} catch (ExecutionException e) {
+			// counted as a failed compaction; the reload replays its journal
+			e.getCause().printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		compaction = null;
+	}
+
     /**
      * Add a character to the database.
      * 
      * @param c The character to add.
+     * @throws IllegalArgumentException If the character has a null trait or power
      */
-	public void add(Character c) { database.add(c); }
+	public void add(Character c) {
+		long start = metrics.start(DatabaseMetrics.Operation.ADD);
+		boolean added = false;
+		Lock lock = stripe(c.getName());
+		lock.lock();
+		try {
+			if (!contains(c.getName())) {
+				put(snapshotOf(c));
+				added = true;
+			}
+		} catch (RuntimeException e) {
+			metrics.failed(DatabaseMetrics.Operation.ADD);
+			throw e;
+		} finally {
+			lock.unlock();
+		}
+		metrics.record(DatabaseMetrics.Operation.ADD, start, added ? 1 : 0, 0);
+	}
 
     /**
      * Remove a character to the database.
-     * 
+     *
      * @param c The character to remove.
      */
-	public void remove(Character c) { database.remove(c); }
-	
+	public void remove(Character c) {
+		if (c != null)
+			remove(c.getName());
+	}
+
+	/**
+	 * Remove the character with the given name from the database.
+	 *
+	 * @param name The name of the character to remove.
+	 */
+	public void remove(String name) {
+		long start = metrics.start(DatabaseMetrics.Operation.REMOVE);
+		boolean deleted = false;
+		Lock lock = stripe(name);
+		lock.lock();
+		try {
+			if (contains(name)) {
+				delete(name);
+				deleted = true;
+			}
+		} catch (RuntimeException e) {
+			metrics.failed(DatabaseMetrics.Operation.REMOVE);
+			throw e;
+		} finally {
+			lock.unlock();
+		}
+		metrics.record(DatabaseMetrics.Operation.REMOVE, start, deleted ? 1 : 0, 0);
+	}
+
+	/**
+	 * Checks whether a character with the given name is in the database.
+	 *
+	 * @param name The character name to look for.
+	 * @return True if a character with that name is in the database, false otherwise.
+	 */
+	public boolean contains(String name) {
+		CharacterFileView mapped = this.mapped;
+		return database.containsKey(name)
+				|| mapped != null && mapped.contains(name) && !removed.contains(name);
+	}
+
 	/**
 	 * Updates a character in the database if it present, adding the character if it
 	 * is not present.
-	 * 
+	 *
 	 * @param c	The Character to update.
+	 * @throws IllegalArgumentException If the character has a null trait or power
 	 */
 	public void update(Character c) {
-		if (database.contains(c)) {
-			database.remove(c);
+		long start = metrics.start(DatabaseMetrics.Operation.UPDATE);
+		Lock lock = stripe(c.getName());
+		lock.lock();
+		try {
+			put(snapshotOf(c));
+		} catch (RuntimeException e) {
+			metrics.failed(DatabaseMetrics.Operation.UPDATE);
+			throw e;
+		} finally {
+			lock.unlock();
 		}
-		database.add(c);
+		metrics.record(DatabaseMetrics.Operation.UPDATE, start, 1, 0);
+	}
+
+	/**
+	 * Returns the character with the given name, first adding the character
+	 * made by the given function if there is none. The check and the add are
+	 * atomic: no other change to the character can come between them.
+	 *
+	 * @param name The name of the character
+	 * @param create Makes a character with the given name, or returns null to add nothing
+	 * @return A read-only snapshot of the character in the database, or null if none was added
+	 * @throws IllegalArgumentException If the new character has a different name, or a
+	 * null trait or power
+	 */
+	public Character computeIfAbsent(String name, Function<String, ? extends Character> create) {
+		Lock lock = stripe(name);
+		lock.lock();
+		try {
+			Character c = find(name);
+			if (c == null) {
+				Character created = create.apply(name);
+				if (created != null) {
+					checkName(name, created);
+					c = snapshotOf(created);
+					put(c);
+				}
+			}
+			return c;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Replaces the character with the given name with the result of the given
+	 * function, atomically: no other change to the character can come between
+	 * reading it and writing the result.
+	 *
+	 * @param name The name of the character
+	 * @param remap Given the name and a read-only snapshot of the character, or
+	 * null if there is none, returns the new character, or null to remove it
+	 * @return A read-only snapshot of the new character, or null if there is none
+	 * @throws IllegalArgumentException If the new character has a different name, or a
+	 * null trait or power
+	 */
+	public Character compute(String name, BiFunction<String, Character, ? extends Character> remap) {
+		Lock lock = stripe(name);
+		lock.lock();
+		try {
+			Character old = find(name);
+			Character updated = remap.apply(name, old);
+			if (updated == null) {
+				if (old != null)
+					delete(name);
+				return null;
+			}
+			checkName(name, updated);
+			Character c = snapshotOf(updated);
+			put(c);
+			return c;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Adds the characters not already in the database, as one batch. Every
+	 * character is validated before the batch is applied; the batch is then
+	 * applied with every stripe held, so no other change comes between its
+	 * items. Of several characters with the same name, only the first is added.
+	 *
+	 * @param characters The characters to add
+	 * @return The result for each character, in iteration order
+	 */
+	public List<BatchResult> addAll(Collection<? extends Character> characters) {
+		return batch(() -> putAll(characters, false));
+	}
+
+	/**
+	 * Adds or replaces the characters, as one batch. As for addAll(), except
+	 * that characters already in the database are replaced, and of several
+	 * characters with the same name the last is kept.
+	 *
+	 * @param characters The characters to add or update
+	 * @return The result for each character, in iteration order
+	 */
+	public List<BatchResult> updateAll(Collection<? extends Character> characters) {
+		return batch(() -> putAll(characters, true));
+	}
+
+	/**
+	 * Removes the characters with the given names, as one batch, with every
+	 * stripe held.
+	 *
+	 * @param names The names of the characters to remove
+	 * @return The result for each name, in iteration order
+	 */
+	public List<BatchResult> removeAll(Collection<String> names) {
+		return batch(() -> deleteAll(names));
+	}
+
+	/**
+	 * Runs a batch change, recording its metrics.
+	 */
+	private List<BatchResult> batch(Supplier<List<BatchResult>> change) {
+		long start = metrics.start(DatabaseMetrics.Operation.BATCH);
+		List<BatchResult> results;
+		try {
+			results = change.get();
+		} catch (RuntimeException e) {
+			metrics.failed(DatabaseMetrics.Operation.BATCH);
+			throw e;
+		}
+		metrics.record(DatabaseMetrics.Operation.BATCH, start, results.size(), 0);
+		return results;
+	}
+
+	private List<BatchResult> deleteAll(Collection<String> names) {
+		List<BatchResult> results = new ArrayList<BatchResult>(names.size());
+		List<String> toRemove = new ArrayList<String>(names.size());
+		Set<String> seen = new HashSet<String>();
+		lockAll();
+		indexLock.readLock().lock();
+		try {
+			for (String name : names) {
+				if (name == null || name.isEmpty()) {
+					results.add(BatchResult.INVALID);
+				} else if (seen.add(name) && contains(name)) {
+					toRemove.add(name);
+					results.add(BatchResult.REMOVED);
+				} else {
+					results.add(BatchResult.NOT_FOUND);
+				}
+			}
+			unstoreAll(toRemove);
+			changed(toRemove);
+		} finally {
+			indexLock.readLock().unlock();
+			unlockAll();
+		}
+		return results;
+	}
+
+	private List<BatchResult> putAll(Collection<? extends Character> characters, boolean replace) {
+		// validate and take snapshots before locking anything
+		List<Character> snapshots = new ArrayList<Character>(characters.size());
+		for (Character c : characters)
+			snapshots.add(isValid(c) ? snapshotOf(c) : null);
+
+		List<BatchResult> results = new ArrayList<BatchResult>(snapshots.size());
+		List<Character> toStore = new ArrayList<Character>(snapshots.size());
+		Set<String> seen = new HashSet<String>();
+		lockAll();
+		indexLock.readLock().lock();
+		try {
+			for (Character c : snapshots) {
+				if (c == null) {
+					results.add(BatchResult.INVALID);
+					continue;
+				}
+				boolean present = !seen.add(c.getName()) || contains(c.getName());
+				if (present && !replace) {
+					results.add(BatchResult.EXISTS);
+					continue;
+				}
+				toStore.add(c);
+				results.add(present ? BatchResult.UPDATED : BatchResult.ADDED);
+			}
+			// later characters with the same name are stored last, so they win
+			storeAll(toStore);
+			List<String> names = new ArrayList<String>(toStore.size());
+			for (Character c : toStore)
+				names.add(c.getName());
+			changed(names);
+		} finally {
+			indexLock.readLock().unlock();
+			unlockAll();
+		}
+		return results;
+	}
+
+	private static boolean isValid(Character c) {
+		if (c == null)
+			return false;
+		return c instanceof SuperCharacter ? ((SuperCharacter) c).validateSuperCharacter() : c.validateCharacter();
+	}
+
+	private static void checkName(String name, Character c) {
+		if (!name.equals(c.getName()))
+			throw new IllegalArgumentException("Expected a character named " + name + ", got " + c.getName());
+	}
+
+	/**
+	 * Stores a snapshot and marks it unsaved. The caller holds the character's stripe.
+	 */
+	private void put(Character c) {
+		applyPut(c);
+		changed(c.getName());
+	}
+
+	/**
+	 * Removes a character and marks it unsaved. The caller holds the character's stripe.
+	 */
+	private void delete(String name) {
+		applyRemove(name);
+		changed(name);
+	}
+
+	/**
+	 * @return The given character if it is a snapshot, otherwise a snapshot copy of it
+	 * @throws IllegalArgumentException If the character has a null trait or
+	 * power, which a snapshot cannot hold
+	 */
+	private Character snapshotOf(Character c) {
+		if (c.isFrozen())
+			return c;
+		if (c.traits.contains(null) || c instanceof SuperCharacter && ((SuperCharacter) c).powers.contains(null))
+			throw new IllegalArgumentException("Character " + c.getName() + " has a null trait or power");
+		return ((Character) c.clone()).freeze(dictionary);
+	}
+
+	private void applyPut(Character c) {
+		indexLock.readLock().lock();
+		try {
+			store(c);
+		} finally {
+			indexLock.readLock().unlock();
+		}
+	}
+
+	private void applyRemove(String name) {
+		indexLock.readLock().lock();
+		try {
+			unstore(name);
+		} finally {
+			indexLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Keeps the state of a character about to change in the versions pinned
+	 * over the current map. The caller holds the character's stripe, or every stripe.
+	 */
+	private void preserve(String name) {
+		for (DatabaseVersion version : pinned)
+			if (version.isOver(database))
+				version.preserve(name);
+	}
+
+	/**
+	 * Updates the map and the indexes. The caller holds the index read lock.
+	 */
+	private void store(Character c) {
+		storeAll(Collections.singletonList(c));
+	}
+
+	/**
+	 * Updates the map and the indexes, adding the names to the name index in
+	 * one pass. The caller holds the index read lock.
+	 */
+	private void storeAll(List<Character> characters) {
+		List<String> names = new ArrayList<String>(characters.size());
+		for (Character c : characters) {
+			preserve(c.getName());
+			database.put(c.getName(), c.freeze(dictionary));
+			if (textIndex != null)
+				textIndex.put(c);
+			if (rankIndex != null)
+				rankIndex.put(c);
+			names.add(c.getName());
+		}
+		if (nameIndex != null)
+			nameIndex.addAll(names);
+	}
+
+	/**
+	 * Updates the map and the indexes. The caller holds the index read lock.
+	 */
+	private void unstore(String name) {
+		unstoreAll(Collections.singletonList(name));
+	}
+
+	/**
+	 * Updates the map and the indexes, removing the names from the name index
+	 * in one pass. The caller holds the index read lock.
+	 */
+	private void unstoreAll(List<String> names) {
+		for (String name : names) {
+			preserve(name);
+			database.remove(name);
+			if (mapped != null && mapped.contains(name))
+				removed.add(name);
+			if (textIndex != null)
+				textIndex.remove(name);
+			if (rankIndex != null)
+				rankIndex.remove(name);
+		}
+		if (nameIndex != null)
+			nameIndex.removeAll(names);
 	}
 
 	/**
@@ -102,40 +1264,342 @@ public class CharacterDatabase {
 	 * @ensure	character with given name in DB => \result = character found &&
 	 *			character with given  name not in DB => \result = null
 	 * @param name the character name to search for
-	 * @return character object found or null
+	 * @return read-only snapshot of the character found, to be cloned before
+	 * editing, or null
 	 */
 	public Character search(String name) {
+		long start = metrics.start(DatabaseMetrics.Operation.SEARCH);
+		Character c;
 		try {
-			for (Character c : database)
-				if (name.equals(c.getName()))
-					return (Character) c.clone();
-		} catch (ClassCastException cce) { } // No need to do anything
+			c = find(name);
+		} catch (RuntimeException e) {
+			metrics.failed(DatabaseMetrics.Operation.SEARCH);
+			throw e;
+		}
+		metrics.record(DatabaseMetrics.Operation.SEARCH, start, c == null ? 0 : 1, 0);
+		return c;
+	}
 
-		return null;
+	/**
+	 * As for search(), without recording metrics.
+	 */
+	private Character find(String name) {
+		CharacterFileView mapped = this.mapped;
+		Character c = database.get(name);
+		if (c != null)
+			return c;
+		return readMapped(mapped, removed, name);
 	}
-	
+
+	/**
+	 * Decodes a character from a mapped file if it is visible there.
+	 */
+	static Character readMapped(CharacterFileView mapped, Set<String> removed, String name) {
+		if (mapped == null || removed.contains(name))
+			return null;
+		try {
+			Character c = mapped.read(name);
+			return c == null ? null : c.freeze();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return All characters in the database. In read-mostly mode the characters
+	 * of the mapped file are decoded one at a time while iterating. Changes
+	 * made while iterating may or may not be seen.
+	 */
+	private Collection<Character> characters() {
+		CharacterFileView mapped = this.mapped;
+		if (mapped == null)
+			return database.values();
+		return lazyCharacters(mapped, removed, database, names());
+	}
+
+	/**
+	 * A collection over the given names that takes characters from the
+	 * overlay map first and decodes the rest from the mapped file.
+	 */
+	private static Collection<Character> lazyCharacters(final CharacterFileView mapped, final Set<String> removed,
+			final Map<String, Character> overlay, final List<String> names) {
+		return new AbstractCollection<Character>() {
+			@Override
+			public Iterator<Character> iterator() {
+				final Iterator<String> it = names.iterator();
+				return new Iterator<Character>() {
+					@Override
+					public boolean hasNext() { return it.hasNext(); }
+
+					@Override
+					public Character next() {
+						String name = it.next();
+						Character c = overlay.get(name);
+						return c != null ? c : readMapped(mapped, removed, name);
+					}
+				};
+			}
+
+			@Override
+			public int size() { return names.size(); }
+		};
+	}
+
 	/**
 	 * Returns a list of the character's names in the database. The list is not in
-	 * any specific order.
-	 * 
+	 * any specific order. It is a consistent copy, taken while no change is made.
+	 *
 	 * @return Returns a list of the character's names in the database.
 	 */
 	public List<String> getCharacterNames() {
-		List<String> names = new ArrayList<String>();
-		for (Character character : database) {
-			names.add(character.getName());
+		lockAll();
+		try {
+			return names();
+		} finally {
+			unlockAll();
+		}
+	}
+
+	/**
+	 * Pins the current version of the database, for reading a consistent
+	 * state while changes go on. Pinning takes every stripe for a moment and
+	 * copies nothing, however large the database. The version must be closed
+	 * once read, so the database can reclaim the old states kept for it.
+	 *
+	 * @see DatabaseVersion
+	 * @return The pinned version
+	 */
+	public DatabaseVersion pin() {
+		lockAll();
+		try {
+			DatabaseVersion version = new DatabaseVersion(this, database, mapped, removed);
+			synchronized (pins) {
+				DatabaseVersion[] versions = Arrays.copyOf(pinned, pinned.length + 1);
+				versions[versions.length - 1] = version;
+				pinned = versions;
+			}
+			return version;
+		} finally {
+			unlockAll();
+		}
+	}
+
+	/**
+	 * Forgets a closed version, closing its mapped file if the database
+	 * closed the file and no other version reads it.
+	 */
+	void unpin(DatabaseVersion version) {
+		synchronized (pins) {
+			List<DatabaseVersion> versions = new ArrayList<DatabaseVersion>(Arrays.asList(pinned));
+			versions.remove(version);
+			pinned = versions.toArray(new DatabaseVersion[versions.size()]);
+			CharacterFileView file = version.mapped();
+			if (file != null && retired.contains(file) && !isPinned(file)) {
+				retired.remove(file);
+				long start = metrics.start(DatabaseMetrics.Operation.CLEANUP);
+				try {
+					file.close();
+					metrics.record(DatabaseMetrics.Operation.CLEANUP, start, 1, 0);
+				} catch (IOException e) {
+					metrics.failed(DatabaseMetrics.Operation.CLEANUP);
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The number of versions pinned and not yet closed
+	 */
+	int pinnedVersions() {
+		return pinned.length;
+	}
+
+	/**
+	 * Closes a mapped file the database no longer reads, or leaves it to the
+	 * last version that reads it.
+	 */
+	private void retire(CharacterFileView file) throws IOException {
+		synchronized (pins) {
+			if (isPinned(file)) {
+				retired.add(file);
+				return;
+			}
 		}
+		file.close();
+	}
+
+	/**
+	 * @return True if a pinned version reads the given mapped file. The caller holds pins.
+	 */
+	private boolean isPinned(CharacterFileView file) {
+		for (DatabaseVersion version : pinned)
+			if (version.mapped() == file)
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return The names in the database; changes made meanwhile may or may not be seen
+	 */
+	private List<String> names() {
+		CharacterFileView mapped = this.mapped;
+		if (mapped == null)
+			return new ArrayList<String>(database.keySet());
+
+		List<String> names = new ArrayList<String>(mapped.size() + database.size());
+		for (String name : mapped.names())
+			if (!removed.contains(name) && !database.containsKey(name))
+				names.add(name);
+		names.addAll(database.keySet());
 		return names;
 	}
-	
+
+	/**
+	 * Find the names containing the given text, ignoring case, for type-ahead
+	 * search. Names equal to the text come first, then names starting with it,
+	 * then names with a word starting with it, then the other matches; names
+	 * of equal rank are sorted ignoring case. The index is built on first use and kept up
+	 * to date by add, update and remove.
+	 *
+	 * @param query Text to look for
+	 * @param offset Number of ranked names to skip
+	 * @param limit Maximum number of names to return
+	 * @return A page of matching names
+	 */
+	public List<String> findNames(String query, int offset, int limit) {
+		return query(() -> nameIndex().find(query, offset, limit));
+	}
+
+	/**
+	 * Runs a query, recording its metrics.
+	 */
+	private List<String> query(Supplier<List<String>> query) {
+		long start = metrics.start(DatabaseMetrics.Operation.QUERY);
+		List<String> names;
+		try {
+			names = query.get();
+		} catch (RuntimeException e) {
+			metrics.failed(DatabaseMetrics.Operation.QUERY);
+			throw e;
+		}
+		metrics.record(DatabaseMetrics.Operation.QUERY, start, names.size(), 0);
+		return names;
+	}
+
+	/**
+	 * @return The name index, built on first use and kept up to date by
+	 * add, update and remove. Closing or reopening the database replaces it.
+	 */
+	NameIndex nameIndex() {
+		NameIndex index = nameIndex;
+		if (index == null) {
+			indexLock.writeLock().lock();
+			try {
+				if (nameIndex == null)
+					nameIndex = new NameIndex(names());
+				index = nameIndex;
+			} finally {
+				indexLock.writeLock().unlock();
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Find the characters whose description, traits or powers match a
+	 * full-text query. The index is built on first use, reading every
+	 * character once, and kept up to date by add, update and remove.
+	 *
+	 * @param query The query to run
+	 * @return The names of the matching characters, sorted ignoring case
+	 */
+	public List<String> findCharacters(TextQuery query) {
+		return query(() -> {
+			if (query.clauses().isEmpty() && query.isRankFiltered()) {
+				List<String> names = rankIndex().range(query.minRanking(), query.maxRanking());
+				Collections.sort(names, NameIndex.ORDER);
+				return names;
+			}
+			return textIndex().find(query);
+		});
+	}
+
+	private TextIndex textIndex() {
+		TextIndex index = textIndex;
+		if (index == null) {
+			indexLock.writeLock().lock();
+			try {
+				if (textIndex == null)
+					textIndex = new TextIndex(characters());
+				index = textIndex;
+			} finally {
+				indexLock.writeLock().unlock();
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Find the super characters with a power ranking from min to max,
+	 * inclusive. The index is built on first use, reading every character
+	 * once, and kept up to date by add, update and remove.
+	 *
+	 * @param min Lowest ranking to find
+	 * @param max Highest ranking to find
+	 * @return The names of the super characters, highest ranking first, sorted
+	 * ignoring case within a ranking
+	 */
+	public List<String> findRanked(int min, int max) {
+		return query(() -> rankIndex().range(min, max));
+	}
+
+	/**
+	 * Count the super characters with a power ranking from min to max, inclusive.
+	 *
+	 * @param min Lowest ranking to count
+	 * @param max Highest ranking to count
+	 * @return The number of super characters in range
+	 */
+	public int countRanked(int min, int max) {
+		long start = metrics.start(DatabaseMetrics.Operation.QUERY);
+		int count;
+		try {
+			count = rankIndex().count(min, max);
+		} catch (RuntimeException e) {
+			metrics.failed(DatabaseMetrics.Operation.QUERY);
+			throw e;
+		}
+		metrics.record(DatabaseMetrics.Operation.QUERY, start, count, 0);
+		return count;
+	}
+
+	private RankIndex rankIndex() {
+		RankIndex index = rankIndex;
+		if (index == null) {
+			indexLock.writeLock().lock();
+			try {
+				if (rankIndex == null)
+					rankIndex = new RankIndex(characters());
+				index = rankIndex;
+			} finally {
+				indexLock.writeLock().unlock();
+			}
+		}
+		return index;
+	}
+
 	@Override
 	public String toString() {
 		String result = String.format("Character Database [%s]", dbFileName);
-		if(database.isEmpty()) {
-			result += "\n  Empty";
-		}
-		for(Character character : database) {
-			result += String.format("\n  %s", character.getName() + character.getDescription());
+		try (DatabaseVersion version = pin()) {
+			Collection<Character> characters = version.characters();
+			if(characters.isEmpty()) {
+				result += "\n  Empty";
+			}
+			for(Character character : characters) {
+				result += String.format("\n  %s", character.getName() + character.getDescription());
+			}
 		}
 		return result;
 	}
@@ -0,0 +1,1073 @@
+package assignment3;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Reads and writes the binary character database format.
+ * <p>
+ * A file consists of a fixed size header, a string table, a sequence of
+ * records and a table of checksums:
+ * <pre>
+ * header:    int magic ("CHDB"), short version, short flags (codec &lt;&lt; 8 | PAGED),
+ *            int recordCount, int stringCount, long recordsOffset, long indexOffset
+ * strings:   stringCount x (int length, UTF-8 bytes)
+ * records:   blockCount x block
+ * block:     records of the block, compressed by the codec
+ *            (int length, record body)...
+ * body:      byte kind, string name, string description, int imagePath,
+ *            int traitCount, traitCount x int trait,
+ *            [kind == SUPER_CHARACTER: int powerRanking, int powerCount, powerCount x int power]
+ * index:     int count, count x (string name, long recordOffset)
+ * [flags &amp; PAGED:
+ * pages:     int pageCount, pageCount x (long offset, int length, int firstRecord, string firstName)]
+ * checksums: int blockCount, blockCount x (long offset, int length, int rawLength, int firstRecord, int crc),
+ *            int headerCrc, int stringsCrc, int indexCrc, int pagesCrc, int checksumsCrc
+ * trailer:   long checksumsOffset, long pagesOffset
+ * </pre>
+ * Names and descriptions are stored inline as length-prefixed UTF-8. Image
+ * paths, traits and powers repeat across characters, so they are stored once
+ * in the string table and records refer to them by index. The index maps each
+ * name to the offset of its record, so a file can be opened without reading
+ * the records (see {@link MappedCharacterFile}). Version 1 files have no index
+ * and an indexOffset of 0.
+ * <p>
+ * Records are grouped into blocks of up to {@link #PAGE_SIZE} bytes before
+ * compression, and each block is compressed on its own by the file's codec
+ * (see {@link CompressionCodec}); the length of a block in the checksum
+ * table is its compressed length, and rawLength its length before. Record
+ * offsets in the index are the offsets the records would have if the blocks
+ * were not compressed. Each block as stored, and each other part of the
+ * file, has a CRC-32C checksum (see {@link Crc32c}), so a load checks every
+ * byte it reads, one block at a time before decompressing and decoding it,
+ * and a damaged block can be told from the intact ones (see
+ * {@link DatabaseRepairTool}). A load reads the blocks in file order and
+ * decodes them in parallel.
+ * <p>
+ * Files before version 4 are not compressed and have no rawLength in their
+ * checksum table. Files before version 3 have no checksums, do not group
+ * records into blocks, and end with the page directory offset alone.
+ * <p>
+ * When the records are written in name order (see {@link NameIndex#ORDER}),
+ * the blocks also serve as pages, and a page directory giving the offset and
+ * first name of each page is written after the index. The directory is small
+ * enough to keep in memory, and finding a character then takes one page read
+ * (see {@link PagedCharacterFile}). The page directory offset is 0 in files
+ * without one. Readers that do not know the PAGED flag ignore the directory.
+ * All numbers are big-endian.
+ *
+ * @see CharacterDatabase
+ *
+ * @author Ali Nawaz Maan
+ */
+final class CharacterFile {
+	/** "CHDB" */
+	static final int MAGIC = 0x43484442;
+	/** Current format version */
+	static final short VERSION = 4;
+	/** Oldest format version that can still be read */
+	static final short MIN_VERSION = 1;
+	/** First format version with checksums */
+	static final short CHECKSUMS_VERSION = 3;
+	/** First format version with compressed blocks */
+	static final short CODEC_VERSION = 4;
+	/** Size of the header in bytes */
+	static final int HEADER_SIZE = 32;
+
+	/** Header flag of a file whose records are in name order, with a page directory */
+	static final short PAGED = 1;
+	/** The codec's id is the high byte of the header flags */
+	static final int CODEC_SHIFT = 8;
+	/** Largest block, or page, of records, unless a single record is larger */
+	static final int PAGE_SIZE = 32 << 10;
+	/** Size of the trailer of a file with checksums */
+	static final int TRAILER_SIZE = 16;
+
+	/** Record kind of a plain Character */
+	static final byte CHARACTER = 0;
+	/** Record kind of a SuperCharacter */
+	static final byte SUPER_CHARACTER = 1;
+
+	/** Size of the I/O buffers */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** Reads, writes and decodes files and blocks in parallel, one thread per core */
+	static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	/** Blocks read ahead of the one being added to the result of a load, per thread */
+	private static final int BLOCKS_AHEAD = 4;
+
+	private CharacterFile() { }
+
+	/**
+	 * Checks whether the given file starts with the binary format's magic
+	 * number, or is the manifest of a sharded database in that format (see
+	 * {@link ShardedCharacterFile}).
+	 * @param fileName File path to check
+	 * @return True if the file is in the binary format, false otherwise.
+	 * @throws FileNotFoundException If the file does not exist
+	 * @throws IOException If the file cannot be read
+	 */
+	static boolean isCharacterFile(String fileName) throws IOException {
+		try (FileChannel channel = new FileInputStream(fileName).getChannel()) {
+			ByteBuffer magic = ByteBuffer.allocate(4);
+			while (magic.hasRemaining())
+				if (channel.read(magic) < 0)
+					return false;
+			magic.flip();
+			int m = magic.getInt();
+			return m == MAGIC || m == ShardedCharacterFile.MAGIC;
+		}
+	}
+
+	/**
+	 * Checks whether the given file is in the binary format with a page directory.
+	 * @param fileName File path to check
+	 * @return True if the file can be opened as a {@link PagedCharacterFile}
+	 * @throws FileNotFoundException If the file does not exist
+	 * @throws IOException If the file cannot be read
+	 */
+	static boolean isPagedFile(String fileName) throws IOException {
+		try (FileChannel channel = new FileInputStream(fileName).getChannel()) {
+			if (channel.size() < HEADER_SIZE)
+				return false;
+			ByteBuffer header = ByteBuffer.allocate(8);
+			while (header.hasRemaining())
+				if (channel.read(header) < 0)
+					return false;
+			header.flip();
+			return header.getInt() == MAGIC && (header.getShort(6) & PAGED) != 0;
+		}
+	}
+
+	/**
+	 * Writes the given characters to file uncompressed, as for
+	 * {@link #write(String, Collection, CompressionCodec, DatabaseProgress)}.
+	 */
+	static long write(String fileName, Collection<Character> characters, DatabaseProgress progress)
+			throws IOException {
+		return write(fileName, characters, CompressionCodec.NONE, progress);
+	}
+
+	/**
+	 * Writes the given characters to file, replacing its content, and forces
+	 * the file to disk. If the characters are in name order, a page directory
+	 * is written as well. The header is written last, so a file whose write
+	 * was cut short has no valid header.
+	 * @param fileName File path to write to
+	 * @param characters Characters to write
+	 * @param codec Codec compressing each block of records
+	 * @param progress Receives the number of records written
+	 * @return The number of bytes written
+	 * @throws CancellationException If the progress listener cancels the write
+	 * @throws IOException If the file cannot be written
+	 */
+	static long write(String fileName, Collection<Character> characters, CompressionCodec codec,
+			DatabaseProgress progress) throws IOException {
+		StringTable strings = new StringTable();
+		for (Character c : characters)
+			strings.addAll(c);
+
+		try (FileChannel channel = new FileOutputStream(fileName).getChannel()) {
+			Output out = new Output(channel);
+			out.ensure(HEADER_SIZE);
+			out.buffer.put(new byte[HEADER_SIZE]); // filled in once known
+
+			out.startChecksum();
+			for (byte[] s : strings.encoded) {
+				out.ensure(4 + s.length);
+				out.buffer.putInt(s.length);
+				out.buffer.put(s);
+			}
+			int stringsCrc = out.endChecksum();
+
+			ByteBuffer record = ByteBuffer.allocate(256);
+			List<byte[]> names = new ArrayList<byte[]>(characters.size());
+			// offset of each record as if the blocks were not compressed
+			long[] offsets = new long[characters.size()];
+			long rawOffset = out.position();
+			List<String> none = Collections.emptyList();
+			// records of the current block, written out once it is full
+			ByteBuffer block = ByteBuffer.allocate(PAGE_SIZE);
+			Blocks blocks = new Blocks();
+			boolean sorted = true;
+			String previous = null;
+			for (Character c : characters) {
+				int ordinal = names.size();
+				names.add(c.getName().getBytes(StandardCharsets.UTF_8));
+				record = encode(record, c, strings);
+				int length = 4 + record.remaining();
+				if (block.position() > 0 && block.position() + length > PAGE_SIZE)
+					blocks.write(out, block, codec);
+				if (block.position() == 0)
+					blocks.firsts.add(ordinal);
+				offsets[ordinal] = rawOffset;
+				rawOffset += length;
+				block = ensure(block, length);
+				block.putInt(record.remaining());
+				block.put(record);
+
+				sorted = sorted && (previous == null || NameIndex.ORDER.compare(previous, c.getName()) < 0);
+				previous = c.getName();
+				if (names.size() % DatabaseProgress.BATCH_SIZE == 0)
+					report(progress, names.size(), characters.size(), none);
+			}
+			if (block.position() > 0)
+				blocks.write(out, block, codec);
+
+			long indexOffset = out.position();
+			out.startChecksum();
+			out.ensure(4);
+			out.buffer.putInt(names.size());
+			for (int i = 0; i < names.size(); i++) {
+				byte[] name = names.get(i);
+				out.ensure(4 + name.length + 8);
+				out.buffer.putInt(name.length).put(name);
+				out.buffer.putLong(offsets[i]);
+			}
+			int indexCrc = out.endChecksum();
+
+			long pagesOffset = 0;
+			int pagesCrc = 0;
+			if (sorted) {
+				pagesOffset = out.position();
+				out.startChecksum();
+				out.ensure(4);
+				out.buffer.putInt(blocks.size());
+				for (int i = 0; i < blocks.size(); i++) {
+					byte[] name = names.get(blocks.firsts.values[i]);
+					out.ensure(8 + 4 + 4 + 4 + name.length);
+					out.buffer.putLong(blocks.offsets[i]);
+					out.buffer.putInt(blocks.lengths.values[i]);
+					out.buffer.putInt(blocks.firsts.values[i]);
+					out.buffer.putInt(name.length).put(name);
+				}
+				pagesCrc = out.endChecksum();
+			}
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC);
+			header.putShort(VERSION);
+			header.putShort((short) (codec.id << CODEC_SHIFT | (sorted ? PAGED : 0)));
+			header.putInt(characters.size());
+			header.putInt(strings.size());
+			header.putLong(HEADER_SIZE + strings.byteSize());
+			header.putLong(indexOffset);
+			header.flip();
+
+			long checksumsOffset = out.position();
+			out.startChecksum();
+			out.ensure(4);
+			out.buffer.putInt(blocks.size());
+			for (int i = 0; i < blocks.size(); i++) {
+				out.ensure(8 + 4 + 4 + 4 + 4);
+				out.buffer.putLong(blocks.offsets[i]);
+				out.buffer.putInt(blocks.lengths.values[i]);
+				out.buffer.putInt(blocks.rawLengths.values[i]);
+				out.buffer.putInt(blocks.firsts.values[i]);
+				out.buffer.putInt(blocks.crcs.values[i]);
+			}
+			out.ensure(4 * 4);
+			out.buffer.putInt(Crc32c.of(header, 0, HEADER_SIZE));
+			out.buffer.putInt(stringsCrc);
+			out.buffer.putInt(indexCrc);
+			out.buffer.putInt(pagesCrc);
+			int checksumsCrc = out.endChecksum();
+			out.ensure(4 + TRAILER_SIZE);
+			out.buffer.putInt(checksumsCrc);
+			out.buffer.putLong(checksumsOffset);
+			out.buffer.putLong(pagesOffset);
+			long written = out.finish();
+
+			while (header.hasRemaining())
+				channel.write(header, header.position());
+			channel.force(true);
+			report(progress, names.size(), characters.size(), none);
+			return written;
+		}
+	}
+
+	/**
+	 * The blocks written so far: the offset, length, length before
+	 * compression, first record and checksum of each.
+	 */
+	private static final class Blocks {
+		long[] offsets = new long[16];
+		final IntList lengths = new IntList();
+		final IntList rawLengths = new IntList();
+		final IntList firsts = new IntList();
+		final IntList crcs = new IntList();
+
+		int size() {
+			return lengths.size;
+		}
+
+		/**
+		 * Compresses the records in a block buffer, writes them out and
+		 * clears the buffer.
+		 */
+		void write(Output out, ByteBuffer block, CompressionCodec codec) throws IOException {
+			ByteBuffer stored = codec.compress(block.array(), block.position());
+			if (size() == offsets.length)
+				offsets = Arrays.copyOf(offsets, size() * 2);
+			offsets[size()] = out.position();
+			rawLengths.add(block.position());
+			lengths.add(stored.remaining());
+			crcs.add(Crc32c.of(stored, stored.position(), stored.remaining()));
+			out.ensure(stored.remaining());
+			out.buffer.put(stored);
+			block.clear();
+		}
+	}
+
+	/**
+	 * Writes the given characters to a new temporary file next to the given
+	 * one, forces it to disk and moves it over the given file in one atomic
+	 * step, so the file is always either the old or the new content, even if
+	 * the program or the system stops part way.
+	 * @param fileName File path to replace
+	 * @param characters Characters to write
+	 * @param codec Codec compressing each block of records
+	 * @param progress Receives the number of records written
+	 * @return The number of bytes written
+	 * @throws CancellationException If the progress listener cancels the write
+	 * @throws IOException If the file cannot be written; the old file is then left as it was
+	 */
+	static long replace(String fileName, Collection<Character> characters, CompressionCodec codec,
+			DatabaseProgress progress) throws IOException {
+		Path target = Paths.get(fileName).toAbsolutePath();
+		Path temp = createTempFile(target);
+		long written;
+		try {
+			written = write(temp.toString(), characters, codec, progress);
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		syncDirectory(target.getParent());
+		return written;
+	}
+
+	/**
+	 * Creates a temporary file with a unique name next to a file it is to
+	 * replace, so two writes of the file do not share one. It is given the
+	 * permissions of the file it replaces, if the system has them.
+	 * @param target File to replace
+	 * @return The new, empty file
+	 * @throws IOException If the file cannot be created
+	 */
+	static Path createTempFile(Path target) throws IOException {
+		Path temp = Files.createTempFile(target.getParent(), target.getFileName() + ".", ".tmp");
+		try {
+			if (Files.exists(target))
+				Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+		} catch (UnsupportedOperationException e) {
+			// no POSIX permissions to keep
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		return temp;
+	}
+
+	/**
+	 * Forces a directory to disk, so that files just created, renamed or
+	 * deleted in it stay that way after a crash. Systems that cannot open a
+	 * directory, like Windows, are left to make that durable themselves.
+	 * @param directory The directory to force
+	 */
+	static void syncDirectory(Path directory) {
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			// not supported here
+		}
+	}
+
+	/**
+	 * Reads all characters from a file in the binary format. Each part of the
+	 * file read is checked against its checksum, and each block of records
+	 * before it is decompressed and decoded.
+	 * <p>
+	 * The blocks are read in file order, and checked, decompressed and decoded
+	 * on {@link #POOL} in parallel, a few blocks per thread ahead of the one
+	 * being added to the result. When called on the pool itself, as for the
+	 * segments of a sharded file, the blocks are decoded on the calling thread.
+	 * @param fileName File path to read from
+	 * @param progress Receives the number of bytes read and the names read
+	 * @return The characters stored in the file
+	 * @throws FileNotFoundException If the file does not exist
+	 * @throws CorruptDatabaseException If the file is not a valid database
+	 * @throws CancellationException If the progress listener cancels the read
+	 * @throws IOException If the file cannot be read
+	 */
+	static List<Character> read(String fileName, DatabaseProgress progress) throws IOException {
+		try (FileChannel channel = new FileInputStream(fileName).getChannel()) {
+			long size = channel.size();
+			Input in = new Input(channel);
+			Header header = readHeader(in);
+			Checksums checksums = readChecksums(channel, header);
+			String[] strings = readStrings(in, header, checksums);
+			if (checksums != null)
+				return readBlocks(channel, header, checksums, strings, progress);
+
+			List<Character> characters = new ArrayList<Character>(header.recordCount);
+			List<String> names = new ArrayList<String>(DatabaseProgress.BATCH_SIZE);
+			for (int i = 0; i < header.recordCount; i++) {
+				in.ensure(4);
+				int length = in.buffer.getInt();
+				if (length <= 0)
+					throw new CorruptDatabaseException("bad record length " + length);
+				in.ensure(length);
+				int end = in.buffer.position() + length;
+				Character c = decode(in.buffer, strings);
+				if (in.buffer.position() != end)
+					throw new CorruptDatabaseException("record " + i + " has trailing bytes");
+				characters.add(c);
+				names.add(c.getName());
+				if (names.size() == DatabaseProgress.BATCH_SIZE) {
+					report(progress, in.position(), size, names);
+					names = new ArrayList<String>(DatabaseProgress.BATCH_SIZE);
+				}
+			}
+			report(progress, size, size, names);
+			return characters;
+		}
+	}
+
+	/**
+	 * Reads the blocks of a file with checksums, decoding them in parallel.
+	 */
+	private static List<Character> readBlocks(FileChannel channel, final Header header,
+			final Checksums checksums, final String[] strings, DatabaseProgress progress) throws IOException {
+		long size = channel.size();
+		boolean parallel = !ForkJoinTask.inForkJoinPool();
+		int ahead = parallel ? BLOCKS_AHEAD * POOL.getParallelism() : 0;
+		List<Character> characters = new ArrayList<Character>(header.recordCount);
+		List<String> names = new ArrayList<String>(DatabaseProgress.BATCH_SIZE);
+		Deque<Future<List<Character>>> pending = new ArrayDeque<Future<List<Character>>>();
+		int count = checksums.blockCount();
+		int next = 0;
+		try {
+			for (int b = 0; b < count; b++) {
+				// read ahead, so the pool has blocks to decode while this thread adds them
+				for (; next < count && next <= b + ahead; next++) {
+					final int block = next;
+					final ByteBuffer stored = readFully(channel, checksums.blockOffsets[block],
+							checksums.blockLengths[block]);
+					FutureTask<List<Character>> task = new FutureTask<List<Character>>(
+							() -> decodeBlock(stored, block, header, checksums, strings));
+					if (parallel)
+						POOL.execute(task);
+					else
+						task.run();
+					pending.add(task);
+				}
+				for (Character c : pending.remove().get()) {
+					characters.add(c);
+					names.add(c.getName());
+					if (names.size() == DatabaseProgress.BATCH_SIZE) {
+						report(progress, checksums.blockOffsets[b], size, names);
+						names = new ArrayList<String>(DatabaseProgress.BATCH_SIZE);
+					}
+				}
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} finally {
+			for (Future<List<Character>> future : pending)
+				future.cancel(false);
+		}
+		if (characters.size() != header.recordCount)
+			throw new CorruptDatabaseException("blocks do not hold every record");
+		report(progress, size, size, names);
+		return characters;
+	}
+
+	/**
+	 * Checks a block against its checksum, decompresses it and decodes its records.
+	 * @param stored The block as stored in the file
+	 * @return The characters in the block
+	 * @throws CorruptDatabaseException If the block is damaged
+	 */
+	static List<Character> decodeBlock(ByteBuffer stored, int block, Header header, Checksums checksums,
+			String[] strings) throws CorruptDatabaseException {
+		Checksums.verify("block " + block, checksums.blockCrcs[block], Crc32c.of(stored, 0, stored.limit()));
+		ByteBuffer raw = header.codec.decompress(stored, checksums.blockRawLengths[block]);
+		int first = checksums.blockFirsts[block];
+		int end = block + 1 < checksums.blockCount() ? checksums.blockFirsts[block + 1] : header.recordCount;
+		List<Character> characters = new ArrayList<Character>(Math.max(0, end - first));
+		for (int i = first; i < end; i++) {
+			if (raw.remaining() < 4)
+				throw new CorruptDatabaseException("block " + block + " is missing records");
+			int length = raw.getInt();
+			if (length <= 0 || length > raw.remaining())
+				throw new CorruptDatabaseException("bad record length " + length);
+			int recordEnd = raw.position() + length;
+			characters.add(decode(raw, strings));
+			if (raw.position() != recordEnd)
+				throw new CorruptDatabaseException("record " + i + " has trailing bytes");
+		}
+		if (raw.hasRemaining())
+			throw new CorruptDatabaseException("block " + block + " has trailing bytes");
+		return characters;
+	}
+
+	/**
+	 * @return A heap buffer holding the given bytes of a file
+	 * @throws CorruptDatabaseException If the file ends before them
+	 */
+	static ByteBuffer readFully(FileChannel channel, long offset, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, offset + buffer.position()) < 0)
+				throw new CorruptDatabaseException("unexpected end of file");
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * @param fileName A binary database file, or the manifest of a sharded one
+	 * @return The codec of the file's blocks, or of the current segments of a sharded file
+	 * @throws IOException If the file cannot be read
+	 */
+	static CompressionCodec codecOf(String fileName) throws IOException {
+		while (true) {
+			String file = fileName;
+			long generation = 0;
+			if (ShardedCharacterFile.isShardedFile(fileName)) {
+				generation = ShardedCharacterFile.readManifest(fileName).generation;
+				file = ShardedCharacterFile.segmentName(fileName, 0, generation);
+			}
+			try (FileChannel channel = new FileInputStream(file).getChannel()) {
+				return readHeader(new Input(channel, 0)).codec;
+			} catch (FileNotFoundException e) {
+				// a new generation replaced the segment meanwhile
+				if (generation == 0 || ShardedCharacterFile.readManifest(fileName).generation == generation)
+					throw e;
+			}
+		}
+	}
+
+	/**
+	 * Passes progress to the listener.
+	 * @throws CancellationException If the listener cancels
+	 */
+	static void report(DatabaseProgress progress, long done, long total, List<String> names) {
+		if (!progress.update(done, total, names))
+			throw new CancellationException();
+	}
+
+	/**
+	 * Reads and checks the header at the input's position.
+	 * @param in Input positioned at the start of the file
+	 * @return The header
+	 * @throws CorruptDatabaseException If the header is not valid
+	 */
+	static Header readHeader(Input in) throws IOException {
+		in.ensure(HEADER_SIZE);
+		ByteBuffer buffer = in.buffer;
+		if (buffer.getInt() != MAGIC)
+			throw new CorruptDatabaseException("not a character database");
+		Header header = new Header();
+		header.crc = Crc32c.of(buffer, buffer.position() - 4, HEADER_SIZE);
+		header.version = buffer.getShort();
+		if (header.version < MIN_VERSION || header.version > VERSION)
+			throw new CorruptDatabaseException("unsupported version " + header.version);
+		header.flags = buffer.getShort();
+		header.codec = CompressionCodec.of((header.flags >>> CODEC_SHIFT) & 0xff);
+		header.recordCount = buffer.getInt();
+		header.stringCount = buffer.getInt();
+		header.recordsOffset = buffer.getLong();
+		header.indexOffset = buffer.getLong();
+		if (header.recordCount < 0 || header.stringCount < 0 || header.recordsOffset < HEADER_SIZE
+				|| header.indexOffset < 0)
+			throw new CorruptDatabaseException("bad header");
+		return header;
+	}
+
+	/**
+	 * Reads the checksums of a file.
+	 * @param channel The file
+	 * @param header Its header
+	 * @return The checksums, or null if the file is older than version 3 and has none
+	 * @throws CorruptDatabaseException If the checksums are damaged
+	 */
+	static Checksums readChecksums(FileChannel channel, Header header) throws IOException {
+		if (header.version < CHECKSUMS_VERSION)
+			return null;
+		long size = channel.size();
+		ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+		while (trailer.hasRemaining())
+			if (channel.read(trailer, size - TRAILER_SIZE + trailer.position()) < 0)
+				throw new CorruptDatabaseException("unexpected end of file");
+		long offset = trailer.getLong(0);
+		if (offset < header.recordsOffset || offset > size - TRAILER_SIZE - 24)
+			throw new CorruptDatabaseException("bad checksum table offset");
+
+		Input in = new Input(channel, offset);
+		in.startChecksum();
+		in.ensure(4);
+		int count = in.buffer.getInt();
+		boolean raw = header.version >= CODEC_VERSION;
+		int entrySize = raw ? 24 : 20;
+		if (count < 0 || count > header.recordCount || (long) count * entrySize != size - TRAILER_SIZE - 24 - offset)
+			throw new CorruptDatabaseException("bad block count " + count);
+		Checksums checksums = new Checksums(count);
+		checksums.offset = offset;
+		checksums.pagesOffset = trailer.getLong(8);
+		for (int i = 0; i < count; i++) {
+			in.ensure(entrySize);
+			checksums.blockOffsets[i] = in.buffer.getLong();
+			checksums.blockLengths[i] = in.buffer.getInt();
+			checksums.blockRawLengths[i] = raw ? in.buffer.getInt() : checksums.blockLengths[i];
+			checksums.blockFirsts[i] = in.buffer.getInt();
+			checksums.blockCrcs[i] = in.buffer.getInt();
+		}
+		in.ensure(4 * 4);
+		checksums.header = in.buffer.getInt();
+		checksums.strings = in.buffer.getInt();
+		checksums.index = in.buffer.getInt();
+		checksums.pages = in.buffer.getInt();
+		int crc = in.endChecksum();
+		in.ensure(4);
+		if (in.buffer.getInt() != crc)
+			throw new CorruptDatabaseException("checksum table damaged");
+		for (int i = 0; i < count; i++) {
+			if (checksums.blockLengths[i] <= 0 || checksums.blockRawLengths[i] <= 0
+					|| checksums.blockOffsets[i] < header.recordsOffset
+					|| checksums.blockFirsts[i] < (i == 0 ? 0 : checksums.blockFirsts[i - 1] + 1))
+				throw new CorruptDatabaseException("bad block " + i);
+		}
+		return checksums;
+	}
+
+	/**
+	 * Reads the string table. The input must be positioned right after the header.
+	 * @param checksums The file's checksums, against which the header and the
+	 * strings are checked, or null
+	 * @throws CorruptDatabaseException If the table is not valid, or the header
+	 * or the table does not match its checksum
+	 */
+	static String[] readStrings(Input in, Header header, Checksums checksums) throws IOException {
+		if (checksums != null) {
+			Checksums.verify("header", checksums.header, header.crc);
+			in.startChecksum();
+		}
+		String[] strings = new String[header.stringCount];
+		for (int i = 0; i < header.stringCount; i++) {
+			in.ensure(4);
+			int length = in.buffer.getInt();
+			if (length < 0)
+				throw new CorruptDatabaseException("bad string length " + length);
+			in.ensure(length);
+			strings[i] = readUtf8(in.buffer, length);
+		}
+		if (checksums != null)
+			Checksums.verify("string table", checksums.strings, in.endChecksum());
+		return strings;
+	}
+
+	/**
+	 * Encodes a character record into a buffer.
+	 * @param buffer Buffer to reuse, may be replaced by a larger one
+	 * @param c Character to encode
+	 * @param strings String table holding the character's image path, traits and powers,
+	 * or null to store them inline as length-prefixed UTF-8 like names
+	 * @return A buffer holding the record, ready to be read
+	 */
+	static ByteBuffer encode(ByteBuffer buffer, Character c, StringTable strings) {
+		SuperCharacter s = c instanceof SuperCharacter ? (SuperCharacter) c : null;
+		buffer.clear();
+		buffer = ensure(buffer, 1);
+		buffer.put(s == null ? CHARACTER : SUPER_CHARACTER);
+		buffer = putUtf8(buffer, c.getName());
+		buffer = putUtf8(buffer, c.getDescription());
+		buffer = putString(buffer, c.getImagePath(), strings);
+		buffer = ensure(buffer, 4);
+		buffer.putInt(c.traits.size());
+		for (String t : c.traits)
+			buffer = putString(buffer, t, strings);
+		if (s != null) {
+			buffer = ensure(buffer, 8);
+			buffer.putInt(s.getPowerRanking());
+			buffer.putInt(s.powers.size());
+			for (String p : s.powers)
+				buffer = putString(buffer, p, strings);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer with at least n bytes remaining, holding the bytes
+	 * already written to the given buffer.
+	 */
+	private static ByteBuffer ensure(ByteBuffer buffer, int n) {
+		if (buffer.remaining() >= n)
+			return buffer;
+		ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.position() + n, buffer.capacity() * 2));
+		buffer.flip();
+		larger.put(buffer);
+		return larger;
+	}
+
+	private static ByteBuffer putUtf8(ByteBuffer buffer, String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		buffer = ensure(buffer, 4 + bytes.length);
+		buffer.putInt(bytes.length).put(bytes);
+		return buffer;
+	}
+
+	private static ByteBuffer putString(ByteBuffer buffer, String s, StringTable strings) {
+		if (strings == null)
+			return putUtf8(buffer, s);
+		buffer = ensure(buffer, 4);
+		buffer.putInt(strings.id(s));
+		return buffer;
+	}
+
+	/**
+	 * Decodes a character record starting at the buffer's position.
+	 * @param buffer Buffer holding the record body
+	 * @param strings The file's string table, or null if the record stores its strings inline.
+	 * Entries past the end of a growing table are null.
+	 * @return The decoded character
+	 * @throws CorruptDatabaseException If the record is not valid
+	 */
+	static Character decode(ByteBuffer buffer, String[] strings) throws CorruptDatabaseException {
+		try {
+			byte kind = buffer.get();
+			String name = readUtf8(buffer, buffer.getInt());
+			String description = readUtf8(buffer, buffer.getInt());
+			String imagePath = string(buffer, strings);
+
+			String[] traits = new String[buffer.getInt()];
+			for (int i = 0; i < traits.length; i++)
+				traits[i] = string(buffer, strings);
+
+			Character c;
+			if (kind == CHARACTER) {
+				c = new Character(name, description, imagePath);
+			} else if (kind == SUPER_CHARACTER) {
+				SuperCharacter s = new SuperCharacter(name, description, imagePath, buffer.getInt());
+				int powerCount = buffer.getInt();
+				for (int i = 0; i < powerCount; i++)
+					s.addPower(string(buffer, strings));
+				c = s;
+			} else {
+				throw new CorruptDatabaseException("unknown record kind " + kind);
+			}
+			for (String t : traits)
+				c.addTrait(t);
+			return c;
+		} catch (IllegalPowerRankingException ipre) {
+			throw new CorruptDatabaseException("invalid power ranking");
+		} catch (RuntimeException re) { // buffer underflow, negative sizes
+			throw new CorruptDatabaseException("truncated record");
+		}
+	}
+
+	/**
+	 * Reads a string reference, or an inline string if there is no string table.
+	 */
+	private static String string(ByteBuffer buffer, String[] strings) throws CorruptDatabaseException {
+		if (strings == null)
+			return readUtf8(buffer, buffer.getInt());
+		int id = buffer.getInt();
+		if (id < 0 || id >= strings.length || strings[id] == null)
+			throw new CorruptDatabaseException("bad string reference " + id);
+		return strings[id];
+	}
+
+	/**
+	 * Reads a UTF-8 string of the given length at the buffer's position.
+	 */
+	static String readUtf8(ByteBuffer buffer, int length) {
+		if (buffer.hasArray()) {
+			String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+					StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + length);
+			return s;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * The strings shared between records, each stored once.
+	 */
+	static final class StringTable {
+		private final Map<String, Integer> ids = new HashMap<String, Integer>();
+		private final List<byte[]> encoded = new ArrayList<byte[]>();
+		private long byteSize;
+
+		/**
+		 * Adds the image path, traits and powers of a character.
+		 */
+		void addAll(Character c) {
+			add(c.getImagePath());
+			for (String t : c.traits)
+				add(t);
+			if (c instanceof SuperCharacter)
+				for (String p : ((SuperCharacter) c).powers)
+					add(p);
+		}
+
+		void add(String s) {
+			if (!ids.containsKey(s)) {
+				byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+				ids.put(s, encoded.size());
+				encoded.add(bytes);
+				byteSize += 4 + bytes.length;
+			}
+		}
+
+		int id(String s) {
+			return ids.get(s);
+		}
+
+		/**
+		 * Removes the strings added after the first size strings.
+		 */
+		void truncate(int size) {
+			ids.values().removeIf(id -> id >= size);
+			while (encoded.size() > size)
+				byteSize -= 4 + encoded.remove(encoded.size() - 1).length;
+		}
+
+		/** @return The UTF-8 bytes of the string with the given id */
+		byte[] bytes(int id) {
+			return encoded.get(id);
+		}
+
+		int size() {
+			return encoded.size();
+		}
+
+		long byteSize() {
+			return byteSize;
+		}
+	}
+
+	/**
+	 * The fields of a file header.
+	 */
+	static final class Header {
+		short version;
+		short flags;
+		/** Codec of the blocks of records, {@link CompressionCodec#NONE} before version 4 */
+		CompressionCodec codec;
+		int recordCount;
+		int stringCount;
+		long recordsOffset;
+		/** Offset of the name index, 0 if the file has none */
+		long indexOffset;
+		/** Checksum of the header as read */
+		int crc;
+	}
+
+	/**
+	 * The checksums of a file: one for each block of records, and one for
+	 * each of the header, the string table, the index and the page directory.
+	 */
+	static final class Checksums {
+		/**
+		 * File offset, stored length, length before compression, number of
+		 * the first record and checksum of each block
+		 */
+		final long[] blockOffsets;
+		final int[] blockLengths;
+		final int[] blockRawLengths;
+		final int[] blockFirsts;
+		final int[] blockCrcs;
+		/** File offset of the checksum table, and of the page directory or 0 */
+		long offset;
+		long pagesOffset;
+		int header;
+		int strings;
+		int index;
+		/** Checksum of the page directory, 0 if there is none */
+		int pages;
+
+		Checksums(int blockCount) {
+			blockOffsets = new long[blockCount];
+			blockLengths = new int[blockCount];
+			blockRawLengths = new int[blockCount];
+			blockFirsts = new int[blockCount];
+			blockCrcs = new int[blockCount];
+		}
+
+		int blockCount() {
+			return blockOffsets.length;
+		}
+
+		/**
+		 * @throws CorruptDatabaseException If the checksums differ
+		 */
+		static void verify(String part, int expected, int actual) throws CorruptDatabaseException {
+			if (expected != actual)
+				throw new CorruptDatabaseException(part + " does not match its checksum");
+		}
+	}
+
+	/**
+	 * Buffered writes to a channel.
+	 */
+	private static final class Output {
+		private final FileChannel channel;
+		private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		private long written;
+		/** Checksum of the bytes written since startChecksum(), up to checksumFrom in the buffer */
+		private Crc32c checksum;
+		private int checksumFrom;
+
+		Output(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		/** Makes room for at least n more bytes in the buffer. */
+		void ensure(int n) throws IOException {
+			if (buffer.remaining() >= n)
+				return;
+			flush();
+			if (buffer.capacity() < n)
+				buffer = ByteBuffer.allocateDirect(n);
+		}
+
+		/** @return The file offset of the next byte written */
+		long position() {
+			return written + buffer.position();
+		}
+
+		/** Starts a checksum of the bytes written from now on. */
+		void startChecksum() {
+			checksum = new Crc32c();
+			checksumFrom = buffer.position();
+		}
+
+		/** @return The checksum of the bytes written since {@link #startChecksum()} */
+		int endChecksum() {
+			checksum.update(buffer, checksumFrom, buffer.position() - checksumFrom);
+			int crc = (int) checksum.getValue();
+			checksum = null;
+			return crc;
+		}
+
+		void flush() throws IOException {
+			if (checksum != null) {
+				checksum.update(buffer, checksumFrom, buffer.position() - checksumFrom);
+				checksumFrom = 0;
+			}
+			buffer.flip();
+			while (buffer.hasRemaining())
+				written += channel.write(buffer);
+			buffer.clear();
+		}
+
+		long finish() throws IOException {
+			flush();
+			channel.truncate(written);
+			return written;
+		}
+	}
+
+	/**
+	 * Buffered reads from a channel, starting at the channel's position or at
+	 * a given offset. Reads are positional and leave the channel's position
+	 * alone, so several inputs may read a shared channel at once.
+	 */
+	static final class Input {
+		private final FileChannel channel;
+		private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		/** File offset of the next byte to read into the buffer */
+		private long next;
+		/** Checksum of the bytes read since startChecksum(), up to checksumFrom in the buffer */
+		private Crc32c checksum;
+		private int checksumFrom;
+
+		Input(FileChannel channel) throws IOException {
+			this(channel, channel.position());
+		}
+
+		Input(FileChannel channel, long offset) {
+			this.channel = channel;
+			this.next = offset;
+			buffer.limit(0);
+		}
+
+		/** @return The buffer holding the bytes made available by {@link #ensure(int)} */
+		ByteBuffer buffer() {
+			return buffer;
+		}
+
+		/** @return The file offset of the next byte to be read */
+		long position() {
+			return next - buffer.remaining();
+		}
+
+		/**
+		 * Starts a checksum of the bytes read from now on, which must not be
+		 * skipped.
+		 */
+		void startChecksum() {
+			checksum = new Crc32c();
+			checksumFrom = buffer.position();
+		}
+
+		/** @return The checksum of the bytes read since {@link #startChecksum()} */
+		int endChecksum() {
+			checksum.update(buffer, checksumFrom, buffer.position() - checksumFrom);
+			int crc = (int) checksum.getValue();
+			checksum = null;
+			return crc;
+		}
+
+		/** Skips the next n bytes. */
+		void skip(long n) {
+			if (buffer.remaining() >= n) {
+				buffer.position(buffer.position() + (int) n);
+			} else {
+				next += n - buffer.remaining();
+				buffer.limit(0);
+			}
+		}
+
+		/** Makes sure at least n bytes are available in the buffer. */
+		void ensure(int n) throws IOException {
+			if (buffer.remaining() >= n)
+				return;
+			if (checksum != null) {
+				checksum.update(buffer, checksumFrom, buffer.position() - checksumFrom);
+				checksumFrom = 0;
+			}
+			if (buffer.capacity() < n) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.max(n, buffer.capacity() * 2));
+				larger.put(buffer);
+				buffer = larger;
+			} else {
+				buffer.compact();
+			}
+			while (buffer.position() < n) {
+				int read = channel.read(buffer, next);
+				if (read < 0)
+					throw new CorruptDatabaseException("unexpected end of file");
+				next += read;
+			}
+			buffer.flip();
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package assignment3;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * A read-only view of a binary database file whose records are decoded when
+ * they are asked for, used by a database in read-mostly mode.
+ *
+ * @see MappedCharacterFile
+ * @see PagedCharacterFile
+ * @see CharacterDatabase#open()
+ *
+ * @author Ali Nawaz Maan
+ */
+interface CharacterFileView extends Closeable {
+
+	/**
+	 * @param name Character name to look for
+	 * @return True if the file holds a character with the given name
+	 * @throws java.io.UncheckedIOException If the file cannot be read
+	 */
+	boolean contains(String name);
+
+	/**
+	 * @return The names of all characters in the file, without decoding any record
+	 * @throws java.io.UncheckedIOException If the file cannot be read
+	 */
+	Collection<String> names();
+
+	/**
+	 * @return The number of characters in the file
+	 */
+	int size();
+
+	/**
+	 * Decodes the character with the given name.
+	 * @param name Character name to read
+	 * @return A new character object, or null if the file holds no such character
+	 * @throws CorruptDatabaseException If the record cannot be decoded
+	 * @throws IOException If the file cannot be read
+	 */
+	Character read(String name) throws IOException;
+}
@@ -0,0 +1,113 @@
+package assignment3;
+
+import java.util.*;
+import java.util.function.Function;
+
+import javafx.collections.ObservableListBase;
+
+/**
+ * The names of a database's characters as a sorted observable list, for
+ * the character list view.
+ * <p>
+ * The list holds no names of its own: it reads them from the database's
+ * name index (see {@link NameIndex}), which is already sorted, so the list
+ * never has to be copied or sorted. Looking up a name takes a hash lookup
+ * for {@link #contains(Object)} and a binary search for {@link #indexOf(Object)}.
+ * <p>
+ * The list changes when the database changes. Changes made through the
+ * controller are reported to the list with {@link #added(String)} and
+ * {@link #removeNames(List, Function)}, which fire an add or remove event
+ * for each changed position, so the list view only redraws those rows.
+ * Both must be called on the JavaFX application thread.
+ *
+ * @see CharacterDatabase#nameIndex()
+ *
+ * @author Ali Nawaz Maan
+ */
+public class CharacterNameList extends ObservableListBase<String> {
+	private final CharacterDatabase database;
+
+	/**
+	 * Creates a list of the names in a database, building its name index if
+	 * it has not been built yet.
+	 * @param database Database whose names to list
+	 */
+	CharacterNameList(CharacterDatabase database) {
+		this.database = database;
+		database.nameIndex();
+	}
+
+	/**
+	 * The index is looked up on each use, as reopening the database replaces it.
+	 */
+	private NameIndex index() {
+		return database.nameIndex();
+	}
+
+	@Override
+	public String get(int index) {
+		return index().get(index);
+	}
+
+	@Override
+	public int size() {
+		return index().size();
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return o instanceof String && index().contains((String) o);
+	}
+
+	@Override
+	public int indexOf(Object o) {
+		if (!(o instanceof String))
+			return -1;
+		return Math.max(-1, index().indexOf((String) o));
+	}
+
+	@Override
+	public int lastIndexOf(Object o) {
+		// names are unique
+		return indexOf(o);
+	}
+
+	/**
+	 * Reports a name added to the database, firing an add event at its position.
+	 * @param name Name of the character added
+	 */
+	void added(String name) {
+		int at = indexOf(name);
+		if (at < 0)
+			return;
+		beginChange();
+		nextAdd(at, at + 1);
+		endChange();
+	}
+
+	/**
+	 * Removes names from the database and fires a remove event at the
+	 * position each removed name had.
+	 * @param names Names of the characters to remove
+	 * @param removal Removes the names from the database as one batch
+	 * @return The result for each name, in order
+	 */
+	List<BatchResult> removeNames(List<String> names, Function<List<String>, List<BatchResult>> removal) {
+		int[] positions = new int[names.size()];
+		for (int i = 0; i < positions.length; i++)
+			positions[i] = indexOf(names.get(i));
+		List<BatchResult> results = removal.apply(names);
+
+		// report from the end of the list, so earlier positions stay valid
+		Integer[] order = new Integer[positions.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, (a, b) -> Integer.compare(positions[b], positions[a]));
+		beginChange();
+		for (int i : order)
+			if (results.get(i) == BatchResult.REMOVED && positions[i] >= 0)
+				nextRemove(positions[i], names.get(i));
+		endChange();
+		return results;
+	}
+}
@@ -0,0 +1,467 @@
+package assignment3;
+
+import java.util.*;
+
+/**
+ * Text formats for bulk import and export of characters, one record per
+ * character.
+ * <p>
+ * CSV records have the columns {@code name,description,image,ranking,traits,powers}.
+ * Fields containing commas, quotes or line breaks are quoted, with quotes
+ * doubled. Traits and powers are separated by {@code ;} within their field,
+ * and a {@code ;} or {@code \} within a trait or power is escaped with a
+ * {@code \}; any other {@code \} is read as it is.
+ * An empty ranking makes a plain character; otherwise it is a number or
+ * {@code UNRANKABLE}. A header row is written on export and skipped on import.
+ * <p>
+ * JSON lines records are objects with the keys {@code name},
+ * {@code description}, {@code image}, {@code ranking} (number, "UNRANKABLE"
+ * or absent for a plain character), {@code traits} and {@code powers}
+ * (arrays of strings).
+ *
+ * @see CharacterBulkTool
+ *
+ * @author Ali Nawaz Maan
+ */
+enum CharacterTextFormat {
+	CSV {
+		@Override
+		boolean isComplete(CharSequence record) {
+			int quotes = 0;
+			for (int i = 0; i < record.length(); i++)
+				if (record.charAt(i) == '"')
+					quotes++;
+			return quotes % 2 == 0;
+		}
+
+		@Override
+		boolean isHeader(String record) {
+			return record.equals(CSV_HEADER);
+		}
+
+		@Override
+		String header() {
+			return CSV_HEADER;
+		}
+
+		@Override
+		Character parse(String record) throws IllegalPowerRankingException {
+			List<String> fields = splitCsv(record);
+			if (fields.size() != 6)
+				throw new IllegalArgumentException("expected 6 fields, found " + fields.size());
+			return build(fields.get(0), fields.get(1), fields.get(2), fields.get(3),
+					splitList(fields.get(4)), splitList(fields.get(5)));
+		}
+
+		@Override
+		String format(Character c) {
+			StringBuilder out = new StringBuilder();
+			appendCsv(out, c.getName()).append(',');
+			appendCsv(out, c.getDescription()).append(',');
+			appendCsv(out, c.getImagePath()).append(',');
+			if (c instanceof SuperCharacter)
+				out.append(rankingText(((SuperCharacter) c).getPowerRanking()));
+			out.append(',');
+			appendCsv(out, joinList(c.traits)).append(',');
+			if (c instanceof SuperCharacter)
+				appendCsv(out, joinList(((SuperCharacter) c).powers));
+			return out.toString();
+		}
+	},
+
+	JSONL {
+		@Override
+		boolean isComplete(CharSequence record) {
+			return true;
+		}
+
+		@Override
+		boolean isHeader(String record) {
+			return false;
+		}
+
+		@Override
+		String header() {
+			return null;
+		}
+
+		@Override
+		Character parse(String record) throws IllegalPowerRankingException {
+			Map<String, Object> object = new JsonReader(record).readObject();
+			Object ranking = object.get("ranking");
+			return build(string(object, "name"), string(object, "description"), string(object, "image"),
+					ranking == null ? "" : ranking.toString(), strings(object, "traits"), strings(object, "powers"));
+		}
+
+		@Override
+		String format(Character c) {
+			StringBuilder out = new StringBuilder("{\"name\":");
+			appendJson(out, c.getName());
+			out.append(",\"description\":");
+			appendJson(out, c.getDescription());
+			out.append(",\"image\":");
+			appendJson(out, c.getImagePath());
+			if (c instanceof SuperCharacter) {
+				int ranking = ((SuperCharacter) c).getPowerRanking();
+				out.append(",\"ranking\":");
+				if (ranking == SuperCharacter.UNRANKABLE)
+					appendJson(out, UNRANKABLE);
+				else
+					out.append(ranking);
+			}
+			out.append(",\"traits\":");
+			appendJson(out, c.traits);
+			if (c instanceof SuperCharacter) {
+				out.append(",\"powers\":");
+				appendJson(out, ((SuperCharacter) c).powers);
+			}
+			return out.append('}').toString();
+		}
+	};
+
+	private static final String CSV_HEADER = "name,description,image,ranking,traits,powers";
+	private static final char LIST_SEPARATOR = ';';
+	private static final char LIST_ESCAPE = '\\';
+	private static final String UNRANKABLE = "UNRANKABLE";
+
+	/**
+	 * @param record Lines read so far, joined by line breaks
+	 * @return True if the lines form a whole record, false if the record
+	 * continues on the next line
+	 */
+	abstract boolean isComplete(CharSequence record);
+
+	/**
+	 * @param record A record
+	 * @return True if the record is the header row
+	 */
+	abstract boolean isHeader(String record);
+
+	/**
+	 * @return The header row written before the records, or null if there is none
+	 */
+	abstract String header();
+
+	/**
+	 * Parses and validates a record.
+	 * @param record A whole record
+	 * @return The character
+	 * @throws IllegalPowerRankingException If the ranking is not a valid power ranking
+	 * @throws IllegalArgumentException If the record is malformed or the character invalid
+	 */
+	abstract Character parse(String record) throws IllegalPowerRankingException;
+
+	/**
+	 * @param c Character to format
+	 * @return The record for the character, without a line break
+	 */
+	abstract String format(Character c);
+
+	/**
+	 * @param fileName File name with a .csv, .jsonl or .json extension
+	 * @return The format for the file
+	 * @throws IllegalArgumentException If the extension is not recognised
+	 */
+	static CharacterTextFormat forFile(String fileName) {
+		String lower = fileName.toLowerCase(Locale.ROOT);
+		if (lower.endsWith(".csv"))
+			return CSV;
+		if (lower.endsWith(".jsonl") || lower.endsWith(".json"))
+			return JSONL;
+		throw new IllegalArgumentException("Unknown file type, expected .csv or .jsonl: " + fileName);
+	}
+
+	/**
+	 * Builds a character from parsed fields and validates it.
+	 */
+	private static Character build(String name, String description, String image, String ranking,
+			List<String> traits, List<String> powers) throws IllegalPowerRankingException {
+		Character c;
+		if (ranking.isEmpty()) {
+			if (!powers.isEmpty())
+				throw new IllegalArgumentException("powers given for a character without a ranking");
+			c = new Character(name, description);
+		} else {
+			SuperCharacter s = new SuperCharacter(name, description, parseRanking(ranking));
+			for (String power : powers)
+				s.addPower(power);
+			c = s;
+		}
+		if (image != null && !image.isEmpty())
+			c.setImagePath(image);
+		for (String trait : traits)
+			c.addTrait(trait);
+
+		boolean valid = c instanceof SuperCharacter ? ((SuperCharacter) c).validateSuperCharacter()
+				: c.validateCharacter();
+		if (!valid)
+			throw new IllegalArgumentException("invalid character " + name);
+		return c;
+	}
+
+	private static int parseRanking(String ranking) throws IllegalPowerRankingException {
+		if (ranking.equalsIgnoreCase(UNRANKABLE))
+			return SuperCharacter.UNRANKABLE;
+		try {
+			return Integer.parseInt(ranking.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalPowerRankingException("Power ranking is not a number: " + ranking);
+		}
+	}
+
+	private static String rankingText(int ranking) {
+		return ranking == SuperCharacter.UNRANKABLE ? UNRANKABLE : Integer.toString(ranking);
+	}
+
+	private static String joinList(Collection<String> items) {
+		StringBuilder out = new StringBuilder();
+		boolean first = true;
+		for (String item : items) {
+			if (!first)
+				out.append(LIST_SEPARATOR);
+			for (int i = 0; i < item.length(); i++) {
+				char ch = item.charAt(i);
+				if (ch == LIST_SEPARATOR || ch == LIST_ESCAPE)
+					out.append(LIST_ESCAPE);
+				out.append(ch);
+			}
+			first = false;
+		}
+		return out.toString();
+	}
+
+	private static List<String> splitList(String field) {
+		List<String> items = new ArrayList<String>();
+		StringBuilder item = new StringBuilder();
+		for (int i = 0; i <= field.length(); i++) {
+			char ch = i < field.length() ? field.charAt(i) : LIST_SEPARATOR;
+			if (ch == LIST_ESCAPE && i + 1 < field.length()
+					&& (field.charAt(i + 1) == LIST_SEPARATOR || field.charAt(i + 1) == LIST_ESCAPE)) {
+				item.append(field.charAt(++i));
+			} else if (ch == LIST_SEPARATOR) {
+				if (item.length() > 0)
+					items.add(item.toString());
+				item.setLength(0);
+			} else {
+				item.append(ch);
+			}
+		}
+		return items;
+	}
+
+	private static List<String> splitCsv(String record) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < record.length(); i++) {
+			char ch = record.charAt(i);
+			if (quoted) {
+				if (ch == '"' && i + 1 < record.length() && record.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				} else if (ch == '"') {
+					quoted = false;
+				} else {
+					field.append(ch);
+				}
+			} else if (ch == '"') {
+				quoted = true;
+			} else if (ch == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(ch);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	private static StringBuilder appendCsv(StringBuilder out, String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+			return out.append(value);
+		return out.append('"').append(value.replace("\"", "\"\"")).append('"');
+	}
+
+	private static void appendJson(StringBuilder out, Collection<String> values) {
+		out.append('[');
+		boolean first = true;
+		for (String value : values) {
+			if (!first)
+				out.append(',');
+			appendJson(out, value);
+			first = false;
+		}
+		out.append(']');
+	}
+
+	private static void appendJson(StringBuilder out, String value) {
+		out.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char ch = value.charAt(i);
+			switch (ch) {
+			case '"': out.append("\\\""); break;
+			case '\\': out.append("\\\\"); break;
+			case '\n': out.append("\\n"); break;
+			case '\r': out.append("\\r"); break;
+			case '\t': out.append("\\t"); break;
+			default:
+				if (ch < 0x20)
+					out.append(String.format("\\u%04x", (int) ch));
+				else
+					out.append(ch);
+			}
+		}
+		out.append('"');
+	}
+
+	private static String string(Map<String, Object> object, String key) {
+		Object value = object.get(key);
+		if (value == null)
+			return key.equals("image") ? null : "";
+		if (!(value instanceof String))
+			throw new IllegalArgumentException(key + " must be a string");
+		return (String) value;
+	}
+
+	private static List<String> strings(Map<String, Object> object, String key) {
+		Object value = object.get(key);
+		if (value == null)
+			return Collections.emptyList();
+		if (!(value instanceof List))
+			throw new IllegalArgumentException(key + " must be an array");
+		List<String> items = new ArrayList<String>();
+		for (Object item : (List<?>) value) {
+			if (!(item instanceof String))
+				throw new IllegalArgumentException(key + " must hold strings");
+			items.add((String) item);
+		}
+		return items;
+	}
+
+	/**
+	 * Reads the JSON values of a character record: objects, arrays,
+	 * strings, numbers, booleans and null.
+	 */
+	private static final class JsonReader {
+		private final String text;
+		private int at;
+
+		JsonReader(String text) {
+			this.text = text;
+		}
+
+		Map<String, Object> readObject() {
+			Object value = readValue();
+			skipSpace();
+			if (!(value instanceof Map) || at != text.length())
+				throw error("expected one object");
+			@SuppressWarnings("unchecked")
+			Map<String, Object> object = (Map<String, Object>) value;
+			return object;
+		}
+
+		private Object readValue() {
+			skipSpace();
+			if (at >= text.length())
+				throw error("unexpected end");
+			char ch = text.charAt(at);
+			if (ch == '{') {
+				Map<String, Object> object = new HashMap<String, Object>();
+				at++;
+				if (consume('}'))
+					return object;
+				do {
+					skipSpace();
+					String key = readString();
+					if (!consume(':'))
+						throw error("expected ':'");
+					object.put(key, readValue());
+				} while (consume(','));
+				if (!consume('}'))
+					throw error("expected '}'");
+				return object;
+			}
+			if (ch == '[') {
+				List<Object> array = new ArrayList<Object>();
+				at++;
+				if (consume(']'))
+					return array;
+				do {
+					array.add(readValue());
+				} while (consume(','));
+				if (!consume(']'))
+					throw error("expected ']'");
+				return array;
+			}
+			if (ch == '"')
+				return readString();
+			int start = at;
+			while (at < text.length() && "{}[],: \t".indexOf(text.charAt(at)) < 0)
+				at++;
+			String word = text.substring(start, at);
+			if (word.equals("null"))
+				return null;
+			if (word.equals("true") || word.equals("false"))
+				return Boolean.valueOf(word);
+			try {
+				return Long.valueOf(word);
+			} catch (NumberFormatException e) {
+				throw error("bad value " + word);
+			}
+		}
+
+		private String readString() {
+			if (at >= text.length() || text.charAt(at) != '"')
+				throw error("expected a string");
+			StringBuilder out = new StringBuilder();
+			for (at++; at < text.length(); at++) {
+				char ch = text.charAt(at);
+				if (ch == '"') {
+					at++;
+					return out.toString();
+				}
+				if (ch != '\\') {
+					out.append(ch);
+					continue;
+				}
+				if (++at >= text.length())
+					break;
+				ch = text.charAt(at);
+				switch (ch) {
+				case 'n': out.append('\n'); break;
+				case 'r': out.append('\r'); break;
+				case 't': out.append('\t'); break;
+				case 'b': out.append('\b'); break;
+				case 'f': out.append('\f'); break;
+				case 'u':
+					if (at + 4 >= text.length())
+						throw error("bad escape");
+					out.append((char) Integer.parseInt(text.substring(at + 1, at + 5), 16));
+					at += 4;
+					break;
+				default: out.append(ch);
+				}
+			}
+			throw error("unterminated string");
+		}
+
+		private boolean consume(char ch) {
+			skipSpace();
+			if (at < text.length() && text.charAt(at) == ch) {
+				at++;
+				return true;
+			}
+			return false;
+		}
+
+		private void skipSpace() {
+			while (at < text.length() && java.lang.Character.isWhitespace(text.charAt(at)))
+				at++;
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException("bad JSON at column " + (at + 1) + ": " + message);
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package assignment3;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * A set of strings sized for the few traits or powers of a character.
+ * <p>
+ * Up to {@link #INLINE_MAX} strings are kept in an array in the order they
+ * were added and found by scanning it, which for so few strings is faster
+ * than hashing and takes no node per string. Larger sets switch to an open
+ * addressing table with linear probing. Removed strings leave a marker in
+ * the table, so iterators can remove while they walk it; the table is
+ * rebuilt when markers and strings fill half of it. Null is allowed, as in
+ * a HashSet, so validation can still report null traits.
+ * <p>
+ * The set is written to object streams as a HashSet, so the legacy
+ * serialized format does not change.
+ *
+ * @see DictionarySet
+ *
+ * @author Ali Nawaz Maan
+ */
+final class CompactStringSet extends AbstractSet<String> implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/** Largest set kept as an array */
+	static final int INLINE_MAX = 8;
+
+	private static final Object[] EMPTY = {};
+	/** Stands for null in the table, where null marks an empty slot */
+	private static final Object NULL = new Object();
+	/** Marks the slot of a removed string */
+	private static final Object REMOVED = new Object();
+
+	/** The strings, in order, or the hash table if hashed */
+	private transient Object[] elements = EMPTY;
+	private transient int size;
+	/** Number of REMOVED markers in the table */
+	private transient int removed;
+	private transient boolean hashed;
+
+	CompactStringSet() {
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		Object key = o == null ? NULL : o;
+		if (!hashed)
+			return indexOf(key) >= 0;
+		return elements[slot(key)] != null;
+	}
+
+	@Override
+	public boolean add(String s) {
+		Object key = s == null ? NULL : s;
+		if (!hashed) {
+			if (indexOf(key) >= 0)
+				return false;
+			if (size == INLINE_MAX) {
+				rehash(INLINE_MAX * 4);
+				return add(s);
+			}
+			if (size == elements.length)
+				elements = Arrays.copyOf(elements, Math.max(2, size * 2));
+			elements[size++] = key;
+			return true;
+		}
+		int i = slot(key);
+		if (elements[i] != null)
+			return false;
+		// reuse the first removed slot on the probe path, if any
+		int free = firstRemoved(key, i);
+		if (free >= 0) {
+			elements[free] = key;
+			removed--;
+		} else {
+			elements[i] = key;
+			if (2 * (size + 1 + removed) > elements.length)
+				rehash(2 * (size + 1) > elements.length / 2 ? elements.length * 2 : elements.length);
+		}
+		size++;
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		Object key = o == null ? NULL : o;
+		if (!hashed) {
+			int i = indexOf(key);
+			if (i < 0)
+				return false;
+			removeInline(i);
+			return true;
+		}
+		int i = slot(key);
+		if (elements[i] == null)
+			return false;
+		elements[i] = REMOVED;
+		removed++;
+		size--;
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		elements = EMPTY;
+		size = 0;
+		removed = 0;
+		hashed = false;
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			/** Position of the next string */
+			private int next = advance(0);
+			private int last = -1;
+
+			private int advance(int i) {
+				if (hashed)
+					while (i < elements.length && (elements[i] == null || elements[i] == REMOVED))
+						i++;
+				return i;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return hashed ? next < elements.length : next < size;
+			}
+
+			@Override
+			public String next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				last = next;
+				next = advance(next + 1);
+				Object key = elements[last];
+				return key == NULL ? null : (String) key;
+			}
+
+			@Override
+			public void remove() {
+				if (last < 0)
+					throw new IllegalStateException();
+				if (hashed) {
+					elements[last] = REMOVED;
+					removed++;
+					size--;
+				} else {
+					removeInline(last);
+					next = last;
+				}
+				last = -1;
+			}
+		};
+	}
+
+	/**
+	 * @return The position of the key in the array, or -1
+	 */
+	private int indexOf(Object key) {
+		for (int i = 0; i < size; i++)
+			if (elements[i].equals(key))
+				return i;
+		return -1;
+	}
+
+	private void removeInline(int i) {
+		System.arraycopy(elements, i + 1, elements, i, size - i - 1);
+		elements[--size] = null;
+	}
+
+	/**
+	 * @return The slot holding the key, or the empty slot ending its probe path
+	 */
+	private int slot(Object key) {
+		int mask = elements.length - 1;
+		int i = spread(key.hashCode()) & mask;
+		while (elements[i] != null && !elements[i].equals(key))
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	/**
+	 * @return The first removed slot on the probe path of a key ending at the
+	 * given empty slot, or -1 if there is none
+	 */
+	private int firstRemoved(Object key, int end) {
+		int mask = elements.length - 1;
+		for (int i = spread(key.hashCode()) & mask; i != end; i = (i + 1) & mask)
+			if (elements[i] == REMOVED)
+				return i;
+		return -1;
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Moves the strings to a new table of the given power of two capacity.
+	 */
+	private void rehash(int capacity) {
+		Object[] old = elements;
+		int count = hashed ? old.length : size;
+		elements = new Object[capacity];
+		hashed = true;
+		removed = 0;
+		for (int i = 0; i < count; i++) {
+			Object key = old[i];
+			if (key != null && key != REMOVED)
+				elements[slot(key)] = key;
+		}
+	}
+
+	/**
+	 * Written as a HashSet, which any reader of the legacy format knows.
+	 */
+	private Object writeReplace() throws ObjectStreamException {
+		return new HashSet<String>(this);
+	}
+}
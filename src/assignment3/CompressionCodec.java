@@ -0,0 +1,141 @@
+package assignment3;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * How the blocks of records of a database file are compressed. The codec of
+ * a file is recorded in its header (see {@link CharacterFile}), and each
+ * block is compressed on its own, so blocks can be decompressed in parallel
+ * and a page can be read without the rest of the file.
+ * <p>
+ * Descriptions repeat a lot, so both codecs halve a file or better.
+ * {@link #DEFLATE} gives the smallest files, but loading them takes up to
+ * twice as long; {@link #LZ} files are a little larger and load about as
+ * fast as uncompressed ones (see DatabaseFileBench in the benchmarks module).
+ *
+ * @see CharacterDatabase#setCodec(CompressionCodec)
+ *
+ * @author Ali Nawaz Maan
+ */
+public enum CompressionCodec {
+	/** Blocks are stored as they are */
+	NONE(0) {
+		@Override
+		ByteBuffer compress(byte[] raw, int length) {
+			return ByteBuffer.wrap(raw, 0, length);
+		}
+
+		@Override
+		ByteBuffer decompress(ByteBuffer stored, int rawLength) throws CorruptDatabaseException {
+			if (stored.remaining() != rawLength)
+				throw new CorruptDatabaseException("block has the wrong length");
+			return stored;
+		}
+	},
+
+	/** The JDK's Deflater, at its fastest level */
+	DEFLATE(1) {
+		@Override
+		ByteBuffer compress(byte[] raw, int length) {
+			Deflater deflater = DEFLATERS.get();
+			deflater.reset();
+			deflater.setInput(raw, 0, length);
+			deflater.finish();
+			byte[] stored = new byte[length + length / 1000 + 64];
+			int size = 0;
+			while (!deflater.finished()) {
+				if (size == stored.length)
+					stored = Arrays.copyOf(stored, stored.length * 2);
+				size += deflater.deflate(stored, size, stored.length - size);
+			}
+			return ByteBuffer.wrap(stored, 0, size);
+		}
+
+		@Override
+		ByteBuffer decompress(ByteBuffer stored, int rawLength) throws CorruptDatabaseException {
+			Inflater inflater = INFLATERS.get();
+			inflater.reset();
+			inflater.setInput(stored.array(), stored.arrayOffset() + stored.position(), stored.remaining());
+			byte[] raw = new byte[rawLength];
+			try {
+				int size = 0;
+				while (!inflater.finished()) {
+					int n = inflater.inflate(raw, size, rawLength - size);
+					if (n == 0 && (inflater.needsInput() || inflater.needsDictionary() || size == rawLength))
+						break;
+					size += n;
+				}
+				if (size != rawLength || !inflater.finished())
+					throw new CorruptDatabaseException("compressed block has the wrong length");
+			} catch (DataFormatException e) {
+				throw new CorruptDatabaseException("bad compressed block");
+			}
+			return ByteBuffer.wrap(raw);
+		}
+	},
+
+	/** The in-project LZ codec, see {@link LzCodec} */
+	LZ(2) {
+		@Override
+		ByteBuffer compress(byte[] raw, int length) {
+			byte[] stored = new byte[LzCodec.maxCompressedLength(length)];
+			return ByteBuffer.wrap(stored, 0, LzCodec.compress(raw, length, stored));
+		}
+
+		@Override
+		ByteBuffer decompress(ByteBuffer stored, int rawLength) throws CorruptDatabaseException {
+			byte[] raw = new byte[rawLength];
+			LzCodec.decompress(stored.array(), stored.arrayOffset() + stored.position(), stored.remaining(), raw);
+			return ByteBuffer.wrap(raw);
+		}
+	};
+
+	/** A Deflater per thread, as creating one allocates native memory */
+	private static final ThreadLocal<Deflater> DEFLATERS =
+			ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+	/** An Inflater per thread */
+	private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+	/** The number recorded in file headers */
+	final int id;
+
+	CompressionCodec(int id) {
+		this.id = id;
+	}
+
+	/**
+	 * Compresses a block.
+	 * @param raw The block's bytes
+	 * @param length Number of bytes, from the start of raw
+	 * @return A heap buffer holding the compressed bytes from its position to its limit
+	 */
+	abstract ByteBuffer compress(byte[] raw, int length);
+
+	/**
+	 * Decompresses a block.
+	 * @param stored A heap buffer holding the compressed bytes from its position to its limit
+	 * @param rawLength Length of the block before compression
+	 * @return A buffer holding the block's bytes from its position to its
+	 * limit; unless nothing was compressed, a new one whose array holds
+	 * exactly those bytes
+	 * @throws CorruptDatabaseException If the block cannot be decompressed
+	 * to exactly rawLength bytes
+	 */
+	abstract ByteBuffer decompress(ByteBuffer stored, int rawLength) throws CorruptDatabaseException;
+
+	/**
+	 * @param id The number recorded in a file header
+	 * @return The codec with that number
+	 * @throws CorruptDatabaseException If there is no such codec
+	 */
+	static CompressionCodec of(int id) throws CorruptDatabaseException {
+		for (CompressionCodec codec : values())
+			if (codec.id == id)
+				return codec;
+		throw new CorruptDatabaseException("unknown compression codec " + id);
+	}
+}
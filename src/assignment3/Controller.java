@@ -1,12 +1,21 @@
 package assignment3;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.URL;
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
@@ -22,13 +31,39 @@ import javafx.stage.Stage;
  * @author Ali Nawaz Maan
  */
 public class Controller implements Initializable{
+
+	/** Maximum number of names shown for a type-ahead search */
+	private static final int SEARCH_PAGE_SIZE = 1000;
+	/** Power ranking filter choice for unrankable super characters */
+	private static final String UNRANKABLE_CHOICE = "Unrankable";
+	/** Portrait shown while a character's image is loading */
+	private static final String DEFAULT_IMAGE = "images/default.png";
+	/** Number of list rows above and below the selection whose portraits are prefetched */
+	private static final int PREFETCH_ROWS = 2;
+	/**
+	 * Exit once the editor has started, from the assignment3.exitAfterStartup
+	 * system property; used to record the classes loaded at startup for a
+	 * class-data sharing archive (see app/run.sh)
+	 */
+	private static final boolean EXIT_AFTER_STARTUP = Boolean.getBoolean("assignment3.exitAfterStartup");
 	
 	private Model model;
 	private final FileChooser fileChooser = new FileChooser();
-	private ObservableList<String> characterDisplayList;
+	private CharacterNameList characterDisplayList;
 	private Character selectedCharacter;
 	private Image selectedImage;
 	private boolean databaseLoaded = false;
+	private Task<?> runningTask;
+	/** Runs type-ahead searches and image prefetches one at a time, off the FX thread */
+	private final ExecutorService listWorker = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "Character list worker");
+		thread.setDaemon(true);
+		return thread;
+	});
+	/** The latest type-ahead search, until its names are shown */
+	private Task<List<String>> typeAheadTask;
+	/** True until the first names have been shown, or the editor has started without any */
+	private boolean starting = true;
 
 	@FXML
 	private Button loadDatabase;
@@ -39,7 +74,7 @@ public class Controller implements Initializable{
 	@FXML
 	private Button createDatabase;
 	@FXML
-	private ListView characterList;
+	private ListView<String> characterList;
 	@FXML
 	private TextField characterNameCreate;
 	@FXML
@@ -78,6 +113,22 @@ public class Controller implements Initializable{
 	private Button addPowerBtn;
 	@FXML
 	private Button removePowerBtn;
+	@FXML
+	private ProgressBar progressBar;
+	@FXML
+	private Button cancelTask;
+	@FXML
+	private TextField textSearchField;
+	@FXML
+	private Button textSearch;
+	@FXML
+	private ChoiceBox<String> minRankChoice;
+	@FXML
+	private ChoiceBox<String> maxRankChoice;
+	@FXML
+	private Button rankFilter;
+	@FXML
+	private Label rankFilterCount;
 
 
 	/**
@@ -85,7 +136,6 @@ public class Controller implements Initializable{
 	 */
 	public Controller() {
 		this.model = new Model();
-		this.characterDisplayList = FXCollections.observableArrayList();
 	}
 
 	/**
@@ -103,6 +153,9 @@ public class Controller implements Initializable{
 		createSuperCharacterEvent();
 		selectCharacterEvent();
 		searchCharacterEvent();
+		typeAheadSearchEvent();
+		textSearchEvent();
+		rankFilterEvent();
 		clearSearchEvent();
 		deleteCharacterEvent();
 		changeImageEvent();
@@ -113,6 +166,88 @@ public class Controller implements Initializable{
 		removeTraitEvent();
 		addPowerEvent();
 		removePowerEvent();
+		cancelTaskEvent();
+
+		// reopen the last database once the window has been drawn, so
+		// nothing but the window itself stands between launch and first paint
+		afterNextPaint(() -> {
+			reportStartup("window shown");
+			String last = Model.REOPEN_LAST ? Model.lastDatabase() : null;
+			if (last != null) {
+				displayDatabase(last, true);
+			} else {
+				finishStartup();
+			}
+		});
+
+		// save edits not yet autosaved, and when metrics are enabled, report
+		// cache use and database metrics, for sizing the cache and finding
+		// slow databases
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				model.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			if (DatabaseMetrics.isDumping()) {
+				System.out.println(ImageCache.SHARED);
+				System.out.print(DatabaseMetrics.dump());
+			}
+		}));
+	}
+
+	/**
+	 * Runs an action once the next frame has been drawn: the timer fires at
+	 * the start of the next pulse, and the action runs after that pulse.
+	 * @param action Action to run on the FX thread
+	 */
+	private static void afterNextPaint(Runnable action) {
+		new AnimationTimer() {
+			@Override
+			public void handle(long now) {
+				stop();
+				Platform.runLater(action);
+			}
+		}.start();
+	}
+
+	/**
+	 * Reports the time from the start of the JVM to a point of startup, when
+	 * metrics are enabled or the editor is started only to exit again.
+	 * @param event What has happened by now
+	 */
+	private static void reportStartup(String event) {
+		if (!DatabaseMetrics.isDumping() && !EXIT_AFTER_STARTUP)
+			return;
+		long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+		System.out.printf("Startup: %s after %d ms%n", event, System.currentTimeMillis() - jvmStart);
+	}
+
+	/**
+	 * Reports startup time once the first names are in the character list,
+	 * when the frame showing them has been drawn.
+	 */
+	private void namesShown() {
+		if (starting) {
+			starting = false;
+			afterNextPaint(() -> reportStartup("first names shown"));
+		}
+	}
+
+	/**
+	 * Starts the work deferred until the editor has been shown and the
+	 * database reopened, if any: the posting lists of the name index, in
+	 * the background.
+	 */
+	private void finishStartup() {
+		starting = false;
+		if (EXIT_AFTER_STARTUP) {
+			Platform.exit();
+		} else if (databaseLoaded) {
+			Thread thread = new Thread(model::prepareSearch, "Search index");
+			thread.setDaemon(true);
+			thread.start();
+		}
 	}
 
 	/**
@@ -121,34 +256,111 @@ public class Controller implements Initializable{
 	private void loadDatabaseEvent() {
 		loadDatabase.setOnAction(e -> {
 			File file = fileChooser.showOpenDialog(new Stage());
-			if (file != null) {
-				displayDatabase(file.getPath());
-				databaseLoaded = true;
+			if (file != null && runningTask == null) {
+				displayDatabase(file.getPath(), false);
 			}
 		});
 	}
 
 	/**
 	 * Displays the intended database into the characters list view.
+	 * The database is loaded in the background; names are added to the list
+	 * in batches as they are read, and replaced by the sorted name list once
+	 * loading has finished.
 	 * @param filePath Path of the database file to load and display.
+	 * @param reopening True for the database reopened at startup, which is
+	 * shown without a message
 	 */
-	private void displayDatabase(String filePath) {
-		try {
-			model.loadDatabase(filePath);
-		}catch (Exception e) {
-			showAlert(1, "Error loading database", "Error loading database", e.getMessage());
-			return;
-		}
-		characterDisplayList = FXCollections.observableArrayList();
-		characterDisplayList.addAll(model.getCharacters());
+	private void displayDatabase(String filePath, boolean reopening) {
+		ObservableList<String> previousList = characterDisplayList;
+		ObservableList<String> loadingList = FXCollections.observableArrayList();
+		characterList.setItems(loadingList);
+
+		Task<CharacterNameList> task = new Task<CharacterNameList>() {
+			@Override
+			protected CharacterNameList call() throws Exception {
+				model.loadDatabase(filePath, (done, total, names) -> {
+					updateProgress(done, total);
+					if (!names.isEmpty()) {
+						Platform.runLater(() -> {
+							loadingList.addAll(names);
+							namesShown();
+						});
+					}
+					return !isCancelled();
+				});
+				// sorts the names here rather than on the application thread
+				return model.getCharacterList();
+			}
+		};
+		task.setOnSucceeded(e -> {
+			characterDisplayList = task.getValue();
+			characterList.setItems(characterDisplayList);
+			databaseLoaded = true;
+
+			if (reopening) {
+				namesShown();
+				afterNextPaint(this::finishStartup);
+			} else {
+				showAlert(2, "Database loaded", "Database Loaded", "Database has been loaded. " +
+						"Please save after making changes in characters.");
+			}
+		});
+		task.setOnFailed(e -> {
+			characterList.setItems(previousList);
+			if (reopening) {
+				finishStartup();
+			}
+			showAlert(1, "Error loading database", "Error loading database", task.getException().getMessage());
+		});
+		task.setOnCancelled(e -> {
+			characterList.setItems(previousList);
+			if (reopening) {
+				finishStartup();
+			}
+		});
+		runTask(task);
+	}
 
-		Comparator<String> comparator = new StringComparator();
-		characterDisplayList.sort(comparator);
+	/**
+	 * Runs a load, save or search task in the background, showing its progress.
+	 * Other database actions are refused until the task has finished.
+	 * @param task Task to run
+	 */
+	private void runTask(Task<?> task) {
+		if (typeAheadTask != null) {
+			// its names would replace what the task shows
+			typeAheadTask.cancel(false);
+			typeAheadTask = null;
+		}
+		runningTask = task;
+		progressBar.progressProperty().bind(task.progressProperty());
+		progressBar.setVisible(true);
+		cancelTask.setVisible(true);
+		task.runningProperty().addListener((observable, wasRunning, running) -> {
+			if (!running) {
+				runningTask = null;
+				progressBar.progressProperty().unbind();
+				progressBar.setVisible(false);
+				cancelTask.setVisible(false);
+			}
+		});
 
-		characterList.setItems(characterDisplayList);
+		Thread thread = new Thread(task, "Character database task");
+		thread.setDaemon(true);
+		thread.start();
+	}
 
-		showAlert(2, "Database loaded", "Database Loaded", "Database has been loaded. " +
-				"Please save after making changes in characters.");
+	/**
+	 * Handles cancel event for a running load, save or search
+	 */
+	private void cancelTaskEvent() {
+		cancelTask.setOnAction(e -> {
+			if (runningTask != null) {
+				// no interrupt, it would close the database's file channels
+				runningTask.cancel(false);
+			}
+		});
 	}
 
 	/**
@@ -163,7 +375,7 @@ public class Controller implements Initializable{
 								"try to provide some other name for your character.");
 					}else {
 						selectedCharacter = model.createCharacter(characterNameCreate.getText());
-						characterDisplayList.add(selectedCharacter.getName());
+						characterDisplayList.added(selectedCharacter.getName());
 						characterList.setItems(characterDisplayList);
 						selectItem(selectedCharacter.getName());
 						characterNameCreate.setText("");
@@ -185,7 +397,7 @@ public class Controller implements Initializable{
 								"try to provide some other name for your character.");
 					}else {
 						selectedCharacter = model.createSuperCharacter(characterNameCreate.getText());
-						characterDisplayList.add(selectedCharacter.getName());
+						characterDisplayList.added(selectedCharacter.getName());
 						characterList.setItems(characterDisplayList);
 						selectItem(selectedCharacter.getName());
 						characterNameCreate.setText("");
@@ -205,10 +417,11 @@ public class Controller implements Initializable{
 					model.createDatabase(enterFilename.getText());
 				}catch (Exception exc) {
 					showAlert(1, "Error creating database", "Error creating database", exc.getMessage());
+					return;
 				}
 
 				databaseLoaded = true;
-				characterDisplayList = FXCollections.observableArrayList();
+				characterDisplayList = model.getCharacterList();
 				characterList.setItems(characterDisplayList);
 				showAlert(2, "Database created", "Database created", "Your database has been created. " +
 						"Please add characters and super characters to edit their characteristics and save the database.");
@@ -225,9 +438,22 @@ public class Controller implements Initializable{
 	private void saveDatabaseEvent() {
 		saveDatabase.setOnAction(e -> {
 			if (databaseLoadCheck() && !characterDisplayList.isEmpty()) {
-				model.save();
-				showAlert(2, "Database saved", "Database saved", "Your changes to the database are saved.");
-			}else {
+				Task<Void> task = new Task<Void>() {
+					@Override
+					protected Void call() throws Exception {
+						model.save((done, total, names) -> {
+							updateProgress(done, total);
+							return !isCancelled();
+						});
+						return null;
+					}
+				};
+				task.setOnSucceeded(ev -> showAlert(2, "Database saved", "Database saved",
+						"Your changes to the database are saved."));
+				task.setOnFailed(ev -> showAlert(1, "Error saving database", "Error saving database",
+						task.getException().getMessage()));
+				runTask(task);
+			}else if (runningTask == null) {
 				showAlert(1, "No characters to save", "No characters to save", "Please add characters to save.");
 			}
 		});
@@ -238,26 +464,28 @@ public class Controller implements Initializable{
 	 */
 	private void selectCharacterEvent() {
 		characterList.setOnMouseClicked(e -> {
-			if (databaseLoadCheck()) {
+			if (runningTask == null && databaseLoadCheck()) {
 				if (!characterDisplayList.isEmpty()) {
 					String selectedName = characterList.getSelectionModel().getSelectedItem().toString();
 					Character c = model.search(selectedName);
 					selectedCharacter = c;
 					setCharacterFields(selectedCharacter);
+					prefetchImages(characterList.getSelectionModel().getSelectedIndex());
 				}
 			}
 		});
 	}
 
 	/**
-	 * Handles delete character event
+	 * Handles delete character event. Every selected character is deleted
+	 * in one batch.
 	 */
 	private void deleteCharacterEvent() {
+		characterList.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
 		deleteCharacter.setOnAction(e -> {
 			if (databaseLoadCheck()) {
-				String name = characterList.getSelectionModel().getSelectedItem().toString();
-				model.delete(name);
-				characterDisplayList.remove(name);
+				List<String> names = new ArrayList<String>(characterList.getSelectionModel().getSelectedItems());
+				characterDisplayList.removeNames(names, model::removeAll);
 				characterList.setItems(characterDisplayList);
 			}
 		});
@@ -272,9 +500,8 @@ public class Controller implements Initializable{
 				File file = fileChooser.showOpenDialog(new Stage());
 				if (file != null) {
 					String filePath = getImagePath(file);
-					selectedCharacter.setImagePath(filePath);
-					selectedImage = new Image(selectedCharacter.getImagePath());
-					imageView.setImage(selectedImage);
+					editSelectedCharacter().setImagePath(filePath);
+					showImage(selectedCharacter);
 				}
 			}
 		});
@@ -289,13 +516,13 @@ public class Controller implements Initializable{
 			@Override
 			public void handle(ListView.EditEvent event) {
 				String editingTrait = traitsList.getItems().get(traitsList.getEditingIndex()).toString();
-				selectedCharacter.removeTrait(editingTrait);
+				editSelectedCharacter().removeTrait(editingTrait);
 
 				int index = event.getIndex();
 				String newTrait = event.getNewValue().toString();
 				traitsList.getItems().set(index, newTrait);
 				traitsList.setItems(traitsList.getItems());
-				selectedCharacter.addTrait(newTrait);
+				editSelectedCharacter().addTrait(newTrait);
 			}
 		});
 	}
@@ -318,7 +545,7 @@ public class Controller implements Initializable{
 			String removal = traitsList.getSelectionModel().getSelectedItem().toString();
 			traitsList.getItems().remove(removal);
 			traitsList.setItems(traitsList.getItems());
-			selectedCharacter.removeTrait(removal);
+			editSelectedCharacter().removeTrait(removal);
 
 		});
 	}
@@ -332,7 +559,7 @@ public class Controller implements Initializable{
 			@Override
 			public void handle(ListView.EditEvent event) {
 				String editingPower = powerList.getItems().get(powerList.getEditingIndex()).toString();
-				SuperCharacter s = (SuperCharacter) selectedCharacter;
+				SuperCharacter s = (SuperCharacter) editSelectedCharacter();
 				s.removePower(editingPower);
 
 				int index = event.getIndex();
@@ -365,7 +592,7 @@ public class Controller implements Initializable{
 			powerList.getItems().remove(removal);
 			powerList.setItems(powerList.getItems());
 
-			SuperCharacter s = (SuperCharacter) selectedCharacter;
+			SuperCharacter s = (SuperCharacter) editSelectedCharacter();
 			s.removePower(removal);
 			selectedCharacter = s;
 
@@ -378,11 +605,12 @@ public class Controller implements Initializable{
 	private void saveCharacterChangesEvent() {
 		saveCharacterChanges.setOnAction(e -> {
 			if (databaseLoadCheck()) {
-				Character c = getCharacterFields(selectedCharacter);
+				Character c = getCharacterFields(editSelectedCharacter());
 				model.addCharacter(c);
 
 				showAlert(2, "Changes saved", "Changes saved", "Character changes has been saved." +
-						" Please save the database for changes to take effect on the database file.");
+						(Model.AUTOSAVE_SECONDS > 0 ? " They will be written to the database file shortly."
+								: " Please save the database for changes to take effect on the database file."));
 			}
 
 		});
@@ -409,6 +637,119 @@ public class Controller implements Initializable{
 	}
 
 
+	/**
+	 * Refilters the character list on every keystroke in the search box.
+	 * The search runs in the background, as the first one builds the name
+	 * index; a keystroke cancels the search for the one before it.
+	 */
+	private void typeAheadSearchEvent() {
+		enterCharacterNameSearch.textProperty().addListener((observable, oldText, text) -> {
+			if (typeAheadTask != null) {
+				typeAheadTask.cancel(false);
+				typeAheadTask = null;
+			}
+			if (!databaseLoaded || runningTask != null) {
+				return;
+			}
+			if (text.isEmpty()) {
+				characterList.setItems(characterDisplayList);
+				return;
+			}
+			Task<List<String>> task = new Task<List<String>>() {
+				@Override
+				protected List<String> call() {
+					return model.searchNames(text, 0, SEARCH_PAGE_SIZE);
+				}
+			};
+			task.setOnSucceeded(ev -> {
+				if (task == typeAheadTask) {
+					typeAheadTask = null;
+					characterList.setItems(FXCollections.observableArrayList(task.getValue()));
+				}
+			});
+			task.setOnFailed(ev -> showAlert(1, "Error searching database", "Error searching database",
+					task.getException().getMessage()));
+			typeAheadTask = task;
+			listWorker.execute(task);
+		});
+	}
+
+	/**
+	 * Handles full-text search of descriptions, traits and powers.
+	 * The search runs in the background, as the first one builds the index.
+	 */
+	private void textSearchEvent() {
+		EventHandler<ActionEvent> handler = e -> {
+			if (databaseLoadCheck()) {
+				String text = textSearchField.getText();
+				TextQuery query;
+				try {
+					query = TextQuery.parse(text);
+				} catch (IllegalArgumentException ex) {
+					showAlert(1, "Invalid search", "Invalid search", ex.getMessage());
+					return;
+				}
+				Task<List<String>> task = new Task<List<String>>() {
+					@Override
+					protected List<String> call() {
+						return model.searchText(query);
+					}
+				};
+				task.setOnSucceeded(ev -> {
+					if (task.getValue().isEmpty()) {
+						showAlert(1, "No characters found", "No characters found", "No characters match " + text);
+					} else {
+						characterList.setItems(FXCollections.observableArrayList(task.getValue()));
+					}
+				});
+				task.setOnFailed(ev -> showAlert(1, "Error searching database", "Error searching database",
+						task.getException().getMessage()));
+				runTask(task);
+			}
+		};
+		textSearch.setOnAction(handler);
+		textSearchField.setOnAction(handler);
+	}
+
+	/**
+	 * Handles filtering the character list by power ranking
+	 */
+	private void rankFilterEvent() {
+		ObservableList<String> choices = FXCollections.observableArrayList();
+		for (int rank = SuperCharacter.MIN_POWER; rank <= SuperCharacter.MAX_POWER; rank++) {
+			choices.add(Integer.toString(rank));
+		}
+		choices.add(UNRANKABLE_CHOICE);
+		minRankChoice.setItems(choices);
+		maxRankChoice.setItems(choices);
+		minRankChoice.setValue(Integer.toString(SuperCharacter.MIN_POWER));
+		maxRankChoice.setValue(Integer.toString(SuperCharacter.MAX_POWER));
+
+		rankFilter.setOnAction(e -> {
+			if (databaseLoadCheck()) {
+				int min = rankChoice(minRankChoice.getValue());
+				int max = rankChoice(maxRankChoice.getValue());
+				Task<List<String>> task = new Task<List<String>>() {
+					@Override
+					protected List<String> call() {
+						return model.searchRanked(min, max);
+					}
+				};
+				task.setOnSucceeded(ev -> {
+					rankFilterCount.setText(task.getValue().size() + " super characters");
+					characterList.setItems(FXCollections.observableArrayList(task.getValue()));
+				});
+				task.setOnFailed(ev -> showAlert(1, "Error searching database", "Error searching database",
+						task.getException().getMessage()));
+				runTask(task);
+			}
+		});
+	}
+
+	private int rankChoice(String choice) {
+		return UNRANKABLE_CHOICE.equals(choice) ? SuperCharacter.UNRANKABLE : Integer.parseInt(choice);
+	}
+
 	/**
 	 * Handles clear search event
 	 */
@@ -417,12 +758,26 @@ public class Controller implements Initializable{
 			if (databaseLoadCheck()) {
 				characterList.setItems(characterDisplayList);
 				enterCharacterNameSearch.setText("");
+				textSearchField.setText("");
+				rankFilterCount.setText("");
 			}
 		});
 	}
 
 
 
+	/**
+	 * Characters from the model are read-only snapshots, shared without
+	 * copying. The selected character is copied the first time it is edited.
+	 * @return The selected character, editable
+	 */
+	private Character editSelectedCharacter() {
+		if (selectedCharacter.isFrozen()) {
+			selectedCharacter = (Character) selectedCharacter.clone();
+		}
+		return selectedCharacter;
+	}
+
 	/**
 	 * Populate Character object with editor fields content
 	 * @param c
@@ -458,8 +813,7 @@ public class Controller implements Initializable{
 	private void setCharacterFields(Character c) {
 		characterNameDisplay.setText(c.getName());
 		descriptionField.setText(c.getDescription());
-		selectedImage = new Image(c.getImagePath());
-		imageView.setImage(selectedImage);
+		showImage(c);
 
 		ObservableList<String> traits = FXCollections.observableArrayList();
 		for (String t : c.traits) {
@@ -501,6 +855,57 @@ public class Controller implements Initializable{
 		Character c = model.search(characterList.getSelectionModel().getSelectedItem().toString());
 		selectedCharacter = c;
 		setCharacterFields(selectedCharacter);
+		prefetchImages(i);
+	}
+
+	/**
+	 * Shows a character's image, from the cache if it is there. Otherwise the
+	 * default image is shown until the character's image has been loaded.
+	 * @param c Character whose image to show
+	 */
+	private void showImage(Character c) {
+		String path = c.getImagePath();
+		Image image = ImageCache.SHARED.get(path, loaded -> {
+			// the selection may have changed while the image was loading
+			if (selectedCharacter != null && path.equals(selectedCharacter.getImagePath())) {
+				selectedImage = loaded;
+				imageView.setImage(loaded);
+			}
+		});
+		if (image == null && !path.equals(DEFAULT_IMAGE)) {
+			image = ImageCache.SHARED.get(DEFAULT_IMAGE, loaded -> {
+				if (selectedCharacter != null && imageView.getImage() == null) {
+					imageView.setImage(loaded);
+				}
+			});
+		}
+		selectedImage = image;
+		imageView.setImage(image);
+	}
+
+	/**
+	 * Starts loading the images of the characters in the rows around a row
+	 * of the character list, so they are ready when the user moves there.
+	 * @param row Index of the selected row
+	 */
+	private void prefetchImages(int row) {
+		ObservableList<String> items = characterList.getItems();
+		List<String> names = new ArrayList<String>();
+		for (int i = Math.max(0, row - PREFETCH_ROWS); i <= row + PREFETCH_ROWS && i < items.size(); i++) {
+			if (i != row) {
+				names.add(items.get(i));
+			}
+		}
+		Model searched = model;
+		// the characters are looked up in the background too, as a paged database may read them from disk
+		listWorker.execute(() -> {
+			for (String name : names) {
+				Character c = searched.search(name);
+				if (c != null) {
+					ImageCache.SHARED.prefetch(c.getImagePath());
+				}
+			}
+		});
 	}
 
 	/**
@@ -531,6 +936,11 @@ public class Controller implements Initializable{
 	 * @return true if database is loaded, false otherwise.
 	 */
 	private boolean databaseLoadCheck() {
+		if (runningTask != null) {
+			showAlert(1, "Database busy", "Database busy", "Please wait until the database has " +
+					"finished loading or saving, or cancel it.");
+			return false;
+		}
 		if (!databaseLoaded) {
 			showAlert(1, "Database not loaded", "Database not loaded", "Please load or create a database" +
 					" first to perform this action");
@@ -543,16 +953,4 @@ public class Controller implements Initializable{
 		String[] filePath = file.getPath().split("/");
 		return "images/" + filePath[filePath.length-1];
 	}
-
-	/**
-	 * String comparator class
-	 */
-	private class StringComparator implements Comparator<String> {
-
-		@Override
-		public int compare(String o1, String o2) {
-
-			return o1.compareTo(o2);
-		}
-	}
 }
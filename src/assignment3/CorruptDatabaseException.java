@@ -0,0 +1,22 @@
+package assignment3;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a database file cannot be decoded.
+ *
+ * @see CharacterFile
+ *
+ * @author Ali Nawaz Maan
+ */
+public class CorruptDatabaseException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	public CorruptDatabaseException() {
+		super("Data file corrupt.");
+	}
+
+	public CorruptDatabaseException(String message) {
+		super("Data file corrupt: " + message);
+	}
+}
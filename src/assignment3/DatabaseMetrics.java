@@ -0,0 +1,244 @@
+package assignment3;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Latency, record and byte counts of the operations on a database file.
+ * <p>
+ * There is one set of metrics per database file, shared by every
+ * {@link CharacterDatabase} opened on it, so the numbers add up across
+ * reloads. They are dropped once every database on the file is closed.
+ * Each operation's metrics are registered with the platform MBean
+ * server (see {@link OperationMetricsMXBean}), so they can be read with
+ * JConsole or any JMX client. Starting the MBean server takes a few hundred
+ * milliseconds, so metrics are registered in the background rather than
+ * delaying the first open of a database. If the assignment3.metricsDumpSeconds system
+ * property is set, the metrics of every database are also printed at that
+ * interval, and by the editor when it exits.
+ *
+ * @see CharacterDatabase#metrics()
+ *
+ * @author Ali Nawaz Maan
+ */
+public final class DatabaseMetrics {
+
+	/** The operations measured */
+	public enum Operation {
+		/** Loading the whole file */
+		LOAD,
+		/** Opening the file in read-mostly mode */
+		OPEN,
+		/** Saving, to the journal or a full snapshot */
+		SAVE,
+		/** Writing a snapshot in the background */
+		COMPACT,
+		/** Looking up a character by name */
+		SEARCH,
+		/** Adding a character */
+		ADD,
+		/** Adding or replacing a character */
+		UPDATE,
+		/** Removing a character */
+		REMOVE,
+		/** Adding, replacing or removing a batch of characters */
+		BATCH,
+		/** Name, full-text and ranking queries */
+		QUERY,
+		/** Closing the database and its files */
+		CLOSE,
+		/** Deleting or closing files the database no longer uses */
+		CLEANUP;
+
+		/** @return The name used in object names and dumps */
+		String label() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	/** One in this many searches is timed, as a search takes about as long as reading the clock */
+	private static final int SEARCH_SAMPLE_RATE = 16;
+
+	/** Interval of the periodic dump in seconds, 0 for none */
+	private static final long DUMP_SECONDS = Long.getLong("assignment3.metricsDumpSeconds", 0);
+
+	/** Metrics of every database file in use, by absolute path; updated while holding the map */
+	private static final Map<String, DatabaseMetrics> DATABASES = new ConcurrentHashMap<String, DatabaseMetrics>();
+
+	/** Registers metrics with the MBean server, one database at a time */
+	private static final ExecutorService REGISTRAR = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "Database metrics registration");
+		t.setDaemon(true);
+		return t;
+	});
+
+	static {
+		if (DUMP_SECONDS > 0) {
+			ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "Database metrics dump");
+				t.setDaemon(true);
+				return t;
+			});
+			dumper.scheduleAtFixedRate(() -> System.out.print(dump()), DUMP_SECONDS, DUMP_SECONDS,
+					TimeUnit.SECONDS);
+		}
+	}
+
+	private final String file;
+	/** Number of databases using these metrics and not closed yet, guarded by DATABASES */
+	private int users;
+	private final EnumMap<Operation, OperationMetrics> operations = new EnumMap<Operation, OperationMetrics>(
+			Operation.class);
+
+	private DatabaseMetrics(String file) {
+		this.file = file;
+		for (Operation op : Operation.values())
+			operations.put(op, new OperationMetrics(op == Operation.SEARCH ? SEARCH_SAMPLE_RATE : 1));
+	}
+
+	/**
+	 * Gets the metrics of a database file for a new database on it, creating
+	 * them on first use and registering them in the background. The database
+	 * calls {@link #release()} when it is closed.
+	 * @param fileName File path of the database
+	 * @return The metrics of the file
+	 */
+	static DatabaseMetrics of(String fileName) {
+		String file = new File(fileName).getAbsolutePath();
+		synchronized (DATABASES) {
+			DatabaseMetrics metrics = DATABASES.get(file);
+			if (metrics == null) {
+				metrics = new DatabaseMetrics(file);
+				DATABASES.put(file, metrics);
+				REGISTRAR.execute(metrics::register);
+			}
+			metrics.users++;
+			return metrics;
+		}
+	}
+
+	/**
+	 * Called when a database using these metrics is closed. Once none is
+	 * left, the metrics are dropped and unregistered in the background, and
+	 * the next database on the file starts new ones.
+	 */
+	void release() {
+		synchronized (DATABASES) {
+			if (--users > 0)
+				return;
+			DATABASES.remove(file);
+		}
+		// after the registration, as there is one registrar thread
+		REGISTRAR.execute(this::unregister);
+	}
+
+	private void register() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			for (Map.Entry<Operation, OperationMetrics> e : operations.entrySet())
+				server.registerMBean(e.getValue(), objectName(e.getKey()));
+		} catch (JMException e) {
+			// the metrics are still kept and dumped
+			e.printStackTrace();
+		}
+	}
+
+	private void unregister() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (Operation op : operations.keySet()) {
+			try {
+				server.unregisterMBean(objectName(op));
+			} catch (JMException e) {
+				// not registered, as registering failed
+			}
+		}
+	}
+
+	/**
+	 * @return The name an operation's metrics are registered under
+	 */
+	ObjectName objectName(Operation op) throws JMException {
+		return new ObjectName("assignment3:type=CharacterDatabase,file=" + ObjectName.quote(file) + ",operation="
+				+ op.label());
+	}
+
+	/**
+	 * @param op An operation
+	 * @return The metrics of the operation
+	 */
+	public OperationMetricsMXBean get(Operation op) {
+		return operations.get(op);
+	}
+
+	/**
+	 * Called when an operation starts.
+	 * @param op The operation
+	 * @return The start time to pass to {@link #record(Operation, long, long, long)}
+	 */
+	long start(Operation op) {
+		return operations.get(op).start();
+	}
+
+	/**
+	 * Records a completed operation.
+	 * @param op The operation
+	 * @param startNanos The value returned by {@link #start(Operation)}
+	 * @param records Number of records read, written or returned
+	 * @param bytes Number of bytes read or written
+	 */
+	void record(Operation op, long startNanos, long records, long bytes) {
+		operations.get(op).record(startNanos, records, bytes);
+	}
+
+	/**
+	 * Records an operation that threw an exception.
+	 * @param op The operation
+	 */
+	void failed(Operation op) {
+		operations.get(op).failed();
+	}
+
+	/**
+	 * @return True if the metrics are printed periodically, as set by the
+	 * assignment3.metricsDumpSeconds system property; diagnostics are then
+	 * printed too
+	 */
+	public static boolean isDumping() {
+		return DUMP_SECONDS > 0;
+	}
+
+	/**
+	 * @return The metrics of every database file used, as text
+	 */
+	public static String dump() {
+		StringBuilder out = new StringBuilder();
+		for (DatabaseMetrics metrics : DATABASES.values())
+			out.append(metrics).append('\n');
+		return out.toString();
+	}
+
+	/**
+	 * @return A table of the operations that have run, one per line
+	 */
+	@Override
+	public String toString() {
+		StringBuilder out = new StringBuilder("Database metrics: ").append(file);
+		out.append(String.format("%n  %-9s %10s %7s %10s %10s %10s %10s %10s %12s", "operation", "count",
+				"failed", "mean us", "p50 us", "p99 us", "max us", "records", "bytes"));
+		for (Map.Entry<Operation, OperationMetrics> e : operations.entrySet()) {
+			OperationMetrics m = e.getValue();
+			if (m.getCount() == 0 && m.getFailures() == 0)
+				continue;
+			out.append(String.format("%n  %-9s %10d %7d %10.1f %10.1f %10.1f %10.1f %10d %12d", e.getKey().label(),
+					m.getCount(), m.getFailures(), m.getMeanMicros(), m.getP50Micros(), m.getP99Micros(),
+					m.getMaxMicros(), m.getRecords(), m.getBytes()));
+		}
+		return out.toString();
+	}
+}
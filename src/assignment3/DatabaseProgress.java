@@ -0,0 +1,31 @@
+package assignment3;
+
+import java.util.List;
+
+/**
+ * Receives progress reports while a database is loaded or saved, and
+ * may cancel the operation.
+ *
+ * @see CharacterDatabase#load(DatabaseProgress)
+ * @see CharacterDatabase#save(DatabaseProgress)
+ *
+ * @author Ali Nawaz Maan
+ */
+public interface DatabaseProgress {
+
+	/** Ignores all progress and never cancels */
+	DatabaseProgress NONE = (done, total, names) -> true;
+
+	/** Number of records between progress reports */
+	int BATCH_SIZE = 4096;
+
+	/**
+	 * Called periodically while records are read or written.
+	 *
+	 * @param done Amount of work done so far, in bytes when loading and in records when saving
+	 * @param total Total amount of work, or -1 if it is not known
+	 * @param names Names of the characters read since the last report; empty when saving
+	 * @return True to continue, false to cancel the operation
+	 */
+	boolean update(long done, long total, List<String> names);
+}
@@ -0,0 +1,593 @@
+package assignment3;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Checks binary database files against their checksums, and salvages the
+ * intact parts of damaged ones.
+ * <p>
+ * Usage:
+ * <pre>
+ * DatabaseRepairTool verify &lt;database&gt;
+ * DatabaseRepairTool repair &lt;database&gt; &lt;output&gt;
+ * </pre>
+ * Verifying reads a file once from start to end, checking each part against
+ * its checksum without decoding any record, and reports the damaged parts.
+ * A sharded database is verified one segment of its current generation at a
+ * time.
+ * <p>
+ * Repairing copies the characters of every intact block of records to a new
+ * database, compressed as the old one was, replays the database's journals
+ * over them as a load would, up to the first damaged record of each, and
+ * reports the characters lost with the damaged blocks. A damaged header is worked around using the checksum
+ * table, trying each codec on the first block. Uncompressed files without
+ * usable checksums, written before version 3 or with a damaged checksum
+ * table, are salvaged record by record instead: records are decoded in
+ * order up to the first one whose length is damaged, and the rest are found
+ * through the name index, as far as it can be read.
+ *
+ * @see CharacterFile
+ *
+ * @author Ali Nawaz Maan
+ */
+public class DatabaseRepairTool {
+	/** Lost characters reported by name; the rest are only counted */
+	private static final int MAX_REPORTED_NAMES = 20;
+	/** Size of the buffer used to check a file */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	public static void main(String[] args) {
+		if (!(args.length == 2 && args[0].equals("verify") || args.length == 3 && args[0].equals("repair"))) {
+			System.out.println("Usage: DatabaseRepairTool verify <database>");
+			System.out.println("       DatabaseRepairTool repair <database> <output>");
+			return;
+		}
+		try {
+			if (args[0].equals("verify")) {
+				int damaged = verify(args[1]);
+				if (damaged == 0)
+					System.out.println(args[1] + " is intact.");
+				else
+					System.out.printf("%s has %d damaged part(s). Run repair to salvage the rest.%n", args[1], damaged);
+			} else {
+				repair(args[1], args[2]);
+			}
+		} catch (Exception e) {
+			System.out.println("AN ERROR OCCURRED:");
+			System.out.println("    " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return The files holding the records of a database: the segments of
+	 * the current generation of a sharded one, or else the file itself
+	 */
+	private static List<String> files(String database) throws IOException {
+		if (!ShardedCharacterFile.isShardedFile(database))
+			return Collections.singletonList(database);
+		ShardedCharacterFile.Manifest manifest = ShardedCharacterFile.readManifest(database);
+		List<String> files = new ArrayList<String>(manifest.shards);
+		for (int i = 0; i < manifest.shards; i++)
+			files.add(ShardedCharacterFile.segmentName(database, i, manifest.generation));
+		return files;
+	}
+
+	/**
+	 * Checks each part of a database against its checksum, reporting the damaged ones.
+	 * @param database File path of the database
+	 * @return The number of damaged parts
+	 * @throws IOException If the database cannot be read
+	 */
+	static int verify(String database) throws IOException {
+		int damaged = 0;
+		for (String file : files(database)) {
+			try {
+				damaged += verifyFile(file);
+			} catch (FileNotFoundException e) {
+				System.out.println(file + ": missing");
+				damaged++;
+			}
+		}
+		return damaged;
+	}
+
+	/**
+	 * Checks the parts of one file in file order.
+	 * @return The number of damaged parts
+	 */
+	private static int verifyFile(String fileName) throws IOException {
+		long start = System.nanoTime();
+		try (FileChannel channel = new FileInputStream(fileName).getChannel()) {
+			int damaged = 0;
+			CharacterFile.Header header = readHeader(channel, fileName);
+			if (header == null) {
+				damaged++;
+				header = unknownHeader();
+			}
+			CharacterFile.Checksums checksums;
+			try {
+				checksums = readChecksums(channel, header, damaged > 0);
+			} catch (CorruptDatabaseException e) {
+				System.out.println(fileName + ": " + e.getMessage());
+				return damaged + 1;
+			}
+			if (checksums == null) {
+				// no checksums to check against, so see whether it decodes
+				try {
+					CharacterFile.read(fileName, DatabaseProgress.NONE);
+					System.out.printf("%s: version %d, no checksums, decodes%n", fileName, header.version);
+					return 0;
+				} catch (CorruptDatabaseException e) {
+					System.out.printf("%s: version %d, no checksums, %s%n", fileName, header.version, e.getMessage());
+					return 1;
+				}
+			}
+			if (damaged == 0 && header.crc != checksums.header) {
+				System.out.println(fileName + ": header does not match its checksum");
+				damaged++;
+			}
+			guessOffsets(header, checksums, damaged > 0);
+			if (damaged > 0)
+				header.codec = guessCodec(channel, checksums);
+
+			long size = channel.size();
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			if (crc(channel, buffer, CharacterFile.HEADER_SIZE, header.recordsOffset) != checksums.strings) {
+				System.out.println(fileName + ": string table does not match its checksum");
+				damaged++;
+			}
+			for (int b = 0; b < checksums.blockCount(); b++) {
+				long offset = checksums.blockOffsets[b];
+				if (crc(channel, buffer, offset, offset + checksums.blockLengths[b]) != checksums.blockCrcs[b]) {
+					System.out.printf("%s: block %d at offset %d, from record %d, does not match its checksum%n",
+							fileName, b, offset, checksums.blockFirsts[b]);
+					damaged++;
+				}
+			}
+			long indexEnd = checksums.pagesOffset != 0 ? checksums.pagesOffset : checksums.offset;
+			if (crc(channel, buffer, header.indexOffset, indexEnd) != checksums.index) {
+				System.out.println(fileName + ": index does not match its checksum");
+				damaged++;
+			}
+			if (checksums.pagesOffset != 0
+					&& crc(channel, buffer, checksums.pagesOffset, checksums.offset) != checksums.pages) {
+				System.out.println(fileName + ": page directory does not match its checksum");
+				damaged++;
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("%s: version %d, %s, %d blocks, %d damaged part(s), %.1f MB checked in %.2f s%n",
+					fileName, header.version, header.codec, checksums.blockCount(), damaged, size / 1e6, seconds);
+			return damaged;
+		}
+	}
+
+	/**
+	 * @return The header of a file, or null if it is damaged
+	 */
+	private static CharacterFile.Header readHeader(FileChannel channel, String fileName) throws IOException {
+		try {
+			return CharacterFile.readHeader(new CharacterFile.Input(channel, 0));
+		} catch (CorruptDatabaseException e) {
+			System.out.println(fileName + ": header damaged, " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * @return A stand-in for a damaged header, enough to read the checksum table
+	 */
+	private static CharacterFile.Header unknownHeader() {
+		CharacterFile.Header header = new CharacterFile.Header();
+		header.version = CharacterFile.VERSION;
+		header.codec = CompressionCodec.NONE;
+		header.recordCount = Integer.MAX_VALUE;
+		header.stringCount = -1;
+		header.recordsOffset = CharacterFile.HEADER_SIZE;
+		return header;
+	}
+
+	/**
+	 * Reads the checksum table of a file. If the header is a stand-in, the
+	 * table is read as each version that has one, newest first.
+	 */
+	private static CharacterFile.Checksums readChecksums(FileChannel channel, CharacterFile.Header header,
+			boolean unknown) throws IOException {
+		if (!unknown)
+			return CharacterFile.readChecksums(channel, header);
+		for (short version = CharacterFile.VERSION; ; version--) {
+			header.version = version;
+			try {
+				return CharacterFile.readChecksums(channel, header);
+			} catch (CorruptDatabaseException e) {
+				if (version == CharacterFile.CHECKSUMS_VERSION)
+					throw e;
+			}
+		}
+	}
+
+	/**
+	 * @return The first codec that decompresses the first intact block of a
+	 * file whose header is damaged, or NONE if none does
+	 */
+	private static CompressionCodec guessCodec(FileChannel channel, CharacterFile.Checksums checksums)
+			throws IOException {
+		for (int b = 0; b < checksums.blockCount(); b++) {
+			ByteBuffer block = read(channel, checksums.blockOffsets[b], checksums.blockLengths[b]);
+			if (block == null || Crc32c.of(block, 0, block.limit()) != checksums.blockCrcs[b])
+				continue;
+			for (CompressionCodec codec : CompressionCodec.values()) {
+				try {
+					codec.decompress(block.duplicate(), checksums.blockRawLengths[b]);
+					return codec;
+				} catch (CorruptDatabaseException e) {
+					// try the next
+				}
+			}
+		}
+		return CompressionCodec.NONE;
+	}
+
+	/**
+	 * Fills in the offsets of a stand-in header from the checksum table:
+	 * the records start with the first block, and the index follows the last.
+	 */
+	private static void guessOffsets(CharacterFile.Header header, CharacterFile.Checksums checksums,
+			boolean unknown) {
+		if (!unknown)
+			return;
+		int blocks = checksums.blockCount();
+		header.recordsOffset = blocks == 0 ? CharacterFile.HEADER_SIZE : checksums.blockOffsets[0];
+		header.indexOffset = blocks == 0 ? CharacterFile.HEADER_SIZE
+				: checksums.blockOffsets[blocks - 1] + checksums.blockLengths[blocks - 1];
+	}
+
+	/**
+	 * @return The checksum of the bytes of a file from one offset to another,
+	 * or the inverse of the checksum of nothing if the range is not in the file
+	 */
+	private static int crc(FileChannel channel, ByteBuffer buffer, long from, long to) throws IOException {
+		if (from > to || to > channel.size())
+			return ~0;
+		Crc32c crc = new Crc32c();
+		while (from < to) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), to - from));
+			int read = channel.read(buffer, from);
+			if (read < 0)
+				return ~0;
+			crc.update(buffer.array(), 0, read);
+			from += read;
+		}
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * The characters salvaged so far, and those known to be lost.
+	 */
+	private static final class Salvage {
+		final Map<String, Character> characters = new HashMap<String, Character>();
+		final List<String> lostNames = new ArrayList<String>();
+		/** Lost characters whose names are not known */
+		int lostUnnamed;
+		/** Codec of the files salvaged */
+		CompressionCodec codec = CompressionCodec.NONE;
+	}
+
+	/**
+	 * Copies every intact character of a database, with the changes in its
+	 * journals, to a new database.
+	 * @param database File path of the damaged database
+	 * @param output File path of the new database, which must not exist
+	 * @throws IOException If the output exists or cannot be written
+	 */
+	static void repair(String database, String output) throws IOException {
+		if (new File(output).exists())
+			throw new IOException(output + " already exists");
+		List<String> files = files(database);
+		Salvage salvage = new Salvage();
+		for (String file : files) {
+			try {
+				salvage(file, salvage);
+			} catch (IOException e) {
+				System.out.println(file + ": nothing salvaged, " + e.getMessage());
+			}
+		}
+
+		final Map<String, Character> characters = salvage.characters;
+		final Set<String> journaled = new HashSet<String>();
+		for (String journal : Arrays.asList(database + ".journal.compacting", database + ".journal")) {
+			if (!new File(journal).exists())
+				continue;
+			try {
+				long replayed = Journal.salvage(journal, new Journal.Replay() {
+					@Override
+					public void put(Character c) {
+						characters.put(c.getName(), c);
+						journaled.add(c.getName());
+					}
+
+					@Override
+					public void remove(String name) {
+						characters.remove(name);
+						journaled.add(name);
+					}
+				});
+				long size = new File(journal).length();
+				if (replayed < size)
+					System.out.printf("%s: %d bytes from offset %d damaged or incomplete, not replayed%n", journal,
+							size - replayed, replayed);
+			} catch (CorruptDatabaseException e) {
+				System.out.println(journal + ": not replayed, " + e.getMessage());
+			}
+		}
+
+		CharacterDatabase db = new CharacterDatabase(output, files.size());
+		db.setCodec(salvage.codec);
+		db.updateAll(characters.values());
+		db.save();
+		db.close();
+
+		// a lost character changed in a journal was recovered from it
+		List<String> lost = new ArrayList<String>();
+		for (String name : salvage.lostNames)
+			if (!journaled.contains(name))
+				lost.add(name);
+		System.out.printf("Salvaged %d characters from %s into %s%n", characters.size(), database, output);
+		if (!lost.isEmpty() || salvage.lostUnnamed > 0) {
+			System.out.printf("Lost %d characters%s%n", lost.size() + salvage.lostUnnamed,
+					lost.isEmpty() ? "" : ", including:");
+			for (String name : lost.subList(0, Math.min(lost.size(), MAX_REPORTED_NAMES)))
+				System.out.println("    " + name);
+			if (lost.size() > MAX_REPORTED_NAMES)
+				System.out.printf("    ... and %d more%n", lost.size() - MAX_REPORTED_NAMES);
+		}
+	}
+
+	/**
+	 * Adds the intact characters of one file to the salvage.
+	 */
+	private static void salvage(String fileName, Salvage salvage) throws IOException {
+		try (FileChannel channel = new FileInputStream(fileName).getChannel()) {
+			CharacterFile.Header header = readHeader(channel, fileName);
+			boolean unknown = header == null;
+			CharacterFile.Checksums checksums = null;
+			try {
+				if (unknown)
+					header = unknownHeader();
+				checksums = readChecksums(channel, header, unknown);
+			} catch (CorruptDatabaseException e) {
+				if (unknown)
+					throw new CorruptDatabaseException("header and checksum table damaged");
+				if (header.codec != CompressionCodec.NONE)
+					throw new CorruptDatabaseException("checksum table of compressed file damaged");
+				System.out.println(fileName + ": " + e.getMessage() + ", salvaging record by record");
+			}
+			if (unknown) {
+				guessOffsets(header, checksums, true);
+				header.codec = guessCodec(channel, checksums);
+			}
+			salvage.codec = header.codec;
+			String[] strings = readStrings(channel, header, checksums, fileName);
+			if (checksums != null)
+				salvageBlocks(channel, header, checksums, strings, fileName, salvage);
+			else
+				salvageRecords(channel, header, strings, fileName, salvage);
+		}
+	}
+
+	/**
+	 * Reads as much of the string table as can be read.
+	 */
+	private static String[] readStrings(FileChannel channel, CharacterFile.Header header,
+			CharacterFile.Checksums checksums, String fileName) throws IOException {
+		CharacterFile.Input in = new CharacterFile.Input(channel, CharacterFile.HEADER_SIZE);
+		List<String> strings = new ArrayList<String>();
+		boolean intact = true;
+		in.startChecksum();
+		while (in.position() < header.recordsOffset) {
+			in.ensure(4);
+			int length = in.buffer().getInt();
+			if (length < 0 || length > header.recordsOffset - in.position()) {
+				intact = false;
+				break;
+			}
+			in.ensure(length);
+			strings.add(CharacterFile.readUtf8(in.buffer(), length));
+		}
+		int crc = in.endChecksum();
+		intact = intact && (checksums != null ? crc == checksums.strings : strings.size() == header.stringCount);
+		if (!intact)
+			System.out.println(fileName + ": string table damaged, so the image paths, traits and powers"
+					+ " of salvaged characters may be wrong");
+		return strings.toArray(new String[strings.size()]);
+	}
+
+	/**
+	 * Decodes the characters of each intact block, and finds the names of
+	 * those in damaged blocks in the index.
+	 */
+	private static void salvageBlocks(FileChannel channel, CharacterFile.Header header,
+			CharacterFile.Checksums checksums, String[] strings, String fileName, Salvage salvage)
+			throws IOException {
+		List<Integer> damaged = new ArrayList<Integer>();
+		for (int b = 0; b < checksums.blockCount(); b++) {
+			ByteBuffer block = read(channel, checksums.blockOffsets[b], checksums.blockLengths[b]);
+			if (block != null && Crc32c.of(block, 0, block.limit()) == checksums.blockCrcs[b])
+				block = decompress(header.codec, block, checksums.blockRawLengths[b]);
+			else
+				block = null;
+			if (block != null) {
+				decodeAll(block, strings, salvage);
+			} else {
+				System.out.printf("%s: block %d damaged%n", fileName, b);
+				damaged.add(b);
+			}
+		}
+		if (damaged.isEmpty())
+			return;
+
+		// the index holds the offsets of the records as if no block was compressed
+		long[] starts = new long[checksums.blockCount() + 1];
+		starts[0] = header.recordsOffset;
+		for (int b = 0; b < checksums.blockCount(); b++)
+			starts[b + 1] = starts[b] + checksums.blockRawLengths[b];
+		Map<String, Long> index = readIndex(channel, header);
+		int named = 0;
+		for (Map.Entry<String, Long> e : index.entrySet()) {
+			long offset = e.getValue();
+			for (int b : damaged) {
+				if (offset >= starts[b] && offset < starts[b + 1]) {
+					salvage.lostNames.add(e.getKey());
+					named++;
+				}
+			}
+		}
+		if (!unknownCount(header)) {
+			int lost = 0;
+			for (int b : damaged) {
+				int next = b + 1 < checksums.blockCount() ? checksums.blockFirsts[b + 1] : header.recordCount;
+				lost += next - checksums.blockFirsts[b];
+			}
+			salvage.lostUnnamed += Math.max(0, lost - named);
+		}
+	}
+
+	/**
+	 * Decodes records in file order up to the first one whose length is
+	 * damaged, then the records after it that the index points to.
+	 */
+	private static void salvageRecords(FileChannel channel, CharacterFile.Header header, String[] strings,
+			String fileName, Salvage salvage) throws IOException {
+		long end = header.indexOffset != 0 ? header.indexOffset : channel.size();
+		CharacterFile.Input in = new CharacterFile.Input(channel, header.recordsOffset);
+		int count = 0;
+		try {
+			while (count < header.recordCount && in.position() < end) {
+				in.ensure(4);
+				int length = in.buffer().getInt();
+				if (length <= 0 || length > end - in.position())
+					break;
+				in.ensure(length);
+				ByteBuffer record = in.buffer().slice();
+				record.limit(length);
+				decode(record, strings, salvage);
+				in.skip(length);
+				count++;
+			}
+		} catch (CorruptDatabaseException e) { // unexpected end of file
+		}
+		if (count == header.recordCount)
+			return;
+		long stopped = in.position();
+		System.out.printf("%s: record %d at offset %d damaged%n", fileName, count, stopped);
+
+		int found = 0;
+		for (Map.Entry<String, Long> e : readIndex(channel, header).entrySet()) {
+			if (e.getValue() < stopped - 4)
+				continue;
+			ByteBuffer length = read(channel, e.getValue(), 4);
+			ByteBuffer record = length == null || length.getInt(0) <= 0 ? null
+					: read(channel, e.getValue() + 4, length.getInt(0));
+			if (record == null || !decode(record, strings, salvage))
+				salvage.lostNames.add(e.getKey());
+			found++;
+		}
+		salvage.lostUnnamed += Math.max(0, header.recordCount - count - found);
+	}
+
+	/**
+	 * @return True if the record count of the header is not known
+	 */
+	private static boolean unknownCount(CharacterFile.Header header) {
+		return header.recordCount == Integer.MAX_VALUE;
+	}
+
+	/**
+	 * @return A block decompressed, or null if it cannot be
+	 */
+	private static ByteBuffer decompress(CompressionCodec codec, ByteBuffer block, int rawLength) {
+		try {
+			return codec.decompress(block, rawLength);
+		} catch (CorruptDatabaseException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Decodes the records of an intact block.
+	 */
+	private static void decodeAll(ByteBuffer block, String[] strings, Salvage salvage) {
+		while (block.remaining() >= 4) {
+			int length = block.getInt();
+			if (length <= 0 || length > block.remaining())
+				break;
+			ByteBuffer record = block.slice();
+			record.limit(length);
+			decode(record, strings, salvage);
+			block.position(block.position() + length);
+		}
+	}
+
+	/**
+	 * Decodes a record, or records it as lost.
+	 * @return True if the record was decoded
+	 */
+	private static boolean decode(ByteBuffer record, String[] strings, Salvage salvage) {
+		try {
+			Character c = CharacterFile.decode(record.duplicate(), strings);
+			salvage.characters.put(c.getName(), c);
+			return true;
+		} catch (CorruptDatabaseException e) {
+			try {
+				record.get(); // kind
+				salvage.lostNames.add(CharacterFile.readUtf8(record, record.getInt()));
+			} catch (RuntimeException unreadable) {
+				salvage.lostUnnamed++;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the name index up to its first damaged entry.
+	 * @return The offset of each name's record, in index order
+	 */
+	private static Map<String, Long> readIndex(FileChannel channel, CharacterFile.Header header) {
+		Map<String, Long> offsets = new LinkedHashMap<String, Long>();
+		if (header.indexOffset == 0)
+			return offsets;
+		try {
+			CharacterFile.Input in = new CharacterFile.Input(channel, header.indexOffset);
+			in.ensure(4);
+			int count = in.buffer().getInt();
+			for (int i = 0; i < count; i++) {
+				in.ensure(4);
+				int length = in.buffer().getInt();
+				if (length <= 0 || length > channel.size() - in.position())
+					break;
+				in.ensure(length + 8);
+				String name = CharacterFile.readUtf8(in.buffer(), length);
+				offsets.put(name, in.buffer().getLong());
+			}
+		} catch (IOException e) { // unexpected end of file
+		}
+		return offsets;
+	}
+
+	/**
+	 * @return The given bytes of a file, or null if they are not all in the file
+	 */
+	private static ByteBuffer read(FileChannel channel, long offset, int length) throws IOException {
+		if (offset < 0 || length < 0 || offset + length > channel.size())
+			return null;
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, offset + buffer.position()) < 0)
+				return null;
+		buffer.flip();
+		return buffer;
+	}
+}
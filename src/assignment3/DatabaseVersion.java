@@ -0,0 +1,221 @@
+package assignment3;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A consistent, read-only version of a database, pinned while it is read.
+ * <p>
+ * Pinning copies nothing: the version shares the database's map, mapped
+ * file and removed names, and the database keeps changing them. Before a
+ * character pinned by a version is first changed or removed, the database
+ * hands its old state to the version, which keeps it in an overlay of old
+ * states. Reading a name therefore reads the live database first and then
+ * the overlay; if the overlay has the name, its state wins. Characters added
+ * after the pin are in the overlay as absent.
+ * <p>
+ * A save, a compaction or an export pins a version and writes it without
+ * holding up changes. Closing the version unpins it; its old states are then
+ * unreachable, and a mapped file replaced by a reload is closed once no
+ * version holds it. Until then each pinned version costs the database one
+ * extra copy of each character changed, and changes made to a character the
+ * first time after a pin take a little longer.
+ *
+ * @see CharacterDatabase#pin()
+ *
+ * @author Ali Nawaz Maan
+ */
+public final class DatabaseVersion implements AutoCloseable {
+	/** Overlay value of a name that was not in the database when the version was pinned */
+	private static final Object ABSENT = new Object();
+
+	private final CharacterDatabase owner;
+	private final Map<String, Character> base;
+	private final CharacterFileView mapped;
+	private final Set<String> removed;
+
+	/** Old state of each name changed since the pin, a character or ABSENT */
+	private final Map<String, Object> overlay = new ConcurrentHashMap<String, Object>();
+
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	/** The names in the version in name order, null until first needed */
+	private List<String> names;
+
+	/**
+	 * Pins a version of the database. The caller holds every stripe of the owner.
+	 */
+	DatabaseVersion(CharacterDatabase owner, Map<String, Character> base, CharacterFileView mapped,
+			Set<String> removed) {
+		this.owner = owner;
+		this.base = base;
+		this.mapped = mapped;
+		this.removed = removed;
+	}
+
+	/**
+	 * @return True if the version was pinned on the given map, so changes to
+	 * the map must be preserved
+	 */
+	boolean isOver(Map<String, Character> map) {
+		return base == map;
+	}
+
+	/**
+	 * @return The mapped file the version reads, or null
+	 */
+	CharacterFileView mapped() {
+		return mapped;
+	}
+
+	/**
+	 * Keeps the pinned state of a character that is about to change, if it
+	 * has not changed since the pin. The caller holds the character's stripe,
+	 * or every stripe.
+	 */
+	void preserve(String name) {
+		if (!overlay.containsKey(name)) {
+			Character c = live(name);
+			overlay.put(name, c == null ? ABSENT : c);
+		}
+	}
+
+	/**
+	 * @return The character in the database now, ignoring the overlay
+	 */
+	private Character live(String name) {
+		Character c = base.get(name);
+		return c != null ? c : CharacterDatabase.readMapped(mapped, removed, name);
+	}
+
+	/**
+	 * Finds a character as it was when the version was pinned.
+	 * <p>
+	 * The live state is read before the overlay. A change preserves the old
+	 * state before it makes the change, so if the live read saw the change,
+	 * the overlay read sees the old state.
+	 *
+	 * @param name The character name to search for
+	 * @return The read-only snapshot of the character, or null if there was none
+	 */
+	public Character search(String name) {
+		checkOpen();
+		Character c = live(name);
+		Object old = overlay.get(name);
+		if (old != null)
+			return old == ABSENT ? null : (Character) old;
+		return c;
+	}
+
+	/**
+	 * @param name The character name to look for
+	 * @return True if a character with that name was in the database when
+	 * the version was pinned
+	 */
+	public boolean contains(String name) {
+		checkOpen();
+		CharacterFileView mapped = this.mapped;
+		boolean live = base.containsKey(name)
+				|| mapped != null && mapped.contains(name) && !removed.contains(name);
+		Object old = overlay.get(name);
+		if (old != null)
+			return old != ABSENT;
+		return live;
+	}
+
+	/**
+	 * @return The names of the characters in the version, in name order. The
+	 * list is built on first use, reading the names only.
+	 */
+	public synchronized List<String> getCharacterNames() {
+		checkOpen();
+		if (names == null) {
+			// every name in the version is in the map or the mapped file, or
+			// else was removed after the pin and is in the overlay
+			List<String> candidates = new ArrayList<String>(
+					base.size() + (mapped == null ? 0 : mapped.size()) + overlay.size());
+			if (mapped != null)
+				candidates.addAll(mapped.names());
+			candidates.addAll(base.keySet());
+			candidates.addAll(overlay.keySet());
+			NameIndex.sort(candidates, name -> name);
+			List<String> found = new ArrayList<String>(candidates.size());
+			String previous = null;
+			for (String name : candidates) {
+				if (!name.equals(previous) && contains(name))
+					found.add(name);
+				previous = name;
+			}
+			names = Collections.unmodifiableList(found);
+		}
+		return names;
+	}
+
+	/**
+	 * @return The number of characters in the version
+	 */
+	public int size() {
+		return getCharacterNames().size();
+	}
+
+	/**
+	 * @return The characters in the version in name order. Characters of a
+	 * mapped file are decoded one at a time while iterating.
+	 */
+	public Collection<Character> characters() {
+		return characters(getCharacterNames());
+	}
+
+	/**
+	 * @param names Names of characters in the version
+	 * @return The characters with the given names, in the same order, decoded
+	 * one at a time while iterating
+	 */
+	Collection<Character> characters(final List<String> names) {
+		return new AbstractCollection<Character>() {
+			@Override
+			public Iterator<Character> iterator() {
+				final Iterator<String> it = names.iterator();
+				return new Iterator<Character>() {
+					@Override
+					public boolean hasNext() { return it.hasNext(); }
+
+					@Override
+					public Character next() { return search(it.next()); }
+				};
+			}
+
+			@Override
+			public int size() { return names.size(); }
+		};
+	}
+
+	/**
+	 * @return True if the version has been unpinned
+	 */
+	public boolean isClosed() {
+		return closed.get();
+	}
+
+	private void checkOpen() {
+		if (closed.get())
+			throw new IllegalStateException("Database version is closed");
+	}
+
+	/**
+	 * Unpins the version, letting the database reclaim the old states it
+	 * kept. Closing a closed version does nothing.
+	 */
+	@Override
+	public void close() {
+		if (closed.compareAndSet(false, true))
+			owner.unpin(this);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Database version: %s, %d changed since pinned%s", mapped == null ? "in memory" : mapped,
+				overlay.size(), closed.get() ? ", closed" : "");
+	}
+}
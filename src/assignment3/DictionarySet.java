@@ -0,0 +1,117 @@
+package assignment3;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * A read-only set of strings held as ids in a {@link StringDictionary}.
+ * <p>
+ * A set of a few traits or powers takes an array of ints, rather than a
+ * hash table with a node per string. Looking a string up is one dictionary
+ * lookup and, for sets of up to {@link CompactStringSet#INLINE_MAX} strings,
+ * a scan of the ids; larger sets also keep an open addressing table of
+ * their ids. Comparing two sets of the same dictionary compares ids only.
+ * <p>
+ * The set is written to object streams as a HashSet, so the legacy
+ * serialized format does not change.
+ *
+ * @author Ali Nawaz Maan
+ */
+final class DictionarySet extends AbstractSet<String> implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final transient StringDictionary dictionary;
+	private final transient int[] ids;
+	/** Ids plus one by hash, 0 for an empty slot; null for small sets */
+	private final transient int[] table;
+
+	/**
+	 * @param dictionary Dictionary giving the strings of the ids
+	 * @param ids Distinct ids of the strings in the set
+	 */
+	DictionarySet(StringDictionary dictionary, int[] ids) {
+		this.dictionary = dictionary;
+		this.ids = ids;
+		if (ids.length > CompactStringSet.INLINE_MAX) {
+			table = new int[Integer.highestOneBit(ids.length) * 4];
+			for (int id : ids)
+				table[slot(id)] = id + 1;
+		} else {
+			table = null;
+		}
+	}
+
+	StringDictionary dictionary() {
+		return dictionary;
+	}
+
+	@Override
+	public int size() {
+		return ids.length;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof String))
+			return false;
+		int id = dictionary.find((String) o);
+		return id >= 0 && containsId(id);
+	}
+
+	@Override
+	public boolean containsAll(Collection<?> c) {
+		if (!(c instanceof DictionarySet) || ((DictionarySet) c).dictionary != dictionary)
+			return super.containsAll(c);
+		for (int id : ((DictionarySet) c).ids)
+			if (!containsId(id))
+				return false;
+		return true;
+	}
+
+	private boolean containsId(int id) {
+		if (table != null)
+			return table[slot(id)] != 0;
+		for (int i : ids)
+			if (i == id)
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return The slot of the table holding the id, or the empty slot ending its probe path
+	 */
+	private int slot(int id) {
+		int mask = table.length - 1;
+		int i = (id * 0x9E3779B9) >>> 16 & mask;
+		while (table[i] != 0 && table[i] != id + 1)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private int next;
+
+			@Override
+			public boolean hasNext() {
+				return next < ids.length;
+			}
+
+			@Override
+			public String next() {
+				if (next >= ids.length)
+					throw new NoSuchElementException();
+				return dictionary.get(ids[next++]);
+			}
+		};
+	}
+
+	/**
+	 * Written as a HashSet, which any reader of the legacy format knows.
+	 */
+	private Object writeReplace() throws ObjectStreamException {
+		return new HashSet<String>(this);
+	}
+}
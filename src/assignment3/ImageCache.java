@@ -0,0 +1,154 @@
+package assignment3;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+
+/**
+ * A cache of decoded character portraits, kept in a {@link BufferPool}
+ * bounded by size in bytes, which evicts the least recently used image first.
+ * <p>
+ * Images are decoded on a background thread. {@link #get(String, Consumer)}
+ * returns a cached image at once, or starts loading it and hands it to the
+ * caller on the FX thread when it is ready. Each image is counted as four
+ * bytes per pixel, the size of its decoded form.
+ *
+ * @author Ali Nawaz Maan
+ */
+class ImageCache {
+	/** Default bound of the cache, 64MB of decoded pixels */
+	static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+	/** The cache shared by the editor, bounded by the assignment3.imageCacheBytes system property */
+	static final ImageCache SHARED = new ImageCache(Long.getLong("assignment3.imageCacheBytes", DEFAULT_MAX_BYTES));
+
+	private static final ExecutorService LOADER = Executors.newFixedThreadPool(2, r -> {
+		Thread thread = new Thread(r, "Image loader");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/** Cached images, least recently used first */
+	private final BufferPool<String, Image> images;
+	/** Callers waiting for each image being loaded */
+	private final Map<String, List<Consumer<Image>>> loading = new HashMap<String, List<Consumer<Image>>>();
+
+	/**
+	 * Creates an empty cache.
+	 * @param maxBytes Bound on the total size of the cached images
+	 */
+	ImageCache(long maxBytes) {
+		images = new BufferPool<String, Image>(maxBytes, ImageCache::sizeOf);
+	}
+
+	/**
+	 * Gets an image, loading it in the background if it is not cached.
+	 * @param path Path or URL of the image
+	 * @param onLoaded Receives the image on the FX thread once it is loaded, if
+	 * it was not cached; it is not called if the image cannot be loaded
+	 * @return The cached image, or null if it is being loaded
+	 */
+	synchronized Image get(String path, Consumer<Image> onLoaded) {
+		List<Consumer<Image>> waiting = loading.get(path);
+		if (waiting != null) {
+			// the miss was counted when the load was scheduled, or not at all for a prefetch
+			if (onLoaded != null)
+				waiting.add(onLoaded);
+			return null;
+		}
+		Image image = images.getIfPresent(path);
+		if (image == null)
+			load(path, onLoaded);
+		return image;
+	}
+
+	/**
+	 * Starts loading an image that is likely to be needed soon. Does nothing,
+	 * and counts neither a hit nor a miss, if the image is cached or loading.
+	 * @param path Path or URL of the image
+	 */
+	synchronized void prefetch(String path) {
+		if (!images.contains(path))
+			load(path, null);
+	}
+
+	private void load(String path, Consumer<Image> onLoaded) {
+		List<Consumer<Image>> waiting = loading.get(path);
+		if (waiting == null) {
+			waiting = new ArrayList<Consumer<Image>>();
+			loading.put(path, waiting);
+			LOADER.execute(() -> loaded(path, decode(path)));
+		}
+		if (onLoaded != null)
+			waiting.add(onLoaded);
+	}
+
+	private static Image decode(String path) {
+		try {
+			Image image = new Image(path);
+			return image.isError() ? null : image;
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private void loaded(String path, Image image) {
+		List<Consumer<Image>> waiting;
+		synchronized (this) {
+			waiting = loading.remove(path);
+			if (image == null)
+				return;
+			images.putIfAbsent(path, image);
+		}
+		if (!waiting.isEmpty()) {
+			Platform.runLater(() -> {
+				for (Consumer<Image> consumer : waiting)
+					consumer.accept(image);
+			});
+		}
+	}
+
+	private static long sizeOf(Image image) {
+		return 4 * Math.round(image.getWidth() * image.getHeight());
+	}
+
+	/**
+	 * @return The number of images found in the cache
+	 */
+	long hits() {
+		return images.hits();
+	}
+
+	/**
+	 * @return The number of images that had to be loaded when asked for,
+	 * counted once per load
+	 */
+	long misses() {
+		return images.misses();
+	}
+
+	/**
+	 * @return The number of images evicted to stay within the bound
+	 */
+	long evictions() {
+		return images.evictions();
+	}
+
+	/**
+	 * @return The total size of the cached images in bytes
+	 */
+	long bytes() {
+		return images.bytes();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Image cache: %d images, %d of %d bytes, %d hits, %d misses, %d evictions",
+				images.size(), images.bytes(), images.maxBytes(), images.hits(), images.misses(), images.evictions());
+	}
+}
@@ -0,0 +1,27 @@
+package assignment3;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of ints, used for the posting lists of the search indexes.
+ *
+ * @author Ali Nawaz Maan
+ */
+final class IntList {
+	int[] values = new int[4];
+	int size;
+
+	void add(int value) {
+		if (size == values.length)
+			values = Arrays.copyOf(values, size * 2);
+		values[size++] = value;
+	}
+
+	/**
+	 * @param value Value to look for
+	 * @return True if the list, which must be sorted, holds the value
+	 */
+	boolean containsSorted(int value) {
+		return Arrays.binarySearch(values, 0, size, value) >= 0;
+	}
+}
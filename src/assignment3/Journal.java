@@ -0,0 +1,434 @@
+package assignment3;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the changes made to a database since its last
+ * snapshot was written.
+ * <p>
+ * The journal starts with an 8 byte header (int magic "CHJL", short version,
+ * short flags) followed by records:
+ * <pre>
+ * record:  int length, int crc32 of the payload, payload
+ * payload: byte PUT, character record (see {@link CharacterFile})
+ *        | byte REMOVE, string name
+ *        | byte STRING, string
+ * </pre>
+ * As in the database file, the image paths, traits and powers of PUT
+ * records refer to a string table by index. The journal's table is built
+ * from its STRING records, the n-th giving string n, and a string is
+ * written before the first record that uses it, so each phrase is journaled
+ * once however often it is used. Version 1 journals have no STRING records
+ * and store the strings of PUT records inline; records appended to them
+ * still do.
+ * Records are kept in memory until {@link #sync()}, which appends them and
+ * forces them to disk. A record that was only partly written when the
+ * program stopped runs to the end of the file and fails its length or
+ * checksum test, and it is cut off when the journal is next opened. A
+ * damaged record with more of the file after it, or whose length runs past
+ * the end of the file with intact records after it, is damage to records
+ * that were synced, so opening the journal fails rather than drop them;
+ * {@link DatabaseRepairTool} salvages the records before it.
+ * <p>
+ * Access is synchronized, so changes on several threads may be journaled at once.
+ *
+ * @see CharacterDatabase
+ *
+ * @author Ali Nawaz Maan
+ */
+final class Journal implements Closeable {
+	/** "CHJL" */
+	static final int MAGIC = 0x43484a4c;
+	/** Current journal version */
+	static final short VERSION = 2;
+	/** Oldest journal version that can still be read */
+	static final short MIN_VERSION = 1;
+	/** Size of the header in bytes */
+	static final int HEADER_SIZE = 8;
+
+	/** A character was added or updated */
+	static final byte PUT = 1;
+	/** A character was removed */
+	static final byte REMOVE = 2;
+	/** Defines the next string of the string table */
+	static final byte STRING = 3;
+
+	/**
+	 * Receives the changes read back from a journal.
+	 */
+	interface Replay {
+		/** @param c A character that was added or updated */
+		void put(Character c);
+
+		/** @param name The name of a character that was removed */
+		void remove(String name);
+
+		/** Ignores the records */
+		Replay NONE = new Replay() {
+			@Override
+			public void put(Character c) { }
+
+			@Override
+			public void remove(String name) { }
+		};
+	}
+
+	private final FileChannel channel;
+	/** Strings written so far, null if strings are stored inline */
+	private final CharacterFile.StringTable strings;
+	/** Number of those strings that are in the file, not just pending */
+	private int syncedStrings;
+	private final CRC32 crc = new CRC32();
+	/** Records not yet written to the file */
+	private ByteBuffer pending = ByteBuffer.allocate(4096);
+	/** Number of changes in pending, not counting STRING records */
+	private int pendingCount;
+	/** Scratch buffer for encoding a single character */
+	private ByteBuffer record = ByteBuffer.allocate(256);
+
+	private Journal(FileChannel channel, CharacterFile.StringTable strings) {
+		this.channel = channel;
+		this.strings = strings;
+		syncedStrings = strings == null ? 0 : strings.size();
+	}
+
+	/**
+	 * Opens a journal for appending, creating it if it does not exist.
+	 * Existing records are passed to the replay target, and a torn record at
+	 * the end of the file is cut off.
+	 * @param fileName File path of the journal
+	 * @param target Receives the existing records, in order
+	 * @return The opened journal
+	 * @throws CorruptDatabaseException If the file is not a journal, or has a
+	 * damaged record before its last
+	 * @throws IOException If the journal cannot be read or created
+	 */
+	static Journal open(String fileName, Replay target) throws IOException {
+		FileChannel channel = new RandomAccessFile(fileName, "rw").getChannel();
+		try {
+			long end;
+			CharacterFile.StringTable strings = new CharacterFile.StringTable();
+			if (channel.size() < HEADER_SIZE) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC).putShort(VERSION).putShort((short) 0).flip();
+				channel.truncate(0);
+				channel.write(header, 0);
+				channel.force(true);
+				end = HEADER_SIZE;
+			} else {
+				List<String> defined = new ArrayList<String>();
+				end = read(channel, target, defined, false);
+				channel.truncate(end);
+				if (readVersion(channel) == 1)
+					strings = null;
+				else
+					for (String s : defined)
+						strings.add(s);
+			}
+			channel.position(end);
+			return new Journal(channel, strings);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Passes the records of a journal to the replay target without opening
+	 * it for appending.
+	 * @param fileName File path of the journal
+	 * @param target Receives the records, in order
+	 * @throws CorruptDatabaseException If the file is not a journal, or has a
+	 * damaged record before its last
+	 * @throws IOException If the journal cannot be read
+	 */
+	static void replay(String fileName, Replay target) throws IOException {
+		try (FileChannel channel = new FileInputStream(fileName).getChannel()) {
+			read(channel, target, new ArrayList<String>(), false);
+		}
+	}
+
+	/**
+	 * Passes the records of a damaged journal to the replay target, up to the
+	 * first damaged or incomplete one.
+	 * @param fileName File path of the journal
+	 * @param target Receives the intact records, in order
+	 * @return The offset just past the last record replayed
+	 * @throws CorruptDatabaseException If the file is not a journal
+	 * @throws IOException If the journal cannot be read
+	 */
+	static long salvage(String fileName, Replay target) throws IOException {
+		try (FileChannel channel = new FileInputStream(fileName).getChannel()) {
+			return read(channel, target, new ArrayList<String>(), true);
+		}
+	}
+
+	/**
+	 * @return The version in the header of a journal with a complete header
+	 */
+	private static short readVersion(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (header.hasRemaining())
+			if (channel.read(header, header.position()) < 0)
+				throw new CorruptDatabaseException("truncated journal header");
+		return header.getShort(4);
+	}
+
+	/**
+	 * Reads the records of a journal up to the first incomplete or damaged
+	 * one. A damaged record that runs to the end of the file was torn by a
+	 * crash while it was appended, and ends the journal.
+	 * @param strings Receives the strings of the STRING records read, in order
+	 * @param salvage True to stop at a damaged record with more of the file
+	 * after it, false to throw
+	 * @return The offset just past the last intact record
+	 * @throws CorruptDatabaseException If a damaged record has more of the
+	 * file after it, and salvage is false
+	 */
+	private static long read(FileChannel channel, Replay target, List<String> strings, boolean salvage)
+			throws IOException {
+		long size = channel.size();
+		channel.position(0);
+		CharacterFile.Input in = new CharacterFile.Input(channel);
+		if (size < HEADER_SIZE)
+			return 0;
+		in.ensure(HEADER_SIZE);
+		ByteBuffer buffer = in.buffer();
+		if (buffer.getInt() != MAGIC)
+			throw new CorruptDatabaseException("not a journal");
+		short version = buffer.getShort();
+		if (version < MIN_VERSION || version > VERSION)
+			throw new CorruptDatabaseException("unsupported journal version " + version);
+		buffer.getShort(); // flags
+		// grows with the STRING records; PUT records of version 1 have inline strings
+		String[] table = version == 1 ? null : new String[64];
+
+		CRC32 crc = new CRC32();
+		long offset = HEADER_SIZE;
+		while (size - offset >= 8) {
+			in.ensure(8);
+			buffer = in.buffer();
+			int length = buffer.getInt();
+			int checksum = buffer.getInt();
+			if (length > size - offset - 8) {
+				if (!hasRecordAfter(channel, offset + 8, size))
+					break; // torn, the rest of the record was never written
+				return damaged(offset, salvage); // the length is damaged, not the tail
+			}
+			if (length <= 0) {
+				if (isZero(channel, offset, size))
+					break; // torn, the file was extended but nothing written
+				return damaged(offset, salvage);
+			}
+			in.ensure(length);
+			buffer = in.buffer();
+			crc.reset();
+			crc.update(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+			if ((int) crc.getValue() != checksum) {
+				if (offset + 8 + length == size)
+					break; // torn last record
+				return damaged(offset, salvage);
+			}
+
+			int end = buffer.position() + length;
+			byte op = buffer.get();
+			if (op == PUT) {
+				target.put(CharacterFile.decode(buffer, table));
+			} else if (op == REMOVE) {
+				target.remove(CharacterFile.readUtf8(buffer, buffer.getInt()));
+			} else if (op == STRING && table != null) {
+				if (strings.size() == table.length)
+					table = Arrays.copyOf(table, table.length * 2);
+				String s = CharacterFile.readUtf8(buffer, buffer.getInt());
+				table[strings.size()] = s;
+				strings.add(s);
+			} else
+				throw new CorruptDatabaseException("unknown journal operation " + op);
+			if (buffer.position() != end)
+				throw new CorruptDatabaseException("journal record has trailing bytes");
+			offset += 8 + length;
+		}
+		return offset;
+	}
+
+	/**
+	 * Handles a damaged record with more of the file after it.
+	 * @return The offset of the record, if salvaging
+	 * @throws CorruptDatabaseException If not salvaging
+	 */
+	private static long damaged(long offset, boolean salvage) throws CorruptDatabaseException {
+		if (!salvage)
+			throw new CorruptDatabaseException("damaged journal record at offset " + offset
+					+ ", run DatabaseRepairTool to salvage the records before it");
+		return offset;
+	}
+
+	/**
+	 * Looks for an intact record starting anywhere in the file from the given
+	 * offset. The CRC does not cover the length, so a record whose length runs
+	 * past the end of the file is only a torn tail if nothing synced follows it.
+	 * @return True if a record with a known operation and a matching checksum
+	 * starts at or after the offset
+	 */
+	private static boolean hasRecordAfter(FileChannel channel, long from, long size) throws IOException {
+		if (size - from < 9)
+			return false;
+		if (size - from > Integer.MAX_VALUE - 8)
+			return true; // too much to be one torn write
+		ByteBuffer tail = ByteBuffer.allocate((int) (size - from));
+		while (tail.hasRemaining())
+			if (channel.read(tail, from + tail.position()) < 0)
+				break;
+		tail.flip();
+		CRC32 crc = new CRC32();
+		for (int at = 0, n = tail.limit(); at + 9 <= n; at++) {
+			int length = tail.getInt(at);
+			if (length <= 0 || length > n - at - 8)
+				continue;
+			byte op = tail.get(at + 8);
+			if (op != PUT && op != REMOVE && op != STRING)
+				continue;
+			ByteBuffer payload = tail.duplicate();
+			payload.limit(at + 8 + length).position(at + 8);
+			crc.reset();
+			crc.update(payload);
+			if ((int) crc.getValue() == tail.getInt(at + 4))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return True if the bytes of the file from the given offset to its end are all zero
+	 */
+	private static boolean isZero(FileChannel channel, long from, long size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		for (long at = from; at < size; ) {
+			buffer.clear();
+			int n = channel.read(buffer, at);
+			if (n < 0)
+				break;
+			for (int i = 0; i < n; i++)
+				if (buffer.get(i) != 0)
+					return false;
+			at += n;
+		}
+		return true;
+	}
+
+	/**
+	 * Records that a character was added or updated.
+	 * @param c The character as it is now
+	 */
+	synchronized void put(Character c) {
+		if (strings != null) {
+			int defined = strings.size();
+			strings.addAll(c);
+			for (int id = defined; id < strings.size(); id++) {
+				byte[] bytes = strings.bytes(id);
+				ByteBuffer payload = ByteBuffer.allocate(4 + bytes.length);
+				payload.putInt(bytes.length).put(bytes).flip();
+				append(STRING, payload);
+			}
+		}
+		record = CharacterFile.encode(record, c, strings);
+		append(PUT, record);
+		pendingCount++;
+	}
+
+	/**
+	 * Records that a character was removed.
+	 * @param name The name of the removed character
+	 */
+	synchronized void remove(String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer payload = ByteBuffer.allocate(4 + bytes.length);
+		payload.putInt(bytes.length).put(bytes).flip();
+		append(REMOVE, payload);
+		pendingCount++;
+	}
+
+	private void append(byte op, ByteBuffer payload) {
+		int length = 1 + payload.remaining();
+		if (pending.remaining() < 8 + length) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + 8 + length));
+			pending.flip();
+			larger.put(pending);
+			pending = larger;
+		}
+		int start = pending.position();
+		pending.putInt(length);
+		pending.putInt(0); // checksum, filled in below
+		pending.put(op);
+		pending.put(payload);
+		crc.reset();
+		crc.update(pending.array(), start + 8, length);
+		pending.putInt(start + 4, (int) crc.getValue());
+	}
+
+	/**
+	 * @return True if there are records that have not been synced
+	 */
+	synchronized boolean hasPending() {
+		return pending.position() > 0;
+	}
+
+	/**
+	 * Appends the pending records to the file and forces them to disk. If
+	 * they cannot be written, the pending records are discarded and the file
+	 * is cut back to its size before the sync, so the caller can journal the
+	 * changes again.
+	 * @return The number of changes written
+	 * @throws IOException If the records cannot be written
+	 */
+	synchronized int sync() throws IOException {
+		if (!hasPending())
+			return 0;
+		long end = channel.position();
+		int written = pendingCount;
+		pending.flip();
+		try {
+			while (pending.hasRemaining())
+				channel.write(pending);
+			channel.force(false);
+		} catch (IOException e) {
+			if (strings != null)
+				strings.truncate(syncedStrings);
+			try {
+				channel.truncate(end);
+				channel.position(end);
+			} catch (IOException suppressed) {
+				// the partly written record fails its checksum and is cut off on the next open
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		} finally {
+			pending.clear();
+			pendingCount = 0;
+		}
+		if (strings != null)
+			syncedStrings = strings.size();
+		return written;
+	}
+
+	/**
+	 * @return The size of the journal file in bytes, not counting pending records
+	 * @throws IOException If the size cannot be read
+	 */
+	synchronized long size() throws IOException {
+		return channel.size();
+	}
+
+	/**
+	 * Closes the journal. Pending records are discarded.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,39 @@
+package assignment3;
+
+import java.util.Set;
+
+/**
+ * Converts database files written with Java serialization to the
+ * binary format.
+ * <p>
+ * Usage: {@code LegacyDatabaseImporter legacy.dat [converted.dat]}.
+ * Without an output path the file is converted in place.
+ *
+ * @see CharacterFile
+ *
+ * @author Ali Nawaz Maan
+ */
+public class LegacyDatabaseImporter {
+
+	public static void main(String[] args) {
+		if (args.length < 1 || args.length > 2) {
+			System.out.println("Usage: LegacyDatabaseImporter <legacy file> [output file]");
+			return;
+		}
+		String input = args[0];
+		String output = args.length == 2 ? args[1] : args[0];
+		try {
+			if (CharacterFile.isCharacterFile(input)) {
+				System.out.println(input + " is already in the binary format.");
+				return;
+			}
+			Set<Character> characters = CharacterDatabase.readLegacy(input);
+			long bytes = CharacterFile.replace(output, characters, CompressionCodec.NONE, DatabaseProgress.NONE);
+			System.out.printf("Imported %d characters from %s into %s (%d bytes)%n",
+					characters.size(), input, output, bytes);
+		} catch (Exception e) {
+			System.out.println("AN ERROR OCCURRED:");
+			System.out.println("    " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package assignment3;
+
+/**
+ * A fast LZ77 compressor for blocks of database records, in the style of
+ * LZ4: no entropy coding, just literals and back references, so it
+ * decompresses at memory speed.
+ * <p>
+ * A compressed block is a sequence of
+ * <pre>
+ * sequence: byte token, [literal length bytes], literals,
+ *           short offset (little-endian), [match length bytes]
+ * </pre>
+ * The high four bits of the token give the number of literals, and the low
+ * four bits the length of the match less {@link #MIN_MATCH}; a nibble of 15
+ * is followed by bytes that are added to it, up to and including the first
+ * one below 255. The match copies that many bytes from offset bytes back in
+ * the output, and may overlap itself. The last sequence has literals only.
+ * <p>
+ * Matches are found with a hash table of the positions of four byte
+ * sequences, keeping only the latest, so compression is a single pass.
+ *
+ * @see CompressionCodec#LZ
+ *
+ * @author Ali Nawaz Maan
+ */
+final class LzCodec {
+	/** Shortest match worth a back reference */
+	private static final int MIN_MATCH = 4;
+	/** Largest back reference offset */
+	private static final int MAX_OFFSET = 0xFFFF;
+	private static final int HASH_BITS = 12;
+
+	private LzCodec() { }
+
+	/**
+	 * @return The largest compressed size of the given number of bytes
+	 */
+	static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * Compresses bytes.
+	 * @param src Bytes to compress
+	 * @param length Number of bytes, from the start of src
+	 * @param dst Receives the compressed bytes; at least
+	 * {@link #maxCompressedLength(int)} long
+	 * @return The number of compressed bytes
+	 */
+	static int compress(byte[] src, int length, byte[] dst) {
+		// position + 1 of the last four bytes with each hash, 0 if none
+		int[] table = new int[1 << HASH_BITS];
+		int anchor = 0, i = 0, out = 0;
+		while (i + MIN_MATCH <= length) {
+			int sequence = readInt(src, i);
+			int h = (sequence * -1640531535) >>> (32 - HASH_BITS);
+			int ref = table[h] - 1;
+			table[h] = i + 1;
+			if (ref < 0 || i - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+				i++;
+				continue;
+			}
+			int match = MIN_MATCH;
+			while (i + match < length && src[ref + match] == src[i + match])
+				match++;
+			out = writeLiterals(dst, out, src, anchor, i - anchor, match - MIN_MATCH);
+			dst[out++] = (byte) (i - ref);
+			dst[out++] = (byte) ((i - ref) >>> 8);
+			out = writeLength(dst, out, match - MIN_MATCH);
+			i += match;
+			anchor = i;
+		}
+		return writeLiterals(dst, out, src, anchor, length - anchor, 0);
+	}
+
+	/**
+	 * Writes a token and the literals before a match.
+	 */
+	private static int writeLiterals(byte[] dst, int out, byte[] src, int from, int count, int matchLength) {
+		dst[out++] = (byte) (Math.min(count, 15) << 4 | Math.min(matchLength, 15));
+		out = writeLength(dst, out, count);
+		System.arraycopy(src, from, dst, out, count);
+		return out + count;
+	}
+
+	/**
+	 * Writes the bytes continuing a length whose nibble is 15.
+	 */
+	private static int writeLength(byte[] dst, int out, int length) {
+		if (length < 15)
+			return out;
+		for (length -= 15; length >= 255; length -= 255)
+			dst[out++] = (byte) 255;
+		dst[out++] = (byte) length;
+		return out;
+	}
+
+	/**
+	 * Decompresses bytes.
+	 * @param src Compressed bytes
+	 * @param from Offset of the first compressed byte
+	 * @param length Number of compressed bytes
+	 * @param dst Receives the decompressed bytes, which must fill it exactly
+	 * @throws CorruptDatabaseException If the bytes are not valid, or do not
+	 * decompress to exactly dst.length bytes
+	 */
+	static void decompress(byte[] src, int from, int length, byte[] dst) throws CorruptDatabaseException {
+		int in = from, end = from + length, out = 0;
+		try {
+			while (true) {
+				if (in >= end)
+					throw new CorruptDatabaseException("truncated compressed block");
+				int token = src[in++] & 0xff;
+				int literals = token >>> 4;
+				if (literals == 15)
+					do {
+						if (in >= end)
+							throw new CorruptDatabaseException("truncated compressed block");
+						literals += src[in] & 0xff;
+					} while ((src[in++] & 0xff) == 255);
+				if (literals > end - in || literals > dst.length - out)
+					throw new CorruptDatabaseException("bad literal length");
+				System.arraycopy(src, in, dst, out, literals);
+				in += literals;
+				out += literals;
+				if (in == end)
+					break;
+
+				if (end - in < 2)
+					throw new CorruptDatabaseException("truncated compressed block");
+				int offset = (src[in] & 0xff) | (src[in + 1] & 0xff) << 8;
+				in += 2;
+				int match = token & 15;
+				if (match == 15)
+					do {
+						if (in >= end)
+							throw new CorruptDatabaseException("truncated compressed block");
+						match += src[in] & 0xff;
+					} while ((src[in++] & 0xff) == 255);
+				match += MIN_MATCH;
+				if (offset == 0 || offset > out || match > dst.length - out)
+					throw new CorruptDatabaseException("bad match");
+				for (int ref = out - offset, stop = out + match; out < stop; )
+					dst[out++] = dst[ref++];
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new CorruptDatabaseException("truncated compressed block");
+		}
+		if (out != dst.length)
+			throw new CorruptDatabaseException("compressed block has the wrong length");
+	}
+
+	private static int readInt(byte[] b, int i) {
+		return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | b[i + 3] << 24;
+	}
+}
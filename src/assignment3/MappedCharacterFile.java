@@ -0,0 +1,226 @@
+package assignment3;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+
+/**
+ * A read-only, memory-mapped view of a binary database file.
+ * <p>
+ * Opening the file reads only the header, the string table and the name
+ * index, building a table from name to record offset. Records are decoded
+ * when they are asked for, so opening a large file costs time and memory
+ * proportional to the number of names rather than the size of the records.
+ * The parts read at open are checked against their checksums; the records
+ * are not, as they are never read as a whole.
+ * <p>
+ * Files are mapped in segments of {@link #SEGMENT_SIZE} bytes so that files
+ * larger than 2GB can be opened. Files with compressed blocks cannot be
+ * mapped, as their records cannot be decoded in place; they are saved with a
+ * page directory and opened paged instead.
+ *
+ * @see CharacterFile
+ *
+ * @author Ali Nawaz Maan
+ */
+final class MappedCharacterFile implements CharacterFileView {
+	/** Size of each mapped segment */
+	private static final long SEGMENT_SIZE = 1L << 30;
+	/** Each segment also maps this many bytes of the next one, so records rarely straddle segments */
+	private static final long SEGMENT_OVERLAP = 1L << 20;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer[] segments;
+	private final String[] strings;
+	private final Map<String, Long> offsets;
+
+	private MappedCharacterFile(FileChannel channel, MappedByteBuffer[] segments, String[] strings,
+			Map<String, Long> offsets) {
+		this.channel = channel;
+		this.segments = segments;
+		this.strings = strings;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * Opens a binary database file.
+	 * @param fileName File path to open
+	 * @param progress Receives the number of bytes read and the names read
+	 * @return The opened file
+	 * @throws FileNotFoundException If the file does not exist
+	 * @throws CorruptDatabaseException If the file is not a valid database
+	 * @throws CancellationException If the progress listener cancels the open
+	 * @throws IOException If the file cannot be read
+	 */
+	static MappedCharacterFile open(String fileName, DatabaseProgress progress) throws IOException {
+		FileChannel channel = new FileInputStream(fileName).getChannel();
+		try {
+			CharacterFile.Input in = new CharacterFile.Input(channel);
+			CharacterFile.Header header = CharacterFile.readHeader(in);
+			if (header.codec != CompressionCodec.NONE)
+				throw new IOException("compressed files without a page directory cannot be mapped");
+			CharacterFile.Checksums checksums = CharacterFile.readChecksums(channel, header);
+			String[] strings = CharacterFile.readStrings(in, header, checksums);
+			Map<String, Long> offsets = header.indexOffset != 0
+					? readIndex(channel, header, checksums, progress)
+					: scanRecords(channel, header, progress);
+
+			long size = channel.size();
+			MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+			for (int i = 0; i < segments.length; i++) {
+				long start = i * SEGMENT_SIZE;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(size - start, SEGMENT_SIZE + SEGMENT_OVERLAP));
+			}
+			return new MappedCharacterFile(channel, segments, strings, offsets);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the name index at the end of the file, checking it against its
+	 * checksum if there is one.
+	 */
+	private static Map<String, Long> readIndex(FileChannel channel, CharacterFile.Header header,
+			CharacterFile.Checksums checksums, DatabaseProgress progress) throws IOException {
+		long size = channel.size() - header.indexOffset;
+		channel.position(header.indexOffset);
+		CharacterFile.Input in = new CharacterFile.Input(channel);
+		in.startChecksum();
+		in.ensure(4);
+		int count = in.buffer().getInt();
+		if (count != header.recordCount)
+			throw new CorruptDatabaseException("index does not match records");
+		Map<String, Long> offsets = new HashMap<String, Long>(count * 4 / 3 + 1);
+		List<String> names = new ArrayList<String>(DatabaseProgress.BATCH_SIZE);
+		for (int i = 0; i < count; i++) {
+			in.ensure(4);
+			int length = in.buffer().getInt();
+			if (length <= 0)
+				throw new CorruptDatabaseException("bad name length " + length);
+			in.ensure(length + 8);
+			String name = CharacterFile.readUtf8(in.buffer(), length);
+			offsets.put(name, in.buffer().getLong());
+			names.add(name);
+			if (names.size() == DatabaseProgress.BATCH_SIZE) {
+				CharacterFile.report(progress, in.position() - header.indexOffset, size, names);
+				names = new ArrayList<String>(DatabaseProgress.BATCH_SIZE);
+			}
+		}
+		int crc = in.endChecksum();
+		if (checksums != null)
+			CharacterFile.Checksums.verify("index", checksums.index, crc);
+		CharacterFile.report(progress, size, size, names);
+		return offsets;
+	}
+
+	/**
+	 * Builds the name table of a file without an index by reading the name
+	 * of each record and skipping the rest.
+	 */
+	private static Map<String, Long> scanRecords(FileChannel channel, CharacterFile.Header header,
+			DatabaseProgress progress) throws IOException {
+		long size = channel.size();
+		long offset = header.recordsOffset;
+		channel.position(offset);
+		CharacterFile.Input in = new CharacterFile.Input(channel);
+		Map<String, Long> offsets = new HashMap<String, Long>(header.recordCount * 4 / 3 + 1);
+		List<String> names = new ArrayList<String>(DatabaseProgress.BATCH_SIZE);
+		for (int i = 0; i < header.recordCount; i++) {
+			in.ensure(4 + 1 + 4);
+			int length = in.buffer().getInt();
+			in.buffer().get(); // kind
+			int nameLength = in.buffer().getInt();
+			if (length <= 0 || nameLength <= 0 || nameLength > length)
+				throw new CorruptDatabaseException("bad record " + i);
+			in.ensure(nameLength);
+			String name = CharacterFile.readUtf8(in.buffer(), nameLength);
+			offsets.put(name, offset);
+			in.skip(length - 1 - 4 - nameLength);
+			offset += 4 + length;
+			names.add(name);
+			if (names.size() == DatabaseProgress.BATCH_SIZE) {
+				CharacterFile.report(progress, offset, size, names);
+				names = new ArrayList<String>(DatabaseProgress.BATCH_SIZE);
+			}
+		}
+		CharacterFile.report(progress, size, size, names);
+		return offsets;
+	}
+
+	/**
+	 * @param name Character name to look for
+	 * @return True if the file holds a character with the given name
+	 */
+	@Override
+	public boolean contains(String name) {
+		return offsets.containsKey(name);
+	}
+
+	/**
+	 * @return The names of all characters in the file, without decoding any record
+	 */
+	@Override
+	public Set<String> names() {
+		return Collections.unmodifiableSet(offsets.keySet());
+	}
+
+	/**
+	 * @return The number of characters in the file
+	 */
+	@Override
+	public int size() {
+		return offsets.size();
+	}
+
+	/**
+	 * Decodes the character with the given name.
+	 * @param name Character name to read
+	 * @return A new character object, or null if the file holds no such character
+	 * @throws CorruptDatabaseException If the record cannot be decoded
+	 */
+	@Override
+	public Character read(String name) throws IOException {
+		Long offset = offsets.get(name);
+		if (offset == null)
+			return null;
+		int length = slice(offset, 4).getInt();
+		if (length <= 0)
+			throw new CorruptDatabaseException("bad record length " + length);
+		return CharacterFile.decode(slice(offset + 4, length), strings);
+	}
+
+	/**
+	 * Returns a buffer positioned at the given file offset with at least
+	 * length bytes remaining.
+	 */
+	private ByteBuffer slice(long offset, int length) throws IOException {
+		int segment = (int) (offset / SEGMENT_SIZE);
+		if (segment < segments.length) {
+			long start = offset - segment * SEGMENT_SIZE;
+			MappedByteBuffer mapped = segments[segment];
+			if (start + length <= mapped.limit()) {
+				ByteBuffer slice = mapped.duplicate();
+				slice.position((int) start);
+				return slice;
+			}
+		}
+		// straddles two segments, read it instead
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, offset + buffer.position()) < 0)
+				throw new CorruptDatabaseException("unexpected end of file");
+		buffer.flip();
+		return buffer;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -1,7 +1,15 @@
 package assignment3;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Model class for the Character Editor
@@ -9,8 +17,24 @@ import java.util.List;
  */
 public class Model {
 
-	// Character Database object
-	protected CharacterDatabase database;
+	/** Longest time in seconds an edit waits to be autosaved, from the assignment3.autosaveSeconds system property; 0 turns autosave off */
+	static final long AUTOSAVE_SECONDS = Long.getLong("assignment3.autosaveSeconds", 5);
+	/** Number of unsaved characters that starts an autosave at once, from the assignment3.autosaveChanges system property */
+	static final int AUTOSAVE_CHANGES = Integer.getInteger("assignment3.autosaveChanges", 1000);
+	/** Number of segment files of a new database, from the assignment3.shards system property; 1 for a single file */
+	static final int SHARDS = Math.max(1, Integer.getInteger("assignment3.shards", 1));
+	/** Codec compressing the records of a new database, from the assignment3.codec system property: NONE, DEFLATE or LZ */
+	static final CompressionCodec CODEC = codec(System.getProperty("assignment3.codec"));
+	/** Whether the editor reopens the last database at startup, from the assignment3.reopenLast system property */
+	static final boolean REOPEN_LAST = Boolean.parseBoolean(System.getProperty("assignment3.reopenLast", "true"));
+	/**
+	 * File holding the path of the database last loaded or created; a plain
+	 * file, as java.util.prefs takes longer to start than opening a database
+	 */
+	private static final Path LAST_DATABASE = Paths.get(System.getProperty("user.home"), ".character-editor");
+
+	// Character Database object, replaced from a background thread when loading
+	protected volatile CharacterDatabase database;
 	
 	/*
 	 * TODO: INVARIANT GOES HERE
@@ -24,34 +48,127 @@ public class Model {
 
 	/**
 	 * Load database based on user selected filepath.
+	 * Databases in the binary format are opened in read-mostly mode, so
+	 * characters are only decoded when they are selected. A sharded database
+	 * is opened through its manifest file, like any other.
 	 * @param path Path of database file to load
+	 * @throws Exception If the database cannot be read, or the changes to the current one saved
 	 */
 	public void loadDatabase(String path) throws Exception {
-		database = new CharacterDatabase(path);
+		loadDatabase(path, DatabaseProgress.NONE);
+	}
+
+	/**
+	 * Load database based on user selected filepath, reporting progress.
+	 * The current database is only replaced once the new one has loaded,
+	 * so it stays in use if loading fails or is cancelled.
+	 * May be called from a background thread.
+	 * @param path Path of database file to load
+	 * @param progress Receives progress reports and may cancel the load
+	 * @throws java.util.concurrent.CancellationException If the load is cancelled
+	 * @throws Exception If the database cannot be read, or the changes to the current one saved
+	 */
+	public void loadDatabase(String path, DatabaseProgress progress) throws Exception {
+		CharacterDatabase loaded = new CharacterDatabase(path);
+		if (CharacterFile.isCharacterFile(path)) {
+			loaded.open(progress);
+		} else {
+			loaded.load(progress);
+		}
+		try {
+			closeDatabase();
+		} catch (IOException e) {
+			loaded.close();
+			throw e;
+		}
+		loaded.setAutosave(AUTOSAVE_SECONDS, TimeUnit.SECONDS, AUTOSAVE_CHANGES);
+		database = loaded;
+		rememberDatabase(path);
+	}
+
+	/**
+	 * @return The path of the database last loaded or created, or null if
+	 * there is none or its file no longer exists
+	 */
+	public static String lastDatabase() {
+		try {
+			List<String> lines = Files.readAllLines(LAST_DATABASE, StandardCharsets.UTF_8);
+			return !lines.isEmpty() && new File(lines.get(0)).exists() ? lines.get(0) : null;
+		} catch (IOException e) {
+			return null; // none yet
+		}
+	}
+
+	/**
+	 * Records a database as the last one loaded or created.
+	 * @param path Path of the database file
+	 */
+	private static void rememberDatabase(String path) {
+		String absolute = new File(path).getAbsolutePath();
+		if (absolute.equals(lastDatabase()))
+			return;
 		try {
-			database.load();
-		}catch (Exception e) {
+			Files.write(LAST_DATABASE, Collections.singletonList(absolute), StandardCharsets.UTF_8);
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
 
 	/**
-	 * Create new empty database with provided filename
-	 * @param filename Filename of the database to create
-	 * @return true if database creation is successful and false otherwise.
+	 * Releases the files held by the current database, if any, first saving
+	 * its changes if it is autosaved. A file that cannot be closed is counted
+	 * in the database's metrics, as its changes have been saved.
+	 * @throws IOException If the changes cannot be saved; the database is then left open
 	 */
-	public boolean createDatabase(String filename) {
-		database = new CharacterDatabase(filename);
+	private void closeDatabase() throws IOException {
+		if (database == null)
+			return;
+		flush();
+		database.setAutosave(0, TimeUnit.SECONDS, 0);
 		try {
-			database.save();
-			return true;
-		}catch (Exception e) {
+			database.close();
+		}catch (IOException e) {
 			e.printStackTrace();
-			return false;
 		}
 	}
 
+	/**
+	 * Saves the changes not yet autosaved, if the database is autosaved.
+	 * @throws IOException If the database cannot be written
+	 */
+	public void flush() throws IOException {
+		CharacterDatabase current = database;
+		if (current != null && current.isAutosaving() && current.unsavedChanges() > 0)
+			current.save();
+	}
+
+	/**
+	 * Create new empty database with provided filename, sharded across
+	 * {@link #SHARDS} segment files if that is more than one, and compressed
+	 * with {@link #CODEC}
+	 * The current database is only replaced once the new one has been
+	 * written, so it stays in use if that fails.
+	 * @param filename Filename of the database to create
+	 * @throws IOException If the database cannot be written, or the changes to the current one saved
+	 */
+	public void createDatabase(String filename) throws IOException {
+		// saved first, so nothing is left to write over the new file if it has the same name
+		flush();
+		CharacterDatabase created = new CharacterDatabase(filename, SHARDS);
+		created.setCodec(CODEC);
+		try {
+			created.save();
+			closeDatabase();
+		}catch (IOException e) {
+			created.close();
+			throw e;
+		}
+		created.setAutosave(AUTOSAVE_SECONDS, TimeUnit.SECONDS, AUTOSAVE_CHANGES);
+		database = created;
+		rememberDatabase(filename);
+	}
+
 	/**
 	 * Get characters from the loaded database.
 	 * @return String of characters in the loaded database
@@ -61,6 +178,24 @@ public class Model {
 
 	}
 
+	/**
+	 * Get the names in the loaded database as a sorted list, kept up to date
+	 * as characters are added and removed.
+	 * @return Sorted list of the character names in the loaded database
+	 */
+	public CharacterNameList getCharacterList() {
+		return new CharacterNameList(database);
+	}
+
+	/**
+	 * Builds the posting lists of the name index, which listing names does
+	 * not need, so the first type-ahead search does not wait for them.
+	 * May be called from a background thread.
+	 */
+	public void prepareSearch() {
+		database.nameIndex().buildPostings();
+	}
+
 	/**
 	 * Creates Character object with provided name and empty description
 	 * Also adds it to the current database
@@ -76,7 +211,7 @@ public class Model {
 	/**
 	 * Creates Super Character object with provided name and empty description
 	 * @param name Name of the new super character
-	 * @return SuperCharacter object if successful, null otherwise.
+	 * @return SuperCharacter object
 	 */
 	public SuperCharacter createSuperCharacter(String name) {
 		try {
@@ -84,20 +219,38 @@ public class Model {
 			addCharacter(s);
 			return s;
 		}catch (IllegalPowerRankingException e) {
-			e.printStackTrace();
+			throw new IllegalStateException("UNRANKABLE is always a valid power ranking", e);
 		}
-		return null;
 	}
 
 	/**
 	 * Adds character to the database.
-	 * Attempts to remove the character object from database if already
-	 * exists and the add the new one.
+	 * Replaces the character object in the database if one with the
+	 * same name already exists.
 	 * @param c Character object to add
 	 */
 	public void addCharacter(Character c) {
-		delete(c.getName());
-		database.add(c);
+		database.update(c);
+	}
+
+	/**
+	 * Adds characters to the database as one batch, skipping those whose
+	 * name is already taken
+	 * @param characters Character objects to add
+	 * @return Result for each character, in order
+	 */
+	public List<BatchResult> addAll(Collection<? extends Character> characters) {
+		return database.addAll(characters);
+	}
+
+	/**
+	 * Adds characters to the database as one batch, replacing those with
+	 * the same name
+	 * @param characters Character objects to add or replace
+	 * @return Result for each character, in order
+	 */
+	public List<BatchResult> updateAll(Collection<? extends Character> characters) {
+		return database.updateAll(characters);
 	}
 
 	/**
@@ -109,24 +262,92 @@ public class Model {
 		return database.search(name);
 	}
 
+	/**
+	 * Finds the names containing the given text, best matches first
+	 * @param query Text to look for in names, ignoring case
+	 * @param offset Number of matching names to skip
+	 * @param limit Maximum number of names to return
+	 * @return A page of matching names
+	 */
+	public List<String> searchNames(String query, int offset, int limit) {
+		return database.findNames(query, offset, limit);
+	}
+
+	/**
+	 * Finds the characters whose description, traits or powers match a query
+	 * @param query Query to run, usually from {@link TextQuery#parse(String)}
+	 * @return Names of the matching characters
+	 */
+	public List<String> searchText(TextQuery query) {
+		return database.findCharacters(query);
+	}
+
+	/**
+	 * Finds the super characters with a power ranking in the given range
+	 * @param min Lowest ranking, inclusive
+	 * @param max Highest ranking, inclusive
+	 * @return Names of the super characters, highest ranking first
+	 */
+	public List<String> searchRanked(int min, int max) {
+		return database.findRanked(min, max);
+	}
+
+	/**
+	 * Counts the super characters with a power ranking in the given range
+	 * @param min Lowest ranking, inclusive
+	 * @param max Highest ranking, inclusive
+	 * @return Number of super characters in range
+	 */
+	public int countRanked(int min, int max) {
+		return database.countRanked(min, max);
+	}
+
 	/**
 	 * Deletes a character from the database
 	 * @param name Name of the character to remove
 	 */
 	public void delete(String name) {
-		Character c = database.search(name);
-		database.remove(c);
+		database.remove(name);
+	}
+
+	/**
+	 * Deletes characters from the database as one batch
+	 * @param names Names of the characters to remove
+	 * @return Result for each name, in order
+	 */
+	public List<BatchResult> removeAll(Collection<String> names) {
+		return database.removeAll(names);
 	}
 
 	/**
 	 * Saves current database
+	 * @throws IOException If the database cannot be written
 	 */
-	public void save(){
-		try {
-			database.save();
-		}catch (IOException e) {
-			e.printStackTrace();
-		}
+	public void save() throws IOException {
+		save(DatabaseProgress.NONE);
+	}
+
+	/**
+	 * Saves current database, reporting progress. May be called from a
+	 * background thread, and the database may be edited meanwhile.
+	 * @param progress Receives progress reports and may cancel the save
+	 * @throws IOException If the database cannot be written
+	 * @throws java.util.concurrent.CancellationException If the save is cancelled
+	 */
+	public void save(DatabaseProgress progress) throws IOException {
+		database.save(progress);
+	}
+
+	/**
+	 * @param name Name of a codec, in any case, or null
+	 * @return The codec of that name, or {@link CompressionCodec#NONE} if there is none
+	 */
+	private static CompressionCodec codec(String name) {
+		if (name != null)
+			for (CompressionCodec codec : CompressionCodec.values())
+				if (codec.name().equalsIgnoreCase(name.trim()))
+					return codec;
+		return CompressionCodec.NONE;
 	}
 
 
@@ -0,0 +1,580 @@
+package assignment3;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * An index over character names for type-ahead search.
+ * <p>
+ * Names are kept in a sorted array, ordered ignoring case, so the names
+ * starting with a prefix form a contiguous range found by binary search.
+ * For substring queries every name is also indexed by its trigrams (all
+ * runs of three characters); a query of three or more characters is
+ * answered from the shortest posting list of its trigrams. Shorter queries
+ * find word matches in postings of word starts and scan for the rest.
+ * Matching ignores case. The posting lists take most of the time to build
+ * an index, so they are built on the first query that needs them, or by
+ * {@link #buildPostings()}; listing names and prefix queries do not wait
+ * for them.
+ * <p>
+ * Results are ranked: exact matches first, then names starting with the
+ * query, then names with a word starting with the query, then other names
+ * containing it. Names of equal rank are in index order.
+ * <p>
+ * All methods are synchronized, as queries may run while the database is
+ * being changed by another thread.
+ *
+ * @see CharacterDatabase#findNames(String, int, int)
+ *
+ * @author Ali Nawaz Maan
+ */
+class NameIndex {
+	private static final int EXACT = 0;
+	private static final int PREFIX = 1;
+	private static final int WORD = 2;
+	private static final int SUBSTRING = 3;
+	/** Batches smaller than this are applied one name at a time */
+	private static final int BULK_THRESHOLD = 16;
+
+	/** Orders names ignoring case, then by case */
+	static final Comparator<String> ORDER = new Comparator<String>() {
+		@Override
+		public int compare(String a, String b) {
+			int c = lower(a).compareTo(lower(b));
+			return c != 0 ? c : a.compareTo(b);
+		}
+	};
+
+	/** Names in index order */
+	private String[] sorted;
+	/** Lower case names in index order */
+	private String[] sortedLower;
+	private int size;
+
+	/** Names by id; null for the ids of removed names */
+	private String[] names;
+	/** Lower case names by id */
+	private String[] lowerNames;
+	/** Number of ids handed out, including those of removed names */
+	private int nextId;
+	private final Map<String, Integer> ids;
+	/**
+	 * Ids of the names containing each trigram, and of the names with a word
+	 * (other than the first) starting with each one or two characters;
+	 * including removed ids. Null until first needed.
+	 */
+	private TrigramMap trigrams;
+
+	/**
+	 * Builds an index over the given names.
+	 * @param initial Names to index, without duplicates
+	 */
+	NameIndex(Collection<String> initial) {
+		size = initial.size();
+		sorted = initial.toArray(new String[Math.max(16, size)]);
+		Arrays.sort(sorted, 0, size, ORDER);
+		sortedLower = new String[sorted.length];
+		ids = new HashMap<String, Integer>(size * 4 / 3 + 1);
+		reindex();
+	}
+
+	static String lower(String name) {
+		return name.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Sorts items by name in index order, lowering the case of each name
+	 * once rather than on every comparison.
+	 * @param items Items to sort
+	 * @param nameOf Gives the name of an item
+	 */
+	static <T> void sort(List<T> items, Function<T, String> nameOf) {
+		final class Keyed {
+			final String lower;
+			final String name;
+			final T item;
+
+			Keyed(T item) {
+				this.item = item;
+				this.name = nameOf.apply(item);
+				this.lower = lower(name);
+			}
+		}
+		List<Keyed> keyed = new ArrayList<Keyed>(items.size());
+		for (T item : items)
+			keyed.add(new Keyed(item));
+		Collections.sort(keyed, (a, b) -> compare(a.lower, a.name, b.lower, b.name));
+		ListIterator<T> it = items.listIterator();
+		for (Keyed k : keyed) {
+			it.next();
+			it.set(k.item);
+		}
+	}
+
+	/**
+	 * @return The number of names in the index
+	 */
+	synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @param i Position in index order
+	 * @return The i-th name in index order
+	 */
+	synchronized String get(int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+		return sorted[i];
+	}
+
+	/**
+	 * @param name Name to look for
+	 * @return The position of the name in index order, or
+	 * (-(insertion point) - 1) if it is not in the index
+	 */
+	synchronized int indexOf(String name) {
+		String lower = lower(name);
+		int lo = 0, hi = size - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = sortedLower[mid].compareTo(lower);
+			if (c == 0)
+				c = sorted[mid].compareTo(name);
+			if (c < 0)
+				lo = mid + 1;
+			else if (c > 0)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return -(lo + 1);
+	}
+
+	/**
+	 * @return The position of the first name whose lower case form is not less than the key
+	 */
+	private int lowerBound(String lowerKey) {
+		int lo = 0, hi = size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sortedLower[mid].compareTo(lowerKey) < 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @param name Name to look for
+	 * @return True if the name is in the index
+	 */
+	synchronized boolean contains(String name) {
+		return ids.containsKey(name);
+	}
+
+	/**
+	 * Adds a name to the index.
+	 * @param name Name to add
+	 * @return The position of the name in index order, or -1 if it was already indexed
+	 */
+	synchronized int add(String name) {
+		if (ids.containsKey(name))
+			return -1;
+		int at = -indexOf(name) - 1;
+		if (size == sorted.length) {
+			sorted = Arrays.copyOf(sorted, size * 2);
+			sortedLower = Arrays.copyOf(sortedLower, size * 2);
+		}
+		System.arraycopy(sorted, at, sorted, at + 1, size - at);
+		System.arraycopy(sortedLower, at, sortedLower, at + 1, size - at);
+		sorted[at] = name;
+		sortedLower[at] = index(name);
+		size++;
+		return at;
+	}
+
+	/**
+	 * Removes a name from the index.
+	 * @param name Name to remove
+	 * @return The position the name had in index order, or -1 if it was not indexed
+	 */
+	synchronized int remove(String name) {
+		Integer id = ids.remove(name);
+		if (id == null)
+			return -1;
+		int at = indexOf(name);
+		System.arraycopy(sorted, at + 1, sorted, at, size - at - 1);
+		System.arraycopy(sortedLower, at + 1, sortedLower, at, size - at - 1);
+		size--;
+		sorted[size] = null;
+		sortedLower[size] = null;
+		names[id] = null;
+		lowerNames[id] = null;
+		// the id stays in the posting lists until there are too many dead ones
+		if (nextId > 1024 && nextId > 2 * size)
+			reindex();
+		return at;
+	}
+
+	/**
+	 * Adds names to the index in one pass: the new names are sorted and
+	 * merged into the sorted array, rather than each being inserted.
+	 * @param added Names to add; names already indexed are skipped
+	 */
+	synchronized void addAll(Collection<String> added) {
+		if (added.size() < BULK_THRESHOLD) {
+			for (String name : added)
+				add(name);
+			return;
+		}
+		List<String> fresh = new ArrayList<String>(added.size());
+		for (String name : added)
+			if (!ids.containsKey(name)) {
+				index(name);
+				fresh.add(name);
+			}
+		if (fresh.isEmpty())
+			return;
+		Collections.sort(fresh, ORDER);
+		int total = size + fresh.size();
+		if (total > sorted.length) {
+			sorted = Arrays.copyOf(sorted, Math.max(total, size * 2));
+			sortedLower = Arrays.copyOf(sortedLower, sorted.length);
+		}
+		// merge from the back, so each name moves once
+		int i = size - 1, j = fresh.size() - 1;
+		for (int to = total - 1; j >= 0; to--) {
+			String name = fresh.get(j);
+			String lower = lowerNames[ids.get(name)];
+			if (i >= 0 && compare(sortedLower[i], sorted[i], lower, name) > 0) {
+				sorted[to] = sorted[i];
+				sortedLower[to] = sortedLower[i--];
+			} else {
+				sorted[to] = name;
+				sortedLower[to] = lower;
+				j--;
+			}
+		}
+		size = total;
+	}
+
+	/**
+	 * Removes names from the index in one pass over the sorted array.
+	 * @param gone Names to remove; names not indexed are skipped
+	 */
+	synchronized void removeAll(Collection<String> gone) {
+		if (gone.size() < BULK_THRESHOLD) {
+			for (String name : gone)
+				remove(name);
+			return;
+		}
+		int count = 0;
+		for (String name : gone) {
+			Integer id = ids.remove(name);
+			if (id != null) {
+				names[id] = null;
+				lowerNames[id] = null;
+				count++;
+			}
+		}
+		if (count == 0)
+			return;
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			if (ids.containsKey(sorted[i])) {
+				sorted[kept] = sorted[i];
+				sortedLower[kept++] = sortedLower[i];
+			}
+		}
+		Arrays.fill(sorted, kept, size, null);
+		Arrays.fill(sortedLower, kept, size, null);
+		size = kept;
+		if (nextId > 1024 && nextId > 2 * size)
+			reindex();
+	}
+
+	/**
+	 * Compares names in index order, given their lower case forms.
+	 */
+	static int compare(String lowerA, String a, String lowerB, String b) {
+		int c = lowerA.compareTo(lowerB);
+		return c != 0 ? c : a.compareTo(b);
+	}
+
+	/**
+	 * Finds the names matching a query, ranked.
+	 * @param query Text to look for in names, ignoring case
+	 * @param offset Number of ranked results to skip
+	 * @param limit Maximum number of results to return
+	 * @return A page of ranked names
+	 */
+	synchronized List<String> find(String query, int offset, int limit) {
+		String q = lower(query);
+		int needed = (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+
+		// exact and prefix matches are a range of the sorted array, already in rank order
+		int lo = lowerBound(q);
+		int hi = q.isEmpty() ? size : lowerBound(q + '\uffff');
+		if (hi - lo >= needed || q.isEmpty())
+			return slice(Arrays.asList(sorted).subList(lo, hi), offset, limit);
+
+		int rest = needed - (hi - lo);
+		List<String> others = q.length() < 3 ? scan(q, lo, hi, rest) : candidates(q, rest);
+		List<String> ranked = new ArrayList<String>(hi - lo + others.size());
+		ranked.addAll(Arrays.asList(sorted).subList(lo, hi));
+		ranked.addAll(others);
+		return slice(ranked, offset, limit);
+	}
+
+	private static List<String> slice(List<String> ranked, int offset, int limit) {
+		int from = Math.min(offset, ranked.size());
+		int to = (int) Math.min(ranked.size(), (long) offset + limit);
+		return new ArrayList<String>(ranked.subList(from, to));
+	}
+
+	/**
+	 * Finds the best non-prefix matches of a one or two character query:
+	 * word matches from the word start postings, then substring matches by
+	 * scanning the names in index order, skipping the prefix range [lo, hi).
+	 */
+	private List<String> scan(String q, int lo, int hi, int rest) {
+		IntList words = postings().get(wordStart(q, 0, q.length()));
+		List<String> result = words == null ? new ArrayList<String>() : best(words, q, rest);
+		for (int i = 0; i < size && result.size() < rest; i++) {
+			if (i == lo)
+				i = hi;
+			if (i < size && rank(sortedLower[i], q) == SUBSTRING)
+				result.add(sorted[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the best non-prefix matches of a query of three or more
+	 * characters from the shortest posting list of its trigrams.
+	 */
+	private List<String> candidates(String q, int rest) {
+		IntList shortest = null;
+		for (int i = 0; i + 3 <= q.length(); i++) {
+			IntList posting = postings().get(trigram(q, i));
+			if (posting == null)
+				return Collections.emptyList();
+			if (shortest == null || posting.size < shortest.size)
+				shortest = posting;
+		}
+		return best(shortest, q, rest);
+	}
+
+	/**
+	 * Picks the best non-prefix matches of a query from a list of candidate ids.
+	 */
+	private List<String> best(IntList candidates, String q, int rest) {
+
+		// keep the best `rest` matches, worst on top
+		PriorityQueue<Match> best = new PriorityQueue<Match>(Math.min(rest, 1024), Collections.reverseOrder());
+		for (int i = 0; i < candidates.size; i++) {
+			int id = candidates.values[i];
+			String lower = lowerNames[id];
+			if (lower == null)
+				continue;
+			int rank = rank(lower, q);
+			if (rank < WORD)
+				continue; // already in the prefix range
+			Match m = new Match(names[id], lower, rank);
+			if (best.size() < rest) {
+				best.add(m);
+			} else if (m.compareTo(best.peek()) < 0) {
+				best.poll();
+				best.add(m);
+			}
+		}
+
+		Match[] matches = best.toArray(new Match[best.size()]);
+		Arrays.sort(matches);
+		List<String> result = new ArrayList<String>(matches.length);
+		for (Match m : matches)
+			result.add(m.name);
+		return result;
+	}
+
+	/**
+	 * @return The rank of a lower case name for a lower case query, or -1 if it does not match
+	 */
+	private static int rank(String name, String query) {
+		int at = name.indexOf(query);
+		if (at < 0)
+			return -1;
+		if (at == 0)
+			return name.length() == query.length() ? EXACT : PREFIX;
+		do {
+			if (!java.lang.Character.isLetterOrDigit(name.charAt(at - 1)))
+				return WORD;
+			at = name.indexOf(query, at + 1);
+		} while (at > 0);
+		return SUBSTRING;
+	}
+
+	private static long trigram(String s, int i) {
+		return (long) s.charAt(i) << 32 | (long) s.charAt(i + 1) << 16 | s.charAt(i + 2);
+	}
+
+	/**
+	 * Keys the first one or two characters of a word, above the range of trigram keys.
+	 */
+	private static long wordStart(String s, int i, int length) {
+		return length == 1 ? 1L << 48 | s.charAt(i) : 2L << 48 | (long) s.charAt(i) << 16 | s.charAt(i + 1);
+	}
+
+	/**
+	 * Gives a name an id and, once they are built, adds it to the posting
+	 * lists of its trigrams.
+	 * @return The lower case name
+	 */
+	private String index(String name) {
+		if (nextId == names.length) {
+			names = Arrays.copyOf(names, nextId * 2);
+			lowerNames = Arrays.copyOf(lowerNames, nextId * 2);
+		}
+		int id = nextId++;
+		String lower = lower(name);
+		names[id] = name;
+		lowerNames[id] = lower;
+		ids.put(name, id);
+		if (trigrams != null)
+			post(id, lower);
+		return lower;
+	}
+
+	/**
+	 * Builds the posting lists now, if they have not been built, so the
+	 * first substring query does not wait for them.
+	 */
+	synchronized void buildPostings() {
+		postings();
+	}
+
+	/**
+	 * @return The posting lists, built from the names' ids on first use
+	 */
+	private TrigramMap postings() {
+		if (trigrams == null) {
+			trigrams = new TrigramMap();
+			for (int id = 0; id < nextId; id++)
+				if (lowerNames[id] != null)
+					post(id, lowerNames[id]);
+		}
+		return trigrams;
+	}
+
+	/**
+	 * Adds a name's id to the posting lists of its trigrams and word starts.
+	 */
+	private void post(int id, String lower) {
+		for (int i = 0; i + 3 <= lower.length(); i++) {
+			IntList posting = trigrams.getOrCreate(trigram(lower, i));
+			// a name repeating a trigram is only listed once
+			if (posting.size == 0 || posting.values[posting.size - 1] != id)
+				posting.add(id);
+		}
+		for (int i = 1; i < lower.length(); i++) {
+			if (java.lang.Character.isLetterOrDigit(lower.charAt(i - 1)))
+				continue;
+			for (int length = 1; length <= 2 && i + length <= lower.length(); length++) {
+				IntList posting = trigrams.getOrCreate(wordStart(lower, i, length));
+				if (posting.size == 0 || posting.values[posting.size - 1] != id)
+					posting.add(id);
+			}
+		}
+	}
+
+	/**
+	 * Hands out ids to the names in index order, dropping the ids of removed ones.
+	 */
+	private void reindex() {
+		names = new String[Math.max(16, sorted.length)];
+		lowerNames = new String[names.length];
+		nextId = 0;
+		ids.clear();
+		trigrams = null;
+		for (int i = 0; i < size; i++)
+			sortedLower[i] = index(sorted[i]);
+	}
+
+	/**
+	 * A name matching a query, ordered by rank then index order.
+	 */
+	private static final class Match implements Comparable<Match> {
+		final String name;
+		final String lower;
+		final int rank;
+
+		Match(String name, String lower, int rank) {
+			this.name = name;
+			this.lower = lower;
+			this.rank = rank;
+		}
+
+		@Override
+		public int compareTo(Match other) {
+			if (rank != other.rank)
+				return Integer.compare(rank, other.rank);
+			int c = lower.compareTo(other.lower);
+			return c != 0 ? c : name.compareTo(other.name);
+		}
+	}
+
+	/**
+	 * An open addressing map from packed trigram to posting list.
+	 */
+	private static final class TrigramMap {
+		private long[] keys = new long[1024];
+		private IntList[] values = new IntList[1024];
+		private int count;
+
+		IntList get(long key) {
+			int mask = keys.length - 1;
+			for (int i = hash(key) & mask; values[i] != null; i = (i + 1) & mask)
+				if (keys[i] == key)
+					return values[i];
+			return null;
+		}
+
+		IntList getOrCreate(long key) {
+			int mask = keys.length - 1;
+			int i = hash(key) & mask;
+			for (; values[i] != null; i = (i + 1) & mask)
+				if (keys[i] == key)
+					return values[i];
+			IntList created = new IntList();
+			keys[i] = key;
+			values[i] = created;
+			if (++count * 2 > keys.length)
+				grow();
+			return created;
+		}
+
+		private void grow() {
+			long[] oldKeys = keys;
+			IntList[] oldValues = values;
+			keys = new long[oldKeys.length * 2];
+			values = new IntList[oldValues.length * 2];
+			int mask = keys.length - 1;
+			for (int j = 0; j < oldKeys.length; j++) {
+				if (oldValues[j] == null)
+					continue;
+				int i = hash(oldKeys[j]) & mask;
+				while (values[i] != null)
+					i = (i + 1) & mask;
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+
+		private static int hash(long key) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package assignment3;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and a latency histogram for one kind of database operation.
+ * <p>
+ * The histogram has a bucket for each power of two nanoseconds, so
+ * percentiles are accurate to within a factor of two. All counters are
+ * {@link LongAdder}s, so recording from several threads does not contend.
+ * <p>
+ * Reading the clock costs more than a lookup, so operations that are
+ * mostly lookups time only a random sample of calls; every call is still
+ * counted. Latencies are those of the sampled calls.
+ *
+ * @see DatabaseMetrics
+ *
+ * @author Ali Nawaz Maan
+ */
+final class OperationMetrics implements OperationMetricsMXBean {
+	private static final int BUCKETS = 64;
+	/** Start time of a call that is not timed */
+	static final long NOT_TIMED = Long.MIN_VALUE;
+
+	/** One in this many calls is timed */
+	private final int sampleRate;
+
+	private final LongAdder count = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder timed = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+	private final LongAdder records = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	/** Operations taking from 2^i to 2^(i+1) - 1 nanoseconds */
+	private final LongAdder[] histogram = new LongAdder[BUCKETS];
+
+	/**
+	 * @param sampleRate One in this many calls is timed; 1 to time every call
+	 */
+	OperationMetrics(int sampleRate) {
+		this.sampleRate = sampleRate;
+		for (int i = 0; i < BUCKETS; i++)
+			histogram[i] = new LongAdder();
+	}
+
+	/**
+	 * Called when an operation starts.
+	 * @return The start time to pass to {@link #record(long, long, long)}, or
+	 * {@link #NOT_TIMED} if this call is not in the sample
+	 */
+	long start() {
+		if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0)
+			return NOT_TIMED;
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records a completed operation.
+	 * @param startNanos The value returned by {@link #start()}
+	 * @param records Number of records read, written or returned
+	 * @param bytes Number of bytes read or written
+	 */
+	void record(long startNanos, long records, long bytes) {
+		count.increment();
+		if (startNanos != NOT_TIMED) {
+			long nanos = Math.max(0, System.nanoTime() - startNanos);
+			timed.increment();
+			totalNanos.add(nanos);
+			maxNanos.accumulate(nanos);
+			histogram[63 - Long.numberOfLeadingZeros(nanos | 1)].increment();
+		}
+		if (records != 0)
+			this.records.add(records);
+		if (bytes != 0)
+			this.bytes.add(bytes);
+	}
+
+	/**
+	 * Records an operation that threw an exception. Its latency is not recorded.
+	 */
+	void failed() {
+		failures.increment();
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	@Override
+	public double getMeanMicros() {
+		long n = timed.sum();
+		return n == 0 ? 0 : totalNanos.sum() / 1e3 / n;
+	}
+
+	@Override
+	public double getP50Micros() {
+		return percentile(0.5);
+	}
+
+	@Override
+	public double getP99Micros() {
+		return percentile(0.99);
+	}
+
+	@Override
+	public double getMaxMicros() {
+		return maxNanos.get() / 1e3;
+	}
+
+	@Override
+	public long getRecords() {
+		return records.sum();
+	}
+
+	@Override
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	@Override
+	public void reset() {
+		count.reset();
+		failures.reset();
+		timed.reset();
+		totalNanos.reset();
+		maxNanos.reset();
+		records.reset();
+		bytes.reset();
+		for (LongAdder bucket : histogram)
+			bucket.reset();
+	}
+
+	/**
+	 * @return The upper bound, in microseconds, of the bucket holding the given fraction of operations
+	 */
+	private double percentile(double fraction) {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = histogram[i].sum();
+			total += counts[i];
+		}
+		if (total == 0)
+			return 0;
+		long rank = (long) Math.ceil(fraction * total);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(Math.pow(2, i + 1), maxNanos.get()) / 1e3;
+		}
+		return getMaxMicros();
+	}
+}
@@ -0,0 +1,40 @@
+package assignment3;
+
+/**
+ * Management interface of the metrics of one kind of database operation,
+ * registered with the platform MBean server as
+ * {@code assignment3:type=CharacterDatabase,file=<database file>,operation=<operation>}.
+ *
+ * @see DatabaseMetrics
+ *
+ * @author Ali Nawaz Maan
+ */
+public interface OperationMetricsMXBean {
+
+	/** @return Number of operations that completed */
+	long getCount();
+
+	/** @return Number of operations that threw an exception */
+	long getFailures();
+
+	/** @return Mean latency of completed operations, in microseconds; of a sample of them for searches */
+	double getMeanMicros();
+
+	/** @return Median latency, in microseconds, as the upper bound of its histogram bucket */
+	double getP50Micros();
+
+	/** @return 99th percentile latency, in microseconds, as the upper bound of its histogram bucket */
+	double getP99Micros();
+
+	/** @return Longest latency, in microseconds */
+	double getMaxMicros();
+
+	/** @return Number of records read, written or returned */
+	long getRecords();
+
+	/** @return Number of bytes read or written */
+	long getBytes();
+
+	/** Clears the counters and the histogram. */
+	void reset();
+}
@@ -0,0 +1,306 @@
+package assignment3;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+
+/**
+ * A read-only view of a binary database file whose records are in name
+ * order and grouped into pages (see {@link CharacterFile#PAGED}).
+ * <p>
+ * Opening the file reads only the header, the string table and the page
+ * directory, which holds the offset and first name of each page. Each page
+ * is checked against its checksum and decompressed when it is read. Finding a
+ * character is a binary search of the directory followed by one page read.
+ * Pages are kept in a {@link BufferPool} of bounded size, so the memory
+ * used for records does not grow with the file, and files much larger than
+ * the heap can be opened. As the records are in name order, characters next
+ * to each other in the character list are usually on the same page.
+ *
+ * @see CharacterFile
+ *
+ * @author Ali Nawaz Maan
+ */
+final class PagedCharacterFile implements CharacterFileView {
+	private final FileChannel channel;
+	private final CharacterFile.Header header;
+	private final String[] strings;
+	/** The checksum of each page and of the index, null in files without them */
+	private final CharacterFile.Checksums checksums;
+
+	/** File offset of each page */
+	private final long[] pageOffsets;
+	/** Length of each page in bytes */
+	private final int[] pageLengths;
+	/** Number of the first record of each page; one more entry holds the record count */
+	private final int[] pageFirsts;
+	/** First name of each page, and its lower case form */
+	private final String[] firstNames;
+	private final String[] firstLower;
+
+	private final BufferPool<Integer, Page> pool;
+
+	private PagedCharacterFile(FileChannel channel, CharacterFile.Header header, String[] strings,
+			CharacterFile.Checksums checksums, int pageCount, long maxPoolBytes) {
+		this.channel = channel;
+		this.header = header;
+		this.strings = strings;
+		this.checksums = checksums;
+		pageOffsets = new long[pageCount];
+		pageLengths = new int[pageCount];
+		pageFirsts = new int[pageCount + 1];
+		firstNames = new String[pageCount];
+		firstLower = new String[pageCount];
+		pool = new BufferPool<Integer, Page>(maxPoolBytes, Page::size);
+	}
+
+	/**
+	 * Opens a binary database file with a page directory.
+	 * @param fileName File path to open
+	 * @param maxPoolBytes Bound on the size of the pages kept in memory
+	 * @param progress Receives the number of bytes read once the directory has been read
+	 * @return The opened file
+	 * @throws FileNotFoundException If the file does not exist
+	 * @throws CorruptDatabaseException If the file is not a valid database with a page directory
+	 * @throws CancellationException If the progress listener cancels the open
+	 * @throws IOException If the file cannot be read
+	 */
+	static PagedCharacterFile open(String fileName, long maxPoolBytes, DatabaseProgress progress)
+			throws IOException {
+		FileChannel channel = new FileInputStream(fileName).getChannel();
+		try {
+			CharacterFile.Input in = new CharacterFile.Input(channel, 0);
+			CharacterFile.Header header = CharacterFile.readHeader(in);
+			if ((header.flags & CharacterFile.PAGED) == 0 || header.indexOffset == 0)
+				throw new CorruptDatabaseException("file has no page directory");
+			CharacterFile.Checksums checksums = CharacterFile.readChecksums(channel, header);
+			String[] strings = CharacterFile.readStrings(in, header, checksums);
+
+			long size = channel.size();
+			ByteBuffer trailer = ByteBuffer.allocate(8);
+			while (trailer.hasRemaining())
+				if (channel.read(trailer, size - 8 + trailer.position()) < 0)
+					throw new CorruptDatabaseException("unexpected end of file");
+			long pagesOffset = trailer.getLong(0);
+			if (pagesOffset < header.indexOffset || pagesOffset > size - 12)
+				throw new CorruptDatabaseException("bad page directory offset");
+
+			in = new CharacterFile.Input(channel, pagesOffset);
+			in.startChecksum();
+			in.ensure(4);
+			int pageCount = in.buffer().getInt();
+			if (pageCount < 0 || pageCount > header.recordCount
+					|| checksums != null && pageCount != checksums.blockCount())
+				throw new CorruptDatabaseException("bad page count " + pageCount);
+			PagedCharacterFile file = new PagedCharacterFile(channel, header, strings, checksums, pageCount,
+					maxPoolBytes);
+			for (int i = 0; i < pageCount; i++) {
+				in.ensure(8 + 4 + 4 + 4);
+				ByteBuffer buffer = in.buffer();
+				file.pageOffsets[i] = buffer.getLong();
+				file.pageLengths[i] = buffer.getInt();
+				file.pageFirsts[i] = buffer.getInt();
+				int length = buffer.getInt();
+				if (file.pageLengths[i] <= 0 || length <= 0
+						|| file.pageFirsts[i] < (i == 0 ? 0 : file.pageFirsts[i - 1] + 1)
+						|| checksums != null && (file.pageOffsets[i] != checksums.blockOffsets[i]
+								|| file.pageLengths[i] != checksums.blockLengths[i]))
+					throw new CorruptDatabaseException("bad page " + i);
+				in.ensure(length);
+				file.firstNames[i] = CharacterFile.readUtf8(in.buffer(), length);
+				file.firstLower[i] = NameIndex.lower(file.firstNames[i]);
+			}
+			int crc = in.endChecksum();
+			if (checksums != null)
+				CharacterFile.Checksums.verify("page directory", checksums.pages, crc);
+			file.pageFirsts[pageCount] = header.recordCount;
+			CharacterFile.report(progress, size, size, Collections.<String>emptyList());
+			return file;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public boolean contains(String name) {
+		try {
+			Page page = pageOf(name);
+			return page != null && page.indexOf(name) >= 0;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Reads the names from the name index, without reading any page. The
+	 * names are not kept.
+	 * @throws UncheckedIOException If the index cannot be read or does not match its checksum
+	 */
+	@Override
+	public List<String> names() {
+		try {
+			CharacterFile.Input in = new CharacterFile.Input(channel, header.indexOffset);
+			in.startChecksum();
+			in.ensure(4);
+			int count = in.buffer().getInt();
+			List<String> names = new ArrayList<String>(count);
+			for (int i = 0; i < count; i++) {
+				in.ensure(4);
+				int length = in.buffer().getInt();
+				in.ensure(length + 8);
+				names.add(CharacterFile.readUtf8(in.buffer(), length));
+				in.buffer().getLong(); // record offset
+			}
+			int crc = in.endChecksum();
+			if (checksums != null)
+				CharacterFile.Checksums.verify("index", checksums.index, crc);
+			return names;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public int size() {
+		return header.recordCount;
+	}
+
+	@Override
+	public Character read(String name) throws IOException {
+		Page page = pageOf(name);
+		int i = page == null ? -1 : page.indexOf(name);
+		if (i < 0)
+			return null;
+		ByteBuffer record = ByteBuffer.wrap(page.data, page.starts[i], page.data.length - page.starts[i]);
+		return CharacterFile.decode(record, strings);
+	}
+
+	/**
+	 * @return The page that would hold the given name, or null if the name
+	 * sorts before the first page
+	 */
+	private Page pageOf(String name) throws IOException {
+		String lower = NameIndex.lower(name);
+		int lo = 0, hi = firstNames.length - 1, found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (NameIndex.compare(firstLower[mid], firstNames[mid], lower, name) <= 0) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return found < 0 ? null : page(found);
+	}
+
+	private Page page(int i) throws IOException {
+		return pool.get(i, this::readPage);
+	}
+
+	/**
+	 * Reads a page, checks it against its checksum, decompresses it and finds
+	 * the name and body of each of its records.
+	 */
+	private Page readPage(int i) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(pageLengths[i]);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, pageOffsets[i] + buffer.position()) < 0)
+				throw new CorruptDatabaseException("unexpected end of file");
+		buffer.flip();
+		if (checksums != null)
+			CharacterFile.Checksums.verify("page " + i, checksums.blockCrcs[i], Crc32c.of(buffer, 0, pageLengths[i]));
+		buffer = header.codec.decompress(buffer, checksums == null ? pageLengths[i] : checksums.blockRawLengths[i]);
+
+		int count = pageFirsts[i + 1] - pageFirsts[i];
+		Page page = new Page(buffer.array(), count);
+		try {
+			for (int r = 0; r < count; r++) {
+				int length = buffer.getInt();
+				int start = buffer.position();
+				if (length <= 0 || length > buffer.remaining())
+					throw new CorruptDatabaseException("bad record length " + length);
+				buffer.get(); // kind
+				int nameLength = buffer.getInt();
+				if (nameLength <= 0 || nameLength > length - 5)
+					throw new CorruptDatabaseException("bad record in page " + i);
+				page.starts[r] = start;
+				page.names[r] = CharacterFile.readUtf8(buffer, nameLength);
+				page.lowerNames[r] = NameIndex.lower(page.names[r]);
+				buffer.position(start + length);
+			}
+		} catch (RuntimeException e) { // buffer underflow
+			throw new CorruptDatabaseException("truncated page " + i);
+		}
+		return page;
+	}
+
+	/**
+	 * @return The pool holding the pages read
+	 */
+	BufferPool<Integer, Page> pool() {
+		return pool;
+	}
+
+	@Override
+	public void close() throws IOException {
+		pool.clear();
+		channel.close();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Paged file: %d characters in %d pages; %s", header.recordCount, firstNames.length, pool);
+	}
+
+	/**
+	 * A page read from the file: its bytes and, for each record, the name and
+	 * the offset of the body.
+	 */
+	static final class Page {
+		final byte[] data;
+		final int[] starts;
+		final String[] names;
+		final String[] lowerNames;
+
+		Page(byte[] data, int count) {
+			this.data = data;
+			starts = new int[count];
+			names = new String[count];
+			lowerNames = new String[count];
+		}
+
+		/**
+		 * @return The position of the name in the page, or a negative number if it is not there
+		 */
+		int indexOf(String name) {
+			String lower = NameIndex.lower(name);
+			int lo = 0, hi = names.length - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				int c = NameIndex.compare(lowerNames[mid], names[mid], lower, name);
+				if (c < 0)
+					lo = mid + 1;
+				else if (c > 0)
+					hi = mid - 1;
+				else
+					return mid;
+			}
+			return -1;
+		}
+
+		/**
+		 * @return Approximate size of the page in memory
+		 */
+		long size() {
+			long size = data.length + 16L * starts.length;
+			for (String name : names)
+				size += 2L * (48 + 2 * name.length());
+			return size;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package assignment3;
+
+import java.util.*;
+
+/**
+ * A secondary index of super characters by power ranking.
+ * <p>
+ * Each ranking value, including {@link SuperCharacter#UNRANKABLE}, has a
+ * bucket of names sorted in index order (see {@link NameIndex#ORDER}), and
+ * the buckets are kept in a sorted map. A range query walks only the buckets
+ * in range, so it takes time proportional to the number of names returned;
+ * a count query only adds up bucket sizes.
+ * <p>
+ * Access is synchronized on the index.
+ *
+ * @see CharacterDatabase#findRanked(int, int)
+ *
+ * @author Ali Nawaz Maan
+ */
+class RankIndex {
+	/** Ranking of each indexed super character */
+	private final Map<String, Integer> rankings = new HashMap<String, Integer>();
+	private final NavigableMap<Integer, NavigableSet<String>> buckets = new TreeMap<Integer, NavigableSet<String>>();
+
+	/**
+	 * Builds an index over the super characters among the given characters.
+	 * @param characters Characters to index
+	 */
+	RankIndex(Collection<Character> characters) {
+		for (Character c : characters)
+			put(c);
+	}
+
+	/**
+	 * Indexes a character, replacing any character with the same name.
+	 * Characters that are not super characters are not indexed.
+	 * @param c Character to index
+	 */
+	synchronized void put(Character c) {
+		if (!(c instanceof SuperCharacter)) {
+			remove(c.getName());
+			return;
+		}
+		int ranking = ((SuperCharacter) c).getPowerRanking();
+		Integer old = rankings.put(c.getName(), ranking);
+		if (old != null) {
+			if (old == ranking)
+				return;
+			removeFromBucket(old, c.getName());
+		}
+		NavigableSet<String> bucket = buckets.get(ranking);
+		if (bucket == null) {
+			bucket = new TreeSet<String>(NameIndex.ORDER);
+			buckets.put(ranking, bucket);
+		}
+		bucket.add(c.getName());
+	}
+
+	/**
+	 * Removes a character from the index.
+	 * @param name Name of the character to remove
+	 */
+	synchronized void remove(String name) {
+		Integer old = rankings.remove(name);
+		if (old != null)
+			removeFromBucket(old, name);
+	}
+
+	private void removeFromBucket(int ranking, String name) {
+		NavigableSet<String> bucket = buckets.get(ranking);
+		bucket.remove(name);
+		if (bucket.isEmpty())
+			buckets.remove(ranking);
+	}
+
+	/**
+	 * Finds the super characters ranked from min to max, inclusive.
+	 * @param min Lowest ranking to find
+	 * @param max Highest ranking to find
+	 * @return Names of the super characters, highest ranking first, in index order within a ranking
+	 */
+	synchronized List<String> range(int min, int max) {
+		if (min > max)
+			return new ArrayList<String>();
+		Collection<NavigableSet<String>> inRange = buckets.subMap(min, true, max, true).descendingMap().values();
+		List<String> result = new ArrayList<String>(count(inRange));
+		for (NavigableSet<String> bucket : inRange)
+			result.addAll(bucket);
+		return result;
+	}
+
+	/**
+	 * Counts the super characters ranked from min to max, inclusive.
+	 * @param min Lowest ranking to count
+	 * @param max Highest ranking to count
+	 * @return The number of super characters in range
+	 */
+	synchronized int count(int min, int max) {
+		return min > max ? 0 : count(buckets.subMap(min, true, max, true).values());
+	}
+
+	private static int count(Collection<NavigableSet<String>> inRange) {
+		int count = 0;
+		for (NavigableSet<String> bucket : inRange)
+			count += bucket.size();
+		return count;
+	}
+}
@@ -0,0 +1,505 @@
+package assignment3;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A database stored as several segment files, with characters partitioned
+ * across them by the hash of their name.
+ * <p>
+ * The database file itself is a small manifest:
+ * <pre>
+ * manifest: int magic ("CHDS"), short version, short flags, int shardCount, long generation
+ * </pre>
+ * Segment i of a generation is the file named after the database file with
+ * ".shard&lt;i&gt;.g&lt;generation&gt;" appended, and is an ordinary binary
+ * database file (see {@link CharacterFile}) holding the characters of that
+ * shard in name order. A snapshot is written as a new generation of
+ * segments; the manifest is then replaced in one atomic move, so the
+ * database is always either the old or the new generation, and the old
+ * segments are deleted last.
+ * <p>
+ * The segments are read, written and opened in parallel on
+ * {@link CharacterFile#POOL}, each segment's blocks being decoded on the
+ * thread reading it. Opened in read-mostly mode, the segments
+ * form one {@link CharacterFileView}, and a lookup goes straight to the
+ * segment of the name's shard.
+ *
+ * @see CharacterDatabase#CharacterDatabase(String, int)
+ *
+ * @author Ali Nawaz Maan
+ */
+final class ShardedCharacterFile implements CharacterFileView {
+	/** "CHDS" */
+	static final int MAGIC = 0x43484453;
+	/** Current manifest version */
+	static final short VERSION = 1;
+	/** Size of the manifest in bytes */
+	static final int MANIFEST_SIZE = 20;
+
+	private final CharacterFileView[] segments;
+
+	private ShardedCharacterFile(CharacterFileView[] segments) {
+		this.segments = segments;
+	}
+
+	/**
+	 * The shard count and generation read from a manifest.
+	 */
+	static final class Manifest {
+		final int shards;
+		final long generation;
+
+		Manifest(int shards, long generation) {
+			this.shards = shards;
+			this.generation = generation;
+		}
+	}
+
+	/**
+	 * Checks whether the given file is a sharded database manifest.
+	 * @param fileName File path to check
+	 * @return True if the file starts with the manifest's magic number
+	 * @throws FileNotFoundException If the file does not exist
+	 * @throws IOException If the file cannot be read
+	 */
+	static boolean isShardedFile(String fileName) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(fileName))) {
+			return in.readInt() == MAGIC;
+		} catch (EOFException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads and checks a manifest.
+	 * @param fileName File path of the manifest
+	 * @return The manifest
+	 * @throws CorruptDatabaseException If the file is not a valid manifest
+	 * @throws IOException If the file cannot be read
+	 */
+	static Manifest readManifest(String fileName) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(fileName))) {
+			if (in.readInt() != MAGIC)
+				throw new CorruptDatabaseException("not a sharded database");
+			short version = in.readShort();
+			if (version != VERSION)
+				throw new CorruptDatabaseException("unsupported manifest version " + version);
+			in.readShort(); // flags
+			int shards = in.readInt();
+			long generation = in.readLong();
+			if (shards < 1 || generation < 1)
+				throw new CorruptDatabaseException("bad manifest");
+			return new Manifest(shards, generation);
+		} catch (EOFException e) {
+			throw new CorruptDatabaseException("truncated manifest");
+		}
+	}
+
+	/**
+	 * @return The file path of a segment
+	 */
+	static String segmentName(String fileName, int shard, long generation) {
+		return fileName + ".shard" + shard + ".g" + generation;
+	}
+
+	/**
+	 * @param name A character name
+	 * @param shards Number of shards
+	 * @return The shard holding the character with that name
+	 */
+	static int shardOf(String name, int shards) {
+		int h = name.hashCode();
+		return ((h ^ (h >>> 16)) & Integer.MAX_VALUE) % shards;
+	}
+
+	/**
+	 * Splits names by shard, keeping their order.
+	 * @param names Names to split
+	 * @param shards Number of shards
+	 * @return The names of each shard
+	 */
+	static List<List<String>> partition(List<String> names, int shards) {
+		List<List<String>> parts = new ArrayList<List<String>>(shards);
+		for (int i = 0; i < shards; i++)
+			parts.add(new ArrayList<String>(names.size() / shards + 16));
+		for (String name : names)
+			parts.get(shardOf(name, shards)).add(name);
+		return parts;
+	}
+
+	/**
+	 * @param fileName File path of the manifest
+	 * @return The total size in bytes of the manifest and its segments
+	 * @throws IOException If the manifest cannot be read
+	 */
+	static long size(String fileName) throws IOException {
+		Manifest manifest = readManifest(fileName);
+		long size = MANIFEST_SIZE;
+		for (int i = 0; i < manifest.shards; i++)
+			size += new File(segmentName(fileName, i, manifest.generation)).length();
+		return size;
+	}
+
+	/**
+	 * Reads every segment in parallel, then passes the characters of each
+	 * segment to the sink, also in parallel. If another database replaces
+	 * the generation being read, the new one is read instead; the sink is
+	 * only called once every segment of a generation has been read.
+	 * @param fileName File path of the manifest
+	 * @param progress Receives the bytes read over all segments and the names read
+	 * @param sink Receives the characters of each segment; called from several threads at once
+	 * @return The number of characters read
+	 * @throws CorruptDatabaseException If a segment is not a valid database
+	 * @throws CancellationException If the progress listener cancels the read
+	 * @throws IOException If a segment cannot be read
+	 */
+	static int read(String fileName, DatabaseProgress progress, Consumer<List<Character>> sink) throws IOException {
+		while (true) {
+			Manifest manifest = readManifest(fileName);
+			try {
+				return read(fileName, manifest, progress, sink);
+			} catch (FileNotFoundException e) {
+				if (readManifest(fileName).generation == manifest.generation)
+					throw e;
+				// another database wrote a new generation and deleted this one
+			}
+		}
+	}
+
+	private static int read(String fileName, Manifest manifest, DatabaseProgress progress,
+			Consumer<List<Character>> sink) throws IOException {
+		long[] sizes = new long[manifest.shards];
+		for (int i = 0; i < sizes.length; i++)
+			sizes[i] = new File(segmentName(fileName, i, manifest.generation)).length();
+		SharedProgress shared = new SharedProgress(progress, sizes);
+
+		List<Callable<List<Character>>> reads = new ArrayList<Callable<List<Character>>>(manifest.shards);
+		for (int i = 0; i < manifest.shards; i++) {
+			final String segment = segmentName(fileName, i, manifest.generation);
+			final DatabaseProgress part = shared.part(i);
+			reads.add(() -> CharacterFile.read(segment, part));
+		}
+		List<Callable<Integer>> sinks = new ArrayList<Callable<Integer>>(manifest.shards);
+		for (final List<Character> characters : runAll(reads)) {
+			sinks.add(() -> {
+				sink.accept(characters);
+				return characters.size();
+			});
+		}
+		int count = 0;
+		for (int n : runAll(sinks))
+			count += n;
+		return count;
+	}
+
+	/**
+	 * Opens every segment in parallel in read-mostly mode. Segments with a
+	 * page directory are opened paged, each with an equal part of the buffer
+	 * pool bound; others are memory-mapped.
+	 * @param fileName File path of the manifest
+	 * @param maxPoolBytes Bound on the size of the pages kept in memory over all segments
+	 * @param progress Receives the bytes read over all segments and the names read
+	 * @return The opened segments as one view
+	 * @throws CorruptDatabaseException If a segment is not a valid database
+	 * @throws CancellationException If the progress listener cancels the open
+	 * @throws IOException If a segment cannot be read
+	 */
+	static ShardedCharacterFile open(String fileName, long maxPoolBytes, DatabaseProgress progress)
+			throws IOException {
+		while (true) {
+			Manifest manifest = readManifest(fileName);
+			try {
+				return open(fileName, manifest, maxPoolBytes, progress);
+			} catch (FileNotFoundException e) {
+				if (readManifest(fileName).generation == manifest.generation)
+					throw e;
+			}
+		}
+	}
+
+	private static ShardedCharacterFile open(String fileName, Manifest manifest, long maxPoolBytes,
+			DatabaseProgress progress) throws IOException {
+		long[] sizes = new long[manifest.shards];
+		for (int i = 0; i < sizes.length; i++)
+			sizes[i] = new File(segmentName(fileName, i, manifest.generation)).length();
+		SharedProgress shared = new SharedProgress(progress, sizes);
+
+		final CharacterFileView[] segments = new CharacterFileView[manifest.shards];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(manifest.shards);
+		for (int i = 0; i < manifest.shards; i++) {
+			final int shard = i;
+			final String segment = segmentName(fileName, i, manifest.generation);
+			final DatabaseProgress part = shared.part(i);
+			final long poolBytes = maxPoolBytes / manifest.shards;
+			tasks.add(() -> {
+				segments[shard] = CharacterFile.isPagedFile(segment)
+						? PagedCharacterFile.open(segment, poolBytes, part)
+						: MappedCharacterFile.open(segment, part);
+				return null;
+			});
+		}
+		try {
+			runAll(tasks);
+		} catch (IOException | RuntimeException e) {
+			for (CharacterFileView segment : segments)
+				if (segment != null)
+					segment.close();
+			throw e;
+		}
+		return new ShardedCharacterFile(segments);
+	}
+
+	/**
+	 * Writes the characters of each shard to a new generation of segments in
+	 * parallel, then replaces the manifest and deletes the other generations.
+	 * If a segment cannot be written, the database file is left as it was.
+	 * @param fileName File path of the manifest
+	 * @param shards The characters of each shard, each in name order
+	 * @param codec Codec compressing each block of records
+	 * @param progress Receives the number of records written over all segments
+	 * @param metrics Records deleting the other generations as a cleanup
+	 * @return The number of bytes written
+	 * @throws CancellationException If the progress listener cancels the write
+	 * @throws IOException If a segment or the manifest cannot be written
+	 */
+	static long write(String fileName, List<? extends Collection<Character>> shards, CompressionCodec codec,
+			DatabaseProgress progress, DatabaseMetrics metrics) throws IOException {
+		File file = new File(fileName);
+		final long generation = file.exists() && isShardedFile(fileName) ? readManifest(fileName).generation + 1 : 1;
+		long[] counts = new long[shards.size()];
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = shards.get(i).size();
+		SharedProgress shared = new SharedProgress(progress, counts);
+
+		List<Callable<Long>> tasks = new ArrayList<Callable<Long>>(shards.size());
+		for (int i = 0; i < shards.size(); i++) {
+			final String segment = segmentName(fileName, i, generation);
+			final Collection<Character> characters = shards.get(i);
+			final DatabaseProgress part = shared.part(i);
+			tasks.add(() -> CharacterFile.write(segment, characters, codec, part));
+		}
+		long size = MANIFEST_SIZE;
+		try {
+			for (long bytes : runAll(tasks))
+				size += bytes;
+		} catch (IOException | RuntimeException e) {
+			for (int i = 0; i < shards.size(); i++)
+				new File(segmentName(fileName, i, generation)).delete();
+			throw e;
+		}
+
+		Path target = file.toPath().toAbsolutePath();
+		CharacterFile.syncDirectory(target.getParent());
+		Path temp = CharacterFile.createTempFile(target);
+		try {
+			try (FileOutputStream stream = new FileOutputStream(temp.toFile())) {
+				DataOutputStream out = new DataOutputStream(stream);
+				out.writeInt(MAGIC);
+				out.writeShort(VERSION);
+				out.writeShort(0);
+				out.writeInt(shards.size());
+				out.writeLong(generation);
+				out.flush();
+				stream.getFD().sync();
+			}
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		CharacterFile.syncDirectory(target.getParent());
+		deleteOtherGenerations(target, generation, metrics);
+		return size;
+	}
+
+	/**
+	 * Deletes the segments of every generation but the given one. Segments
+	 * that cannot be deleted, such as ones still open on some systems, are
+	 * left for a later write.
+	 */
+	private static void deleteOtherGenerations(Path target, long generation, DatabaseMetrics metrics) {
+		final String prefix = target.getFileName() + ".shard";
+		Pattern segment = Pattern.compile("\\d+\\.g(\\d+)");
+		long start = metrics.start(DatabaseMetrics.Operation.CLEANUP);
+		int deleted = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(target.getParent(),
+				p -> p.getFileName().toString().startsWith(prefix))) {
+			for (Path p : files) {
+				Matcher m = segment.matcher(p.getFileName().toString().substring(prefix.length()));
+				if (m.matches() && !m.group(1).equals(Long.toString(generation))) {
+					try {
+						if (Files.deleteIfExists(p))
+							deleted++;
+					} catch (IOException e) {
+						// deleted by a later write
+					}
+				}
+			}
+		} catch (IOException e) {
+			metrics.failed(DatabaseMetrics.Operation.CLEANUP);
+			e.printStackTrace();
+			return;
+		}
+		metrics.record(DatabaseMetrics.Operation.CLEANUP, start, deleted, 0);
+	}
+
+	/**
+	 * Runs the tasks on the pool and waits for all of them.
+	 * @return The result of each task, in order
+	 * @throws IOException If a task threw one; the other tasks still finish
+	 */
+	private static <T> List<T> runAll(List<Callable<T>> tasks) throws IOException {
+		// failures are kept as thrown, as the pool wraps the exceptions it rethrows
+		final List<T> results = new ArrayList<T>(Collections.<T>nCopies(tasks.size(), null));
+		final Throwable[] failures = new Throwable[tasks.size()];
+		List<Callable<Void>> wrapped = new ArrayList<Callable<Void>>(tasks.size());
+		for (int i = 0; i < tasks.size(); i++) {
+			final int task = i;
+			final Callable<T> call = tasks.get(i);
+			wrapped.add(() -> {
+				try {
+					results.set(task, call.call());
+				} catch (Throwable e) {
+					failures[task] = e;
+				}
+				return null;
+			});
+		}
+		try {
+			for (Future<Void> future : CharacterFile.POOL.invokeAll(wrapped))
+				future.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		Throwable failure = null;
+		for (Throwable t : failures)
+			if (failure == null)
+				failure = t;
+		if (failure instanceof Error)
+			throw (Error) failure;
+		if (failure instanceof IOException)
+			throw (IOException) failure;
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure != null)
+			throw new IOException(failure);
+		return results;
+	}
+
+	/**
+	 * @return The number of segments
+	 */
+	int shards() {
+		return segments.length;
+	}
+
+	@Override
+	public boolean contains(String name) {
+		return segments[shardOf(name, segments.length)].contains(name);
+	}
+
+	/**
+	 * Reads the names of the segments in parallel. The names are in name
+	 * order within each segment only.
+	 */
+	@Override
+	public Collection<String> names() {
+		List<Callable<Collection<String>>> tasks = new ArrayList<Callable<Collection<String>>>(segments.length);
+		for (final CharacterFileView segment : segments)
+			tasks.add(segment::names);
+		List<String> names = new ArrayList<String>(size());
+		try {
+			for (Collection<String> part : runAll(tasks))
+				names.addAll(part);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return names;
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (CharacterFileView segment : segments)
+			size += segment.size();
+		return size;
+	}
+
+	@Override
+	public Character read(String name) throws IOException {
+		return segments[shardOf(name, segments.length)].read(name);
+	}
+
+	@Override
+	public void close() throws IOException {
+		IOException failure = null;
+		for (CharacterFileView segment : segments) {
+			try {
+				segment.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder out = new StringBuilder(String.format("Sharded file: %d characters in %d segments",
+				size(), segments.length));
+		for (CharacterFileView segment : segments)
+			out.append("\n  ").append(segment);
+		return out.toString();
+	}
+
+	/**
+	 * Adds up the progress of the segments read or written in parallel and
+	 * passes it to one listener, one report at a time. Once the listener
+	 * cancels, every segment is cancelled.
+	 */
+	private static final class SharedProgress {
+		private final DatabaseProgress progress;
+		private final long[] done;
+		private final long total;
+		private long sum;
+		private boolean cancelled;
+
+		/**
+		 * @param totals The expected total of each segment
+		 */
+		SharedProgress(DatabaseProgress progress, long[] totals) {
+			this.progress = progress;
+			done = new long[totals.length];
+			long total = 0;
+			for (long t : totals)
+				total += t;
+			this.total = total;
+		}
+
+		/**
+		 * @return The listener for one segment
+		 */
+		DatabaseProgress part(final int shard) {
+			return (done, total, names) -> update(shard, done, names);
+		}
+
+		private synchronized boolean update(int shard, long segmentDone, List<String> names) {
+			if (cancelled)
+				return false;
+			sum += segmentDone - done[shard];
+			done[shard] = segmentDone;
+			cancelled = !progress.update(Math.min(sum, total), total, names);
+			return !cancelled;
+		}
+	}
+}
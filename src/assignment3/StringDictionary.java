@@ -0,0 +1,102 @@
+package assignment3;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The image paths, traits and powers of a database's characters, each
+ * stored once and given an int id.
+ * <p>
+ * The same few thousand phrases repeat across the characters of a
+ * database, so the read-only snapshots the database holds keep the ids of
+ * their traits and powers (see {@link DictionarySet}) and share one string
+ * per phrase, rather than each holding its own strings and hash set.
+ * <p>
+ * Ids are given in the order strings are first seen and are never reused.
+ * Strings are not removed when the last character using them is, so the
+ * dictionary only grows; it starts empty again when the database is reloaded.
+ * Lookups do not lock, and adding a string locks only the dictionary.
+ *
+ * @see Character#freeze(StringDictionary)
+ *
+ * @author Ali Nawaz Maan
+ */
+final class StringDictionary {
+	private final Map<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	/** The string of each id; only the first size entries are used */
+	private volatile String[] strings = new String[64];
+	private int size;
+
+	/**
+	 * Gets the id of a string, adding it to the dictionary if it is new.
+	 * @param s A string, not null
+	 * @return The id of the string
+	 */
+	int id(String s) {
+		Integer id = ids.get(s);
+		if (id != null)
+			return id;
+		synchronized (this) {
+			id = ids.get(s);
+			if (id != null)
+				return id;
+			if (size == strings.length)
+				strings = Arrays.copyOf(strings, size * 2);
+			strings[size] = s;
+			// published after the array, so a reader that finds the id finds the string
+			ids.put(s, size);
+			return size++;
+		}
+	}
+
+	/**
+	 * @param s A string
+	 * @return The id of the string, or -1 if it is not in the dictionary
+	 */
+	int find(String s) {
+		Integer id = ids.get(s);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @param id An id given by this dictionary
+	 * @return The string with that id
+	 */
+	String get(int id) {
+		return strings[id];
+	}
+
+	/**
+	 * @param s A string, or null
+	 * @return The dictionary's copy of the string, adding it if it is new, or null
+	 */
+	String intern(String s) {
+		return s == null ? null : get(id(s));
+	}
+
+	/**
+	 * @param set A set of strings, none of them null
+	 * @return A read-only set of the same strings, holding their ids
+	 */
+	DictionarySet encode(Set<String> set) {
+		if (set instanceof DictionarySet && ((DictionarySet) set).dictionary() == this)
+			return (DictionarySet) set;
+		int[] setIds = new int[set.size()];
+		int i = 0;
+		for (String s : set)
+			setIds[i++] = id(s);
+		return new DictionarySet(this, setIds);
+	}
+
+	/**
+	 * @return The number of strings in the dictionary
+	 */
+	synchronized int size() {
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return "String dictionary: " + size() + " strings";
+	}
+}
@@ -23,6 +23,8 @@ import java.util.*;
  * @version (11/10/17)
  */
 public class SuperCharacter extends Character {
+	/** Pinned so that databases written before snapshots were added still load */
+	private static final long serialVersionUID = 8335648563782109426L;
 	/** A special value to represent unrankable */
 	public static final int UNRANKABLE = Integer.MAX_VALUE;
 	/** A special value to represent an invalid power ranking  */
@@ -55,7 +57,7 @@ public class SuperCharacter extends Character {
 	public SuperCharacter(String n, String d, int p) throws IllegalPowerRankingException {
 		super(n, d);
 		setPowerRanking(p);
-		powers = new HashSet<String>();
+		powers = new CompactStringSet();
 	}
 	
 	/**
@@ -71,7 +73,7 @@ public class SuperCharacter extends Character {
 	public SuperCharacter(String n, String d, String i, int p) throws IllegalPowerRankingException {
 		super(n, d, i);
 		setPowerRanking(p);
-		powers = new HashSet<String>();
+		powers = new CompactStringSet();
 	}
 
 	/**
@@ -81,6 +83,7 @@ public class SuperCharacter extends Character {
 	 * @param p The super-character's power to add.
 	 */
 	public void addPower(String p) { 
+		checkMutable();
 		powers.add(p); 
 	}
 	
@@ -90,6 +93,7 @@ public class SuperCharacter extends Character {
 	 * @param p The super-character's power to remove.
 	 */
 	public void removePower(String p) { 
+		checkMutable();
 		powers.remove(p); 
 	}
 		
@@ -110,12 +114,23 @@ public class SuperCharacter extends Character {
 	 * @throws IllegalPowerRankingException
 	 */
 	public void setPowerRanking(int p) throws IllegalPowerRankingException {
+		checkMutable();
 		if (validPowerRanking(p))
 			powerRanking = p;
 		else 
 			throw new IllegalPowerRankingException ("Warning.  Invalid value for power ranking.");
 	}
 
+	/**
+	 * As for Character.freeze(dictionary), also keeping the powers in the dictionary.
+	 */
+	@Override
+	Character freeze(StringDictionary dictionary) {
+		if (!isFrozen())
+			powers = dictionary.encode(powers);
+		return super.freeze(dictionary);
+	}
+
 	@Override
 	public String toString() {
 		String s = super.toString() +"\n\n" + "Powers:\n" + powers;
@@ -175,13 +190,7 @@ public class SuperCharacter extends Character {
 	 * @return True if validation passed, false otherwise.
 	 */
 	protected boolean comparePowers(Set<String> expectedPowers)  {
-		if (powers.size() != expectedPowers.size())
-			return false;
-		for (String power : expectedPowers) {
-			if (!powers.contains(power))
-				return false;
-		}
-		return true;
+		return powers.size() == expectedPowers.size() && powers.containsAll(expectedPowers);
 	}
 
 	@Override
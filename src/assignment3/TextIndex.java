@@ -0,0 +1,193 @@
+package assignment3;
+
+import java.util.*;
+
+/**
+ * An inverted index over the descriptions, traits and powers of characters.
+ * <p>
+ * Every character is given an id, and every token of its text (see
+ * {@link TextQuery#tokens(String)}) maps to a posting list of the ids of
+ * the characters containing it. Ids are handed out in increasing order, so
+ * posting lists stay sorted as they are appended to. A character that is
+ * updated or removed gives up its id; the old id stays in the posting lists
+ * until dead ids outnumber live ones, when the lists are compacted.
+ * <p>
+ * Access is synchronized on the index.
+ *
+ * @see CharacterDatabase#findCharacters(TextQuery)
+ *
+ * @author Ali Nawaz Maan
+ */
+class TextIndex {
+	/** Ranking recorded for plain characters, which no rank filter matches */
+	private static final int NOT_RANKED = SuperCharacter.INVALID;
+
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+	/** Names by id; null for the ids of removed characters */
+	private String[] names = new String[16];
+	/** Power rankings by id */
+	private int[] rankings = new int[16];
+	/** Number of ids handed out, including those of removed characters */
+	private int nextId;
+	private final Map<String, IntList> postings = new HashMap<String, IntList>();
+
+	/**
+	 * Builds an index over the given characters.
+	 * @param characters Characters to index, without duplicate names
+	 */
+	TextIndex(Collection<Character> characters) {
+		for (Character c : characters)
+			put(c);
+	}
+
+	/**
+	 * @return The number of characters in the index
+	 */
+	synchronized int size() {
+		return ids.size();
+	}
+
+	/**
+	 * @return The number of distinct tokens in the index
+	 */
+	synchronized int tokenCount() {
+		return postings.size();
+	}
+
+	/**
+	 * Indexes a character, replacing any character with the same name.
+	 * @param c Character to index
+	 */
+	synchronized void put(Character c) {
+		remove(c.getName());
+		if (nextId == names.length) {
+			names = Arrays.copyOf(names, nextId * 2);
+			rankings = Arrays.copyOf(rankings, nextId * 2);
+		}
+		int id = nextId++;
+		names[id] = c.getName();
+		rankings[id] = c instanceof SuperCharacter ? ((SuperCharacter) c).getPowerRanking() : NOT_RANKED;
+		ids.put(c.getName(), id);
+
+		Set<String> tokens = new HashSet<String>(TextQuery.tokens(c.getDescription()));
+		for (String trait : c.traits)
+			tokens.addAll(TextQuery.tokens(trait));
+		if (c instanceof SuperCharacter)
+			for (String power : ((SuperCharacter) c).powers)
+				tokens.addAll(TextQuery.tokens(power));
+		for (String token : tokens) {
+			IntList posting = postings.get(token);
+			if (posting == null) {
+				posting = new IntList();
+				postings.put(token, posting);
+			}
+			posting.add(id);
+		}
+	}
+
+	/**
+	 * Removes a character from the index.
+	 * @param name Name of the character to remove
+	 */
+	synchronized void remove(String name) {
+		Integer id = ids.remove(name);
+		if (id == null)
+			return;
+		names[id] = null;
+		if (nextId > 1024 && nextId > 2 * ids.size())
+			compact();
+	}
+
+	/**
+	 * Finds the characters matching a query.
+	 * @param query Query to run
+	 * @return The names of the matching characters, in index order (see {@link NameIndex#ORDER})
+	 */
+	synchronized List<String> find(TextQuery query) {
+		BitSet matches = new BitSet(nextId);
+		if (query.clauses().isEmpty()) {
+			// a bare rank filter matches every character in range
+			if (query.isRankFiltered())
+				for (int id = 0; id < nextId; id++)
+					if (names[id] != null && inRange(id, query))
+						matches.set(id);
+		} else {
+			for (List<String> clause : query.clauses())
+				match(clause, query, matches);
+		}
+
+		List<String> result = new ArrayList<String>(matches.cardinality());
+		for (int id = matches.nextSetBit(0); id >= 0; id = matches.nextSetBit(id + 1))
+			result.add(names[id]);
+		Collections.sort(result, NameIndex.ORDER);
+		return result;
+	}
+
+	/**
+	 * Sets the ids of the live characters having every token of a clause.
+	 */
+	private void match(List<String> clause, TextQuery query, BitSet matches) {
+		IntList[] lists = new IntList[clause.size()];
+		for (int i = 0; i < lists.length; i++) {
+			lists[i] = postings.get(clause.get(i));
+			if (lists[i] == null)
+				return;
+		}
+		// walk the shortest list, probing the others
+		Arrays.sort(lists, new Comparator<IntList>() {
+			@Override
+			public int compare(IntList a, IntList b) {
+				return Integer.compare(a.size, b.size);
+			}
+		});
+		IntList shortest = lists[0];
+		candidates:
+		for (int i = 0; i < shortest.size; i++) {
+			int id = shortest.values[i];
+			if (names[id] == null || query.isRankFiltered() && !inRange(id, query))
+				continue;
+			for (int j = 1; j < lists.length; j++)
+				if (!lists[j].containsSorted(id))
+					continue candidates;
+			matches.set(id);
+		}
+	}
+
+	private boolean inRange(int id, TextQuery query) {
+		int ranking = rankings[id];
+		return ranking != NOT_RANKED && ranking >= query.minRanking() && ranking <= query.maxRanking();
+	}
+
+	/**
+	 * Renumbers the live characters and drops dead ids from the posting lists.
+	 * Renumbering keeps the order of ids, so the lists stay sorted.
+	 */
+	private void compact() {
+		int[] renumbered = new int[nextId];
+		int live = 0;
+		for (int id = 0; id < nextId; id++) {
+			renumbered[id] = names[id] == null ? -1 : live;
+			if (names[id] != null) {
+				names[live] = names[id];
+				rankings[live] = rankings[id];
+				ids.put(names[live], live);
+				live++;
+			}
+		}
+		Arrays.fill(names, live, nextId, null);
+		nextId = live;
+
+		for (Iterator<IntList> it = postings.values().iterator(); it.hasNext();) {
+			IntList posting = it.next();
+			int kept = 0;
+			for (int i = 0; i < posting.size; i++) {
+				int id = renumbered[posting.values[i]];
+				if (id >= 0)
+					posting.values[kept++] = id;
+			}
+			posting.size = kept;
+			if (kept == 0)
+				it.remove();
+		}
+	}
+}
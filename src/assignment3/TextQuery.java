@@ -0,0 +1,153 @@
+package assignment3;
+
+import java.util.*;
+
+/**
+ * A full-text query over character descriptions, traits and powers.
+ * <p>
+ * A query is a list of clauses joined by OR; each clause is a list of
+ * terms that must all match. Matches can be limited to super characters
+ * with a power ranking in a given range.
+ * <p>
+ * Queries are usually parsed from text such as
+ * {@code "flying strong OR telepathy rank:7-10"}: words are ANDed, the
+ * word {@code OR} separates clauses, and {@code rank:n} or
+ * {@code rank:min-max} sets the ranking filter.
+ *
+ * @see CharacterDatabase#findCharacters(TextQuery)
+ *
+ * @author Ali Nawaz Maan
+ */
+public class TextQuery {
+	private final List<List<String>> clauses = new ArrayList<List<String>>();
+	private int minRanking = Integer.MIN_VALUE;
+	private int maxRanking = Integer.MAX_VALUE;
+	private boolean rankFiltered;
+
+	/**
+	 * Adds a clause, any of which may match.
+	 * @param terms Terms that must all match
+	 * @return This query
+	 */
+	public TextQuery or(String... terms) {
+		return or(Arrays.asList(terms));
+	}
+
+	/**
+	 * Adds a clause, any of which may match.
+	 * @param terms Terms that must all match
+	 * @return This query
+	 */
+	public TextQuery or(Collection<String> terms) {
+		List<String> tokens = new ArrayList<String>();
+		for (String term : terms)
+			tokens.addAll(tokens(term));
+		if (!tokens.isEmpty())
+			clauses.add(tokens);
+		return this;
+	}
+
+	/**
+	 * Limits matches to super characters ranked from min to max, inclusive.
+	 * @param min Lowest ranking to match
+	 * @param max Highest ranking to match
+	 * @return This query
+	 */
+	public TextQuery ranked(int min, int max) {
+		minRanking = min;
+		maxRanking = max;
+		rankFiltered = true;
+		return this;
+	}
+
+	/**
+	 * @return The clauses of the query, each a list of lower case tokens
+	 */
+	List<List<String>> clauses() {
+		return clauses;
+	}
+
+	/**
+	 * @return True if matches are limited by power ranking
+	 */
+	boolean isRankFiltered() {
+		return rankFiltered;
+	}
+
+	int minRanking() {
+		return minRanking;
+	}
+
+	int maxRanking() {
+		return maxRanking;
+	}
+
+	/**
+	 * Parses a query typed by the user.
+	 * @param text Query text
+	 * @return The parsed query
+	 * @throws IllegalArgumentException If a rank filter is not a number or range
+	 */
+	public static TextQuery parse(String text) {
+		TextQuery query = new TextQuery();
+		List<String> clause = new ArrayList<String>();
+		for (String word : text.trim().split("\\s+")) {
+			if (word.isEmpty() || word.equals("AND"))
+				continue;
+			if (word.equals("OR")) {
+				query.or(clause);
+				clause = new ArrayList<String>();
+			} else if (word.toLowerCase(Locale.ROOT).startsWith("rank:")) {
+				String range = word.substring(5);
+				int dash = range.indexOf('-', 1);
+				try {
+					int min = Integer.parseInt(dash < 0 ? range : range.substring(0, dash));
+					int max = dash < 0 ? min : Integer.parseInt(range.substring(dash + 1));
+					query.ranked(min, max);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Bad rank filter: " + word);
+				}
+			} else {
+				clause.add(word);
+			}
+		}
+		query.or(clause);
+		return query;
+	}
+
+	/**
+	 * Splits text into lower case tokens of letters and digits.
+	 * @param text Text to split
+	 * @return The tokens, in order
+	 */
+	static List<String> tokens(String text) {
+		List<String> tokens = new ArrayList<String>();
+		if (text == null)
+			return tokens;
+		String lower = text.toLowerCase(Locale.ROOT);
+		int start = -1;
+		for (int i = 0; i <= lower.length(); i++) {
+			boolean word = i < lower.length() && java.lang.Character.isLetterOrDigit(lower.charAt(i));
+			if (word && start < 0) {
+				start = i;
+			} else if (!word && start >= 0) {
+				tokens.add(lower.substring(start, i));
+				start = -1;
+			}
+		}
+		return tokens;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for (List<String> clause : clauses) {
+			if (result.length() > 0)
+				result.append(" OR ");
+			result.append(String.join(" ", clause));
+		}
+		if (rankFiltered)
+			result.append(" rank:").append(minRanking).append('-').append(maxRanking);
+		return result.toString();
+	}
+}